@@ -0,0 +1,670 @@
+/*
+ * Copyright 2015 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.webbluetoothcg.bletestperipheral;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattService;
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.UUID;
+
+import io.github.webbluetoothcg.bletestperipheral.adv.ManufacturerFrame;
+import io.github.webbluetoothcg.bletestperipheral.codec.CurrentTimeCodec;
+import io.github.webbluetoothcg.bletestperipheral.codec.HeartRateMeasurementCodec;
+import io.github.webbluetoothcg.bletestperipheral.codec.SampleBatchCodec;
+import io.github.webbluetoothcg.bletestperipheral.codec.TemperatureMeasurementCodec;
+import io.github.webbluetoothcg.bletestperipheral.gatt.CharacteristicHandler;
+import io.github.webbluetoothcg.bletestperipheral.gatt.Connection;
+import io.github.webbluetoothcg.bletestperipheral.gatt.GattHandlerRegistry;
+import io.github.webbluetoothcg.bletestperipheral.gatt.PreparedWriteQueue;
+import io.github.webbluetoothcg.bletestperipheral.gatt.RecordAccess;
+import io.github.webbluetoothcg.bletestperipheral.gatt.SampleBatcher;
+import io.github.webbluetoothcg.bletestperipheral.scheduler.TickScheduler;
+import io.github.webbluetoothcg.bletestperipheral.signal.RandomWalkGenerator;
+import io.github.webbluetoothcg.bletestperipheral.signal.SequenceGenerator;
+import io.github.webbluetoothcg.bletestperipheral.signal.SignalGenerator;
+import io.github.webbluetoothcg.bletestperipheral.signal.TraceFile;
+import io.github.webbluetoothcg.bletestperipheral.signal.TraceImporter;
+import io.github.webbluetoothcg.bletestperipheral.signal.TraceReplayGenerator;
+import io.github.webbluetoothcg.bletestperipheral.store.MeasurementLog;
+
+/**
+ * 演示设备的GATT模型: services、各characteristic的请求处理和传感器采样。
+ *
+ * 由{@link PeripheralService}创建并持有，与GATT server的生命周期相同，不依赖界面；
+ * 界面绑定{@link Listener}后得到变化通知，再通过getter读取最新值。
+ */
+public class CassiaDemoDevice {
+    private static final String TAG = CassiaDemoDevice.class.getCanonicalName();
+
+    // 发生变化的部分，Listener#onChanged的参数
+    public static final int CHANGED_HEART_RATE = 1;
+    public static final int CHANGED_TEMPERATURE = 1 << 1;
+    public static final int CHANGED_CURRENT_TIME = 1 << 2;
+    public static final int CHANGED_NEW_ALERT = 1 << 3;
+    public static final int CHANGED_ALL = CHANGED_HEART_RATE | CHANGED_TEMPERATURE
+            | CHANGED_CURRENT_TIME | CHANGED_NEW_ALERT;
+
+    /**
+     * 由持有GATT server的一方实现，发送notify和提供定时器。
+     */
+    public interface Host {
+        void sendNotificationToDevices(BluetoothGattCharacteristic characteristic);
+
+        // 只发给一个设备，characteristic的handler提供NotificationSource时按设备取值
+        void sendNotificationToDevice(BluetoothDevice device,
+                                      BluetoothGattCharacteristic characteristic);
+
+        // 发送一个采样，characteristic的handler提供批量编码时按各设备的MTU打包，否则同sendNotificationToDevices
+        void sendSampleToDevices(BluetoothGattCharacteristic characteristic, int sample);
+
+        // characteristic的采样日志，没有日志时返回null
+        MeasurementLog getMeasurementLog(BluetoothGattCharacteristic characteristic);
+
+        // 共享的定时器，传感器和广播更新都在同一个线程上按各自速率运行
+        TickScheduler getTickScheduler();
+    }
+
+    /**
+     * 界面监听，都在定时器线程或协议栈回调线程中调用，实现方自行切换到UI线程。
+     */
+    public interface Listener {
+        // changes为CHANGED_*的组合
+        void onChanged(int changes);
+
+        // 每个心率采样，图表按采样追加
+        void onHeartRateSample(int value);
+
+        // 设备订阅或取消订阅notify/indicate，mode为Connection.MODE_*
+        void onSubscriptionChanged(BluetoothDevice device, int mode);
+    }
+
+    private ArrayList<BluetoothGattService> mServices = new ArrayList<>();
+    private final GattHandlerRegistry mHandlerRegistry = new GattHandlerRegistry();
+
+    // 存储记录下载: 心率和体温service中各有一个RACP和records characteristic，读取各自的采样日志
+    private static final UUID RECORD_ACCESS_CONTROL_POINT_UUID = UUID.fromString("00002A52-0000-1000-8000-00805f9b34fb");
+    private static final UUID MEASUREMENT_RECORDS_UUID = UUID.fromString("1819ac01-5f4e-4a3b-9c2d-1e0f2a3b4c5d");
+
+    // Alert Notification Service
+    private static final UUID ALERT_NOTIFICATION_SERVICE_UUID = UUID.fromString("00001811-0000-1000-8000-00805f9b34fb");
+    private static final UUID NEW_ALERT_CHAR_UUID = UUID.fromString("00002A46-0000-1000-8000-00805f9b34fb");
+    // 短信最大长度: 类别(1) + 个数(1) + 文本，超过MTU-3时通过Prepared Write分段写入
+    private static final int NEW_ALERT_MAX_LENGTH = PreparedWriteQueue.MAX_ATTRIBUTE_LENGTH;
+    private static final String NEW_ALERT_DESCRIPTION = "Used to send SMS";
+
+    // New Alert Vars
+    private BluetoothGattCharacteristic mNewAlertChar;
+    private volatile byte[] mNewAlertCharValue = new byte[20]; // 默认为没有短信
+  /*
+  // New Alert要求返回的格式: https://www.bluetooth.com/wp-content/uploads/Sitecore-Media-Library/Gatt/Xml/Characteristics/org.bluetooth.characteristic.new_alert.xml
+  // 示例：050148656c6c6f2c20576f726c6421 -> Hello, World!
+  // [0]: categoryId
+  // [1]: numberOfNewAlert
+  // [2+]: utfs消息提示内容
+  //
+  struct org.bluetooth.characteristic.new_alert{
+    struct org.bluetooth.characteristic.alert_category_id {
+      uint8 categoryId; // 默认使用05，为SMS短信
+    };
+    uint8 numberOfNewAlert; // 默认使用01，暂认为只有1条
+    utf8s textStringInformation; // length [0, 18]
+  };
+   */
+
+    // Current Time Service
+    private static final UUID CURRENT_TIME_SERVICE_UUID = UUID.fromString("00001805-0000-1000-8000-00805f9b34fb");
+    private static final UUID CURRENT_TIME_CHAR_UUID = UUID.fromString("00002A2B-0000-1000-8000-00805f9b34fb");
+
+    // Current Time Vars
+    private BluetoothGattCharacteristic mCurrentTimeChar;
+    private volatile byte[] mCurrentTimeCharValue = new byte[CurrentTimeCodec.LENGTH];
+  /*
+  // Current Time Char 要求返回的时间格式
+  // 示例：2020/10/08 20:06:10 -> e4070a0814060a000000
+  // [0-1] year
+  // [2] month
+  // [3] day
+  // [4] hour
+  // [5] minute
+  // [6] second
+  // [7] dayOfWeek
+  // [8] fractions256
+  // [9] adjustReason
+  struct {
+    org.bluetooth.characteristic.exact_time_256 exactTime256 {
+      org.bluetooth.characteristic.day_date_time dayDateTime {
+        org.bluetooth.characteristic.date_time dateTime {
+          uint16 year;
+          uint8 month;
+          uint8 day;
+          uint8 hour;
+          uint8 minute;
+          uint8 second;
+        };
+        org.bluetooth.characteristic.day_of_week dayOfWeek {
+          uint8 dayOfWeek;
+        };
+      };
+      uint8 Fractions256;
+    };
+    uint8 adjustReason;
+  }
+  */
+
+    // HeartRate Service
+    private static final UUID HEART_RATE_SERVICE_UUID = UUID.fromString("0000180D-0000-1000-8000-00805f9b34fb");
+    private static final UUID HEART_RATE_MEASUREMENT_UUID = UUID.fromString("00002A37-0000-1000-8000-00805f9b34fb");
+    private static final String HEART_RATE_MEASUREMENT_DESCRIPTION = "Used to send a heart rate measurement";
+
+    // HeartRate vars
+    private BluetoothGattCharacteristic mHeartRateMeasurementCharacteristic;
+    private volatile int mHeartRateMeasurementValue = 60; // 实时心率
+    // 默认心率序列，循环输出
+    private static final int[] DEFAULT_HEART_RATE_SEQUENCE = new int[]{
+            82, 92, 91, 87, 87, 85, 85, 86, 87, 87, 84, 82, 83, 81, 84, 85, 84, 82, 83, 83,
+            81, 79, 80, 83, 85, 86, 85, 76, 78, 82, 85, 85, 83, 83, 84, 85, 85, 86, 86, 85,
+            83, 83, 84, 88, 85, 82, 83, 83, 84, 75, 79, 82, 86, 87, 84, 85, 84, 86, 86, 86,
+            85, 85, 86, 86, 83, 84, 85, 77, 81, 81, 83, 84, 86, 85, 83, 86, 89, 89, 87, 88,
+            87, 86, 85, 84, 82, 82, 82, 81, 78, 80, 83, 81, 81, 85, 87, 85, 84, 84, 83, 83,
+            84, 84, 85, 86, 85, 86, 87, 87, 85, 86, 84, 87, 85, 86, 88, 87, 86, 84, 85, 88
+    };
+    private volatile SignalGenerator mHeartRateGenerator =
+            new SequenceGenerator(DEFAULT_HEART_RATE_SEQUENCE);
+    private final HeartRateMeasurementCodec mHeartRateCodec = new HeartRateMeasurementCodec();
+
+    // 批量发送: 大MTU的设备一个notify携带多个心率采样，放在RR-interval字段中
+    private final HeartRateMeasurementCodec mHeartRateBatchCodec =
+            new HeartRateMeasurementCodec(PreparedWriteQueue.MAX_ATTRIBUTE_LENGTH);
+    private final SampleBatcher.Encoder mHeartRateBatchEncoder = new SampleBatcher.Encoder() {
+        @Override
+        public int capacity(int maxLength) {
+            // MTU 517时MTU - 3超过512，与encodeBatch按同样的上限计算，取出的采样不会被截断
+            return mHeartRateBatchCodec.getBatchCapacityFor(maxLength);
+        }
+
+        @Override
+        public byte[] encode(int[] samples, int offset, int count, int firstSequence,
+                             int maxLength) {
+            return mHeartRateBatchCodec.encodeBatch(samples, offset, count,
+                    /* energyExpended */ 0, maxLength);
+        }
+    };
+
+    // HealthThermometer Service
+    private static final UUID HEALTH_THERMOMETER_SERVICE_UUID = UUID.fromString("00001809-0000-1000-8000-00805f9b34fb");
+    private static final UUID TEMPERATURE_MEASUREMENT_UUID = UUID.fromString("00002A1C-0000-1000-8000-00805f9b34fb");
+    private static final String TEMPERATURE_MEASUREMENT_DESCRIPTION = "This characteristic is used to send a temperature measurement.";
+
+    // HealthThermometer vars
+    private BluetoothGattCharacteristic mTemperatureMeasurementCharacteristic;
+    private volatile int mTemperatureMeasurementValue = 3600; // 实时体温
+    // 默认体温: [36.60, 37.20]内的随机游走，单位0.01℃
+    private volatile SignalGenerator mTemperatureGenerator =
+            new RandomWalkGenerator(3660, 3720, 3690, 10, System.nanoTime());
+    private final TemperatureMeasurementCodec mTemperatureCodec = new TemperatureMeasurementCodec();
+    // 批量发送: 单个采样仍是标准的Temperature Measurement，积攒了多个采样时使用vendor帧
+    private final TemperatureMeasurementCodec mTemperatureBatchCodec = new TemperatureMeasurementCodec();
+    private final SampleBatchCodec mTemperatureVendorCodec = new SampleBatchCodec();
+    private final SampleBatcher.Encoder mTemperatureBatchEncoder = new SampleBatcher.Encoder() {
+        @Override
+        public int capacity(int maxLength) {
+            return Math.max(1, SampleBatchCodec.getCapacity(maxLength));
+        }
+
+        @Override
+        public byte[] encode(int[] samples, int offset, int count, int firstSequence,
+                             int maxLength) {
+            if (count == 1) {
+                return mTemperatureBatchCodec.encodeCelsiusHundredths(samples[offset]);
+            }
+            return mTemperatureVendorCodec.encode(samples, offset, count, firstSequence);
+        }
+    };
+
+
+    // 录制数据回放: 应用外部文件目录下的heart_rate.csv(bpm)、temperature.csv(℃)，
+    // 首次使用时转换为同名.trace二进制文件，之后直接内存映射回放
+    private static final String TRACE_HEART_RATE = "heart_rate";
+    private static final String TRACE_TEMPERATURE = "temperature";
+    private TraceFile mHeartRateTrace;
+    private TraceFile mTemperatureTrace;
+
+    // 各传感器的采样周期: 心率4Hz，体温0.2Hz
+    private static final long HEART_RATE_TICK_PERIOD_MS = 250;
+    private static final long TEMPERATURE_TICK_PERIOD_MS = 5000;
+
+    // 公共组件
+    private TickScheduler.Task mHeartRateTask; // 定时器用于更新数据
+    private TickScheduler.Task mTemperatureTask;
+    private final Context mContext;
+    private final Host mHost;
+    private volatile Listener mListener;
+    private boolean mStopped; // 在this锁内访问
+    // 广播中的manufacturer data帧，PeripheralService创建后绑定
+    private volatile ManufacturerFrame mAdvFrame;
+
+    // Alert Notification Service初始化
+    public void createAlertNotification() {
+        mNewAlertChar = new BluetoothGattCharacteristic(NEW_ALERT_CHAR_UUID,
+                BluetoothGattCharacteristic.PROPERTY_WRITE | BluetoothGattCharacteristic.PROPERTY_NOTIFY,
+                BluetoothGattCharacteristic.PERMISSION_WRITE);
+        mNewAlertChar.addDescriptor(
+                PeripheralService.getClientCharacteristicConfigurationDescriptor());
+        //mNewAlertChar.addDescriptor(
+        //        PeripheralService.getCharacteristicUserDescriptionDescriptor(NEW_ALERT_DESCRIPTION));
+        mNewAlertChar.setValue(mNewAlertCharValue);
+        BluetoothGattService alertNotificationService = new BluetoothGattService(ALERT_NOTIFICATION_SERVICE_UUID,
+                BluetoothGattService.SERVICE_TYPE_PRIMARY);
+        alertNotificationService.addCharacteristic(mNewAlertChar);
+        mServices.add(alertNotificationService);
+        mHandlerRegistry.register(mNewAlertChar, new SubscriptionHandler() {
+            @Override
+            public int onWrite(BluetoothDevice device, BluetoothGattCharacteristic characteristic,
+                               int offset, byte[] value) {
+                if (offset != 0) {
+                    return BluetoothGatt.GATT_INVALID_OFFSET;
+                }
+                return gattSetNewAlert(value);
+            }
+
+            @Override
+            public int validateWrite(BluetoothDevice device,
+                                     BluetoothGattCharacteristic characteristic, byte[] value) {
+                return checkNewAlert(value);
+            }
+
+            // 长短信通过Prepared Write分段写入，Execute Write时整体调用onWrite
+            @Override
+            public int getMaxWriteLength() {
+                return NEW_ALERT_MAX_LENGTH;
+            }
+        });
+    }
+
+    // Current Time Service初始化
+    public void createCurrentTimeService() {
+        // TODO: notify是否需要补充增加，按照SIG的定义notify属性是必须要定义的
+        mCurrentTimeChar = new BluetoothGattCharacteristic(CURRENT_TIME_CHAR_UUID,
+                BluetoothGattCharacteristic.PROPERTY_READ | BluetoothGattCharacteristic.PROPERTY_WRITE,
+                BluetoothGattCharacteristic.PERMISSION_READ_ENCRYPTED_MITM | BluetoothGattCharacteristic.PERMISSION_WRITE);
+        mCurrentTimeChar.setValue(mCurrentTimeCharValue);
+        BluetoothGattService currentTimeService = new BluetoothGattService(CURRENT_TIME_SERVICE_UUID,
+                BluetoothGattService.SERVICE_TYPE_PRIMARY);
+        currentTimeService.addCharacteristic(mCurrentTimeChar);
+        mServices.add(currentTimeService);
+        mHandlerRegistry.register(mCurrentTimeChar, new CharacteristicHandler() {
+            @Override
+            public int onWrite(BluetoothDevice device, BluetoothGattCharacteristic characteristic,
+                               int offset, byte[] value) {
+                if (offset != 0) {
+                    return BluetoothGatt.GATT_INVALID_OFFSET;
+                }
+                return gattSetCurrentTimeValue(value);
+            }
+        });
+    }
+
+    // Temperature Service初始化
+    public void createHealthThermometerService() {
+        mTemperatureMeasurementCharacteristic = new BluetoothGattCharacteristic(TEMPERATURE_MEASUREMENT_UUID,
+                BluetoothGattCharacteristic.PROPERTY_INDICATE, 0);
+        mTemperatureMeasurementCharacteristic.addDescriptor(
+                PeripheralService.getClientCharacteristicConfigurationDescriptor());
+        //mTemperatureMeasurementCharacteristic.addDescriptor(
+        //        PeripheralService.getCharacteristicUserDescriptionDescriptor(TEMPERATURE_MEASUREMENT_DESCRIPTION));
+        BluetoothGattService healthThermometerService = new BluetoothGattService(HEALTH_THERMOMETER_SERVICE_UUID,
+                BluetoothGattService.SERVICE_TYPE_PRIMARY);
+        healthThermometerService.addCharacteristic(mTemperatureMeasurementCharacteristic);
+        addRecordAccess(healthThermometerService, mTemperatureMeasurementCharacteristic);
+        mServices.add(healthThermometerService);
+        mHandlerRegistry.register(mTemperatureMeasurementCharacteristic, new SubscriptionHandler() {
+            @Override
+            public SampleBatcher.Encoder getBatchEncoder() {
+                return mTemperatureBatchEncoder;
+            }
+        });
+    }
+
+    // HeartRate Service初始化
+    public void createHeartRateService() {
+        mHeartRateMeasurementCharacteristic = new BluetoothGattCharacteristic(HEART_RATE_MEASUREMENT_UUID,
+                BluetoothGattCharacteristic.PROPERTY_NOTIFY, /* No permissions */ 0);
+        mHeartRateMeasurementCharacteristic.addDescriptor(
+                PeripheralService.getClientCharacteristicConfigurationDescriptor());
+        //mHeartRateMeasurementCharacteristic.addDescriptor(
+        //        PeripheralService.getCharacteristicUserDescriptionDescriptor(HEART_RATE_MEASUREMENT_DESCRIPTION));
+        BluetoothGattService heartRateService = new BluetoothGattService(HEART_RATE_SERVICE_UUID,
+                BluetoothGattService.SERVICE_TYPE_PRIMARY);
+        heartRateService.addCharacteristic(mHeartRateMeasurementCharacteristic);
+        addRecordAccess(heartRateService, mHeartRateMeasurementCharacteristic);
+        mServices.add(heartRateService);
+        mHandlerRegistry.register(mHeartRateMeasurementCharacteristic, new SubscriptionHandler() {
+            @Override
+            public SampleBatcher.Encoder getBatchEncoder() {
+                return mHeartRateBatchEncoder;
+            }
+        });
+    }
+
+    // 给传感器service增加RACP和records characteristic，下载measurement的采样日志
+    private void addRecordAccess(BluetoothGattService service,
+                                 final BluetoothGattCharacteristic measurement) {
+        BluetoothGattCharacteristic controlPoint = new BluetoothGattCharacteristic(RECORD_ACCESS_CONTROL_POINT_UUID,
+                BluetoothGattCharacteristic.PROPERTY_WRITE | BluetoothGattCharacteristic.PROPERTY_INDICATE,
+                BluetoothGattCharacteristic.PERMISSION_WRITE);
+        controlPoint.addDescriptor(
+                PeripheralService.getClientCharacteristicConfigurationDescriptor());
+        BluetoothGattCharacteristic records = new BluetoothGattCharacteristic(MEASUREMENT_RECORDS_UUID,
+                BluetoothGattCharacteristic.PROPERTY_NOTIFY, /* No permissions */ 0);
+        records.addDescriptor(
+                PeripheralService.getClientCharacteristicConfigurationDescriptor());
+        service.addCharacteristic(controlPoint);
+        service.addCharacteristic(records);
+        RecordAccess recordAccess = new RecordAccess(controlPoint, records, new RecordAccess.Host() {
+            @Override
+            public MeasurementLog getLog() {
+                return mHost.getMeasurementLog(measurement);
+            }
+
+            @Override
+            public void send(BluetoothDevice device, BluetoothGattCharacteristic characteristic) {
+                mHost.sendNotificationToDevice(device, characteristic);
+            }
+        });
+        mHandlerRegistry.register(controlPoint, recordAccess.getControlPointHandler());
+        mHandlerRegistry.register(records, recordAccess.getRecordsHandler());
+    }
+
+    public CassiaDemoDevice(Context context, Host host) {
+        mContext = context;
+        mHost = host;
+        createCurrentTimeService();
+        createHeartRateService();
+        createHealthThermometerService();
+        createAlertNotification();
+    }
+
+    // GATT设置心率: 编码到预分配的帧，setValue只保存引用，不分配内存
+    private void gattSetHeartRateMeasurementValue(int value) {
+        mHeartRateMeasurementCharacteristic.setValue(
+                mHeartRateCodec.encode(value, /* energyExpended */ 0));
+    }
+
+    // GATT设置温度
+    private void gattSetTemperatureMeasurementValue(int temperatureMeasurementValue) {
+        // 点乘以10N次方，3600 * 10 ^ -2 = 36.00
+        mTemperatureMeasurementCharacteristic.setValue(
+                mTemperatureCodec.encodeCelsiusHundredths(temperatureMeasurementValue));
+    }
+
+    // GATT设置时间: 设置值 -> 通知界面
+    private int gattSetCurrentTimeValue(byte[] value) {
+        if (!CurrentTimeCodec.isValidLength(value)) {
+            return BluetoothGatt.GATT_INVALID_ATTRIBUTE_LENGTH; // 长度不足
+        }
+        mCurrentTimeCharValue = value; // 每次请求都是新数组，直接替换引用
+        mCurrentTimeChar.setValue(value);
+        notifyChanged(CHANGED_CURRENT_TIME);
+        return BluetoothGatt.GATT_SUCCESS;
+    }
+
+    // GATT设置当前短信: 设置值 -> 通知界面 -> 发送notify
+    private static int checkNewAlert(byte[] value) {
+        if (value.length > NEW_ALERT_MAX_LENGTH || value.length < 3) {
+            return BluetoothGatt.GATT_INVALID_ATTRIBUTE_LENGTH; // 无效长度
+        }
+        return BluetoothGatt.GATT_SUCCESS;
+    }
+
+    private int gattSetNewAlert(byte[] value) {
+        int status = checkNewAlert(value);
+        if (status != BluetoothGatt.GATT_SUCCESS) {
+            return status;
+        }
+        mNewAlertCharValue = value;
+        mNewAlertChar.setValue(value);
+        notifyChanged(CHANGED_NEW_ALERT);
+        mHost.sendNotificationToDevices(mNewAlertChar); // notify上报数据，只发给已订阅的设备
+        return BluetoothGatt.GATT_SUCCESS;
+    }
+
+    // 替换心率信号源，下一个tick生效；使用固定种子的信号源可以复现同样的数据
+    public void setHeartRateGenerator(SignalGenerator generator) {
+        mHeartRateGenerator = generator;
+    }
+
+    // 替换体温信号源(单位0.01℃)，下一个tick生效
+    public void setTemperatureGenerator(SignalGenerator generator) {
+        mTemperatureGenerator = generator;
+    }
+
+    // 后台线程导入/映射录制数据，找到后替换默认信号源；没有录制数据时继续使用模拟数据
+    private void loadRecordedTraces() {
+        File dir = mContext.getExternalFilesDir(null);
+        if (dir == null) {
+            dir = mContext.getFilesDir();
+        }
+        final File traceDir = dir;
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                TraceFile heartRate = openTrace(traceDir, TRACE_HEART_RATE, 1,
+                        (int) HEART_RATE_TICK_PERIOD_MS);
+                TraceFile temperature = openTrace(traceDir, TRACE_TEMPERATURE, 100,
+                        (int) TEMPERATURE_TICK_PERIOD_MS);
+                synchronized (CassiaDemoDevice.this) {
+                    if (mStopped) {
+                        closeTrace(heartRate);
+                        closeTrace(temperature);
+                        return;
+                    }
+                    if (heartRate != null) {
+                        mHeartRateTrace = heartRate;
+                        setHeartRateGenerator(
+                                new TraceReplayGenerator(heartRate, HEART_RATE_TICK_PERIOD_MS));
+                    }
+                    if (temperature != null) {
+                        mTemperatureTrace = temperature;
+                        setTemperatureGenerator(
+                                new TraceReplayGenerator(temperature, TEMPERATURE_TICK_PERIOD_MS));
+                    }
+                }
+            }
+        }, "TraceLoader").start();
+    }
+
+    // CSV比.trace新时重新导入
+    private static TraceFile openTrace(File dir, String name, double scale,
+                                       int defaultIntervalMillis) {
+        File csv = new File(dir, name + ".csv");
+        File trace = new File(dir, name + ".trace");
+        try {
+            if (csv.exists() && (!trace.exists() || csv.lastModified() > trace.lastModified())) {
+                BufferedReader in = new BufferedReader(new FileReader(csv));
+                try {
+                    long count = TraceImporter.importCsv(in, trace, scale, defaultIntervalMillis);
+                    Log.i(TAG, "Imported " + count + " samples from " + csv);
+                } finally {
+                    in.close();
+                }
+            }
+            return trace.exists() ? TraceFile.open(trace) : null;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to load trace " + name, e);
+            return null;
+        }
+    }
+
+    private static void closeTrace(TraceFile trace) {
+        if (trace != null) {
+            try {
+                trace.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to close trace", e);
+            }
+        }
+    }
+
+    // 心率定时器处理: 生成采样 -> gatt更新 -> 通知界面 -> 发送通知
+    private void heartRateTimerHandler() {
+        mHeartRateMeasurementValue = mHeartRateGenerator.next();
+        ManufacturerFrame advFrame = mAdvFrame;
+        if (advFrame != null) {
+            advFrame.setHeartRate(mHeartRateMeasurementValue);
+        }
+        gattSetHeartRateMeasurementValue(mHeartRateMeasurementValue);
+        Listener listener = mListener;
+        if (listener != null) {
+            listener.onHeartRateSample(mHeartRateMeasurementValue);
+            listener.onChanged(CHANGED_HEART_RATE);
+        }
+        // notify上报数据，只发给已订阅的设备，按各设备的MTU批量发送
+        mHost.sendSampleToDevices(mHeartRateMeasurementCharacteristic, mHeartRateMeasurementValue);
+    }
+
+    // 体温定时器处理：生成采样 -> gatt更新 -> 通知界面 -> 发送通知
+    private void temperatureTimerHandler() {
+        mTemperatureMeasurementValue = mTemperatureGenerator.next();
+        ManufacturerFrame advFrame = mAdvFrame;
+        if (advFrame != null) {
+            advFrame.setTemperature(mTemperatureMeasurementValue);
+        }
+        gattSetTemperatureMeasurementValue(mTemperatureMeasurementValue);
+        notifyChanged(CHANGED_TEMPERATURE);
+        // indicate上报数据，只发给已订阅的设备，按各设备的MTU批量发送
+        mHost.sendSampleToDevices(mTemperatureMeasurementCharacteristic, mTemperatureMeasurementValue);
+    }
+
+    // 心率每250毫秒、体温每5秒更新一次，共用host提供的定时器线程
+    // 定时器方式更新心率、体温数据并Notify发送
+    private void startDataUpdateTimer() {
+        TickScheduler scheduler = mHost.getTickScheduler();
+        mHeartRateTask = scheduler.schedule("heartRate", 0 /* delay */,
+                HEART_RATE_TICK_PERIOD_MS, new Runnable() {
+            @Override
+            public void run() {
+                heartRateTimerHandler();
+            }
+        });
+        mTemperatureTask = scheduler.schedule("temperature", 0 /* delay */,
+                TEMPERATURE_TICK_PERIOD_MS, new Runnable() {
+            @Override
+            public void run() {
+                temperatureTimerHandler();
+            }
+        });
+    }
+
+    private void cancelTimer() {
+        if (mHeartRateTask != null) {
+            mHeartRateTask.cancel();
+            mHeartRateTask = null;
+        }
+        if (mTemperatureTask != null) {
+            mTemperatureTask.cancel();
+            mTemperatureTask = null;
+        }
+    }
+
+    // 订阅状态变化时通知界面，订阅状态本身由host按设备记录
+    private class SubscriptionHandler extends CharacteristicHandler {
+        @Override
+        public void onSubscriptionChanged(BluetoothDevice device,
+                                          BluetoothGattCharacteristic characteristic, int mode) {
+            Listener listener = mListener;
+            if (listener != null) {
+                listener.onSubscriptionChanged(device, mode);
+            }
+        }
+    }
+
+    private void notifyChanged(int changes) {
+        Listener listener = mListener;
+        if (listener != null) {
+            listener.onChanged(changes);
+        }
+    }
+
+    // 开始采样，并在后台加载录制数据
+    public void start() {
+        startDataUpdateTimer();
+        loadRecordedTraces();
+    }
+
+    // 停止采样，之后不再使用
+    public void stop() {
+        cancelTimer();
+        synchronized (this) {
+            mStopped = true;
+            // 定时任务已取消，不会再读取映射的数据
+            closeTrace(mHeartRateTrace);
+            closeTrace(mTemperatureTrace);
+            mHeartRateTrace = null;
+            mTemperatureTrace = null;
+        }
+    }
+
+    // 界面绑定时设置，解绑时设为null
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    // 获取设备所有的services
+    public BluetoothGattService[] getBluetoothGattServices() {
+        return mServices.toArray(new BluetoothGattService[mServices.size()]);
+    }
+
+    // 获取characteristic/descriptor的请求处理映射，创建services时建立
+    public GattHandlerRegistry getHandlerRegistry() {
+        return mHandlerRegistry;
+    }
+
+    // 绑定广播中的manufacturer data帧，之后每个采样写入帧，由广播定时器在同一定时器线程中编码推送
+    public void bindAdvertisingFrame(ManufacturerFrame frame) {
+        frame.setHeartRate(mHeartRateMeasurementValue);
+        frame.setTemperature(mTemperatureMeasurementValue);
+        mAdvFrame = frame;
+    }
+
+    public int getHeartRate() {
+        return mHeartRateMeasurementValue;
+    }
+
+    // 单位0.01℃
+    public int getTemperature() {
+        return mTemperatureMeasurementValue;
+    }
+
+    // Current Time characteristic的值，每次写入都替换为新数组，调用方不应修改
+    public byte[] getCurrentTime() {
+        return mCurrentTimeCharValue;
+    }
+
+    // New Alert characteristic的值，调用方不应修改
+    public byte[] getNewAlert() {
+        return mNewAlertCharValue;
+    }
+}
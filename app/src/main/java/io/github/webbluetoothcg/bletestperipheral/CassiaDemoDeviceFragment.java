@@ -17,226 +17,66 @@
 package io.github.webbluetoothcg.bletestperipheral;
 
 import android.app.Activity;
-import android.bluetooth.BluetoothGatt;
-import android.bluetooth.BluetoothGattCharacteristic;
-import android.bluetooth.BluetoothGattService;
-import android.bluetooth.le.AdvertiseData;
+import android.bluetooth.BluetoothDevice;
 import android.graphics.Color;
 import android.graphics.DashPathEffect;
 import android.os.Bundle;
-import android.os.ParcelUuid;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.EditText;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.UUID;
-
 import com.biansemao.widget.ThermometerView;
 import com.github.mikephil.charting.charts.LineChart;
 import com.github.mikephil.charting.components.XAxis;
 import com.github.mikephil.charting.components.YAxis;
 import com.github.mikephil.charting.data.LineDataSet;
-import com.github.mikephil.charting.data.Entry;
-import com.github.mikephil.charting.data.LineData;
-
-public class CassiaDemoDeviceFragment extends ServiceFragment {
-    private static final String TAG = CassiaDemoDeviceFragment.class.getCanonicalName();
-
-    private ArrayList<BluetoothGattService> mServices = new ArrayList<>();
-
-    // Alert Notification Service UI
-    private TextView viewNewAlert;
 
-    // Alert Notification Service
-    private static final UUID ALERT_NOTIFICATION_SERVICE_UUID = UUID.fromString("00001811-0000-1000-8000-00805f9b34fb");
-    private static final UUID NEW_ALERT_CHAR_UUID = UUID.fromString("00002A46-0000-1000-8000-00805f9b34fb");
-    private static final String NEW_ALERT_DESCRIPTION = "Used to send SMS";
+import io.github.webbluetoothcg.bletestperipheral.codec.CurrentTimeCodec;
+import io.github.webbluetoothcg.bletestperipheral.codec.NewAlertCodec;
+import io.github.webbluetoothcg.bletestperipheral.gatt.Connection;
+import io.github.webbluetoothcg.bletestperipheral.ui.LiveLineChart;
+import io.github.webbluetoothcg.bletestperipheral.ui.RingBufferEntryList;
+import io.github.webbluetoothcg.bletestperipheral.ui.UiStatePublisher;
 
-    // New Alert Vars
-    private BluetoothGattCharacteristic mNewAlertChar;
-    private byte[] mNewAlertCharValue = new byte[20]; // 默认为没有短信
-    private boolean mNewAlertNotifyOn = false; // notify开关
-  /*
-  // New Alert要求返回的格式: https://www.bluetooth.com/wp-content/uploads/Sitecore-Media-Library/Gatt/Xml/Characteristics/org.bluetooth.characteristic.new_alert.xml
-  // 示例：050148656c6c6f2c20576f726c6421 -> Hello, World!
-  // [0]: categoryId
-  // [1]: numberOfNewAlert
-  // [2+]: utfs消息提示内容
-  //
-  struct org.bluetooth.characteristic.new_alert{
-    struct org.bluetooth.characteristic.alert_category_id {
-      uint8 categoryId; // 默认使用05，为SMS短信
-    };
-    uint8 numberOfNewAlert; // 默认使用01，暂认为只有1条
-    utf8s textStringInformation; // length [0, 18]
-  };
-   */
-
-    // Alert Notification Service UI
-    private TextView viewCurrentTime;
-    private TextView viewConnected;
-
-    // Current Time Service
-    private static final UUID CURRENT_TIME_SERVICE_UUID = UUID.fromString("00001805-0000-1000-8000-00805f9b34fb");
-    private static final UUID CURRENT_TIME_CHAR_UUID = UUID.fromString("00002A2B-0000-1000-8000-00805f9b34fb");
+// 只负责显示，GATT模型和传感器采样在PeripheralService持有的CassiaDemoDevice中
+public class CassiaDemoDeviceFragment extends ServiceFragment {
+    private static final int HEART_RATE_CHART_CAPACITY = 120; // 图表显示的点数
 
-    // Current Time Vars
-    private BluetoothGattCharacteristic mCurrentTimeChar;
-    private byte[] mCurrentTimeCharValue = new byte[10];
-  /*
-  // Current Time Char 要求返回的时间格式
-  // 示例：2020/10/08 20:06:10 -> e4070a0814060a000000
-  // [0-1] year
-  // [2] month
-  // [3] day
-  // [4] hour
-  // [5] minute
-  // [6] second
-  // [7] dayOfWeek
-  // [8] fractions256
-  // [9] adjustReason
-  struct {
-    org.bluetooth.characteristic.exact_time_256 exactTime256 {
-      org.bluetooth.characteristic.day_date_time dayDateTime {
-        org.bluetooth.characteristic.date_time dateTime {
-          uint16 year;
-          uint8 month;
-          uint8 day;
-          uint8 hour;
-          uint8 minute;
-          uint8 second;
-        };
-        org.bluetooth.characteristic.day_of_week dayOfWeek {
-          uint8 dayOfWeek;
-        };
-      };
-      uint8 Fractions256;
-    };
-    uint8 adjustReason;
-  }
-  */
+    // 界面状态变化标记，后台线程更新状态后publish，UI线程每帧统一刷新
+    // 低位与CassiaDemoDevice.CHANGED_*相同
+    private static final int UI_HEART_RATE = CassiaDemoDevice.CHANGED_HEART_RATE;
+    private static final int UI_TEMPERATURE = CassiaDemoDevice.CHANGED_TEMPERATURE;
+    private static final int UI_CURRENT_TIME = CassiaDemoDevice.CHANGED_CURRENT_TIME;
+    private static final int UI_NEW_ALERT = CassiaDemoDevice.CHANGED_NEW_ALERT;
+    private static final int UI_CONNECTED = 1 << 4;
 
-    // HeartRate Service UI
+    // 控件
     private TextView viewHeartRateMeasurement;
-
-    // HeartRate Service
-    private static final UUID HEART_RATE_SERVICE_UUID = UUID.fromString("0000180D-0000-1000-8000-00805f9b34fb");
-    private static final UUID HEART_RATE_MEASUREMENT_UUID = UUID.fromString("00002A37-0000-1000-8000-00805f9b34fb");
-    private static final String HEART_RATE_MEASUREMENT_DESCRIPTION = "Used to send a heart rate measurement";
-    private static final int HEART_RATE_MEASUREMENT_VALUE_FORMAT = BluetoothGattCharacteristic.FORMAT_UINT8;
-
-    // HeartRate vars
-    private BluetoothGattCharacteristic mHeartRateMeasurementCharacteristic;
-    private boolean mHeartRateMeasurementNotifyOn = false; // 测量notify开关
-    private int mHeartRateMeasurementValue = 60; // 实时心率
-    private int[] heartRateArray;
-    private int heartRateArrayIndex = 0;
-
-    // HealthThermometer UI
     private ThermometerView viewTemperatureMeasurement;
+    private TextView viewCurrentTime;
+    private TextView viewNewAlert;
+    private TextView viewConnected;
     private LineChart viewHeartRateChart;
-    List<Entry> viewHeartRateChartEntries;
-    public long viewHeartRateCounter;
-
-    // HealthThermometer Service
-    private static final UUID HEALTH_THERMOMETER_SERVICE_UUID = UUID.fromString("00001809-0000-1000-8000-00805f9b34fb");
-    private static final UUID TEMPERATURE_MEASUREMENT_UUID = UUID.fromString("00002A1C-0000-1000-8000-00805f9b34fb");
-    private static final String TEMPERATURE_MEASUREMENT_DESCRIPTION = "This characteristic is used to send a temperature measurement.";
-
-    // HealthThermometer vars
-    private BluetoothGattCharacteristic mTemperatureMeasurementCharacteristic;
-    private boolean mTemperatureMeasurementNotifyOn = false; // 测量notify开关
-    private int mTemperatureMeasurementValue = 3600; // 实时体温
+    private LiveLineChart mHeartRateChart;
 
-
-    // 公共组件
-    private Timer mTimer; // 定时器用于更新数据
-    private ServiceFragmentDelegate mDelegate;
-
-    // Alert Notification Service初始化
-    public void createAlertNotification() {
-        mNewAlertChar = new BluetoothGattCharacteristic(NEW_ALERT_CHAR_UUID,
-                BluetoothGattCharacteristic.PROPERTY_WRITE | BluetoothGattCharacteristic.PROPERTY_NOTIFY,
-                BluetoothGattCharacteristic.PERMISSION_WRITE);
-        mNewAlertChar.addDescriptor(
-                Peripheral.getClientCharacteristicConfigurationDescriptor());
-        //mNewAlertChar.addDescriptor(
-        //        Peripheral.getCharacteristicUserDescriptionDescriptor(NEW_ALERT_DESCRIPTION));
-        mNewAlertChar.setValue(mNewAlertCharValue);
-        BluetoothGattService alertNotificationService = new BluetoothGattService(ALERT_NOTIFICATION_SERVICE_UUID,
-                BluetoothGattService.SERVICE_TYPE_PRIMARY);
-        alertNotificationService.addCharacteristic(mNewAlertChar);
-        mServices.add(alertNotificationService);
-    }
-
-    // Current Time Service初始化
-    public void createCurrentTimeService() {
-        // TODO: notify是否需要补充增加，按照SIG的定义notify属性是必须要定义的
-        mCurrentTimeChar = new BluetoothGattCharacteristic(CURRENT_TIME_CHAR_UUID,
-                BluetoothGattCharacteristic.PROPERTY_READ | BluetoothGattCharacteristic.PROPERTY_WRITE,
-                BluetoothGattCharacteristic.PERMISSION_READ_ENCRYPTED_MITM | BluetoothGattCharacteristic.PERMISSION_WRITE);
-        mCurrentTimeChar.setValue(mCurrentTimeCharValue);
-        BluetoothGattService currentTimeService = new BluetoothGattService(CURRENT_TIME_SERVICE_UUID,
-                BluetoothGattService.SERVICE_TYPE_PRIMARY);
-        currentTimeService.addCharacteristic(mCurrentTimeChar);
-        mServices.add(currentTimeService);
-    }
-
-    // Temperature Service初始化
-    public void createHealthThermometerService() {
-        mTemperatureMeasurementCharacteristic = new BluetoothGattCharacteristic(TEMPERATURE_MEASUREMENT_UUID,
-                BluetoothGattCharacteristic.PROPERTY_INDICATE, 0);
-        mTemperatureMeasurementCharacteristic.addDescriptor(
-                Peripheral.getClientCharacteristicConfigurationDescriptor());
-        //mTemperatureMeasurementCharacteristic.addDescriptor(
-        //        Peripheral.getCharacteristicUserDescriptionDescriptor(TEMPERATURE_MEASUREMENT_DESCRIPTION));
-        BluetoothGattService healthThermometerService = new BluetoothGattService(HEALTH_THERMOMETER_SERVICE_UUID,
-                BluetoothGattService.SERVICE_TYPE_PRIMARY);
-        healthThermometerService.addCharacteristic(mTemperatureMeasurementCharacteristic);
-        mServices.add(healthThermometerService);
-    }
-
-    // HeartRate Service初始化
-    public void createHeartRateService() {
-        mHeartRateMeasurementCharacteristic = new BluetoothGattCharacteristic(HEART_RATE_MEASUREMENT_UUID,
-                BluetoothGattCharacteristic.PROPERTY_NOTIFY, /* No permissions */ 0);
-        mHeartRateMeasurementCharacteristic.addDescriptor(
-                Peripheral.getClientCharacteristicConfigurationDescriptor());
-        //mHeartRateMeasurementCharacteristic.addDescriptor(
-        //        Peripheral.getCharacteristicUserDescriptionDescriptor(HEART_RATE_MEASUREMENT_DESCRIPTION));
-        BluetoothGattService heartRateService = new BluetoothGattService(HEART_RATE_SERVICE_UUID,
-                BluetoothGattService.SERVICE_TYPE_PRIMARY);
-        heartRateService.addCharacteristic(mHeartRateMeasurementCharacteristic);
-        mServices.add(heartRateService);
-    }
-
-    // 构造函数
-    public CassiaDemoDeviceFragment() {
-        createCurrentTimeService();
-        createHeartRateService();
-        createHealthThermometerService();
-        createAlertNotification();
-    }
+    private final CurrentTimeCodec.Value mCurrentTime = new CurrentTimeCodec.Value(); // UI解码用
+    private final StringBuilder mCurrentTimeText = new StringBuilder(19);
+    private volatile UiStatePublisher mUiPublisher;
+    private volatile String mConnectedText = "";
+    // 绑定期间的设备模型，没有绑定时为null
+    private volatile CassiaDemoDevice mDevice;
 
     public void createHeartRateChart() {
-        viewHeartRateChartEntries = new ArrayList<Entry>();
-        viewHeartRateCounter = 0;
-        LineDataSet dataSet = new LineDataSet(viewHeartRateChartEntries, "");
+        // LineDataSet/LineData只创建一次，数据在环形缓冲区中原地更新
+        RingBufferEntryList entries = new RingBufferEntryList(HEART_RATE_CHART_CAPACITY);
+        LineDataSet dataSet = new LineDataSet(entries, "");
         dataSet.setDrawValues(false);
         dataSet.setDrawCircles(false);
         dataSet.setColor(Color.parseColor("#ffff696a"));
         dataSet.setLineWidth(2);
-        LineData lineData = new LineData(dataSet);
-        viewHeartRateChart.setData(lineData);
+        mHeartRateChart = new LiveLineChart(viewHeartRateChart, entries, dataSet);
 
         viewHeartRateChart.getLegend().setEnabled(false);
         viewHeartRateChart.getDescription().setEnabled(false);
@@ -261,27 +101,25 @@ public class CassiaDemoDeviceFragment extends ServiceFragment {
         leftYAxis.setZeroLineColor(Color.parseColor("#ffbebebe"));
     }
 
-    public void updateHeartRateChart(long timestamp, int heartrate) {
-        if (viewHeartRateChartEntries.size() > 120) {
-            viewHeartRateChartEntries.remove(0);
+    // 任意线程调用，UI线程每帧最多重绘一次
+    public void updateHeartRateChart(int heartrate) {
+        if (mHeartRateChart != null) {
+            mHeartRateChart.addSample(heartrate);
+        }
+    }
+
+    // 任意线程调用，标记界面需要刷新的部分
+    private void publishUi(int flags) {
+        UiStatePublisher publisher = mUiPublisher;
+        if (publisher != null) {
+            publisher.publish(flags);
         }
-        viewHeartRateChartEntries.add(new Entry(viewHeartRateCounter++, heartrate));
-        LineDataSet dataSet = new LineDataSet(viewHeartRateChartEntries, "");
-        dataSet.setDrawValues(false);
-        dataSet.setDrawCircles(false);
-        dataSet.setColor(Color.parseColor("#ffff696a"));
-        dataSet.setLineWidth(2);
-        LineData lineData = new LineData(dataSet);
-        viewHeartRateChart.setData(lineData);
-        viewHeartRateChart.notifyDataSetChanged();
-        viewHeartRateChart.invalidate(); // refresh
     }
 
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container,
                              Bundle savedInstanceState) {
 
-        heartRateArray = new int[]{82,92,91,87,87,85,85,86,87,87,84,82,83,81,84,85,84,82,83,83,81,79,80,83,85,86,85,76,78,82,85,85,83,83,84,85,85,86,86,85,83,83,84,88,85,82,83,83,84,75,79,82,86,87,84,85,84,86,86,86,85,85,86,86,83,84,85,77,81,81,83,84,86,85,83,86,89,89,87,88,87,86,85,84,82,82,82,81,78,80,83,81,81,85,87,85,84,84,83,83,84,84,85,86,85,86,87,87,85,86,84,87,85,86,88,87,86,84,85,88};
         // 获取各个控件并注册事件
         View view = inflater.inflate(R.layout.fragment_cassia_demo_device, container, false);
         viewHeartRateMeasurement = (TextView) view.findViewById(R.id.viewHeartRateMeasurementValue);
@@ -293,229 +131,114 @@ public class CassiaDemoDeviceFragment extends ServiceFragment {
 
         // 设置控件默认值
         createHeartRateChart();
-
-        // 其他初始化动作
-        startDataUpdateTimer();
+        mUiPublisher = new UiStatePublisher(mUiRenderer);
+        mUiPublisher.publish(UI_CONNECTED | CassiaDemoDevice.CHANGED_ALL);
 
         return view;
     }
 
-    // 控件更新界面
-    private Runnable mEditTextHeartRateMeasurementUpdater = new Runnable() {
+    // 控件更新界面: 每帧最多一次，只刷新有变化的部分，读取的都是最新值
+    private final UiStatePublisher.Renderer mUiRenderer = new UiStatePublisher.Renderer() {
         @Override
-        public void run() {
-            viewHeartRateMeasurement.setText(Integer.toString(mHeartRateMeasurementValue));
+        public void render(int dirty) {
+            if ((dirty & UI_CONNECTED) != 0) {
+                viewConnected.setText(mConnectedText);
+            }
+            CassiaDemoDevice device = mDevice;
+            if (device == null) {
+                return; // 绑定后会全部刷新
+            }
+            if ((dirty & UI_HEART_RATE) != 0) {
+                viewHeartRateMeasurement.setText(Integer.toString(device.getHeartRate()));
+                mHeartRateChart.applyPending();
+            }
+            if ((dirty & UI_TEMPERATURE) != 0) {
+                float value = (float) device.getTemperature() / 100;
+                viewTemperatureMeasurement.setValueAndStartAnim(value);
+            }
+            if ((dirty & UI_CURRENT_TIME) != 0) {
+                CurrentTimeCodec.decode(device.getCurrentTime(), 0, mCurrentTime);
+                mCurrentTimeText.setLength(0);
+                viewCurrentTime.setText(CurrentTimeCodec.format(mCurrentTime, mCurrentTimeText));
+            }
+            if ((dirty & UI_NEW_ALERT) != 0) {
+                byte[] value = device.getNewAlert();
+                viewNewAlert.setText(NewAlertCodec.decodeText(value, value.length));
+            }
         }
     };
 
-    // 控件更新界面
-    private Runnable mEditTextCurrentTimeUpdater = new Runnable() {
+    // 设备模型的变化，在定时器线程或协议栈回调线程中回调
+    private final CassiaDemoDevice.Listener mDeviceListener = new CassiaDemoDevice.Listener() {
         @Override
-        public void run() {
-            byte[] payload = new byte[7];
-            System.arraycopy(mCurrentTimeCharValue, 0, payload, 0, payload.length);
-            byte[] yearBytes = Arrays.copyOfRange(payload, 0, 2);
-            String dateTime = String.format("%4d-%02d-%02d %02d:%02d:%02d",
-                    Utils.bytes2shortLE(yearBytes), payload[2], payload[3], payload[4], payload[5], payload[6]);
-            viewCurrentTime.setText(dateTime);
+        public void onChanged(int changes) {
+            publishUi(changes);
         }
-    };
 
-    // 控件更新界面
-    private Runnable mEditTextNewAlertUpdater = new Runnable() {
         @Override
-        public void run() {
-            byte[] payload = new byte[mNewAlertCharValue.length - 2];
-            System.arraycopy(mNewAlertCharValue, 2, payload, 0, payload.length);
-            String sms = new String(payload, StandardCharsets.UTF_8);
-            viewNewAlert.setText(sms);
+        public void onHeartRateSample(int value) {
+            updateHeartRateChart(value);
         }
-    };
 
-    // 控件更新界面
-    private Runnable mEditTextTemperatureMeasurementUpdater = new Runnable() {
+        // 订阅状态变化时提示
         @Override
-        public void run() {
-            float value = (float) mTemperatureMeasurementValue / 100;
-            viewTemperatureMeasurement.setValueAndStartAnim(value);
+        public void onSubscriptionChanged(BluetoothDevice device, int mode) {
+            final Activity activity = getActivity();
+            if (activity == null) {
+                return;
+            }
+            final int message = mode == Connection.MODE_NONE
+                    ? R.string.notificationsNotEnabled : R.string.notificationsEnabled;
+            activity.runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    Toast.makeText(activity, message, Toast.LENGTH_SHORT).show();
+                }
+            });
         }
     };
 
-    // GATT设置心率
-    private void gattSetHeartRateMeasurementValue(int value) {
-        mHeartRateMeasurementCharacteristic.setValue(new byte[]{0b00001000, 0, 0, 0});
-        mHeartRateMeasurementCharacteristic.setValue(value, HEART_RATE_MEASUREMENT_VALUE_FORMAT,/* offset */ 1);
-    }
-
-    // GATT设置温度
-    private void gattSetTemperatureMeasurementValue(int temperatureMeasurementValue) {
-        mTemperatureMeasurementCharacteristic.setValue(new byte[]{0b00000000, 0, 0, 0, 0});
-        // 点乘以10N次方，3600 * 10 ^ -2 = 36.00
-        mTemperatureMeasurementCharacteristic.setValue(temperatureMeasurementValue, -2, BluetoothGattCharacteristic.FORMAT_FLOAT,/* offset */ 1);
-    }
-
-    // GATT设置时间: 设置值 -> 更新UI
-    private int gattSetCurrentTimeValue(byte[] value) {
-        if (value.length != 10) {
-            return BluetoothGatt.GATT_INVALID_ATTRIBUTE_LENGTH; // 长度不足
-        }
-        System.arraycopy(value, 0, mCurrentTimeCharValue, 0, value.length);
-        mCurrentTimeChar.setValue(value);
-        getActivity().runOnUiThread(mEditTextCurrentTimeUpdater);
-        return BluetoothGatt.GATT_SUCCESS;
-    }
-
-    // GATT设置当前短信: 设置值 -> 更新UI -> 发送notify
-    private int gattSetNewAlert(byte[] value) {
-        if (value.length > 20 || value.length < 3) {
-            return BluetoothGatt.GATT_INVALID_ATTRIBUTE_LENGTH; // 无效长度
-        }
-        mNewAlertCharValue = value;
-        mNewAlertChar.setValue(value);
-        getActivity().runOnUiThread(mEditTextNewAlertUpdater);
-        if (mNewAlertNotifyOn) {
-            mDelegate.sendNotificationToDevices(mNewAlertChar); // notify上报数据
-        }
-        return BluetoothGatt.GATT_SUCCESS;
-    }
-
-    // 心率定时器处理: 生成随机数 -> gatt更新 -> 更新控件 -> 发送通知
-    private void heartRateTimerHandler() {
-//        mHeartRateMeasurementValue = Utils.getRandomRange(50, 140);
-        if (heartRateArrayIndex >= heartRateArray.length) {
-            heartRateArrayIndex = 0;
-        }
-        mHeartRateMeasurementValue = heartRateArray[heartRateArrayIndex++];
-        long timestamp = System.currentTimeMillis();
-        updateHeartRateChart(timestamp, mHeartRateMeasurementValue);
-        gattSetHeartRateMeasurementValue(mHeartRateMeasurementValue);
-        getActivity().runOnUiThread(mEditTextHeartRateMeasurementUpdater);
-        if (mHeartRateMeasurementNotifyOn) { // 只有开启notify时才上报数据
-            mDelegate.sendNotificationToDevices(mHeartRateMeasurementCharacteristic); // notify上报数据
+    // 主线程调用
+    @Override
+    public void setDevice(CassiaDemoDevice device) {
+        CassiaDemoDevice previous = mDevice;
+        if (previous != null) {
+            previous.setListener(null);
         }
-    }
-
-    // 体温定时器处理：生成随机数 -> gatt更新 -> 更新控件 -> 发送通知
-    private void temperatureTimerHandler() {
-        mTemperatureMeasurementValue = Utils.getRandomRange(3660, 3720);
-        gattSetTemperatureMeasurementValue(mTemperatureMeasurementValue);
-        getActivity().runOnUiThread(mEditTextTemperatureMeasurementUpdater);
-        if (mTemperatureMeasurementNotifyOn) {
-            mDelegate.sendNotificationToDevices(mTemperatureMeasurementCharacteristic); // notify上报数据
+        mDevice = device;
+        if (device != null) {
+            device.setListener(mDeviceListener);
+            publishUi(CassiaDemoDevice.CHANGED_ALL);
         }
     }
 
-    // 每500毫秒更新一次，生成随机心率和体温
-    // 心率：生成[50, 140]范围内的随机数，定时器方式更新心率数据并Notify发送
-    private void startDataUpdateTimer() {
-        mTimer = new Timer();
-        mTimer.scheduleAtFixedRate(new TimerTask() {
-            @Override
-            public void run() {
-                heartRateTimerHandler();
-                temperatureTimerHandler();
-            }
-        }, 0 /* delay */,  500);
-    }
-
-    private void cancelTimer() {
-        if (mTimer != null) {
-            mTimer.cancel();
+    // 界面可见时才刷新，不可见期间只保留变化标记
+    @Override
+    public void onResume() {
+        super.onResume();
+        if (mUiPublisher != null) {
+            mUiPublisher.setActive(true);
         }
     }
 
-    private void resetTimer() {
-        cancelTimer();
-        startDataUpdateTimer();
-    }
-
     @Override
-    public void onAttach(Activity activity) {
-        super.onAttach(activity);
-        try {
-            mDelegate = (ServiceFragmentDelegate) activity;
-        } catch (ClassCastException e) {
-            throw new ClassCastException(activity.toString()
-                    + " must implement ServiceFragmentDelegate");
+    public void onPause() {
+        if (mUiPublisher != null) {
+            mUiPublisher.setActive(false);
         }
+        super.onPause();
     }
 
     @Override
     public void onDetach() {
-        cancelTimer();
+        setDevice(null);
         super.onDetach();
-        mDelegate = null;
-    }
-
-    @Override
-    public BluetoothGattService[] getBluetoothGattServices() {
-        return mServices.toArray(new BluetoothGattService[mServices.size()]);
     }
 
+    // 任意线程调用
     @Override
     public void updateUIConnected(String connectedTo) {
-        if (viewConnected != null) {
-            viewConnected.setText(connectedTo);
-        }
-    }
-
-    @Override
-    public void addServiceData2AdvBuilder(AdvertiseData.Builder builder) {
-        builder.addServiceData(ParcelUuid.fromString(TEMPERATURE_MEASUREMENT_UUID.toString()),
-                Utils.int2bytesBE(mTemperatureMeasurementValue));
-        byte[] heartrateBytes = new byte[] { (byte)(mHeartRateMeasurementValue & 0xFF) };
-        builder.addServiceData(ParcelUuid.fromString(HEART_RATE_MEASUREMENT_UUID.toString()), heartrateBytes);
-    }
-
-    @Override
-    public int writeCharacteristic(BluetoothGattCharacteristic characteristic, int offset, byte[] value) {
-        if (offset != 0) {
-            return BluetoothGatt.GATT_INVALID_OFFSET;
-        }
-        if (characteristic.getUuid() == CURRENT_TIME_CHAR_UUID) {
-            return gattSetCurrentTimeValue(value);
-        } else if (characteristic.getUuid() == NEW_ALERT_CHAR_UUID) {
-            return gattSetNewAlert(value);
-        }
-        return BluetoothGatt.GATT_SUCCESS;
-    }
-
-    @Override
-    public void notificationsEnabled(BluetoothGattCharacteristic characteristic, boolean indicate) {
-        getActivity().runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                Toast.makeText(getActivity(), R.string.notificationsEnabled, Toast.LENGTH_SHORT)
-                        .show();
-            }
-        });
-
-        // 更新notify开关
-        if (characteristic.getUuid() == HEART_RATE_MEASUREMENT_UUID) {
-            mHeartRateMeasurementNotifyOn = true;
-        } else if (characteristic.getUuid() == TEMPERATURE_MEASUREMENT_UUID) {
-            mTemperatureMeasurementNotifyOn = true;
-        } else if (characteristic.getUuid() == NEW_ALERT_CHAR_UUID) {
-            mNewAlertNotifyOn = true;
-        }
-    }
-
-    @Override
-    public void notificationsDisabled(BluetoothGattCharacteristic characteristic) {
-        getActivity().runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                Toast.makeText(getActivity(), R.string.notificationsNotEnabled, Toast.LENGTH_SHORT)
-                        .show();
-            }
-        });
-        // 更新notify开关
-        if (characteristic.getUuid() == HEART_RATE_MEASUREMENT_UUID) {
-            mHeartRateMeasurementNotifyOn = false;
-        } else if (characteristic.getUuid() == TEMPERATURE_MEASUREMENT_UUID) {
-            mTemperatureMeasurementNotifyOn = false;
-        } else if (characteristic.getUuid() == NEW_ALERT_CHAR_UUID) {
-            mNewAlertNotifyOn = false;
-        }
+        mConnectedText = connectedTo;
+        publishUi(UI_CONNECTED);
     }
 }
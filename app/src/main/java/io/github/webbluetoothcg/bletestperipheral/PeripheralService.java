@@ -0,0 +1,1653 @@
+/*
+ * Copyright 2015 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.webbluetoothcg.bletestperipheral;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattServerCallback;
+import android.bluetooth.BluetoothGattService;
+import android.bluetooth.BluetoothManager;
+import android.bluetooth.le.AdvertiseData;
+import android.bluetooth.le.AdvertiseSettings;
+import android.bluetooth.le.AdvertisingSetCallback;
+import android.bluetooth.le.AdvertisingSetParameters;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Binder;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.util.Log;
+import android.widget.Toast;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+
+import io.github.webbluetoothcg.bletestperipheral.adv.AdvertisingPayload;
+import io.github.webbluetoothcg.bletestperipheral.adv.AdvertisingUpdater;
+import io.github.webbluetoothcg.bletestperipheral.adv.ManufacturerFrame;
+import io.github.webbluetoothcg.bletestperipheral.adv.VirtualPeripheral;
+import io.github.webbluetoothcg.bletestperipheral.gatt.CharacteristicHandler;
+import io.github.webbluetoothcg.bletestperipheral.gatt.Connection;
+import io.github.webbluetoothcg.bletestperipheral.gatt.ConnectionRegistry;
+import io.github.webbluetoothcg.bletestperipheral.gatt.DescriptorHandler;
+import io.github.webbluetoothcg.bletestperipheral.gatt.GattHandlerRegistry;
+import io.github.webbluetoothcg.bletestperipheral.gatt.NotificationQueue;
+import io.github.webbluetoothcg.bletestperipheral.gatt.PreparedWriteQueue;
+import io.github.webbluetoothcg.bletestperipheral.gatt.SampleBatcher;
+import io.github.webbluetoothcg.bletestperipheral.gatt.StoreAndForward;
+import io.github.webbluetoothcg.bletestperipheral.metrics.Metrics;
+import io.github.webbluetoothcg.bletestperipheral.scheduler.Clock;
+import io.github.webbluetoothcg.bletestperipheral.scheduler.EventLoop;
+import io.github.webbluetoothcg.bletestperipheral.scheduler.TickScheduler;
+import io.github.webbluetoothcg.bletestperipheral.server.AndroidAdvertiser;
+import io.github.webbluetoothcg.bletestperipheral.server.AndroidGattServer;
+import io.github.webbluetoothcg.bletestperipheral.server.Advertiser;
+import io.github.webbluetoothcg.bletestperipheral.server.GattServer;
+import io.github.webbluetoothcg.bletestperipheral.store.MeasurementLog;
+import io.github.webbluetoothcg.bletestperipheral.trace.EventTrace;
+
+/**
+ * 前台service，持有GATT server、广播和传感器采样，生命周期与界面无关。
+ *
+ * Peripheral启动并绑定它，只用于显示和菜单操作；界面停止或重建时GATT server和已有连接不受影响，
+ * 回到界面时不需要重新添加services和启动广播。调用{@link #start()}后一直运行，直到被停止。
+ *
+ * 协议栈回调、广播回调和菜单命令都投递到{@link EventLoop}，与定时任务在同一个事件线程中按顺序处理。
+ */
+public class PeripheralService extends Service implements CassiaDemoDevice.Host {
+
+  private static final String TAG = PeripheralService.class.getCanonicalName();
+  // 前台通知
+  private static final String NOTIFICATION_CHANNEL_ID = "peripheral";
+  private static final int NOTIFICATION_ID = 1;
+  // 原来由Activity.getPreferences保存的设置，沿用同一个文件
+  private static final String PREFERENCES_NAME = "Peripheral";
+  // 广播数据检查周期，以及两次推送给控制器的最小间隔
+  private static final long AD_DATA_UPDATE_PERIOD_MS = 250;
+  private static final long AD_DATA_MIN_INTERVAL_MS = 500;
+  private static final String DEVICE_NAME = "Cassia Demo App";
+  // 传统广播数据长度，以及其中flags AD结构占用的字节
+  private static final int LEGACY_ADV_DATA_LENGTH = 31;
+  private static final int ADV_FLAGS_LENGTH = 3;
+  // 扩展广播携带的采样历史: 最近4秒的心率，最近40秒的体温
+  private static final int ADV_HEART_RATE_HISTORY = 16;
+  private static final int ADV_TEMPERATURE_HISTORY = 8;
+  // 每个设备最多排队的characteristic数，以及未收到onNotificationSent时的超时
+  private static final int NOTIFICATION_QUEUE_DEPTH = 8;
+  private static final long NOTIFICATION_STALL_TIMEOUT_MS = 2000;
+  // indication未确认的ATT事务超时(30秒)，以及检查超时的周期
+  private static final long INDICATION_TIMEOUT_MS = 30000;
+  private static final long NOTIFICATION_EXPIRY_PERIOD_MS = 1000;
+  // 长写入: 所有设备共用的重组缓冲个数，以及ATT事务超时(30秒)
+  private static final int PREPARED_WRITE_BUFFERS = 8;
+  private static final long PREPARED_WRITE_TIMEOUT_MS = 30000;
+  // 批量发送: 未协商MTU时的默认值，每个设备缓冲的采样数，以及采样最长等待时间
+  private static final int DEFAULT_MTU = 23;
+  private static final int SAMPLE_BATCH_CAPACITY = 256;
+  private static final long SAMPLE_BATCH_MAX_LATENCY_MS = 1000;
+  private static final long SAMPLE_BATCH_FLUSH_PERIOD_MS = 250;
+  // 采样日志: 每段的记录数和保留的段数，4Hz的心率约保留4.5小时
+  private static final String MEASUREMENT_LOG_DIR = "measurements";
+  private static final int MEASUREMENT_LOG_RECORDS_PER_SEGMENT = 4096;
+  private static final int MEASUREMENT_LOG_MAX_SEGMENTS = 16;
+  // 性能统计: diagnostics characteristic的快照周期，onStop时导出的文件名
+  private static final long DIAGNOSTICS_SNAPSHOT_PERIOD_MS = 1000;
+  private static final String METRICS_DUMP_FILE = "metrics.txt";
+  // 事件跟踪: 环形缓冲区的记录条数(约96KB)，导出的文件名
+  private static final int TRACE_CAPACITY = 4096;
+  private static final String TRACE_DUMP_FILE = "trace.txt";
+  // 连接状态: 界面刷新周期(连接断开频繁时合并，连接时长按秒更新)，最多显示的设备数
+  private static final long CONNECTION_STATUS_PERIOD_MS = 1000;
+  private static final int CONNECTION_STATUS_MAX_DEVICES = 4;
+  // 多身份模式: 广播集总数(含主广播)的保存键，虚拟外设的传感器/广播更新周期，各广播集在周期内错开
+  private static final String PREF_ADVERTISING_SET_COUNT = "advertising_set_count";
+  private static final long VIRTUAL_PERIPHERAL_TICK_PERIOD_MS = 1000;
+  // 事件循环: GATT回调、广播回调和界面命令投递到同一个线程，按类型统计排队延迟和处理时间
+  private static final int EVENT_BATCH_SIZE = 16;
+  private static final int EVENT_CONNECTION_STATE = 0;
+  private static final int EVENT_SERVICE_ADDED = 1;
+  private static final int EVENT_READ = 2;
+  private static final int EVENT_WRITE = 3;
+  private static final int EVENT_EXECUTE_WRITE = 4;
+  private static final int EVENT_DESCRIPTOR_READ = 5;
+  private static final int EVENT_DESCRIPTOR_WRITE = 6;
+  private static final int EVENT_MTU_CHANGED = 7;
+  private static final int EVENT_NOTIFICATION_SENT = 8;
+  private static final int EVENT_ADVERTISING = 9;
+  private static final int EVENT_COMMAND = 10;
+  private static final String[] EVENT_NAMES = {"connectionState", "serviceAdded", "read",
+      "write", "executeWrite", "descriptorRead", "descriptorWrite", "mtuChanged",
+      "notificationSent", "advertising", "command"};
+
+  private static final UUID CHARACTERISTIC_USER_DESCRIPTION_UUID = UUID
+      .fromString("00002901-0000-1000-8000-00805f9b34fb");
+  private static final UUID CLIENT_CHARACTERISTIC_CONFIGURATION_UUID = UUID
+      .fromString("00002902-0000-1000-8000-00805f9b34fb");
+  private static final UUID DIAGNOSTICS_SERVICE_UUID = UUID
+      .fromString("1819ac10-5f4e-4a3b-9c2d-1e0f2a3b4c5d");
+  private static final UUID DIAGNOSTICS_CHARACTERISTIC_UUID = UUID
+      .fromString("1819ac11-5f4e-4a3b-9c2d-1e0f2a3b4c5d");
+
+  /**
+   * 界面监听，绑定期间设置。
+   */
+  public interface Listener {
+    // 连接状态文本变化，在事件线程中回调
+    void onConnectionStatusChanged(String text);
+  }
+
+  // 同一进程内绑定，直接返回service本身
+  public class LocalBinder extends Binder {
+    public PeripheralService getService() {
+      return PeripheralService.this;
+    }
+  }
+
+  private final IBinder mBinder = new LocalBinder();
+  private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+  private volatile Listener mListener;
+  private CassiaDemoDevice mDevice;
+  private boolean mRunning; // 仅主线程访问
+  // 已请求启动(界面或系统重启)，蓝牙开启时自动启动；仅主线程访问
+  private boolean mStartRequested;
+  // 蓝牙关闭时停止，重新开启时再次启动；回调在主线程中
+  private final BroadcastReceiver mBluetoothStateReceiver = new BroadcastReceiver() {
+    @Override
+    public void onReceive(Context context, Intent intent) {
+      int state = intent.getIntExtra(BluetoothAdapter.EXTRA_STATE, BluetoothAdapter.ERROR);
+      if (state == BluetoothAdapter.STATE_TURNING_OFF || state == BluetoothAdapter.STATE_OFF) {
+        Log.i(TAG, "Bluetooth turning off, stopping");
+        stop();
+      } else if (state == BluetoothAdapter.STATE_ON && mStartRequested) {
+        Log.i(TAG, "Bluetooth on, restarting: " + start());
+      }
+    }
+  };
+  // 已连接的设备，各自的MTU、CCCD值和发送队列
+  private final ConnectionRegistry<BluetoothDevice, BluetoothGattCharacteristic> mConnections =
+      new ConnectionRegistry<>(Clock.SYSTEM);
+  // 连接或断开后置位，由定时器线程合并刷新界面
+  private volatile boolean mConnectionStatusDirty;
+  private volatile String mConnectionStatusText = "";
+  private TickScheduler.Task mConnectionStatusTask;
+  private final PreparedWriteQueue<BluetoothDevice, BluetoothGattCharacteristic>
+      mPreparedWrites = new PreparedWriteQueue<>(PREPARED_WRITE_BUFFERS,
+      PREPARED_WRITE_TIMEOUT_MS, Clock.SYSTEM);
+  // 提供批量编码的characteristic各一个，第一次发送采样时创建
+  private final ConcurrentHashMap<BluetoothGattCharacteristic, SampleBatcher<BluetoothDevice>>
+      mSampleBatchers = new ConcurrentHashMap<>();
+  private final ArrayList<BluetoothDevice> mDueDevices = new ArrayList<>(); // 仅事件线程使用
+  // 批量发送的characteristic各有一个采样日志，onCreate时打开
+  private final ConcurrentHashMap<BluetoothGattCharacteristic, StoreAndForward<BluetoothDevice>>
+      mStores = new ConcurrentHashMap<>();
+  private final ArrayList<Connection<BluetoothDevice, BluetoothGattCharacteristic>> mSampleDevices =
+      new ArrayList<>(); // 仅事件线程使用
+  private BluetoothManager mBluetoothManager;
+  private BluetoothAdapter mBluetoothAdapter;
+  private AdvertisingPayload mAdvPayload;
+  private AdvertisingUpdater mAdvUpdater;
+  private AdvertiseData mAdvScanResponse;
+  private AdvertiseSettings mAdvSettings;
+  private AdvertisingSetParameters mAdvSetParameters;
+  private boolean mExtendedAdvertising;
+  private Advertiser mAdvertiser;
+  private TickScheduler mTickScheduler;
+  private EventLoop mEventLoop;
+  private TickScheduler.Task mAdDataUpdateTask;
+  private TickScheduler.Task mPreparedWriteExpiryTask;
+  private TickScheduler.Task mSampleBatchFlushTask;
+  private TickScheduler.Task mNotificationExpiryTask;
+  private volatile int mAdvertisingSetCount = 1;
+  private AdvertisingSetParameters mVirtualAdvSetParameters;
+  // 仅在事件线程中访问，广播集回调也投递到事件线程
+  private final ArrayList<VirtualPeripheral> mVirtualPeripherals = new ArrayList<>();
+  private final ArrayList<TickScheduler.Task> mVirtualPeripheralTasks = new ArrayList<>();
+  private BluetoothGattService[] mServices;
+  private GattHandlerRegistry mHandlerRegistry;
+  private boolean[] mIsServiceAdded;
+  private ManufacturerFrame mAdvFrame;
+  // 回调线程直接记录，定时器线程生成diagnostics快照
+  private final Metrics mMetrics = new Metrics(Clock.SYSTEM);
+  private volatile byte[] mDiagnosticsValue;
+  private TickScheduler.Task mDiagnosticsTask;
+  // GATT回调的事件记录，替代每次回调的字符串日志，由菜单或onStop导出
+  private final EventTrace<BluetoothDevice> mTrace =
+      new EventTrace<>(TRACE_CAPACITY, Clock.SYSTEM);
+
+  // 广播集回调投递到事件线程
+  private final Advertiser.Callback mAdvSetCallback = new Advertiser.Callback() {
+    @Override
+    public void onAdvertisingSetStarted(final Advertiser.Handle advertisingSet, final int txPower,
+        final int status) {
+      mEventLoop.post(EVENT_ADVERTISING, new Runnable() {
+        @Override
+        public void run() {
+          mAdvUpdater.setAdvertisingSet(advertisingSet);
+          Log.i(TAG, "advertising set started, status: " + status + ", txPower:" + txPower);
+        }
+      });
+    }
+
+    @Override
+    public void onAdvertisingSetStopped(Advertiser.Handle advertisingSet) {
+      mEventLoop.post(EVENT_ADVERTISING, new Runnable() {
+        @Override
+        public void run() {
+          mAdvUpdater.setAdvertisingSet(null);
+          Log.i(TAG, "advertising set stopped, " + mAdvUpdater);
+        }
+      });
+    }
+
+    @Override
+    public void onAdvertisingDataSet(Advertiser.Handle advertisingSet, final int status) {
+      mEventLoop.post(EVENT_ADVERTISING, new Runnable() {
+        @Override
+        public void run() {
+          mAdvUpdater.onAdvertisingDataSet(status);
+          mTrace.record(EventTrace.ADVERTISING_DATA_SET, null, null, status, 0);
+          if (status != AdvertisingSetCallback.ADVERTISE_SUCCESS) {
+            mMetrics.increment(Metrics.ADVERTISING_FAILURES);
+            Log.w(TAG, "advertising data set failed, status: " + status);
+          }
+        }
+      });
+    }
+  };
+
+  private GattServer mGattServer; // 仅事件线程访问，由start/stop投递的事件设置
+  // 协议栈回调线程只投递事件，由mGattEventHandler在事件线程中按顺序处理
+  private final BluetoothGattServerCallback mGattServerCallback = new BluetoothGattServerCallback() {
+    @Override
+    public void onServiceAdded(final int status, final BluetoothGattService service) {
+      mEventLoop.post(EVENT_SERVICE_ADDED, new Runnable() {
+        @Override
+        public void run() {
+          mGattEventHandler.onServiceAdded(status, service);
+        }
+      });
+    }
+
+    @Override
+    public void onConnectionStateChange(final BluetoothDevice device, final int status,
+        final int newState) {
+      mEventLoop.post(EVENT_CONNECTION_STATE, new Runnable() {
+        @Override
+        public void run() {
+          mGattEventHandler.onConnectionStateChange(device, status, newState);
+        }
+      });
+    }
+
+    @Override
+    public void onCharacteristicReadRequest(final BluetoothDevice device, final int requestId,
+        final int offset, final BluetoothGattCharacteristic characteristic) {
+      mEventLoop.post(EVENT_READ, new Runnable() {
+        @Override
+        public void run() {
+          mGattEventHandler.onCharacteristicReadRequest(device, requestId, offset,
+              characteristic);
+        }
+      });
+    }
+
+    @Override
+    public void onMtuChanged(final BluetoothDevice device, final int mtu) {
+      mEventLoop.post(EVENT_MTU_CHANGED, new Runnable() {
+        @Override
+        public void run() {
+          mGattEventHandler.onMtuChanged(device, mtu);
+        }
+      });
+    }
+
+    @Override
+    public void onNotificationSent(final BluetoothDevice device, final int status) {
+      mEventLoop.post(EVENT_NOTIFICATION_SENT, new Runnable() {
+        @Override
+        public void run() {
+          mGattEventHandler.onNotificationSent(device, status);
+        }
+      });
+    }
+
+    @Override
+    public void onCharacteristicWriteRequest(final BluetoothDevice device, final int requestId,
+        final BluetoothGattCharacteristic characteristic, final boolean preparedWrite,
+        final boolean responseNeeded, final int offset, final byte[] value) {
+      mEventLoop.post(EVENT_WRITE, new Runnable() {
+        @Override
+        public void run() {
+          mGattEventHandler.onCharacteristicWriteRequest(device, requestId, characteristic,
+              preparedWrite, responseNeeded, offset, value);
+        }
+      });
+    }
+
+    @Override
+    public void onExecuteWrite(final BluetoothDevice device, final int requestId,
+        final boolean execute) {
+      mEventLoop.post(EVENT_EXECUTE_WRITE, new Runnable() {
+        @Override
+        public void run() {
+          mGattEventHandler.onExecuteWrite(device, requestId, execute);
+        }
+      });
+    }
+
+    @Override
+    public void onDescriptorReadRequest(final BluetoothDevice device, final int requestId,
+        final int offset, final BluetoothGattDescriptor descriptor) {
+      mEventLoop.post(EVENT_DESCRIPTOR_READ, new Runnable() {
+        @Override
+        public void run() {
+          mGattEventHandler.onDescriptorReadRequest(device, requestId, offset, descriptor);
+        }
+      });
+    }
+
+    @Override
+    public void onDescriptorWriteRequest(final BluetoothDevice device, final int requestId,
+        final BluetoothGattDescriptor descriptor, final boolean preparedWrite,
+        final boolean responseNeeded, final int offset, final byte[] value) {
+      mEventLoop.post(EVENT_DESCRIPTOR_WRITE, new Runnable() {
+        @Override
+        public void run() {
+          mGattEventHandler.onDescriptorWriteRequest(device, requestId, descriptor,
+              preparedWrite, responseNeeded, offset, value);
+        }
+      });
+    }
+  };
+
+  // 在事件线程中处理GATT回调，请求延迟从协议栈回调(投递)开始计算，包含排队时间
+  private final BluetoothGattServerCallback mGattEventHandler = new BluetoothGattServerCallback() {
+    @Override
+    public void onServiceAdded(int status, BluetoothGattService service) {
+      super.onServiceAdded(status, service);
+      int index = getServiceIndexByUUID(service.getUuid());
+      if (index != -1) {
+        mIsServiceAdded[index] = true; // 标记此service已添加成功
+        Log.i(TAG, "add service ok:" + service.getUuid().toString());
+      }
+      // 找到下个未添加成功的继续添加
+      addServiceOneByOne();
+    }
+
+    private int getServiceIndexByUUID(UUID uuid) {
+      for (int index = 0; index < mServices.length; index++) {
+        if (mServices[index].getUuid().equals(uuid)) {
+          return index;
+        }
+      }
+      return -1;
+    }
+
+    @Override
+    public void onConnectionStateChange(BluetoothDevice device, final int status, int newState) {
+      super.onConnectionStateChange(device, status, newState);
+      if (status == BluetoothGatt.GATT_SUCCESS) {
+        if (newState == BluetoothGatt.STATE_CONNECTED) {
+          mMetrics.increment(Metrics.CONNECTIONS);
+          mConnections.add(device, createNotificationQueue(device), DEFAULT_MTU);
+          mConnectionStatusDirty = true;
+          mTrace.record(EventTrace.CONNECTED, device, null, status, 0);
+        } else if (newState == BluetoothGatt.STATE_DISCONNECTED) {
+          mMetrics.increment(Metrics.DISCONNECTIONS);
+          removeConnection(device);
+          mConnectionStatusDirty = true;
+          mTrace.record(EventTrace.DISCONNECTED, device, null, status, 0);
+          mTrace.releaseDevice(device);
+        }
+      } else {
+        mMetrics.increment(Metrics.CONNECTION_ERRORS);
+        mTrace.record(EventTrace.CONNECTION_ERROR, device, null, status, newState);
+        mTrace.releaseDevice(device);
+        removeConnection(device);
+        mConnectionStatusDirty = true;
+        // There are too many gatt errors (some of them not even in the documentation) so we just
+        // show the error to the user.
+        final String errorMessage = getString(R.string.status_errorWhenConnecting) + ": " + status;
+        mMainHandler.post(new Runnable() {
+          @Override
+          public void run() {
+            Toast.makeText(PeripheralService.this, errorMessage, Toast.LENGTH_LONG).show();
+          }
+        });
+        Log.e(TAG, "Error when connecting: " + status);
+      }
+    }
+
+    @Override
+    public void onCharacteristicReadRequest(BluetoothDevice device, int requestId, int offset,
+        BluetoothGattCharacteristic characteristic) {
+      long start = mEventLoop.getEventPostNanos();
+      super.onCharacteristicReadRequest(device, requestId, offset, characteristic);
+      CharacteristicHandler handler = mHandlerRegistry.get(characteristic);
+      byte[] value = handler != null ? handler.onRead(device, characteristic)
+          : characteristic.getValue();
+      int status = sendReadResponse(device, requestId, offset, value);
+      mTrace.record(EventTrace.READ, device, characteristic.getUuid(), status, offset);
+      countRequest(device, Metrics.READ_REQUESTS, Metrics.READ_LATENCY, start);
+    }
+
+    @Override
+    public void onMtuChanged(BluetoothDevice device, int mtu) {
+      super.onMtuChanged(device, mtu);
+      mTrace.record(EventTrace.MTU_CHANGED, device, null, BluetoothGatt.GATT_SUCCESS, mtu);
+      Connection<BluetoothDevice, BluetoothGattCharacteristic> connection =
+          mConnections.get(device);
+      if (connection != null) {
+        connection.setMtu(mtu);
+      }
+    }
+
+    @Override
+    public void onNotificationSent(BluetoothDevice device, int status) {
+      super.onNotificationSent(device, status);
+      mTrace.record(EventTrace.NOTIFICATION_SENT, device, null, status, 0);
+      mMetrics.increment(status == BluetoothGatt.GATT_SUCCESS ? Metrics.NOTIFICATIONS_SENT
+          : Metrics.NOTIFICATION_FAILURES);
+      Connection<BluetoothDevice, BluetoothGattCharacteristic> connection =
+          mConnections.get(device);
+      if (connection != null) {
+        connection.getQueue().onSent(status == BluetoothGatt.GATT_SUCCESS);
+      }
+    }
+
+    @Override
+    public void onCharacteristicWriteRequest(BluetoothDevice device, int requestId,
+        BluetoothGattCharacteristic characteristic, boolean preparedWrite, boolean responseNeeded,
+        int offset, byte[] value) {
+      long start = mEventLoop.getEventPostNanos();
+      super.onCharacteristicWriteRequest(device, requestId, characteristic, preparedWrite,
+          responseNeeded, offset, value);
+      CharacteristicHandler handler = mHandlerRegistry.get(characteristic);
+      int status;
+      if (handler == null) {
+        status = BluetoothGatt.GATT_REQUEST_NOT_SUPPORTED;
+      } else if (preparedWrite) {
+        int maxLength = handler.getMaxWriteLength();
+        status = maxLength > 0
+            ? mPreparedWrites.prepare(device, characteristic, offset, value, maxLength)
+            : BluetoothGatt.GATT_REQUEST_NOT_SUPPORTED;
+        if (responseNeeded) {
+          // Prepare Write Response需要回显offset和分段，设备据此校验
+          mGattServer.sendResponse(device, requestId, status, offset, value);
+        }
+        mTrace.record(EventTrace.PREPARE_WRITE, device, characteristic.getUuid(), status, offset);
+        countRequest(device, Metrics.WRITE_REQUESTS, Metrics.WRITE_LATENCY, start);
+        return;
+      } else {
+        status = handler.onWrite(device, characteristic, offset, value);
+      }
+      if (responseNeeded) {
+        mGattServer.sendResponse(device, requestId, status,
+            /* No need to respond with an offset */ 0,
+            /* No need to respond with a value */ null);
+      }
+      mTrace.record(EventTrace.WRITE, device, characteristic.getUuid(), status,
+          value != null ? value.length : 0);
+      countRequest(device, Metrics.WRITE_REQUESTS, Metrics.WRITE_LATENCY, start);
+      if (handler != null) {
+        handler.afterWrite(device, characteristic, status);
+      }
+    }
+
+    @Override
+    public void onExecuteWrite(BluetoothDevice device, int requestId, boolean execute) {
+      super.onExecuteWrite(device, requestId, execute);
+      int status = mPreparedWrites.execute(device, execute, mPreparedWriteCommitter,
+          mCommittedWrites);
+      mGattServer.sendResponse(device, requestId, status,
+          /* No need to respond with an offset */ 0,
+          /* No need to respond with a value */ null);
+      mTrace.record(EventTrace.EXECUTE_WRITE, device, null, status, execute ? 1 : 0);
+      // 与普通写入一样，响应发出之后才执行写入后的处理
+      for (int i = 0; i < mCommittedWrites.size(); i++) {
+        BluetoothGattCharacteristic characteristic = mCommittedWrites.get(i);
+        CharacteristicHandler handler = mHandlerRegistry.get(characteristic);
+        if (handler != null) {
+          handler.afterWrite(device, characteristic, BluetoothGatt.GATT_SUCCESS);
+        }
+      }
+      mCommittedWrites.clear();
+    }
+
+    @Override
+    public void onDescriptorReadRequest(BluetoothDevice device, int requestId,
+        int offset, BluetoothGattDescriptor descriptor) {
+      long start = mEventLoop.getEventPostNanos();
+      super.onDescriptorReadRequest(device, requestId, offset, descriptor);
+      DescriptorHandler handler = mHandlerRegistry.get(descriptor);
+      byte[] value = handler != null ? handler.onRead(device, descriptor) : descriptor.getValue();
+      int status = sendReadResponse(device, requestId, offset, value);
+      mTrace.record(EventTrace.DESCRIPTOR_READ, device, getCharacteristicUuid(descriptor), status,
+          offset);
+      countRequest(device, Metrics.READ_REQUESTS, Metrics.READ_LATENCY, start);
+    }
+
+    @Override
+    public void onDescriptorWriteRequest(BluetoothDevice device, int requestId,
+        BluetoothGattDescriptor descriptor, boolean preparedWrite, boolean responseNeeded,
+        int offset,
+        byte[] value) {
+      long start = mEventLoop.getEventPostNanos();
+      super.onDescriptorWriteRequest(device, requestId, descriptor, preparedWrite, responseNeeded,
+          offset, value);
+      DescriptorHandler handler = mHandlerRegistry.get(descriptor);
+      int status;
+      if (preparedWrite) {
+        status = BluetoothGatt.GATT_REQUEST_NOT_SUPPORTED; // descriptor的值都很短
+      } else if (handler != null) {
+        status = handler.onWrite(device, descriptor, value);
+      } else {
+        status = BluetoothGatt.GATT_SUCCESS;
+        descriptor.setValue(value);
+      }
+      if (responseNeeded) {
+        mGattServer.sendResponse(device, requestId, status,
+            /* No need to respond with offset */ 0,
+            /* No need to respond with a value */ null);
+      }
+      mTrace.record(EventTrace.DESCRIPTOR_WRITE, device, getCharacteristicUuid(descriptor), status,
+          value != null ? value.length : 0);
+      countRequest(device, Metrics.WRITE_REQUESTS, Metrics.WRITE_LATENCY, start);
+    }
+  };
+
+  // Read Blob: 按offset返回剩余部分，超出MTU的部分由协议栈截断，设备继续以更大的offset读取
+  private int sendReadResponse(BluetoothDevice device, int requestId, int offset, byte[] value) {
+    if (offset == 0 || value == null) {
+      mGattServer.sendResponse(device, requestId, BluetoothGatt.GATT_SUCCESS, offset, value);
+    } else if (offset > value.length) {
+      mGattServer.sendResponse(device, requestId, BluetoothGatt.GATT_INVALID_OFFSET, offset,
+          /* value (optional) */ null);
+      return BluetoothGatt.GATT_INVALID_OFFSET;
+    } else {
+      mGattServer.sendResponse(device, requestId, BluetoothGatt.GATT_SUCCESS, offset,
+          Arrays.copyOfRange(value, offset, value.length));
+    }
+    return BluetoothGatt.GATT_SUCCESS;
+  }
+
+  // 请求计入全局统计和所属连接的统计
+  private void countRequest(BluetoothDevice device, int counter, int histogram, long start) {
+    mMetrics.increment(counter);
+    mMetrics.recordSince(histogram, start);
+    Connection<BluetoothDevice, BluetoothGattCharacteristic> connection =
+        mConnections.get(device);
+    if (connection != null) {
+      connection.onRequest();
+    }
+  }
+
+  // 跟踪记录中descriptor以所属characteristic的UUID标识
+  private static UUID getCharacteristicUuid(BluetoothGattDescriptor descriptor) {
+    BluetoothGattCharacteristic characteristic = descriptor.getCharacteristic();
+    return characteristic != null ? characteristic.getUuid() : descriptor.getUuid();
+  }
+
+  // Execute Write: 先检查所有attribute的完整值，全部通过后才调用各handler的onWrite
+  private final ArrayList<BluetoothGattCharacteristic> mCommittedWrites =
+      new ArrayList<>(PreparedWriteQueue.MAX_ATTRIBUTES_PER_DEVICE); // 仅事件线程使用
+  private final PreparedWriteQueue.Committer<BluetoothDevice, BluetoothGattCharacteristic>
+      mPreparedWriteCommitter =
+      new PreparedWriteQueue.Committer<BluetoothDevice, BluetoothGattCharacteristic>() {
+        @Override
+        public int validate(BluetoothDevice device, BluetoothGattCharacteristic characteristic,
+            byte[] value) {
+          CharacteristicHandler handler = mHandlerRegistry.get(characteristic);
+          return handler != null ? handler.validateWrite(device, characteristic, value)
+              : BluetoothGatt.GATT_REQUEST_NOT_SUPPORTED;
+        }
+
+        @Override
+        public int commit(BluetoothDevice device, BluetoothGattCharacteristic characteristic,
+            byte[] value) {
+          CharacteristicHandler handler = mHandlerRegistry.get(characteristic);
+          return handler != null ? handler.onWrite(device, characteristic, 0, value)
+              : BluetoothGatt.GATT_REQUEST_NOT_SUPPORTED;
+        }
+      };
+
+  // CCCD: 按设备记录订阅状态，并通知characteristic的handler
+  private final DescriptorHandler mCccdHandler = new DescriptorHandler() {
+    @Override
+    public byte[] onRead(BluetoothDevice device, BluetoothGattDescriptor descriptor) {
+      // 每个设备读到自己的订阅状态
+      Connection<BluetoothDevice, BluetoothGattCharacteristic> connection =
+          mConnections.get(device);
+      return getCccdValue(connection != null
+          ? connection.getMode(descriptor.getCharacteristic()) : Connection.MODE_NONE);
+    }
+
+    @Override
+    public int onWrite(BluetoothDevice device, BluetoothGattDescriptor descriptor, byte[] value) {
+      BluetoothGattCharacteristic characteristic = descriptor.getCharacteristic();
+      boolean supportsNotifications = (characteristic.getProperties() &
+          BluetoothGattCharacteristic.PROPERTY_NOTIFY) != 0;
+      boolean supportsIndications = (characteristic.getProperties() &
+          BluetoothGattCharacteristic.PROPERTY_INDICATE) != 0;
+
+      Connection<BluetoothDevice, BluetoothGattCharacteristic> connection =
+          mConnections.get(device);
+      if (!(supportsNotifications || supportsIndications)) {
+        return BluetoothGatt.GATT_REQUEST_NOT_SUPPORTED;
+      } else if (connection == null) {
+        return BluetoothGatt.GATT_FAILURE; // 已断开
+      } else if (value.length != 2) {
+        return BluetoothGatt.GATT_INVALID_ATTRIBUTE_LENGTH;
+      }
+      int mode;
+      switch ((value[0] & 0xFF) | (value[1] & 0xFF) << 8) {
+        case 0x0000:
+          mode = Connection.MODE_NONE;
+          break;
+        case 0x0001:
+          if (!supportsNotifications) {
+            return BluetoothGatt.GATT_REQUEST_NOT_SUPPORTED;
+          }
+          mode = Connection.MODE_NOTIFY;
+          break;
+        case 0x0002:
+          if (!supportsIndications) {
+            return BluetoothGatt.GATT_REQUEST_NOT_SUPPORTED;
+          }
+          mode = Connection.MODE_INDICATE;
+          break;
+        default:
+          return BluetoothGatt.GATT_REQUEST_NOT_SUPPORTED;
+      }
+      // 订阅前确定是否补发，之后的实时采样不会再与补发重复
+      StoreAndForward<BluetoothDevice> store = mStores.get(characteristic);
+      boolean replay = store != null && mode != Connection.MODE_NONE
+          && store.resume(device, device.getAddress());
+      connection.setMode(characteristic, mode);
+      mTrace.record(EventTrace.SUBSCRIPTION, device, characteristic.getUuid(),
+          BluetoothGatt.GATT_SUCCESS, mode);
+      if (store != null && mode == Connection.MODE_NONE) {
+        suspendStore(device, characteristic, store);
+      }
+      if (replay) {
+        // 先补发断开期间错过的采样
+        connection.getQueue().offer(characteristic);
+      }
+      CharacteristicHandler handler = mHandlerRegistry.get(characteristic);
+      if (handler != null) {
+        handler.onSubscriptionChanged(device, characteristic, mode);
+      }
+      return BluetoothGatt.GATT_SUCCESS;
+    }
+  };
+
+  @Override
+  public void onCreate() {
+    super.onCreate();
+    startForeground(NOTIFICATION_ID, createNotification());
+    mTickScheduler = new TickScheduler(Clock.SYSTEM);
+    mTickScheduler.setJitterHistogram(mMetrics.getHistogram(Metrics.TICK_JITTER));
+    // 定时任务由事件线程在两批事件之间执行，不再单独起线程
+    mEventLoop = new EventLoop(EVENT_NAMES, mTickScheduler, Clock.SYSTEM, EVENT_BATCH_SIZE);
+    mEventLoop.start();
+    mBluetoothManager = (BluetoothManager) getSystemService(Context.BLUETOOTH_SERVICE);
+    mBluetoothAdapter = mBluetoothManager.getAdapter();
+    mDevice = new CassiaDemoDevice(this, this);
+
+    mServices = mDevice.getBluetoothGattServices(); // 获取所有的导出services
+    mHandlerRegistry = mDevice.getHandlerRegistry();
+    mServices = Arrays.copyOf(mServices, mServices.length + 1);
+    mServices[mServices.length - 1] = createDiagnosticsService();
+    mHandlerRegistry.registerDescriptors(mServices, CLIENT_CHARACTERISTIC_CONFIGURATION_UUID,
+        mCccdHandler);
+    openMeasurementLogs();
+    mIsServiceAdded = new boolean[mServices.length];
+    for (int index = 0; index < mServices.length; index++) {
+      mIsServiceAdded[index] = false;
+    }
+
+    mAdvSettings = new AdvertiseSettings.Builder()
+        .setAdvertiseMode(AdvertiseSettings.ADVERTISE_MODE_LOW_LATENCY)
+        .setTxPowerLevel(AdvertiseSettings.ADVERTISE_TX_POWER_HIGH)
+        .setConnectable(true)
+        .build();
+    // 支持扩展广播时使用扩展广播: 数据不受31字节限制，可以携带采样历史，
+    // 但可连接时不能同时可扫描，设备名放进广播数据
+    mExtendedAdvertising = mBluetoothAdapter != null
+        && mBluetoothAdapter.isLeExtendedAdvertisingSupported();
+    byte[] uid = getUid();
+    if (mExtendedAdvertising) {
+      mAdvFrame = new ManufacturerFrame(uid, ADV_HEART_RATE_HISTORY, ADV_TEMPERATURE_HISTORY);
+      try {
+        mAdvFrame.checkBudget(mBluetoothAdapter.getLeMaximumAdvertisingDataLength()
+            - ADV_FLAGS_LENGTH - (2 + DEVICE_NAME.getBytes().length));
+      } catch (IllegalStateException e) {
+        Log.w(TAG, "extended advertising data overflow, falling back to legacy", e);
+        mExtendedAdvertising = false;
+      }
+    }
+    if (!mExtendedAdvertising) {
+      mAdvFrame = new ManufacturerFrame(uid, 0, 0);
+      // 设备名在scan response中，不占广播数据
+      mAdvFrame.checkBudget(LEGACY_ADV_DATA_LENGTH - ADV_FLAGS_LENGTH);
+    }
+    mAdvSetParameters = new AdvertisingSetParameters.Builder()
+      .setLegacyMode(!mExtendedAdvertising)
+      .setConnectable(true)
+      .setScannable(!mExtendedAdvertising)
+      .setInterval(160)
+      .setTxPowerLevel(1).build();
+    // 虚拟外设只广播，不可连接，间隔更长以减少空口占用
+    mVirtualAdvSetParameters = new AdvertisingSetParameters.Builder()
+      .setLegacyMode(true)
+      .setConnectable(false)
+      .setScannable(false)
+      .setInterval(AdvertisingSetParameters.INTERVAL_MEDIUM)
+      .setTxPowerLevel(1).build();
+    mAdvertisingSetCount = getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE)
+        .getInt(PREF_ADVERTISING_SET_COUNT, 1);
+
+    // 广播只有一个manufacturer data帧: uid + 序号 + 传感器值(+ 采样历史)
+    mAdvFrame.encode();
+    mAdvPayload = new AdvertisingPayload();
+    mAdvPayload.addManufacturerData(ManufacturerFrame.MANUFACTURER_ID, mAdvFrame.getBuffer());
+    mDevice.bindAdvertisingFrame(mAdvFrame);
+    mAdvUpdater = new AdvertisingUpdater(mAdvPayload, AD_DATA_MIN_INTERVAL_MS,
+        mTickScheduler.getClock());
+    mAdvUpdater.setIncludeDeviceName(mExtendedAdvertising);
+    mAdvScanResponse = mExtendedAdvertising ? null : new AdvertiseData.Builder()
+        .setIncludeDeviceName(true)
+        .build();
+    Log.i(TAG, "extended advertising: " + mExtendedAdvertising);
+    mDevice.start();
+    registerReceiver(mBluetoothStateReceiver,
+        new IntentFilter(BluetoothAdapter.ACTION_STATE_CHANGED));
+  }
+
+  // 前台通知，点击回到界面
+  private Notification createNotification() {
+    NotificationManager manager =
+        (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+    manager.createNotificationChannel(new NotificationChannel(NOTIFICATION_CHANNEL_ID,
+        getString(R.string.app_name), NotificationManager.IMPORTANCE_LOW));
+    PendingIntent contentIntent = PendingIntent.getActivity(this, 0 /* requestCode */,
+        new Intent(this, Peripheral.class), 0 /* flags */);
+    return new Notification.Builder(this, NOTIFICATION_CHANNEL_ID)
+        .setContentTitle(getString(R.string.app_name))
+        .setContentText(getString(R.string.notification_running))
+        .setSmallIcon(R.mipmap.ic_launcher)
+        .setOngoing(true)
+        .setContentIntent(contentIntent)
+        .build();
+  }
+
+  // 被系统重启时没有界面，蓝牙已开启时直接启动，否则等蓝牙开启
+  @Override
+  public int onStartCommand(Intent intent, int flags, int startId) {
+    start();
+    return START_STICKY;
+  }
+
+  @Override
+  public IBinder onBind(Intent intent) {
+    return mBinder;
+  }
+
+  public CassiaDemoDevice getDevice() {
+    return mDevice;
+  }
+
+  // 界面绑定时设置，解绑时设为null
+  public void setListener(Listener listener) {
+    mListener = listener;
+  }
+
+  public String getConnectionStatusText() {
+    return mConnectionStatusText;
+  }
+
+  public boolean isRunning() {
+    return mRunning;
+  }
+
+  // 获取uid：读取文件，没有的话则生成，并写入文件
+  public byte[] getUid() {
+    return getUid(0);
+  }
+
+  // 多身份模式中第index个广播集的uid，0为主广播
+  public byte[] getUid(int index) {
+    byte[] uid = getUidFromFile(index);
+    if (uid == null) {
+      uid = genRandMacBytes();
+      saveUidToFile(index, uid);
+    }
+    return uid;
+  }
+
+  private static String getUidFileName(int index) {
+    return index == 0 ? "cassiaDemoApp.key" : "cassiaDemoApp." + index + ".key";
+  }
+
+  // 生成mac地址，mac地址以1819开头
+  public byte[] genRandMacBytes(){
+    byte[] arr = new byte[6];
+    for (int i = 0; i < 6; i++) {
+      arr[i] = (byte)ThreadLocalRandom.current().nextInt(0, 255);
+    }
+    arr[0] = 0x18;
+    arr[1] = 0x19;
+    return arr;
+  }
+
+  // uid保存到文件
+  public void saveUidToFile(int index, byte[] uid) {
+    try {
+      FileOutputStream outputStream = openFileOutput(getUidFileName(index), Context.MODE_PRIVATE);
+      outputStream.write(uid);
+      outputStream.close();
+      if (index == 0) {
+        Toast.makeText(this, "Save id success!", Toast.LENGTH_SHORT).show();
+      }
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+  }
+
+  // 从文件获取uid
+  public byte[] getUidFromFile(int index) {
+    try {
+      FileInputStream inputStream = openFileInput(getUidFileName(index));
+      byte[] bytes = new byte[6];
+      int hasRead = inputStream.read(bytes);
+      inputStream.close();
+      return bytes;
+    } catch (Exception e) {
+      return null;
+    }
+  }
+
+  /**
+   * 打开GATT server并开始广播，已经在运行时直接返回。主线程调用。
+   * 蓝牙未开启时记下请求，开启后自动启动；蓝牙关闭时自动停止。
+   *
+   * @return false表示蓝牙不可用(未开启或不支持)，由界面提示用户开启后再次调用
+   */
+  public boolean start() {
+    mStartRequested = true;
+    if (mRunning) {
+      return true;
+    }
+    if (mBluetoothAdapter == null || !mBluetoothAdapter.isEnabled()) {
+      return false;
+    }
+    // If the user disabled Bluetooth when the app was in the background,
+    // openGattServer() will return null.
+    final GattServer gattServer =
+        AndroidGattServer.open(this, mBluetoothManager, mGattServerCallback);
+    if (gattServer == null) {
+      return false;
+    }
+    mRunning = true;
+    // 添加service、定时任务和广播都在事件线程中进行，与之后的回调顺序一致
+    mEventLoop.post(EVENT_COMMAND, new Runnable() {
+      @Override
+      public void run() {
+        startOnEventLoop(gattServer);
+      }
+    });
+    return true;
+  }
+
+  private void startOnEventLoop(GattServer gattServer) {
+    mGattServer = gattServer;
+    // 蓝牙已开启，此时设置的名字才生效
+    mBluetoothAdapter.setName(DEVICE_NAME);
+    resetStatusViews();
+    // 新打开的GATT server上没有任何service(蓝牙重新开启或再次启动时也一样)，
+    // 从第一个开始逐个添加，onServiceAdded中继续添加下一个
+    Arrays.fill(mIsServiceAdded, false);
+    addServiceOneByOne();
+    // 未执行的长写入超时后归还缓冲
+    mPreparedWriteExpiryTask = mTickScheduler.schedule("preparedWriteExpiry",
+        PREPARED_WRITE_TIMEOUT_MS, PREPARED_WRITE_TIMEOUT_MS, new Runnable() {
+      @Override
+      public void run() {
+        mPreparedWrites.expire();
+      }
+    });
+    mSampleBatchFlushTask = mTickScheduler.schedule("sampleBatchFlush",
+        SAMPLE_BATCH_FLUSH_PERIOD_MS, SAMPLE_BATCH_FLUSH_PERIOD_MS, new Runnable() {
+      @Override
+      public void run() {
+        flushSampleBatches();
+      }
+    });
+    // 没有新的发送时也要检查在途的indication是否超时
+    mNotificationExpiryTask = mTickScheduler.schedule("notificationExpiry",
+        NOTIFICATION_EXPIRY_PERIOD_MS, NOTIFICATION_EXPIRY_PERIOD_MS, new Runnable() {
+      @Override
+      public void run() {
+        for (Connection<BluetoothDevice, BluetoothGattCharacteristic> connection
+            : mConnections.getSnapshot()) {
+          connection.getQueue().expire();
+        }
+      }
+    });
+    mConnectionStatusTask = mTickScheduler.schedule("connectionStatus",
+        CONNECTION_STATUS_PERIOD_MS, CONNECTION_STATUS_PERIOD_MS, new Runnable() {
+      @Override
+      public void run() {
+        if (mConnectionStatusDirty || mConnections.size() > 0) {
+          updateConnectedDevicesStatus();
+        }
+      }
+    });
+    mDiagnosticsTask = mTickScheduler.schedule("diagnostics", 0 /* delay */,
+        DIAGNOSTICS_SNAPSHOT_PERIOD_MS, new Runnable() {
+      @Override
+      public void run() {
+        mDiagnosticsValue = mMetrics.encodeSnapshot();
+      }
+    });
+
+    if (mBluetoothAdapter.isMultipleAdvertisementSupported()) {
+      mAdvertiser = new AndroidAdvertiser(mBluetoothAdapter.getBluetoothLeAdvertiser());
+      mAdvertiser.startAdvertisingSet(mAdvSetParameters, mAdvUpdater.buildAdvertiseData(),
+              mAdvScanResponse, mAdvSetCallback);
+      startAdDataUpdateTimer();
+      startVirtualPeripherals();
+    }
+  }
+
+  // 多身份模式: 依次启动其余的广播集，上一个启动成功后才启动下一个，直到控制器拒绝
+  private void startVirtualPeripherals() {
+    for (int index = 1; index < mAdvertisingSetCount; index++) {
+      mVirtualPeripherals.add(new VirtualPeripheral(index, getUid(index),
+          AD_DATA_MIN_INTERVAL_MS, mTickScheduler.getClock(), mVirtualPeripheralListener,
+          mAdvertisingExecutor));
+    }
+    startVirtualPeripheral(0);
+  }
+
+  private void startVirtualPeripheral(int position) {
+    if (position >= mVirtualPeripherals.size() || mAdvertiser == null) {
+      return;
+    }
+    VirtualPeripheral peripheral = mVirtualPeripherals.get(position);
+    peripheral.onStarting();
+    mAdvertiser.startAdvertisingSet(mVirtualAdvSetParameters, peripheral.buildAdvertiseData(),
+        /* scanResponse */ null, peripheral.getCallback());
+  }
+
+  // 虚拟外设的广播集回调投递到事件线程，与tick和mAdvSetCallback相同
+  private final Executor mAdvertisingExecutor = new Executor() {
+    @Override
+    public void execute(Runnable command) {
+      mEventLoop.post(EVENT_ADVERTISING, command);
+    }
+  };
+
+  // 广播集启动结果已在事件线程中，启动下一个
+  private final VirtualPeripheral.Listener mVirtualPeripheralListener =
+      new VirtualPeripheral.Listener() {
+    @Override
+    public void onStarted(VirtualPeripheral peripheral, int status) {
+      onVirtualPeripheralStarted(peripheral, status);
+    }
+  };
+
+  private void onVirtualPeripheralStarted(final VirtualPeripheral peripheral, int status) {
+    int position = mVirtualPeripherals.indexOf(peripheral);
+    if (position < 0) {
+      return; // 已停止
+    }
+    if (status != AdvertisingSetCallback.ADVERTISE_SUCCESS) {
+      Log.w(TAG, "advertising set " + peripheral.getIndex() + " failed, status: " + status
+          + ", " + (position + 1) + " advertising sets running");
+      return;
+    }
+    // 各广播集的更新在周期内均匀错开，避免同时调用控制器
+    long delay = VIRTUAL_PERIPHERAL_TICK_PERIOD_MS * peripheral.getIndex() / mAdvertisingSetCount;
+    mVirtualPeripheralTasks.add(mTickScheduler.schedule("virtualPeripheral"
+        + peripheral.getIndex(), delay, VIRTUAL_PERIPHERAL_TICK_PERIOD_MS, new Runnable() {
+      @Override
+      public void run() {
+        peripheral.tick();
+      }
+    }));
+    startVirtualPeripheral(position + 1);
+  }
+
+  private void stopVirtualPeripherals() {
+    for (TickScheduler.Task task : mVirtualPeripheralTasks) {
+      task.cancel();
+    }
+    mVirtualPeripheralTasks.clear();
+    for (VirtualPeripheral peripheral : mVirtualPeripherals) {
+      int state = peripheral.getState();
+      if (mAdvertiser != null && (state == VirtualPeripheral.STATE_STARTED
+          || state == VirtualPeripheral.STATE_STARTING)) {
+        mAdvertiser.stopAdvertisingSet(peripheral.getCallback());
+      }
+      Log.i(TAG, peripheral.toString());
+    }
+    mVirtualPeripherals.clear();
+  }
+
+  public int getAdvertisingSetCount() {
+    return mAdvertisingSetCount;
+  }
+
+  // 切换广播集个数，保存后在事件线程中重启虚拟外设，主线程调用
+  public void setAdvertisingSetCount(int count) {
+    mAdvertisingSetCount = count;
+    getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE).edit()
+        .putInt(PREF_ADVERTISING_SET_COUNT, count).apply();
+    mEventLoop.post(EVENT_COMMAND, new Runnable() {
+      @Override
+      public void run() {
+        stopVirtualPeripherals();
+        if (mAdvertiser != null && mAdDataUpdateTask != null) {
+          startVirtualPeripherals();
+        }
+      }
+    });
+  }
+
+  // 从services中获取未加入的，加入之
+  private boolean addServiceOneByOne() {
+    for (int index = 0; index < mIsServiceAdded.length; index++) {
+      if (!mIsServiceAdded[index] && mGattServer != null) {
+        return mGattServer.addService(mServices[index]);
+      }
+    }
+    return false;
+  }
+
+  // 定时器方式检查广播数据，有变化时才推送给控制器
+  private void startAdDataUpdateTimer() {
+    mAdDataUpdateTask = mTickScheduler.schedule("advertising", 0 /* delay */,
+        AD_DATA_UPDATE_PERIOD_MS, new Runnable() {
+      @Override
+      public void run() {
+        mAdvFrame.encode();
+        if (mAdvUpdater.update()) {
+          mMetrics.increment(Metrics.ADVERTISING_UPDATES);
+        }
+      }
+    });
+  }
+
+  private void cancelTimer() {
+    if (mAdDataUpdateTask != null) {
+      mAdDataUpdateTask.cancel();
+      mAdDataUpdateTask = null;
+    }
+  }
+
+  // 关闭GATT server并停止广播，已有连接全部断开。主线程调用，清理在事件线程中进行
+  private void stop() {
+    if (!mRunning) {
+      return;
+    }
+    mRunning = false;
+    mEventLoop.post(EVENT_COMMAND, new Runnable() {
+      @Override
+      public void run() {
+        stopOnEventLoop();
+      }
+    });
+  }
+
+  private void stopOnEventLoop() {
+    if (mGattServer == null) {
+      return; // 没有启动或已经停止
+    }
+    mGattServer.close();
+    mGattServer = null;
+    // 关闭后不会再收到断开回调
+    for (Connection<BluetoothDevice, BluetoothGattCharacteristic> connection
+        : mConnections.getSnapshot()) {
+      removeConnection(connection.getDevice());
+    }
+    if (mPreparedWriteExpiryTask != null) {
+      mPreparedWriteExpiryTask.cancel();
+      mPreparedWriteExpiryTask = null;
+    }
+    Log.i(TAG, "prepared writes: " + mPreparedWrites);
+    mPreparedWrites.clear();
+    if (mSampleBatchFlushTask != null) {
+      mSampleBatchFlushTask.cancel();
+      mSampleBatchFlushTask = null;
+    }
+    for (SampleBatcher<BluetoothDevice> batcher : mSampleBatchers.values()) {
+      Log.i(TAG, "sample batches: " + batcher);
+    }
+    mSampleBatchers.clear();
+    if (mDiagnosticsTask != null) {
+      mDiagnosticsTask.cancel();
+      mDiagnosticsTask = null;
+    }
+    if (mConnectionStatusTask != null) {
+      mConnectionStatusTask.cancel();
+      mConnectionStatusTask = null;
+    }
+    if (mNotificationExpiryTask != null) {
+      mNotificationExpiryTask.cancel();
+      mNotificationExpiryTask = null;
+    }
+    dumpMetrics();
+    dumpTrace(false /* toLog */);
+    cancelTimer();
+    stopVirtualPeripherals();
+    if (mBluetoothAdapter.isEnabled() && mAdvertiser != null) {
+      mAdvertiser.stopAdvertisingSet(mAdvSetCallback);
+    }
+    mAdvertiser = null;
+    resetStatusViews();
+  }
+
+  @Override
+  public void onDestroy() {
+    unregisterReceiver(mBluetoothStateReceiver);
+    // 已投递的事件(包括start/stop)处理完后，在事件线程中停止，等待事件线程退出；
+    // 之后主线程可以直接访问原来由事件线程持有的状态
+    mRunning = false;
+    mEventLoop.shutdown(EVENT_COMMAND, new Runnable() {
+      @Override
+      public void run() {
+        stopOnEventLoop();
+      }
+    });
+    Log.i(TAG, "event loop: " + mEventLoop);
+    mDevice.stop();
+    closeMeasurementLogs();
+    stopForeground(true /* removeNotification */);
+    super.onDestroy();
+  }
+
+  @Override
+  public TickScheduler getTickScheduler() {
+    return mTickScheduler;
+  }
+
+  // 只发给订阅了该characteristic的设备，遍历连接的快照，不与连接断开竞争
+  @Override
+  public void sendNotificationToDevices(BluetoothGattCharacteristic characteristic) {
+    for (Connection<BluetoothDevice, BluetoothGattCharacteristic> connection
+        : mConnections.getSnapshot()) {
+      if (connection.isSubscribed(characteristic)) {
+        connection.getQueue().offer(characteristic);
+      }
+    }
+  }
+
+  @Override
+  public void sendNotificationToDevice(BluetoothDevice device,
+      BluetoothGattCharacteristic characteristic) {
+    Connection<BluetoothDevice, BluetoothGattCharacteristic> connection =
+        mConnections.get(device);
+    if (connection != null && connection.isSubscribed(characteristic)) {
+      connection.getQueue().offer(characteristic);
+    }
+  }
+
+  @Override
+  public MeasurementLog getMeasurementLog(BluetoothGattCharacteristic characteristic) {
+    StoreAndForward<BluetoothDevice> store = mStores.get(characteristic);
+    return store != null ? store.getLog() : null;
+  }
+
+  @Override
+  public void sendSampleToDevices(BluetoothGattCharacteristic characteristic, int sample) {
+    SampleBatcher<BluetoothDevice> batcher = getSampleBatcher(characteristic);
+    if (batcher == null) {
+      sendNotificationToDevices(characteristic);
+      return;
+    }
+    StoreAndForward<BluetoothDevice> store = mStores.get(characteristic);
+    if (store == null) {
+      addSample(batcher, characteristic, sample, null);
+    } else {
+      // 写日志、按设备分发和补发取帧都在事件线程中，补发刚好追上的设备不会重复收到该采样
+      store.append(System.currentTimeMillis(), sample);
+      addSample(batcher, characteristic, sample, store);
+    }
+    for (int i = 0; i < mSampleDevices.size(); i++) {
+      mSampleDevices.get(i).getQueue().offer(characteristic);
+    }
+    mSampleDevices.clear();
+  }
+
+  // 收集需要发送的设备到mSampleDevices
+  private void addSample(SampleBatcher<BluetoothDevice> batcher,
+      BluetoothGattCharacteristic characteristic, int sample,
+      StoreAndForward<BluetoothDevice> store) {
+    for (Connection<BluetoothDevice, BluetoothGattCharacteristic> connection
+        : mConnections.getSnapshot()) {
+      BluetoothDevice device = connection.getDevice();
+      if (!connection.isSubscribed(characteristic)
+          || (store != null && store.isReplaying(device))) {
+        continue; // 未订阅，或采样已在日志中，由补发发出
+      }
+      int mtu = connection.getMtu();
+      // 默认MTU放不下几个采样，不值得增加延迟，每个采样立即发送
+      if (batcher.add(device, sample, mtu - 3, mtu > DEFAULT_MTU)) {
+        mSampleDevices.add(connection);
+      }
+    }
+  }
+
+  private SampleBatcher<BluetoothDevice> getSampleBatcher(
+      BluetoothGattCharacteristic characteristic) {
+    SampleBatcher<BluetoothDevice> batcher = mSampleBatchers.get(characteristic);
+    if (batcher != null) {
+      return batcher;
+    }
+    CharacteristicHandler handler = mHandlerRegistry.get(characteristic);
+    SampleBatcher.Encoder encoder = handler != null ? handler.getBatchEncoder() : null;
+    if (encoder == null) {
+      return null;
+    }
+    SampleBatcher<BluetoothDevice> created = new SampleBatcher<>(encoder, SAMPLE_BATCH_CAPACITY,
+        SAMPLE_BATCH_MAX_LATENCY_MS, mTickScheduler.getClock());
+    batcher = mSampleBatchers.putIfAbsent(characteristic, created);
+    return batcher != null ? batcher : created;
+  }
+
+  // 定时器线程: 把等待超过最长时间的采样发出去
+  private void flushSampleBatches() {
+    for (Map.Entry<BluetoothGattCharacteristic, SampleBatcher<BluetoothDevice>> entry
+        : mSampleBatchers.entrySet()) {
+      mDueDevices.clear();
+      entry.getValue().collectDue(mDueDevices);
+      for (int i = 0; i < mDueDevices.size(); i++) {
+        Connection<BluetoothDevice, BluetoothGattCharacteristic> connection =
+            mConnections.get(mDueDevices.get(i));
+        if (connection != null) {
+          connection.getQueue().offer(entry.getKey());
+        }
+      }
+    }
+    mDueDevices.clear();
+  }
+
+  private void removeSampleBatches(BluetoothDevice device) {
+    for (Map.Entry<BluetoothGattCharacteristic, StoreAndForward<BluetoothDevice>> entry
+        : mStores.entrySet()) {
+      suspendStore(device, entry.getKey(), entry.getValue());
+    }
+    for (SampleBatcher<BluetoothDevice> batcher : mSampleBatchers.values()) {
+      batcher.removeDevice(device);
+    }
+  }
+
+  // 记录设备的游标，还在批量缓冲中的采样下次订阅时补发
+  private void suspendStore(BluetoothDevice device, BluetoothGattCharacteristic characteristic,
+      StoreAndForward<BluetoothDevice> store) {
+    SampleBatcher<BluetoothDevice> batcher = mSampleBatchers.get(characteristic);
+    int undelivered = batcher != null ? batcher.removeDevice(device) : 0;
+    store.suspend(device, device.getAddress(), undelivered);
+  }
+
+  // 为批量发送的characteristic打开采样日志，打开失败时只实时发送
+  private void openMeasurementLogs() {
+    File root = new File(getFilesDir(), MEASUREMENT_LOG_DIR);
+    for (BluetoothGattService service : mServices) {
+      for (BluetoothGattCharacteristic characteristic : service.getCharacteristics()) {
+        CharacteristicHandler handler = mHandlerRegistry.get(characteristic);
+        SampleBatcher.Encoder encoder = handler != null ? handler.getBatchEncoder() : null;
+        if (encoder == null) {
+          continue;
+        }
+        File dir = new File(root, characteristic.getUuid().toString());
+        try {
+          MeasurementLog log = MeasurementLog.open(dir, MEASUREMENT_LOG_RECORDS_PER_SEGMENT,
+              MEASUREMENT_LOG_MAX_SEGMENTS);
+          mStores.put(characteristic,
+              new StoreAndForward<BluetoothDevice>(log, encoder, SAMPLE_BATCH_CAPACITY));
+          Log.i(TAG, "measurement log " + characteristic.getUuid() + ": " + log);
+        } catch (IOException e) {
+          Log.w(TAG, "Failed to open measurement log " + dir, e);
+        }
+      }
+    }
+  }
+
+  private void closeMeasurementLogs() {
+    for (StoreAndForward<BluetoothDevice> store : mStores.values()) {
+      Log.i(TAG, "store and forward: " + store);
+      try {
+        store.getLog().close();
+      } catch (IOException e) {
+        Log.w(TAG, "Failed to close measurement log", e);
+      }
+    }
+    mStores.clear();
+  }
+
+  // vendor service，只有一个可读的diagnostics characteristic，返回最近一次的统计快照
+  private BluetoothGattService createDiagnosticsService() {
+    BluetoothGattCharacteristic diagnostics = new BluetoothGattCharacteristic(
+        DIAGNOSTICS_CHARACTERISTIC_UUID, BluetoothGattCharacteristic.PROPERTY_READ,
+        BluetoothGattCharacteristic.PERMISSION_READ);
+    BluetoothGattService service = new BluetoothGattService(DIAGNOSTICS_SERVICE_UUID,
+        BluetoothGattService.SERVICE_TYPE_PRIMARY);
+    service.addCharacteristic(diagnostics);
+    mHandlerRegistry.register(diagnostics, new CharacteristicHandler() {
+      @Override
+      public byte[] onRead(BluetoothDevice device, BluetoothGattCharacteristic characteristic) {
+        // 定时器线程周期性生成，Read Blob分段读取的各段来自同一个数组
+        byte[] value = mDiagnosticsValue;
+        return value != null ? value : mMetrics.encodeSnapshot();
+      }
+    });
+    return service;
+  }
+
+  // 导出到应用外部文件目录，可以用adb pull取出
+  private void dumpMetrics() {
+    Log.i(TAG, "metrics: " + mMetrics);
+    File dir = getExternalFilesDir(null);
+    if (dir == null) {
+      dir = getFilesDir();
+    }
+    File file = new File(dir, METRICS_DUMP_FILE);
+    try {
+      Writer writer = new FileWriter(file);
+      try {
+        mMetrics.dump(writer);
+        mEventLoop.dump(writer);
+      } finally {
+        writer.close();
+      }
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to dump metrics to " + file, e);
+    }
+  }
+
+  // 导出事件跟踪到应用外部文件目录，toLog时同时逐行输出到logcat
+  public void dumpTrace(boolean toLog) {
+    File dir = getExternalFilesDir(null);
+    if (dir == null) {
+      dir = getFilesDir();
+    }
+    File file = new File(dir, TRACE_DUMP_FILE);
+    try {
+      mTrace.dump(file);
+      Log.i(TAG, "trace: " + mTrace.getRecordedCount() + " events, exported to " + file);
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to export trace to " + file, e);
+    }
+    if (toLog) {
+      StringWriter writer = new StringWriter();
+      try {
+        mTrace.dump(writer);
+      } catch (IOException e) {
+        // StringWriter不会抛出
+      }
+      for (String line : writer.toString().split("\n")) {
+        Log.i(TAG, line);
+      }
+    }
+  }
+
+  // 每个设备一个队列，上一个notify的onNotificationSent(indication为收到确认)回来之后才发下一个
+  private NotificationQueue<BluetoothGattCharacteristic> createNotificationQueue(
+      final BluetoothDevice device) {
+    NotificationQueue<BluetoothGattCharacteristic> queue =
+        new NotificationQueue<>(new NotificationQueue.Sender<BluetoothGattCharacteristic>() {
+      @Override
+      public int send(BluetoothGattCharacteristic characteristic) {
+        GattServer gattServer = mGattServer;
+        Connection<BluetoothDevice, BluetoothGattCharacteristic> connection =
+            mConnections.get(device);
+        int mode = connection != null ? connection.getMode(characteristic) : Connection.MODE_NONE;
+        if (gattServer == null || mode == Connection.MODE_NONE) {
+          return NotificationQueue.NOTHING_TO_SEND; // 排队期间已取消订阅或已断开
+        }
+        // true for indication (acknowledge) and false for notification (unacknowledge).
+        boolean confirm = mode == Connection.MODE_INDICATE;
+        return sendQueued(gattServer, connection, characteristic, confirm);
+      }
+
+      @Override
+      public void onIndicationTimeout(BluetoothGattCharacteristic characteristic) {
+        // ATT事务超时后该连接上不能再发送，断开，central重连后从日志补发
+        mMetrics.increment(Metrics.INDICATION_TIMEOUTS);
+        mTrace.record(EventTrace.INDICATION_TIMEOUT, device, characteristic.getUuid(),
+            BluetoothGatt.GATT_FAILURE, 0);
+        Log.w(TAG, "Indication not confirmed: " + device.getAddress() + " "
+            + characteristic.getUuid());
+        GattServer gattServer = mGattServer;
+        if (gattServer != null) {
+          gattServer.cancelConnection(device);
+        }
+      }
+    }, NOTIFICATION_QUEUE_DEPTH, NOTIFICATION_STALL_TIMEOUT_MS, INDICATION_TIMEOUT_MS,
+        mTickScheduler.getClock());
+    queue.setSentLatencyHistogram(mMetrics.getHistogram(Metrics.NOTIFICATION_LATENCY));
+    queue.setConfirmationLatencyHistogram(mMetrics.getHistogram(Metrics.INDICATION_RTT));
+    return queue;
+  }
+
+  // 事件线程: 取出该设备的下一个值并交给协议栈，返回NotificationQueue.Sender#send的结果
+  private int sendQueued(GattServer gattServer,
+      Connection<BluetoothDevice, BluetoothGattCharacteristic> connection,
+      BluetoothGattCharacteristic characteristic, boolean confirm) {
+    BluetoothDevice device = connection.getDevice();
+    CharacteristicHandler handler = mHandlerRegistry.get(characteristic);
+    CharacteristicHandler.NotificationSource source = handler != null
+        ? handler.getNotificationSource() : null;
+    if (source != null) {
+      return sendFromSource(gattServer, connection, characteristic, source, confirm);
+    }
+    SampleBatcher<BluetoothDevice> batcher = mSampleBatchers.get(characteristic);
+    StoreAndForward<BluetoothDevice> store = mStores.get(characteristic);
+    if (batcher == null && store == null) {
+      return sendResult(sendNotification(gattServer, device, characteristic, confirm), confirm);
+    }
+    // 每个设备的帧不同: 编码、setValue、发送都在事件线程中依次完成，notify时值已被复制，
+    // 读请求同样在事件线程中处理，不会读到别的设备的帧
+    int maxLength = connection.getMtu() - 3;
+    // 补发优先，追上之后才取实时缓冲的采样
+    byte[] frame = store != null ? store.nextFrame(device, maxLength) : null;
+    boolean replaying = frame != null;
+    if (frame == null && batcher != null) {
+      frame = batcher.drain(device, maxLength);
+    }
+    if (frame == null) {
+      return NotificationQueue.NOTHING_TO_SEND; // 采样已随上一帧发出
+    }
+    characteristic.setValue(frame);
+    boolean sent = sendNotification(gattServer, device, characteristic, confirm);
+    if (sent && (replaying ? store.isReplaying(device)
+        : batcher.hasFullFrame(device, maxLength))) {
+      // 补发未完成或积压的采样还够一帧，排在当前notify之后继续发送
+      connection.getQueue().offer(characteristic);
+    }
+    return sendResult(sent, confirm);
+  }
+
+  // handler按设备给出的值，发送后还有后续时继续排队，由onNotificationSent驱动连续发送
+  private int sendFromSource(GattServer gattServer,
+      Connection<BluetoothDevice, BluetoothGattCharacteristic> connection,
+      BluetoothGattCharacteristic characteristic, CharacteristicHandler.NotificationSource source,
+      boolean confirm) {
+    BluetoothDevice device = connection.getDevice();
+    byte[] value = source.next(device, connection.getMtu() - 3);
+    if (value == null) {
+      return NotificationQueue.NOTHING_TO_SEND; // 已中止或已发完
+    }
+    characteristic.setValue(value);
+    boolean sent = sendNotification(gattServer, device, characteristic, confirm);
+    if (sent && source.hasNext(device)) {
+      connection.getQueue().offer(characteristic);
+    }
+    return sendResult(sent, confirm);
+  }
+
+  private static int sendResult(boolean sent, boolean confirm) {
+    if (!sent) {
+      return NotificationQueue.NOT_SENT;
+    }
+    return confirm ? NotificationQueue.SENT_INDICATION : NotificationQueue.SENT_NOTIFICATION;
+  }
+
+  // 交给协议栈并记录跟踪事件，值的长度只在开启了NOTIFY级别时读取
+  private boolean sendNotification(GattServer gattServer, BluetoothDevice device,
+      BluetoothGattCharacteristic characteristic, boolean confirm) {
+    boolean sent = gattServer.notifyCharacteristicChanged(device, characteristic, confirm);
+    if (mTrace.isEnabled(EventTrace.NOTIFY)) {
+      byte[] value = characteristic.getValue();
+      mTrace.record(EventTrace.NOTIFY, device, characteristic.getUuid(), sent ? 1 : 0,
+          value != null ? value.length : 0);
+    }
+    return sent;
+  }
+
+  // 设备断开: 先从注册表移除，之后的发送不再遍历到它，再清除各模块中该设备的状态
+  private void removeConnection(BluetoothDevice device) {
+    Connection<BluetoothDevice, BluetoothGattCharacteristic> connection =
+        mConnections.remove(device);
+    mHandlerRegistry.onDisconnected(device);
+    mPreparedWrites.removeDevice(device);
+    removeSampleBatches(device);
+    if (connection != null) {
+      connection.getQueue().clear();
+      Log.i(TAG, "Connection closed: " + connection);
+    }
+  }
+
+  private void resetStatusViews() {
+    updateConnectedDevicesStatus();
+  }
+
+  // 由本地的连接注册表生成，不调用getConnectedDevices(到蓝牙服务的binder调用)；
+  // 内容不变时不通知界面，界面合并到下一帧刷新，不需要每次post到UI线程
+  private void updateConnectedDevicesStatus() {
+    mConnectionStatusDirty = false;
+    String text = formatConnectionStatus(mConnections.getSnapshot(),
+        mConnections.getClock().nanoTime());
+    if (!text.equals(mConnectionStatusText)) {
+      mConnectionStatusText = text;
+      Listener listener = mListener;
+      if (listener != null) {
+        listener.onConnectionStatusChanged(text);
+      }
+    }
+  }
+
+  // 连接数，以及按槽位排列的前几个设备的地址和连接时长
+  private static String formatConnectionStatus(
+      Connection<BluetoothDevice, BluetoothGattCharacteristic>[] connections, long now) {
+    if (connections.length == 0) {
+      return "";
+    }
+    StringBuilder text = new StringBuilder("Connected: ").append(connections.length);
+    int shown = Math.min(connections.length, CONNECTION_STATUS_MAX_DEVICES);
+    for (int i = 0; i < shown; i++) {
+      long seconds = connections[i].getUptimeSeconds(now);
+      text.append('\n').append(connections[i].getDevice().getAddress()).append("  ")
+          .append(seconds / 3600).append(':');
+      appendTwoDigits(text, seconds / 60 % 60).append(':');
+      appendTwoDigits(text, seconds % 60);
+    }
+    if (connections.length > shown) {
+      text.append("\n+").append(connections.length - shown).append(" more");
+    }
+    return text.toString();
+  }
+
+  private static StringBuilder appendTwoDigits(StringBuilder text, long value) {
+    if (value < 10) {
+      text.append('0');
+    }
+    return text.append(value);
+  }
+
+  private static byte[] getCccdValue(int mode) {
+    switch (mode) {
+      case Connection.MODE_NOTIFY:
+        return BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE;
+      case Connection.MODE_INDICATE:
+        return BluetoothGattDescriptor.ENABLE_INDICATION_VALUE;
+      default:
+        return BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE;
+    }
+  }
+
+  public static BluetoothGattDescriptor getClientCharacteristicConfigurationDescriptor() {
+    BluetoothGattDescriptor descriptor = new BluetoothGattDescriptor(
+        CLIENT_CHARACTERISTIC_CONFIGURATION_UUID,
+        (BluetoothGattDescriptor.PERMISSION_READ | BluetoothGattDescriptor.PERMISSION_WRITE));
+    descriptor.setValue(new byte[]{0, 0});
+    return descriptor;
+  }
+
+  public static BluetoothGattDescriptor getCharacteristicUserDescriptionDescriptor(String defaultValue) {
+    BluetoothGattDescriptor descriptor = new BluetoothGattDescriptor(
+        CHARACTERISTIC_USER_DESCRIPTION_UUID,
+        (BluetoothGattDescriptor.PERMISSION_READ | BluetoothGattDescriptor.PERMISSION_WRITE));
+    try {
+      descriptor.setValue(defaultValue.getBytes("UTF-8"));
+    } finally {
+      return descriptor;
+    }
+  }
+
+  public void disconnectFromDevices() {
+    Log.d(TAG, "Disconnecting devices...");
+    mEventLoop.post(EVENT_COMMAND, new Runnable() {
+      @Override
+      public void run() {
+        if (mGattServer == null) {
+          return;
+        }
+        for (Connection<BluetoothDevice, BluetoothGattCharacteristic> connection
+            : mConnections.getSnapshot()) {
+          Log.d(TAG, "Devices: " + connection.getDevice().getAddress());
+          mGattServer.cancelConnection(connection.getDevice());
+        }
+      }
+    });
+  }
+}
@@ -1,13 +1,12 @@
 package io.github.webbluetoothcg.bletestperipheral;
 
-import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 public class Utils {
 
-    // 生成[min, max]范围内的随机数
+    // 生成[min, max]范围内的均匀随机数
     public static int getRandomRange(int min, int max) {
-        Random random = new Random();
-        return random.nextInt(max) % (max - min + 1) + min;
+        return ThreadLocalRandom.current().nextInt(min, max + 1);
     }
 
     // int 转 byte数组，大端
@@ -20,6 +19,14 @@ public class Utils {
         return b;
     }
 
+    // int 写入byte数组指定位置，大端，避免每次分配
+    public static void int2bytesBE(int n, byte[] b, int offset) {
+        b[offset + 3] = (byte) (n & 0xff);
+        b[offset + 2] = (byte) (n >> 8 & 0xff);
+        b[offset + 1] = (byte) (n >> 16 & 0xff);
+        b[offset] = (byte) (n >> 24 & 0xff);
+    }
+
     // byte[2]转short，大端
     public static short bytes2shortBE(byte[] bytes) {
         return (short) ((bytes[0] & 0xff) << 8 | (bytes[1] & 0xff));
@@ -0,0 +1,83 @@
+package io.github.webbluetoothcg.bletestperipheral.adv;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * 广播包内容：若干service data和manufacturer data，各自对应一个由数据源直接改写的缓冲区。
+ *
+ * 保存上一次推送给控制器的副本，用于判断内容是否变化。
+ * 缓冲区的写入和{@link #hasChanged()}/{@link #commit()}应在同一线程(定时器线程)中进行。
+ */
+public final class AdvertisingPayload {
+
+    static final class Entry {
+        final UUID uuid; // service data的UUID，manufacturer data为null
+        final int manufacturerId;
+        final byte[] live;
+        final byte[] committed;
+
+        Entry(UUID uuid, int manufacturerId, byte[] live) {
+            this.uuid = uuid;
+            this.manufacturerId = manufacturerId;
+            this.live = live;
+            this.committed = new byte[live.length];
+        }
+    }
+
+    private final ArrayList<Entry> mEntries = new ArrayList<>();
+    private volatile boolean mInvalidated = true; // 尚未推送过
+
+    /**
+     * 注册service data，之后数据源直接改写data即可。
+     */
+    public void addServiceData(UUID uuid, byte[] data) {
+        mEntries.add(new Entry(uuid, 0, data));
+        mInvalidated = true;
+    }
+
+    /**
+     * 注册manufacturer data，之后数据源直接改写data即可。
+     */
+    public void addManufacturerData(int manufacturerId, byte[] data) {
+        mEntries.add(new Entry(null, manufacturerId, data));
+        mInvalidated = true;
+    }
+
+    int size() {
+        return mEntries.size();
+    }
+
+    Entry get(int index) {
+        return mEntries.get(index);
+    }
+
+    // 与上次推送的内容相比是否有变化
+    public boolean hasChanged() {
+        if (mInvalidated) {
+            return true;
+        }
+        for (int i = 0, size = mEntries.size(); i < size; i++) {
+            Entry entry = mEntries.get(i);
+            if (!Arrays.equals(entry.live, entry.committed)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // 记录当前内容为已推送
+    public void commit() {
+        mInvalidated = false;
+        for (int i = 0, size = mEntries.size(); i < size; i++) {
+            Entry entry = mEntries.get(i);
+            System.arraycopy(entry.live, 0, entry.committed, 0, entry.live.length);
+        }
+    }
+
+    // 下一次强制推送，例如控制器设置失败后，可在任意线程调用
+    public void invalidate() {
+        mInvalidated = true;
+    }
+}
@@ -0,0 +1,141 @@
+package io.github.webbluetoothcg.bletestperipheral.adv;
+
+import android.bluetooth.le.AdvertiseData;
+import android.bluetooth.le.AdvertisingSetCallback;
+import android.os.ParcelUuid;
+
+import java.util.concurrent.TimeUnit;
+
+import io.github.webbluetoothcg.bletestperipheral.scheduler.Clock;
+import io.github.webbluetoothcg.bletestperipheral.server.Advertiser;
+
+/**
+ * 广播数据更新：只在内容变化时调用setAdvertisingData，并限制最小间隔。
+ *
+ * 每次setAdvertisingData都是一次到控制器的binder调用，内容没变时跳过。
+ * 控制器回调onAdvertisingDataSet失败时计数，并在下一次强制重发。
+ */
+public final class AdvertisingUpdater {
+
+    private final AdvertisingPayload mPayload;
+    private final Clock mClock;
+    private final long mMinIntervalNanos;
+    private final ParcelUuid[] mParcelUuids; // 解析一次后缓存
+
+    private volatile Advertiser.Handle mAdvertisingSet;
+    private boolean mIncludeDeviceName;
+    private long mLastUpdateTime;
+    private boolean mUpdatedOnce;
+
+    // 统计
+    private volatile long mUpdates;
+    private volatile long mUnchanged;
+    private volatile long mRateLimited;
+    private volatile long mFailures;
+    private volatile int mLastFailureStatus = AdvertisingSetCallback.ADVERTISE_SUCCESS;
+
+    public AdvertisingUpdater(AdvertisingPayload payload, long minIntervalMillis, Clock clock) {
+        mPayload = payload;
+        mClock = clock;
+        mMinIntervalNanos = TimeUnit.MILLISECONDS.toNanos(minIntervalMillis);
+        mParcelUuids = new ParcelUuid[payload.size()];
+        for (int i = 0; i < mParcelUuids.length; i++) {
+            AdvertisingPayload.Entry entry = payload.get(i);
+            if (entry.uuid != null) {
+                mParcelUuids[i] = new ParcelUuid(entry.uuid);
+            }
+        }
+    }
+
+    // onAdvertisingSetStarted时设置，停止时置null
+    public void setAdvertisingSet(Advertiser.Handle advertisingSet) {
+        mAdvertisingSet = advertisingSet;
+        mPayload.invalidate();
+    }
+
+    // 扩展广播不能带scan response，设备名放在广播数据中
+    public void setIncludeDeviceName(boolean includeDeviceName) {
+        mIncludeDeviceName = includeDeviceName;
+    }
+
+    // 按当前内容构造AdvertiseData
+    public AdvertiseData buildAdvertiseData() {
+        AdvertiseData.Builder builder = new AdvertiseData.Builder()
+                .setIncludeDeviceName(mIncludeDeviceName);
+        for (int i = 0; i < mParcelUuids.length; i++) {
+            AdvertisingPayload.Entry entry = mPayload.get(i);
+            if (entry.uuid != null) {
+                builder.addServiceData(mParcelUuids[i], entry.live);
+            } else {
+                builder.addManufacturerData(entry.manufacturerId, entry.live);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * 定时调用：内容变化且距上次推送超过最小间隔时推送给控制器。
+     *
+     * @return 是否推送
+     */
+    public boolean update() {
+        Advertiser.Handle advertisingSet = mAdvertisingSet;
+        if (advertisingSet == null) {
+            return false;
+        }
+        if (!mPayload.hasChanged()) {
+            mUnchanged++;
+            return false;
+        }
+        long now = mClock.nanoTime();
+        if (mUpdatedOnce && now - mLastUpdateTime < mMinIntervalNanos) {
+            mRateLimited++;
+            return false;
+        }
+        // AdvertiseData在setAdvertisingData时即被序列化，之后缓冲区可以继续改写。
+        // 先commit再设置: 失败回调可能同步到达，其中的invalidate不能被commit覆盖
+        AdvertiseData data = buildAdvertiseData();
+        mPayload.commit();
+        advertisingSet.setAdvertisingData(data);
+        mLastUpdateTime = now;
+        mUpdatedOnce = true;
+        mUpdates++;
+        return true;
+    }
+
+    // AdvertisingSetCallback.onAdvertisingDataSet
+    public void onAdvertisingDataSet(int status) {
+        if (status != AdvertisingSetCallback.ADVERTISE_SUCCESS) {
+            mFailures++;
+            mLastFailureStatus = status;
+            mPayload.invalidate();
+        }
+    }
+
+    public long getUpdateCount() {
+        return mUpdates;
+    }
+
+    public long getUnchangedCount() {
+        return mUnchanged;
+    }
+
+    public long getRateLimitedCount() {
+        return mRateLimited;
+    }
+
+    public long getFailureCount() {
+        return mFailures;
+    }
+
+    public int getLastFailureStatus() {
+        return mLastFailureStatus;
+    }
+
+    @Override
+    public String toString() {
+        return "updates=" + mUpdates + ", unchanged=" + mUnchanged + ", rateLimited="
+                + mRateLimited + ", failures=" + mFailures + ", lastFailureStatus="
+                + mLastFailureStatus;
+    }
+}
@@ -0,0 +1,181 @@
+package io.github.webbluetoothcg.bletestperipheral.adv;
+
+/**
+ * 广播manufacturer data(0xffff)中的紧凑帧，替代原来的uid + 分开的service data。
+ *
+ * <pre>
+ * 大端格式
+ * [0]    高4位版本号(1)，低4位flags: bit0 = 带采样历史
+ * [1-4]  uid去掉固定前缀0x1819后的4个字节
+ * [5]    帧序号 uint8，帧内容(不含序号)变化时加1
+ * [6]    心率 uint8，bpm
+ * [7-8]  体温 int16，0.01℃
+ * 带采样历史时(扩展广播)，心率和体温各一段:
+ * [+0]   当前采样的序号 uint8，每个采样加1
+ * [+1]   历史采样个数N
+ * [+2..] K个int8差值，从新到旧: 第i个 = 前一个更新的采样 - 该采样，超出int8时截断；
+ *        只有前N个有效，其余为0
+ * </pre>
+ * 帧长度固定，广播缓冲区注册一次即可。setXxx和{@link #encode()}应在同一线程(定时器线程)中调用。
+ * 网关侧用{@link ManufacturerFrameDecoder}解析。
+ */
+public final class ManufacturerFrame {
+
+    public static final int VERSION = 1;
+    public static final int FLAG_HISTORY = 0x01;
+    public static final int MANUFACTURER_ID = 0xffff;
+    // uid的前两个字节固定为0x1819，不放进帧
+    public static final int UID_PREFIX = 0x1819;
+    static final int HEADER_LENGTH = 9;
+    static final int HISTORY_HEADER_LENGTH = 2;
+
+    // AD结构开销: 长度(1) + 类型(1) + 公司ID(2)
+    public static final int AD_OVERHEAD = 4;
+
+    private final int mHeartRateHistory;
+    private final int mTemperatureHistory;
+    private final byte[] mBuffer;
+    private final byte[] mScratch;
+    private final Field mHeartRate;
+    private final Field mTemperature;
+    private int mSequence;
+
+    // 一个传感器的当前值和最近K个历史值
+    private static final class Field {
+        final int[] history; // 环形，history[head]为最旧
+        int head;
+        int count;
+        int current;
+        int sequence;
+        boolean sampled; // 第一个采样之前current不是有效采样，不进入历史
+
+        Field(int capacity) {
+            history = new int[capacity];
+        }
+
+        void add(int value) {
+            if (sampled && history.length > 0) {
+                if (count == history.length) {
+                    history[head] = current;
+                    head = (head + 1) % history.length;
+                } else {
+                    history[(head + count) % history.length] = current;
+                    count++;
+                }
+            }
+            current = value;
+            sampled = true;
+            sequence = (sequence + 1) & 0xFF;
+        }
+
+        // 写入历史段，返回下一个下标
+        int write(byte[] out, int index) {
+            out[index++] = (byte) sequence;
+            out[index++] = (byte) count;
+            int newer = current;
+            for (int i = 0; i < history.length; i++) {
+                if (i < count) {
+                    int value = history[(head + count - 1 - i) % history.length];
+                    int delta = Math.max(Byte.MIN_VALUE, Math.min(Byte.MAX_VALUE, newer - value));
+                    out[index++] = (byte) delta;
+                    newer -= delta; // 截断时接收方还原的值
+                } else {
+                    out[index++] = 0;
+                }
+            }
+            return index;
+        }
+    }
+
+    /**
+     * @param uid                6字节uid
+     * @param heartRateHistory   携带的心率历史个数，0表示不带历史(传统广播)
+     * @param temperatureHistory 携带的体温历史个数
+     */
+    public ManufacturerFrame(byte[] uid, int heartRateHistory, int temperatureHistory) {
+        if (heartRateHistory > 0xFF || temperatureHistory > 0xFF) {
+            throw new IllegalArgumentException("history too long");
+        }
+        mHeartRateHistory = heartRateHistory;
+        mTemperatureHistory = temperatureHistory;
+        int length = HEADER_LENGTH;
+        if (hasHistory()) {
+            length += HISTORY_HEADER_LENGTH * 2 + heartRateHistory + temperatureHistory;
+        }
+        mBuffer = new byte[length];
+        mScratch = new byte[length];
+        mHeartRate = new Field(heartRateHistory);
+        mTemperature = new Field(temperatureHistory);
+        mBuffer[0] = mScratch[0] = (byte) (VERSION << 4 | (hasHistory() ? FLAG_HISTORY : 0));
+        System.arraycopy(uid, 2, mBuffer, 1, 4);
+        System.arraycopy(uid, 2, mScratch, 1, 4);
+    }
+
+    public boolean hasHistory() {
+        return mHeartRateHistory > 0 || mTemperatureHistory > 0;
+    }
+
+    // 广播缓冲区，注册到AdvertisingPayload
+    public byte[] getBuffer() {
+        return mBuffer;
+    }
+
+    public int getLength() {
+        return mBuffer.length;
+    }
+
+    // 在广播中占用的字节数，含AD结构开销
+    public int getAdvertisingLength() {
+        return mBuffer.length + AD_OVERHEAD;
+    }
+
+    /**
+     * 检查帧是否放得下，构造广播参数时调用。
+     *
+     * @param budget 可用于manufacturer data AD结构的字节数
+     * @throws IllegalStateException 超出时
+     */
+    public void checkBudget(int budget) {
+        if (getAdvertisingLength() > budget) {
+            throw new IllegalStateException("manufacturer frame needs " + getAdvertisingLength()
+                    + " bytes, only " + budget + " available");
+        }
+    }
+
+    public void setHeartRate(int heartRate) {
+        mHeartRate.add(heartRate);
+    }
+
+    public void setTemperature(int temperature) {
+        mTemperature.add(temperature);
+    }
+
+    /**
+     * 按当前值更新广播缓冲区，内容变化时帧序号加1。
+     *
+     * @return 内容是否变化
+     */
+    public boolean encode() {
+        byte[] out = mScratch;
+        out[6] = (byte) mHeartRate.current;
+        out[7] = (byte) (mTemperature.current >> 8);
+        out[8] = (byte) mTemperature.current;
+        if (hasHistory()) {
+            int index = mHeartRate.write(out, HEADER_LENGTH);
+            mTemperature.write(out, index);
+        }
+        boolean changed = false;
+        for (int i = 6; i < out.length; i++) {
+            if (out[i] != mBuffer[i]) {
+                changed = true;
+                break;
+            }
+        }
+        if (changed) {
+            mSequence = (mSequence + 1) & 0xFF;
+            System.arraycopy(out, 6, mBuffer, 6, out.length - 6);
+            mBuffer[5] = (byte) mSequence;
+        }
+        return changed;
+    }
+}
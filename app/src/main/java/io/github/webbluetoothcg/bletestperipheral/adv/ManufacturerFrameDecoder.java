@@ -0,0 +1,103 @@
+package io.github.webbluetoothcg.bletestperipheral.adv;
+
+/**
+ * {@link ManufacturerFrame}的解析，不依赖Android，供网关和测试工具使用。
+ *
+ * 输入为manufacturer data中公司ID之后的字节。
+ */
+public final class ManufacturerFrameDecoder {
+
+    /** 解析结果 */
+    public static final class Frame {
+        public final int version;
+        public final int flags;
+        // 6字节，含固定前缀0x1819
+        public final byte[] uid;
+        public final int sequence;
+        public final int heartRate;
+        // 0.01℃
+        public final int temperature;
+        // 从旧到新，最后一个为当前值；不带历史时只有当前值
+        public final int[] heartRateHistory;
+        public final int[] temperatureHistory;
+        // 当前采样的序号，不带历史时为-1
+        public final int heartRateSequence;
+        public final int temperatureSequence;
+
+        Frame(int version, int flags, byte[] uid, int sequence, int heartRate, int temperature,
+              int[] heartRateHistory, int heartRateSequence,
+              int[] temperatureHistory, int temperatureSequence) {
+            this.version = version;
+            this.flags = flags;
+            this.uid = uid;
+            this.sequence = sequence;
+            this.heartRate = heartRate;
+            this.temperature = temperature;
+            this.heartRateHistory = heartRateHistory;
+            this.heartRateSequence = heartRateSequence;
+            this.temperatureHistory = temperatureHistory;
+            this.temperatureSequence = temperatureSequence;
+        }
+
+        public boolean hasHistory() {
+            return (flags & ManufacturerFrame.FLAG_HISTORY) != 0;
+        }
+    }
+
+    private ManufacturerFrameDecoder() {
+    }
+
+    /**
+     * @param heartRateHistory   帧中心率历史的长度K，与编码端一致；不带历史时忽略
+     * @param temperatureHistory 帧中体温历史的长度K
+     * @throws IllegalArgumentException 版本不支持或长度不对时
+     */
+    public static Frame decode(byte[] data, int heartRateHistory, int temperatureHistory) {
+        if (data == null || data.length < ManufacturerFrame.HEADER_LENGTH) {
+            throw new IllegalArgumentException("frame too short");
+        }
+        int version = (data[0] & 0xFF) >> 4;
+        int flags = data[0] & 0x0F;
+        if (version != ManufacturerFrame.VERSION) {
+            throw new IllegalArgumentException("unsupported frame version: " + version);
+        }
+        byte[] uid = new byte[6];
+        uid[0] = (byte) (ManufacturerFrame.UID_PREFIX >> 8);
+        uid[1] = (byte) ManufacturerFrame.UID_PREFIX;
+        System.arraycopy(data, 1, uid, 2, 4);
+        int sequence = data[5] & 0xFF;
+        int heartRate = data[6] & 0xFF;
+        int temperature = (short) ((data[7] & 0xFF) << 8 | (data[8] & 0xFF));
+
+        if ((flags & ManufacturerFrame.FLAG_HISTORY) == 0) {
+            return new Frame(version, flags, uid, sequence, heartRate, temperature,
+                    new int[]{heartRate}, -1, new int[]{temperature}, -1);
+        }
+        int expected = ManufacturerFrame.HEADER_LENGTH
+                + ManufacturerFrame.HISTORY_HEADER_LENGTH * 2
+                + heartRateHistory + temperatureHistory;
+        if (data.length < expected) {
+            throw new IllegalArgumentException("frame length " + data.length
+                    + ", expected " + expected);
+        }
+        int index = ManufacturerFrame.HEADER_LENGTH;
+        int heartRateSequence = data[index] & 0xFF;
+        int[] heartRates = decodeHistory(data, index, heartRateHistory, heartRate);
+        index += ManufacturerFrame.HISTORY_HEADER_LENGTH + heartRateHistory;
+        int temperatureSequence = data[index] & 0xFF;
+        int[] temperatures = decodeHistory(data, index, temperatureHistory, temperature);
+        return new Frame(version, flags, uid, sequence, heartRate, temperature,
+                heartRates, heartRateSequence, temperatures, temperatureSequence);
+    }
+
+    private static int[] decodeHistory(byte[] data, int index, int capacity, int current) {
+        int count = Math.min(data[index + 1] & 0xFF, capacity);
+        int[] values = new int[count + 1];
+        values[count] = current;
+        for (int i = 0; i < count; i++) {
+            // 差值从新到旧: 前一个更新的采样 - 该采样
+            values[count - 1 - i] = values[count - i] - data[index + 2 + i];
+        }
+        return values;
+    }
+}
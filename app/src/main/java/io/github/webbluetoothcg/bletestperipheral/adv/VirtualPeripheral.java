@@ -0,0 +1,150 @@
+package io.github.webbluetoothcg.bletestperipheral.adv;
+
+import android.bluetooth.le.AdvertiseData;
+import android.bluetooth.le.AdvertisingSetCallback;
+
+import java.util.concurrent.Executor;
+
+import io.github.webbluetoothcg.bletestperipheral.scheduler.Clock;
+import io.github.webbluetoothcg.bletestperipheral.server.Advertiser;
+import io.github.webbluetoothcg.bletestperipheral.signal.RandomWalkGenerator;
+import io.github.webbluetoothcg.bletestperipheral.signal.SignalGenerator;
+
+/**
+ * 多身份模式中的一个虚拟外设：独立的广播集、uid和模拟传感器。
+ *
+ * 广播包格式与主广播的传统广播相同(不带采样历史的{@link ManufacturerFrame})，
+ * 只广播不可连接。传感器和广播数据在{@link #tick()}中更新，应在定时器线程中调用；
+ * 广播集回调(在binder线程或主线程中)转交给构造时传入的executor，与tick在同一线程中访问广播状态。
+ */
+public final class VirtualPeripheral {
+
+    public static final int STATE_STOPPED = 0;
+    public static final int STATE_STARTING = 1;
+    public static final int STATE_STARTED = 2;
+    public static final int STATE_FAILED = 3;
+
+    /** 广播集启动结果，在executor中回调 */
+    public interface Listener {
+        // status为AdvertisingSetCallback中的状态码
+        void onStarted(VirtualPeripheral peripheral, int status);
+    }
+
+    private final int mIndex;
+    private final byte[] mUid;
+    private final ManufacturerFrame mFrame;
+    private final SignalGenerator mHeartRateGenerator;
+    private final SignalGenerator mTemperatureGenerator;
+    private final AdvertisingUpdater mUpdater;
+    private final Listener mListener;
+    private final Executor mExecutor;
+    private volatile int mState = STATE_STOPPED;
+
+    private final Advertiser.Callback mCallback = new Advertiser.Callback() {
+        @Override
+        public void onAdvertisingSetStarted(final Advertiser.Handle handle, int txPower,
+                                            final int status) {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    boolean success = status == AdvertisingSetCallback.ADVERTISE_SUCCESS;
+                    mState = success ? STATE_STARTED : STATE_FAILED;
+                    mUpdater.setAdvertisingSet(success ? handle : null);
+                    mListener.onStarted(VirtualPeripheral.this, status);
+                }
+            });
+        }
+
+        @Override
+        public void onAdvertisingSetStopped(Advertiser.Handle handle) {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    mState = STATE_STOPPED;
+                    mUpdater.setAdvertisingSet(null);
+                }
+            });
+        }
+
+        @Override
+        public void onAdvertisingDataSet(Advertiser.Handle handle, final int status) {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    mUpdater.onAdvertisingDataSet(status);
+                }
+            });
+        }
+    };
+
+    /**
+     * @param uid      6字节，放在manufacturer data帧中，同时作为传感器的随机种子
+     * @param executor 执行广播集回调和listener，通常投递到调用tick的线程
+     */
+    public VirtualPeripheral(int index, byte[] uid, long minIntervalMillis, Clock clock,
+                             Listener listener, Executor executor) {
+        mIndex = index;
+        mUid = uid.clone();
+        mListener = listener;
+        mExecutor = executor;
+        mFrame = new ManufacturerFrame(mUid, 0, 0);
+        long seed = 0;
+        for (byte b : mUid) {
+            seed = seed << 8 | (b & 0xFF);
+        }
+        // 与主广播相同的范围: 心率[60, 120]bpm，体温[36.00, 37.50]℃
+        mHeartRateGenerator = new RandomWalkGenerator(60, 120, 80, 2, seed);
+        mTemperatureGenerator = new RandomWalkGenerator(3600, 3750, 3680, 5, ~seed);
+        sample();
+
+        AdvertisingPayload payload = new AdvertisingPayload();
+        payload.addManufacturerData(ManufacturerFrame.MANUFACTURER_ID, mFrame.getBuffer());
+        mUpdater = new AdvertisingUpdater(payload, minIntervalMillis, clock);
+    }
+
+    public int getIndex() {
+        return mIndex;
+    }
+
+    public byte[] getUid() {
+        return mUid.clone();
+    }
+
+    public int getState() {
+        return mState;
+    }
+
+    public Advertiser.Callback getCallback() {
+        return mCallback;
+    }
+
+    public AdvertisingUpdater getUpdater() {
+        return mUpdater;
+    }
+
+    // 调用Advertiser#startAdvertisingSet前调用
+    public void onStarting() {
+        mState = STATE_STARTING;
+    }
+
+    public AdvertiseData buildAdvertiseData() {
+        return mUpdater.buildAdvertiseData();
+    }
+
+    // 定时器线程: 产生新的采样并在内容变化时更新广播
+    public void tick() {
+        sample();
+        mUpdater.update();
+    }
+
+    private void sample() {
+        mFrame.setHeartRate(mHeartRateGenerator.next());
+        mFrame.setTemperature(mTemperatureGenerator.next());
+        mFrame.encode();
+    }
+
+    @Override
+    public String toString() {
+        return "VirtualPeripheral{index=" + mIndex + ", state=" + mState + ", " + mUpdater + "}";
+    }
+}
@@ -0,0 +1,90 @@
+package io.github.webbluetoothcg.bletestperipheral.codec;
+
+/**
+ * Current Time (0x2A2B) 编解码，exact_time_256 + adjustReason，固定10字节。
+ *
+ * <pre>
+ * 示例：2020/10/08 20:06:10 -> e4070a0814060a000000
+ * [0-1] year，小端
+ * [2] month
+ * [3] day
+ * [4] hour
+ * [5] minute
+ * [6] second
+ * [7] dayOfWeek
+ * [8] fractions256
+ * [9] adjustReason
+ * </pre>
+ */
+public final class CurrentTimeCodec {
+
+    public static final int LENGTH = 10;
+
+    // 解码结果，可重复使用
+    public static final class Value {
+        public int year;
+        public int month;
+        public int day;
+        public int hour;
+        public int minute;
+        public int second;
+        public int dayOfWeek;
+        public int fractions256;
+        public int adjustReason;
+    }
+
+    private CurrentTimeCodec() {
+    }
+
+    public static boolean isValidLength(byte[] value) {
+        return value != null && value.length == LENGTH;
+    }
+
+    // 编码到buffer[offset, offset+10)
+    public static void encode(Value time, byte[] buffer, int offset) {
+        buffer[offset] = (byte) time.year;
+        buffer[offset + 1] = (byte) (time.year >> 8);
+        buffer[offset + 2] = (byte) time.month;
+        buffer[offset + 3] = (byte) time.day;
+        buffer[offset + 4] = (byte) time.hour;
+        buffer[offset + 5] = (byte) time.minute;
+        buffer[offset + 6] = (byte) time.second;
+        buffer[offset + 7] = (byte) time.dayOfWeek;
+        buffer[offset + 8] = (byte) time.fractions256;
+        buffer[offset + 9] = (byte) time.adjustReason;
+    }
+
+    // 从buffer[offset, offset+10)解码到out
+    public static Value decode(byte[] buffer, int offset, Value out) {
+        out.year = (buffer[offset] & 0xFF) | (buffer[offset + 1] & 0xFF) << 8;
+        out.month = buffer[offset + 2] & 0xFF;
+        out.day = buffer[offset + 3] & 0xFF;
+        out.hour = buffer[offset + 4] & 0xFF;
+        out.minute = buffer[offset + 5] & 0xFF;
+        out.second = buffer[offset + 6] & 0xFF;
+        out.dayOfWeek = buffer[offset + 7] & 0xFF;
+        out.fractions256 = buffer[offset + 8] & 0xFF;
+        out.adjustReason = buffer[offset + 9] & 0xFF;
+        return out;
+    }
+
+    // 格式化为 yyyy-MM-dd HH:mm:ss，追加到builder，不使用String.format
+    public static StringBuilder format(Value time, StringBuilder builder) {
+        appendPadded(builder, time.year, 4).append('-');
+        appendPadded(builder, time.month, 2).append('-');
+        appendPadded(builder, time.day, 2).append(' ');
+        appendPadded(builder, time.hour, 2).append(':');
+        appendPadded(builder, time.minute, 2).append(':');
+        appendPadded(builder, time.second, 2);
+        return builder;
+    }
+
+    private static StringBuilder appendPadded(StringBuilder builder, int value, int width) {
+        for (int limit = 10, digits = 1; digits < width; limit *= 10, digits++) {
+            if (value < limit) {
+                builder.append('0');
+            }
+        }
+        return builder.append(value);
+    }
+}
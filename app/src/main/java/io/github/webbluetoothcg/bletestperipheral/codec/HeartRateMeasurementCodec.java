@@ -0,0 +1,190 @@
+package io.github.webbluetoothcg.bletestperipheral.codec;
+
+/**
+ * Heart Rate Measurement (0x2A37) 编解码。
+ *
+ * 每种帧长度在第一次使用时分配一个缓冲区并一直复用，encode返回的数组可直接作为characteristic的值，
+ * 稳定运行时不再分配内存。返回的数组会被下一次encode覆盖。
+ *
+ * <pre>
+ * [0]    flags
+ *          bit0   : 心率格式 0=uint8 1=uint16
+ *          bit1-2 : sensor contact status
+ *          bit3   : energy expended 存在
+ *          bit4   : RR-interval 存在
+ * [1]    心率 uint8 (或 [1-2] uint16，小端)
+ * [..]   energy expended uint16，小端，单位kJ
+ * [..]   RR-interval uint16 * N，小端，单位1/1024秒
+ * </pre>
+ */
+public final class HeartRateMeasurementCodec {
+
+    public static final int FLAG_VALUE_UINT16 = 0x01;
+    public static final int FLAG_SENSOR_CONTACT_SUPPORTED = 0x04;
+    public static final int FLAG_SENSOR_CONTACT_DETECTED = 0x02;
+    public static final int FLAG_ENERGY_EXPENDED = 0x08;
+    public static final int FLAG_RR_INTERVAL = 0x10;
+
+    // 默认ATT_MTU(23) - 3
+    public static final int DEFAULT_MAX_LENGTH = 20;
+
+    // 60秒 * 1024，心率(bpm)与RR-interval(1/1024秒)互相换算
+    private static final int RR_PER_MINUTE = 60 * 1024;
+
+    private final byte[][] mFrames; // 下标为帧长度
+    private final int mMaxLength;
+    private final int[] mRrScratch;
+
+    public HeartRateMeasurementCodec() {
+        this(DEFAULT_MAX_LENGTH);
+    }
+
+    public HeartRateMeasurementCodec(int maxLength) {
+        if (maxLength < 2) {
+            throw new IllegalArgumentException("maxLength must be at least 2");
+        }
+        mMaxLength = maxLength;
+        mFrames = new byte[maxLength + 1][];
+        mRrScratch = new int[maxLength / 2];
+    }
+
+    public int getMaxLength() {
+        return mMaxLength;
+    }
+
+    // 在maxLength限制下最多可携带的RR-interval个数
+    public int getMaxRrIntervals(int heartRate, boolean energyExpended) {
+        return getMaxRrIntervals(heartRate, energyExpended, mMaxLength);
+    }
+
+    private static int getMaxRrIntervals(int heartRate, boolean energyExpended, int maxLength) {
+        int header = 1 + (heartRate > 0xFF ? 2 : 1) + (energyExpended ? 2 : 0);
+        return Math.max(0, (maxLength - header) / 2);
+    }
+
+    // maxLength字节内一帧最多可携带的心率采样个数(uint8心率，带energy expended)
+    public static int getBatchCapacity(int maxLength) {
+        return Math.max(1, getMaxRrIntervals(0, true, maxLength));
+    }
+
+    // 与encodeBatch相同，maxLength不超过构造时的maxLength，按此取出的采样都能放进一帧
+    public int getBatchCapacityFor(int maxLength) {
+        return getBatchCapacity(Math.min(maxLength, mMaxLength));
+    }
+
+    /**
+     * 把多个心率采样打包成一帧: 心率字段为最新的采样，每个采样按60 * 1024 / bpm(四舍五入)
+     * 换算成一个RR-interval，接收方用{@link #rrIntervalToHeartRate}还原每个采样。
+     * 只有一个采样时与{@link #encode(int, int)}相同。
+     *
+     * @param maxLength 帧的最大长度，通常是设备的MTU - 3，不超过构造时的maxLength
+     */
+    public byte[] encodeBatch(int[] heartRates, int offset, int count, int energyExpended,
+                              int maxLength) {
+        int latest = heartRates[offset + count - 1];
+        if (count == 1) {
+            return encode(latest, energyExpended);
+        }
+        count = Math.min(count, mRrScratch.length);
+        for (int i = 0; i < count; i++) {
+            int bpm = heartRates[offset + i];
+            // 四舍五入，1-255 bpm经rrIntervalToHeartRate还原后不变
+            mRrScratch[i] = bpm > 0 ? Math.min((RR_PER_MINUTE + bpm / 2) / bpm, 0xFFFF) : 0xFFFF;
+        }
+        return encode(latest, energyExpended, mRrScratch, 0, Math.min(count,
+                getMaxRrIntervals(latest, energyExpended >= 0,
+                        Math.min(maxLength, mMaxLength))));
+    }
+
+    // RR-interval(1/1024秒)还原为心率(bpm)
+    public static int rrIntervalToHeartRate(int rrInterval) {
+        return rrInterval > 0 ? Math.round((float) RR_PER_MINUTE / rrInterval) : 0;
+    }
+
+    // 仅心率 + energy expended，与原有的4字节格式一致: 08 XX 00 00
+    public byte[] encode(int heartRate, int energyExpended) {
+        return encode(heartRate, energyExpended, null, 0, 0);
+    }
+
+    /**
+     * 编码心率帧。
+     *
+     * @param heartRate 心率，大于255时自动使用uint16格式
+     * @param energyExpended energy expended(kJ)，小于0时不携带
+     * @param rrIntervals RR-interval数组(1/1024秒)，可为null
+     * @param rrOffset rrIntervals起始下标
+     * @param rrCount RR-interval个数，超出maxLength的部分被截断
+     * @return 预分配的帧缓冲区，长度即为帧长度
+     */
+    public byte[] encode(int heartRate, int energyExpended, int[] rrIntervals, int rrOffset,
+                         int rrCount) {
+        boolean wide = heartRate > 0xFF;
+        boolean hasEnergy = energyExpended >= 0;
+        int count = rrIntervals == null ? 0 : Math.min(rrCount,
+                getMaxRrIntervals(heartRate, hasEnergy));
+        int length = 1 + (wide ? 2 : 1) + (hasEnergy ? 2 : 0) + count * 2;
+        if (length > mMaxLength) {
+            // 即使不带RR-interval也放不下，只能丢弃energy expended
+            hasEnergy = false;
+            length = 1 + (wide ? 2 : 1);
+        }
+        byte[] frame = mFrames[length];
+        if (frame == null) {
+            frame = new byte[length];
+            mFrames[length] = frame;
+        }
+        int flags = (wide ? FLAG_VALUE_UINT16 : 0)
+                | (hasEnergy ? FLAG_ENERGY_EXPENDED : 0)
+                | (count > 0 ? FLAG_RR_INTERVAL : 0);
+        int index = 0;
+        frame[index++] = (byte) flags;
+        frame[index++] = (byte) heartRate;
+        if (wide) {
+            frame[index++] = (byte) (heartRate >> 8);
+        }
+        if (hasEnergy) {
+            int energy = Math.min(energyExpended, 0xFFFF);
+            frame[index++] = (byte) energy;
+            frame[index++] = (byte) (energy >> 8);
+        }
+        for (int i = 0; i < count; i++) {
+            int rr = rrIntervals[rrOffset + i];
+            frame[index++] = (byte) rr;
+            frame[index++] = (byte) (rr >> 8);
+        }
+        return frame;
+    }
+
+    // 解码心率值
+    public static int decodeHeartRate(byte[] value) {
+        if ((value[0] & FLAG_VALUE_UINT16) != 0) {
+            return (value[1] & 0xFF) | (value[2] & 0xFF) << 8;
+        }
+        return value[1] & 0xFF;
+    }
+
+    // 解码energy expended，不存在时返回-1
+    public static int decodeEnergyExpended(byte[] value) {
+        if ((value[0] & FLAG_ENERGY_EXPENDED) == 0) {
+            return -1;
+        }
+        int index = (value[0] & FLAG_VALUE_UINT16) != 0 ? 3 : 2;
+        return (value[index] & 0xFF) | (value[index + 1] & 0xFF) << 8;
+    }
+
+    // 解码RR-interval到out中，返回个数
+    public static int decodeRrIntervals(byte[] value, int length, int[] out) {
+        int flags = value[0];
+        if ((flags & FLAG_RR_INTERVAL) == 0) {
+            return 0;
+        }
+        int index = 1 + ((flags & FLAG_VALUE_UINT16) != 0 ? 2 : 1)
+                + ((flags & FLAG_ENERGY_EXPENDED) != 0 ? 2 : 0);
+        int count = 0;
+        while (index + 1 < length && count < out.length) {
+            out[count++] = (value[index] & 0xFF) | (value[index + 1] & 0xFF) << 8;
+            index += 2;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,112 @@
+package io.github.webbluetoothcg.bletestperipheral.codec;
+
+/**
+ * IEEE-11073 20601 SFLOAT(16bit)/FLOAT(32bit) 编解码，小端写入调用方提供的缓冲区。
+ *
+ * SFLOAT: 4bit 有符号指数 + 12bit 有符号尾数
+ * FLOAT:  8bit 有符号指数 + 24bit 有符号尾数
+ */
+public final class Ieee11073 {
+
+    // 保留值
+    public static final int SFLOAT_NAN = 0x07FF;
+    public static final int SFLOAT_NRES = 0x0800;
+    public static final int SFLOAT_POSITIVE_INFINITY = 0x07FE;
+    public static final int SFLOAT_NEGATIVE_INFINITY = 0x0802;
+    public static final int FLOAT_NAN = 0x007FFFFF;
+    public static final int FLOAT_NRES = 0x00800000;
+    public static final int FLOAT_POSITIVE_INFINITY = 0x007FFFFE;
+    public static final int FLOAT_NEGATIVE_INFINITY = 0x00800002;
+
+    public static final int SFLOAT_SIZE = 2;
+    public static final int FLOAT_SIZE = 4;
+
+    private static final int SFLOAT_MANTISSA_MAX = 0x07FD;
+    private static final int SFLOAT_MANTISSA_MIN = -0x07FD;
+    private static final int FLOAT_MANTISSA_MAX = 0x007FFFFD;
+    private static final int FLOAT_MANTISSA_MIN = -0x007FFFFD;
+
+    private Ieee11073() {
+    }
+
+    // 尾数 * 10^指数 -> SFLOAT，超出范围返回NRES
+    public static int toSfloat(int mantissa, int exponent) {
+        if (mantissa > SFLOAT_MANTISSA_MAX || mantissa < SFLOAT_MANTISSA_MIN
+                || exponent > 7 || exponent < -8) {
+            return SFLOAT_NRES;
+        }
+        return ((exponent & 0x0F) << 12) | (mantissa & 0x0FFF);
+    }
+
+    // 尾数 * 10^指数 -> FLOAT，超出范围返回NRES
+    public static int toFloat(int mantissa, int exponent) {
+        if (mantissa > FLOAT_MANTISSA_MAX || mantissa < FLOAT_MANTISSA_MIN
+                || exponent > 127 || exponent < -128) {
+            return FLOAT_NRES;
+        }
+        return ((exponent & 0xFF) << 24) | (mantissa & 0x00FFFFFF);
+    }
+
+    // 写入SFLOAT，小端，返回写入后的偏移
+    public static int writeSfloat(byte[] buffer, int offset, int mantissa, int exponent) {
+        int bits = toSfloat(mantissa, exponent);
+        buffer[offset] = (byte) bits;
+        buffer[offset + 1] = (byte) (bits >> 8);
+        return offset + SFLOAT_SIZE;
+    }
+
+    // 写入FLOAT，小端，返回写入后的偏移
+    public static int writeFloat(byte[] buffer, int offset, int mantissa, int exponent) {
+        int bits = toFloat(mantissa, exponent);
+        buffer[offset] = (byte) bits;
+        buffer[offset + 1] = (byte) (bits >> 8);
+        buffer[offset + 2] = (byte) (bits >> 16);
+        buffer[offset + 3] = (byte) (bits >> 24);
+        return offset + FLOAT_SIZE;
+    }
+
+    // 读取SFLOAT，保留值映射为NaN/Infinity
+    public static float readSfloat(byte[] buffer, int offset) {
+        int bits = (buffer[offset] & 0xFF) | (buffer[offset + 1] & 0xFF) << 8;
+        switch (bits) {
+            case SFLOAT_POSITIVE_INFINITY:
+                return Float.POSITIVE_INFINITY;
+            case SFLOAT_NEGATIVE_INFINITY:
+                return Float.NEGATIVE_INFINITY;
+            case SFLOAT_NAN:
+            case SFLOAT_NRES:
+            case 0x0801:
+                return Float.NaN;
+            default:
+                break;
+        }
+        int mantissa = (bits << 20) >> 20; // 12bit符号扩展
+        int exponent = bits >> 12;
+        exponent = (exponent << 28) >> 28; // 4bit符号扩展
+        return (float) (mantissa * Math.pow(10, exponent));
+    }
+
+    // 读取FLOAT，保留值映射为NaN/Infinity
+    public static double readFloat(byte[] buffer, int offset) {
+        int bits = (buffer[offset] & 0xFF)
+                | (buffer[offset + 1] & 0xFF) << 8
+                | (buffer[offset + 2] & 0xFF) << 16
+                | (buffer[offset + 3] & 0xFF) << 24;
+        int mantissaBits = bits & 0x00FFFFFF;
+        switch (mantissaBits) {
+            case FLOAT_POSITIVE_INFINITY:
+                return Double.POSITIVE_INFINITY;
+            case FLOAT_NEGATIVE_INFINITY:
+                return Double.NEGATIVE_INFINITY;
+            case FLOAT_NAN:
+            case FLOAT_NRES:
+            case 0x00800001:
+                return Double.NaN;
+            default:
+                break;
+        }
+        int mantissa = (bits << 8) >> 8; // 24bit符号扩展
+        int exponent = bits >> 24;
+        return mantissa * Math.pow(10, exponent);
+    }
+}
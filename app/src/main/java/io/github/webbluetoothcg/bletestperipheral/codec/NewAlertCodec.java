@@ -0,0 +1,52 @@
+package io.github.webbluetoothcg.bletestperipheral.codec;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * New Alert (0x2A46) 编解码。
+ *
+ * <pre>
+ * 示例：050148656c6c6f2c20576f726c6421 -> Hello, World!
+ * [0]  categoryId，默认05为SMS
+ * [1]  numberOfNewAlert
+ * [2+] utf8s 消息内容
+ * </pre>
+ */
+public final class NewAlertCodec {
+
+    public static final int HEADER_LENGTH = 2;
+    public static final int CATEGORY_SMS = 0x05;
+
+    private NewAlertCodec() {
+    }
+
+    public static int decodeCategoryId(byte[] value) {
+        return value[0] & 0xFF;
+    }
+
+    public static int decodeNumberOfNewAlert(byte[] value) {
+        return value[1] & 0xFF;
+    }
+
+    // 直接从原数组解码消息，不复制中间数组；末尾的0填充被忽略
+    public static String decodeText(byte[] value, int length) {
+        int end = length;
+        while (end > HEADER_LENGTH && value[end - 1] == 0) {
+            end--;
+        }
+        if (end <= HEADER_LENGTH) {
+            return "";
+        }
+        return new String(value, HEADER_LENGTH, end - HEADER_LENGTH, StandardCharsets.UTF_8);
+    }
+
+    // 编码到buffer，text超出部分被截断，返回帧长度
+    public static int encode(int categoryId, int numberOfNewAlert, byte[] text, int textLength,
+                             byte[] buffer) {
+        int length = Math.min(textLength, buffer.length - HEADER_LENGTH);
+        buffer[0] = (byte) categoryId;
+        buffer[1] = (byte) numberOfNewAlert;
+        System.arraycopy(text, 0, buffer, HEADER_LENGTH, length);
+        return HEADER_LENGTH + length;
+    }
+}
@@ -0,0 +1,145 @@
+package io.github.webbluetoothcg.bletestperipheral.codec;
+
+/**
+ * Record Access Control Point (0x2A52) 和批量记录帧的编解码。
+ *
+ * <pre>
+ * RACP请求，小端格式
+ * [0]    op code
+ * [1]    operator
+ * [2..]  operand，operator为大于等于时: [filter type 0x01 序号][序号 uint32]
+ *
+ * RACP响应
+ * 个数:   [0x05][0x00][个数 uint32]
+ * 结果:   [0x06][0x00][请求的op code][response code]
+ * </pre>
+ * 与GLS/CGMS的RACP相比，序号和个数扩展为uint32，以覆盖日志的全部记录。
+ *
+ * <pre>
+ * 记录帧(records characteristic的notify)，小端格式
+ * [0]      记录个数N
+ * [1-4]    第一条记录的序号 uint32，之后依次加1
+ * [5-10]   第一条记录的时间，毫秒 uint48
+ * [11..]   N条记录，每条4字节:
+ *          [0-1] 与前一条记录的时间差，毫秒 uint16，超出时为0xFFFF；第一条为0
+ *          [2-3] 采样 int16
+ * </pre>
+ * 帧长度为11 + 4 * N，不超过设备的MTU - 3。
+ */
+public final class RecordAccessCodec {
+
+    // op code
+    public static final int OP_REPORT_STORED_RECORDS = 0x01;
+    public static final int OP_DELETE_STORED_RECORDS = 0x02;
+    public static final int OP_ABORT = 0x03;
+    public static final int OP_REPORT_NUMBER_OF_RECORDS = 0x04;
+    public static final int OP_NUMBER_OF_RECORDS_RESPONSE = 0x05;
+    public static final int OP_RESPONSE_CODE = 0x06;
+
+    // operator
+    public static final int OPERATOR_NULL = 0x00;
+    public static final int OPERATOR_ALL = 0x01;
+    public static final int OPERATOR_LESS_OR_EQUAL = 0x02;
+    public static final int OPERATOR_GREATER_OR_EQUAL = 0x03;
+    public static final int OPERATOR_RANGE = 0x04;
+    public static final int OPERATOR_FIRST = 0x05;
+    public static final int OPERATOR_LAST = 0x06;
+
+    public static final int FILTER_SEQUENCE_NUMBER = 0x01;
+
+    // response code
+    public static final int RESPONSE_SUCCESS = 0x01;
+    public static final int RESPONSE_OP_CODE_NOT_SUPPORTED = 0x02;
+    public static final int RESPONSE_INVALID_OPERATOR = 0x03;
+    public static final int RESPONSE_OPERATOR_NOT_SUPPORTED = 0x04;
+    public static final int RESPONSE_INVALID_OPERAND = 0x05;
+    public static final int RESPONSE_NO_RECORDS_FOUND = 0x06;
+    public static final int RESPONSE_ABORT_UNSUCCESSFUL = 0x07;
+    public static final int RESPONSE_PROCEDURE_NOT_COMPLETED = 0x08;
+
+    // 写RACP时返回的ATT错误码
+    public static final int ATT_PROCEDURE_ALREADY_IN_PROGRESS = 0x80;
+    public static final int ATT_CCCD_IMPROPERLY_CONFIGURED = 0x81;
+
+    public static final int RECORD_HEADER_LENGTH = 11;
+    public static final int RECORD_LENGTH = 4;
+    private static final int MAX_RECORDS = 0xFF;
+
+    private final byte[][] mFrames; // 下标为记录个数，第一次使用时分配
+
+    public RecordAccessCodec() {
+        mFrames = new byte[MAX_RECORDS + 1][];
+    }
+
+    public static int decodeOpCode(byte[] value) {
+        return value[0] & 0xFF;
+    }
+
+    public static int decodeOperator(byte[] value) {
+        return value[1] & 0xFF;
+    }
+
+    /**
+     * 解析大于等于operator的operand。
+     *
+     * @return 序号，operand无效时返回-1
+     */
+    public static long decodeSequenceOperand(byte[] value) {
+        if (value.length != 7 || (value[2] & 0xFF) != FILTER_SEQUENCE_NUMBER) {
+            return -1;
+        }
+        return (value[3] & 0xFFL) | (value[4] & 0xFFL) << 8 | (value[5] & 0xFFL) << 16
+                | (value[6] & 0xFFL) << 24;
+    }
+
+    public static byte[] encodeResponse(int requestOpCode, int responseCode) {
+        return new byte[]{(byte) OP_RESPONSE_CODE, (byte) OPERATOR_NULL,
+                (byte) requestOpCode, (byte) responseCode};
+    }
+
+    public static byte[] encodeNumberOfRecords(long count) {
+        return new byte[]{(byte) OP_NUMBER_OF_RECORDS_RESPONSE, (byte) OPERATOR_NULL,
+                (byte) count, (byte) (count >> 8), (byte) (count >> 16), (byte) (count >> 24)};
+    }
+
+    // maxLength字节内一帧最多可携带的记录个数
+    public static int getCapacity(int maxLength) {
+        return Math.max(0, Math.min((maxLength - RECORD_HEADER_LENGTH) / RECORD_LENGTH,
+                MAX_RECORDS));
+    }
+
+    /**
+     * @return 复用的帧缓冲区，会被下一次encode覆盖
+     */
+    public byte[] encodeRecords(long firstSequence, long[] times, int[] samples, int offset,
+                                int count) {
+        if (count < 1 || count > MAX_RECORDS) {
+            throw new IllegalArgumentException("count out of range: " + count);
+        }
+        byte[] frame = mFrames[count];
+        if (frame == null) {
+            frame = new byte[RECORD_HEADER_LENGTH + count * RECORD_LENGTH];
+            mFrames[count] = frame;
+        }
+        frame[0] = (byte) count;
+        for (int i = 0; i < 4; i++) {
+            frame[1 + i] = (byte) (firstSequence >> (8 * i));
+        }
+        long time = times[offset];
+        for (int i = 0; i < 6; i++) {
+            frame[5 + i] = (byte) (time >> (8 * i));
+        }
+        int index = RECORD_HEADER_LENGTH;
+        for (int i = 0; i < count; i++) {
+            long delta = times[offset + i] - time;
+            int encoded = delta < 0 ? 0 : (int) Math.min(delta, 0xFFFF);
+            time = times[offset + i];
+            int sample = samples[offset + i];
+            frame[index++] = (byte) encoded;
+            frame[index++] = (byte) (encoded >> 8);
+            frame[index++] = (byte) sample;
+            frame[index++] = (byte) (sample >> 8);
+        }
+        return frame;
+    }
+}
@@ -0,0 +1,78 @@
+package io.github.webbluetoothcg.bletestperipheral.codec;
+
+/**
+ * 批量采样的vendor帧，用于没有标准批量格式的characteristic(例如体温)。
+ *
+ * <pre>
+ * 小端格式
+ * [0]    帧类型 0xB1
+ * [1]    采样个数N
+ * [2-3]  第一个采样的序号 uint16，之后的采样依次加1，接收方据此发现丢失的采样
+ * [4..]  采样 int16 * N，单位与单个采样时相同(体温为0.01℃)
+ * </pre>
+ * 帧长度为4 + 2 * N，不超过设备的MTU - 3，也不超过attribute值的最大长度512。
+ */
+public final class SampleBatchCodec {
+
+    public static final int FRAME_TYPE = 0xB1;
+    public static final int HEADER_LENGTH = 4;
+    private static final int MAX_SAMPLES = 0xFF;
+    // attribute值的最大长度(与PreparedWriteQueue.MAX_ATTRIBUTE_LENGTH相同)，MTU 517时MTU - 3超过它
+    private static final int MAX_FRAME_LENGTH = 512;
+
+    private final byte[][] mFrames; // 下标为采样个数，第一次使用时分配
+
+    public SampleBatchCodec() {
+        mFrames = new byte[MAX_SAMPLES + 1][];
+    }
+
+    // maxLength字节内一帧最多可携带的采样个数
+    public static int getCapacity(int maxLength) {
+        maxLength = Math.min(maxLength, MAX_FRAME_LENGTH);
+        return Math.max(0, Math.min((maxLength - HEADER_LENGTH) / 2, MAX_SAMPLES));
+    }
+
+    /**
+     * @return 复用的帧缓冲区，会被下一次encode覆盖
+     */
+    public byte[] encode(int[] samples, int offset, int count, int firstSequence) {
+        if (count < 1 || count > MAX_SAMPLES) {
+            throw new IllegalArgumentException("count out of range: " + count);
+        }
+        byte[] frame = mFrames[count];
+        if (frame == null) {
+            frame = new byte[HEADER_LENGTH + count * 2];
+            mFrames[count] = frame;
+        }
+        frame[0] = (byte) FRAME_TYPE;
+        frame[1] = (byte) count;
+        frame[2] = (byte) firstSequence;
+        frame[3] = (byte) (firstSequence >> 8);
+        int index = HEADER_LENGTH;
+        for (int i = 0; i < count; i++) {
+            int sample = samples[offset + i];
+            frame[index++] = (byte) sample;
+            frame[index++] = (byte) (sample >> 8);
+        }
+        return frame;
+    }
+
+    public static boolean isBatchFrame(byte[] value) {
+        return value.length >= HEADER_LENGTH && (value[0] & 0xFF) == FRAME_TYPE
+                && value.length == HEADER_LENGTH + (value[1] & 0xFF) * 2;
+    }
+
+    public static int decodeSequence(byte[] value) {
+        return (value[2] & 0xFF) | (value[3] & 0xFF) << 8;
+    }
+
+    // 解码采样到out中，返回个数
+    public static int decodeSamples(byte[] value, int[] out) {
+        int count = Math.min(value[1] & 0xFF, out.length);
+        for (int i = 0; i < count; i++) {
+            int index = HEADER_LENGTH + i * 2;
+            out[i] = (short) ((value[index] & 0xFF) | (value[index + 1] & 0xFF) << 8);
+        }
+        return count;
+    }
+}
@@ -0,0 +1,40 @@
+package io.github.webbluetoothcg.bletestperipheral.codec;
+
+/**
+ * Temperature Measurement (0x2A1C) 编解码。
+ *
+ * <pre>
+ * [0]    flags bit0: 0=摄氏度 1=华氏度
+ * [1-4]  温度 IEEE-11073 FLOAT，小端
+ * </pre>
+ * 示例：00420E00FE -> 0x0E42 * 10^-2 = 36.50℃
+ *
+ * encode返回预分配的缓冲区，会被下一次encode覆盖。
+ */
+public final class TemperatureMeasurementCodec {
+
+    public static final int FLAG_FAHRENHEIT = 0x01;
+    public static final int LENGTH = 1 + Ieee11073.FLOAT_SIZE;
+
+    private final byte[] mFrame = new byte[LENGTH];
+
+    // value * 10^exponent，例如 3650, -2 -> 36.50
+    public byte[] encode(int value, int exponent, boolean fahrenheit) {
+        mFrame[0] = (byte) (fahrenheit ? FLAG_FAHRENHEIT : 0);
+        Ieee11073.writeFloat(mFrame, 1, value, exponent);
+        return mFrame;
+    }
+
+    // 摄氏度，精度0.01
+    public byte[] encodeCelsiusHundredths(int value) {
+        return encode(value, -2, false);
+    }
+
+    public static double decodeTemperature(byte[] value) {
+        return Ieee11073.readFloat(value, 1);
+    }
+
+    public static boolean isFahrenheit(byte[] value) {
+        return (value[0] & FLAG_FAHRENHEIT) != 0;
+    }
+}
@@ -0,0 +1,111 @@
+package io.github.webbluetoothcg.bletestperipheral.gatt;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+
+/**
+ * 单个characteristic的请求处理，通过{@link GattHandlerRegistry}注册。
+ *
+ * 默认实现：读取返回characteristic当前值(长值由Read Blob按offset分段读取)，写入返回不支持，
+ * 不支持长写入，忽略订阅变化。
+ */
+public abstract class CharacteristicHandler {
+
+    /** 按设备生成notify/indicate的值，每个值在上一个发送完成后才取出 */
+    public interface NotificationSource {
+        /**
+         * 发送线程在发送前调用。
+         *
+         * @param maxLength 该设备一个notify的最大长度(MTU - 3)
+         * @return 该设备的下一个值，null表示没有要发送的内容
+         */
+        byte[] next(BluetoothDevice device, int maxLength);
+
+        // 刚取出一个值之后是否还有后续，有则继续排在发送队列中
+        boolean hasNext(BluetoothDevice device);
+    }
+
+    /**
+     * 设备读取characteristic。
+     *
+     * @return 返回给设备的完整值
+     */
+    public byte[] onRead(BluetoothDevice device, BluetoothGattCharacteristic characteristic) {
+        return characteristic.getValue();
+    }
+
+    /**
+     * 设备写入characteristic。
+     *
+     * The handler should check that the value being written is valid and return a code
+     * appropriately.
+     * @return {@link BluetoothGatt#GATT_SUCCESS} if the write operation was completed
+     * successfully. See {@link BluetoothGatt} for GATT return codes.
+     */
+    public int onWrite(BluetoothDevice device, BluetoothGattCharacteristic characteristic,
+                       int offset, byte[] value) {
+        return BluetoothGatt.GATT_WRITE_NOT_PERMITTED;
+    }
+
+    /**
+     * 写入的响应发出之后调用(不需要响应的写入在{@link #onWrite}之后立即调用)，
+     * 由写入触发的notify/indicate应在这里开始，central先收到写响应。
+     *
+     * @param status {@link #onWrite}的返回值
+     */
+    public void afterWrite(BluetoothDevice device, BluetoothGattCharacteristic characteristic,
+                           int status) {
+    }
+
+    /**
+     * Execute Write提交前检查一个完整值，不能修改状态；队列中任何一个attribute不通过时全部不提交。
+     * 支持长写入的handler应在这里做{@link #onWrite}中会失败的所有检查。默认接受。
+     *
+     * @return GATT状态码
+     */
+    public int validateWrite(BluetoothDevice device, BluetoothGattCharacteristic characteristic,
+                             byte[] value) {
+        return BluetoothGatt.GATT_SUCCESS;
+    }
+
+    /**
+     * 允许通过Prepared Write写入的最大长度，0表示不支持长写入。
+     *
+     * 分段由{@link PreparedWriteQueue}重组，Execute Write时先对所有attribute调用{@link #validateWrite}，
+     * 全部通过后以offset 0调用{@link #onWrite}，响应发出后调用{@link #afterWrite}。
+     */
+    public int getMaxWriteLength() {
+        return 0;
+    }
+
+    /**
+     * 采样的批量编码，非null时通过CassiaDemoDevice.Host#sendSampleToDevices发送的采样
+     * 按各设备的MTU打包发送。默认不批量。
+     */
+    public SampleBatcher.Encoder getBatchEncoder() {
+        return null;
+    }
+
+    /**
+     * 按设备生成的notify值，非null时发送的是source给出的值而不是characteristic的当前值，
+     * 通过CassiaDemoDevice.Host#sendNotificationToDevice触发。默认为null。
+     */
+    public NotificationSource getNotificationSource() {
+        return null;
+    }
+
+    /**
+     * 设备修改了该characteristic的CCCD。
+     *
+     * @param mode {@link Connection#MODE_NONE}、{@link Connection#MODE_NOTIFY}
+     *             或{@link Connection#MODE_INDICATE}
+     */
+    public void onSubscriptionChanged(BluetoothDevice device,
+                                      BluetoothGattCharacteristic characteristic, int mode) {
+    }
+
+    // 设备断开连接，清除该设备的状态
+    public void onDisconnected(BluetoothDevice device) {
+    }
+}
@@ -0,0 +1,107 @@
+package io.github.webbluetoothcg.bletestperipheral.gatt;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 一个连接的状态: 槽位、MTU、各characteristic的CCCD订阅、notify发送队列和统计。
+ *
+ * 由{@link ConnectionRegistry}在连接时创建，断开时移除，之后不再使用。
+ * 所有方法都可以在任意线程调用。
+ *
+ * @param <D> 设备，通常是BluetoothDevice
+ * @param <C> characteristic，通常是BluetoothGattCharacteristic
+ */
+public final class Connection<D, C> {
+
+    // CCCD订阅状态
+    public static final int MODE_NONE = 0;
+    public static final int MODE_NOTIFY = 1;
+    public static final int MODE_INDICATE = 2;
+
+    private final D mDevice;
+    private final int mSlot;
+    private final long mConnectedNanos;
+    private final NotificationQueue<C> mQueue;
+    private final ConcurrentHashMap<C, Integer> mSubscriptions = new ConcurrentHashMap<>();
+    private volatile int mMtu;
+    private final AtomicLong mRequests = new AtomicLong();
+
+    Connection(D device, int slot, long connectedNanos, NotificationQueue<C> queue, int mtu) {
+        mDevice = device;
+        mSlot = slot;
+        mConnectedNanos = connectedNanos;
+        mQueue = queue;
+        mMtu = mtu;
+    }
+
+    public D getDevice() {
+        return mDevice;
+    }
+
+    // 从0开始的槽位，同时连接的设备各不相同，断开后可被新连接复用
+    public int getSlot() {
+        return mSlot;
+    }
+
+    // 连接时的Clock纳秒
+    public long getConnectedNanos() {
+        return mConnectedNanos;
+    }
+
+    public NotificationQueue<C> getQueue() {
+        return mQueue;
+    }
+
+    public int getMtu() {
+        return mMtu;
+    }
+
+    // onMtuChanged时更新
+    public void setMtu(int mtu) {
+        mMtu = mtu;
+    }
+
+    /**
+     * @return {@link #MODE_NONE}、{@link #MODE_NOTIFY}或{@link #MODE_INDICATE}
+     */
+    public int getMode(C characteristic) {
+        Integer mode = mSubscriptions.get(characteristic);
+        return mode == null ? MODE_NONE : mode;
+    }
+
+    public boolean isSubscribed(C characteristic) {
+        return mSubscriptions.containsKey(characteristic);
+    }
+
+    // 由onDescriptorWriteRequest更新
+    public void setMode(C characteristic, int mode) {
+        if (mode == MODE_NONE) {
+            mSubscriptions.remove(characteristic);
+        } else {
+            mSubscriptions.put(characteristic, mode);
+        }
+    }
+
+    // 读写请求计数
+    public void onRequest() {
+        mRequests.incrementAndGet();
+    }
+
+    public long getRequestCount() {
+        return mRequests.get();
+    }
+
+    // 连接时长，秒
+    public long getUptimeSeconds(long nowNanos) {
+        return TimeUnit.NANOSECONDS.toSeconds(nowNanos - mConnectedNanos);
+    }
+
+    @Override
+    public String toString() {
+        return "slot=" + mSlot + ", device=" + mDevice + ", mtu=" + mMtu
+                + ", subscriptions=" + mSubscriptions.size() + ", requests=" + mRequests.get()
+                + ", " + mQueue;
+    }
+}
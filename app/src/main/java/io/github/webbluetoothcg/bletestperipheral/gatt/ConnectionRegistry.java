@@ -0,0 +1,116 @@
+package io.github.webbluetoothcg.bletestperipheral.gatt;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.github.webbluetoothcg.bletestperipheral.scheduler.Clock;
+
+/**
+ * 已连接设备的注册表，替代在协议栈回调线程中修改的HashSet和按设备分开的各个Map。
+ *
+ * 连接和断开在锁内完成，并发布一个新的不可变快照数组；发送notify时遍历
+ * {@link #getSnapshot()}，不加锁、不分配内存，也不会与连接断开冲突。
+ * 按设备查找通过ConcurrentHashMap，同样不加锁。
+ *
+ * 每个连接分配当前未被占用的最小槽位。
+ *
+ * @param <D> 设备，通常是BluetoothDevice
+ * @param <C> characteristic，通常是BluetoothGattCharacteristic
+ */
+public final class ConnectionRegistry<D, C> {
+
+    private static final Comparator<Connection<?, ?>> SLOT_ORDER =
+            new Comparator<Connection<?, ?>>() {
+                @Override
+                public int compare(Connection<?, ?> a, Connection<?, ?> b) {
+                    return a.getSlot() - b.getSlot();
+                }
+            };
+
+    private final Clock mClock;
+    private final Object mLock = new Object();
+    private final ConcurrentHashMap<D, Connection<D, C>> mConnections = new ConcurrentHashMap<>();
+    private final BitSet mSlots = new BitSet(); // 在mLock内访问
+    private volatile Connection<D, C>[] mSnapshot = newArray(0);
+
+    public ConnectionRegistry(Clock clock) {
+        mClock = clock;
+    }
+
+    public Clock getClock() {
+        return mClock;
+    }
+
+    /**
+     * 设备连接。同一设备已有连接时(没有收到断开回调)先移除旧的连接。
+     *
+     * @param queue 该连接的notify发送队列
+     * @param mtu   协商前的MTU
+     */
+    public Connection<D, C> add(D device, NotificationQueue<C> queue, int mtu) {
+        synchronized (mLock) {
+            removeLocked(device);
+            int slot = mSlots.nextClearBit(0);
+            mSlots.set(slot);
+            Connection<D, C> connection = new Connection<>(device, slot, mClock.nanoTime(), queue,
+                    mtu);
+            mConnections.put(device, connection);
+            publishLocked();
+            return connection;
+        }
+    }
+
+    /**
+     * 设备断开。
+     *
+     * @return 移除的连接，未连接时返回null
+     */
+    public Connection<D, C> remove(D device) {
+        synchronized (mLock) {
+            Connection<D, C> connection = removeLocked(device);
+            if (connection != null) {
+                publishLocked();
+            }
+            return connection;
+        }
+    }
+
+    private Connection<D, C> removeLocked(D device) {
+        Connection<D, C> connection = mConnections.remove(device);
+        if (connection != null) {
+            mSlots.clear(connection.getSlot());
+        }
+        return connection;
+    }
+
+    // 复制为新数组后替换，已发布的数组不再修改
+    private void publishLocked() {
+        Connection<D, C>[] snapshot = mConnections.values().toArray(
+                ConnectionRegistry.<D, C>newArray(mConnections.size()));
+        Arrays.sort(snapshot, SLOT_ORDER);
+        mSnapshot = snapshot;
+    }
+
+    public Connection<D, C> get(D device) {
+        return mConnections.get(device);
+    }
+
+    /**
+     * 当前所有连接，按槽位排序。返回的数组不会再被修改，调用方也不应修改。
+     */
+    public Connection<D, C>[] getSnapshot() {
+        return mSnapshot;
+    }
+
+    public int size() {
+        return mSnapshot.length;
+    }
+
+    // 泛型数组只能由原始类型创建
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <D, C> Connection<D, C>[] newArray(int length) {
+        return (Connection<D, C>[]) new Connection[length];
+    }
+}
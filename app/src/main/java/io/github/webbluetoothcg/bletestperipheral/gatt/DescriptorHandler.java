@@ -0,0 +1,23 @@
+package io.github.webbluetoothcg.bletestperipheral.gatt;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattDescriptor;
+
+/**
+ * 单个descriptor的请求处理，通过{@link GattHandlerRegistry}注册。
+ *
+ * 默认实现与未注册的descriptor相同：读取返回当前值，写入直接保存。
+ */
+public abstract class DescriptorHandler {
+
+    public byte[] onRead(BluetoothDevice device, BluetoothGattDescriptor descriptor) {
+        return descriptor.getValue();
+    }
+
+    // 返回GATT状态码
+    public int onWrite(BluetoothDevice device, BluetoothGattDescriptor descriptor, byte[] value) {
+        descriptor.setValue(value);
+        return BluetoothGatt.GATT_SUCCESS;
+    }
+}
@@ -0,0 +1,64 @@
+package io.github.webbluetoothcg.bletestperipheral.gatt;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+
+import java.util.IdentityHashMap;
+import java.util.UUID;
+
+/**
+ * characteristic/descriptor到处理对象的映射，创建service时一次性建立。
+ *
+ * 协议栈回调里传回的是addService时注册的同一个对象，因此按对象引用查找，
+ * 请求路径上不需要比较或解析UUID。建立完成后只读，可在任意线程并发查询。
+ * 新增service时注册handler即可，不需要在回调中增加分支。
+ */
+public final class GattHandlerRegistry {
+
+    private final IdentityHashMap<BluetoothGattCharacteristic, CharacteristicHandler>
+            mCharacteristicHandlers = new IdentityHashMap<>();
+    private final IdentityHashMap<BluetoothGattDescriptor, DescriptorHandler>
+            mDescriptorHandlers = new IdentityHashMap<>();
+
+    public void register(BluetoothGattCharacteristic characteristic,
+                         CharacteristicHandler handler) {
+        mCharacteristicHandlers.put(characteristic, handler);
+    }
+
+    public void register(BluetoothGattDescriptor descriptor, DescriptorHandler handler) {
+        mDescriptorHandlers.put(descriptor, handler);
+    }
+
+    // 给所有service中指定UUID的descriptor注册同一个handler，例如CCCD
+    public void registerDescriptors(BluetoothGattService[] services, UUID descriptorUuid,
+                                    DescriptorHandler handler) {
+        for (BluetoothGattService service : services) {
+            for (BluetoothGattCharacteristic characteristic : service.getCharacteristics()) {
+                for (BluetoothGattDescriptor descriptor : characteristic.getDescriptors()) {
+                    if (descriptorUuid.equals(descriptor.getUuid())) {
+                        mDescriptorHandlers.put(descriptor, handler);
+                    }
+                }
+            }
+        }
+    }
+
+    // 未注册时返回null
+    public CharacteristicHandler get(BluetoothGattCharacteristic characteristic) {
+        return mCharacteristicHandlers.get(characteristic);
+    }
+
+    // 未注册时返回null
+    public DescriptorHandler get(BluetoothGattDescriptor descriptor) {
+        return mDescriptorHandlers.get(descriptor);
+    }
+
+    // 设备断开连接时通知所有characteristic的handler
+    public void onDisconnected(BluetoothDevice device) {
+        for (CharacteristicHandler handler : mCharacteristicHandlers.values()) {
+            handler.onDisconnected(device);
+        }
+    }
+}
@@ -0,0 +1,362 @@
+package io.github.webbluetoothcg.bletestperipheral.gatt;
+
+import java.util.concurrent.TimeUnit;
+
+import io.github.webbluetoothcg.bletestperipheral.metrics.LatencyHistogram;
+import io.github.webbluetoothcg.bletestperipheral.scheduler.Clock;
+
+/**
+ * 单个设备的notify/indicate发送队列，流控由onNotificationSent驱动。
+ *
+ * 同一时间只有一个notify或indication在途，收到{@link #onSent(boolean)}后才发送下一个
+ * (indication的onNotificationSent在收到central的确认后回调)。
+ * 队列中同一个characteristic只保留一项，发送时读取characteristic的当前值，因此在途期间的
+ * 多次更新合并为一个待发送项，总是最新值生效。队列满时新的characteristic被丢弃并计数。
+ *
+ * 超时:
+ * <ul>
+ * <li>notify在途超过stallTimeout仍未回调时视为丢失，继续发送</li>
+ * <li>indication在途超过indicationTimeout(ATT事务超时，30秒)仍未确认时，按协议该连接上不能再发送
+ * ATT PDU: 队列停止发送并通过{@link Sender#onIndicationTimeout}通知，由调用方断开连接</li>
+ * </ul>
+ * 超时在{@link #offer}和{@link #expire()}时检查，没有新的发送时应定期调用expire。
+ *
+ * @param <K> 发送单元，通常是BluetoothGattCharacteristic
+ */
+public final class NotificationQueue<K> {
+
+    // send的返回值
+    public static final int NOT_SENT = 0; // 协议栈拒绝，计入失败
+    public static final int SENT_NOTIFICATION = 1;
+    public static final int SENT_INDICATION = 2;
+    public static final int NOTHING_TO_SEND = 3; // 没有要发送的内容(已发完、已取消订阅)，不算失败
+
+    public interface Sender<K> {
+        /**
+         * 交给协议栈发送。
+         *
+         * @return {@link #SENT_NOTIFICATION}、{@link #SENT_INDICATION}，
+         * 协议栈拒绝时返回{@link #NOT_SENT}，没有要发送的内容时返回{@link #NOTHING_TO_SEND}
+         */
+        int send(K item);
+
+        // indication超过ATT事务超时未确认，队列已停止发送，在调用offer/expire的线程中回调
+        void onIndicationTimeout(K item);
+    }
+
+    private final Sender<K> mSender;
+    private final Clock mClock;
+    private final long mStallTimeoutNanos;
+    private final long mIndicationTimeoutNanos;
+    private volatile LatencyHistogram mSentLatency;
+    private volatile LatencyHistogram mConfirmationLatency;
+
+    // 环形队列
+    private final Object[] mItems;
+    private final long[] mEnqueueTimes;
+    private int mHead;
+    private int mSize;
+
+    private boolean mInFlight;
+    private Object mInFlightItem;
+    private boolean mInFlightIndication;
+    private long mInFlightEnqueueTime;
+    private long mInFlightSendTime;
+    private boolean mHalted; // indication超时后不再发送
+
+    // 统计
+    private long mEnqueued;
+    private long mCoalesced;
+    private long mDropped;
+    private long mSent;
+    private long mFailed;
+    private long mEmpty;
+    private long mStalled;
+    private long mIndications;
+    private long mConfirmed;
+    private long mIndicationTimeouts;
+    private long mTotalLatencyNanos;
+    private long mMaxLatencyNanos;
+    private long mTotalConfirmationNanos;
+    private long mMaxConfirmationNanos;
+
+    public NotificationQueue(Sender<K> sender, int maxDepth, long stallTimeoutMillis,
+                             long indicationTimeoutMillis, Clock clock) {
+        if (maxDepth < 1) {
+            throw new IllegalArgumentException("maxDepth must be at least 1");
+        }
+        mSender = sender;
+        mClock = clock;
+        mStallTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(stallTimeoutMillis);
+        mIndicationTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(indicationTimeoutMillis);
+        mItems = new Object[maxDepth];
+        mEnqueueTimes = new long[maxDepth];
+    }
+
+    // 记录每个notify交给协议栈到onNotificationSent的时间，可多个队列共用
+    public void setSentLatencyHistogram(LatencyHistogram histogram) {
+        mSentLatency = histogram;
+    }
+
+    // 记录每个indication交给协议栈到收到确认的往返时间，可多个队列共用
+    public void setConfirmationLatencyHistogram(LatencyHistogram histogram) {
+        mConfirmationLatency = histogram;
+    }
+
+    /**
+     * 加入队列，空闲时立即发送。
+     *
+     * @return false表示队列已满被丢弃，或indication超时后已停止发送
+     */
+    public boolean offer(K item) {
+        long now = mClock.nanoTime();
+        if (expire(now)) {
+            return false;
+        }
+        synchronized (this) {
+            if (mHalted) {
+                return false;
+            }
+            if (indexOf(item) >= 0) {
+                mCoalesced++; // 已在队列中，发送时会取最新值
+            } else if (mSize == mItems.length) {
+                mDropped++;
+                return false;
+            } else {
+                int tail = (mHead + mSize) % mItems.length;
+                mItems[tail] = item;
+                mEnqueueTimes[tail] = now;
+                mSize++;
+                mEnqueued++;
+            }
+        }
+        drain();
+        return true;
+    }
+
+    /**
+     * 检查在途的notify/indication是否超时，定时调用。
+     *
+     * @return 是否因indication超时停止发送
+     */
+    public boolean expire() {
+        boolean halted = expire(mClock.nanoTime());
+        if (!halted) {
+            drain(); // notify超时后继续发送排队的项
+        }
+        return halted;
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean expire(long now) {
+        K timedOut;
+        synchronized (this) {
+            if (mHalted) {
+                return true;
+            }
+            if (!mInFlight) {
+                return false;
+            }
+            long elapsed = now - mInFlightSendTime;
+            if (!mInFlightIndication) {
+                if (elapsed > mStallTimeoutNanos) {
+                    mStalled++;
+                    mInFlight = false;
+                    mInFlightItem = null;
+                }
+                return false;
+            }
+            if (elapsed <= mIndicationTimeoutNanos) {
+                return false;
+            }
+            mIndicationTimeouts++;
+            mHalted = true;
+            timedOut = (K) mInFlightItem;
+            clearLocked();
+        }
+        mSender.onIndicationTimeout(timedOut);
+        return true;
+    }
+
+    // onNotificationSent回调，indication为收到确认
+    public void onSent(boolean success) {
+        long now = mClock.nanoTime();
+        long latency;
+        boolean indication;
+        synchronized (this) {
+            if (!mInFlight) {
+                return;
+            }
+            mInFlight = false;
+            mInFlightItem = null;
+            indication = mInFlightIndication;
+            latency = now - mInFlightSendTime;
+            if (success) {
+                mSent++;
+                long queued = now - mInFlightEnqueueTime;
+                mTotalLatencyNanos += queued;
+                if (queued > mMaxLatencyNanos) {
+                    mMaxLatencyNanos = queued;
+                }
+                if (indication) {
+                    mConfirmed++;
+                    mTotalConfirmationNanos += latency;
+                    if (latency > mMaxConfirmationNanos) {
+                        mMaxConfirmationNanos = latency;
+                    }
+                }
+            } else {
+                mFailed++;
+            }
+        }
+        LatencyHistogram histogram = indication ? mConfirmationLatency : mSentLatency;
+        if (histogram != null) {
+            histogram.record(latency);
+        }
+        drain();
+    }
+
+    // 断开连接时清空
+    public synchronized void clear() {
+        clearLocked();
+    }
+
+    private void clearLocked() {
+        for (int i = 0; i < mItems.length; i++) {
+            mItems[i] = null;
+        }
+        mHead = 0;
+        mSize = 0;
+        mInFlight = false;
+        mInFlightItem = null;
+    }
+
+    // 在锁外调用sender，避免协议栈回调线程等待
+    @SuppressWarnings("unchecked")
+    private void drain() {
+        while (true) {
+            K item;
+            synchronized (this) {
+                if (mInFlight || mSize == 0 || mHalted) {
+                    return;
+                }
+                item = (K) mItems[mHead];
+                mInFlightEnqueueTime = mEnqueueTimes[mHead];
+                mItems[mHead] = null;
+                mHead = (mHead + 1) % mItems.length;
+                mSize--;
+                mInFlight = true;
+                mInFlightItem = item;
+                mInFlightIndication = false;
+                mInFlightSendTime = mClock.nanoTime();
+            }
+            int result = mSender.send(item);
+            synchronized (this) {
+                if (result == SENT_INDICATION) {
+                    // onSent可能已在协议栈线程中先回调，只有仍在途时才按indication计时
+                    mIndications++;
+                    if (mInFlight && mInFlightItem == item) {
+                        mInFlightIndication = true;
+                    }
+                }
+                if (result == SENT_NOTIFICATION || result == SENT_INDICATION) {
+                    return;
+                }
+                mInFlight = false;
+                mInFlightItem = null;
+                if (result == NOTHING_TO_SEND) {
+                    mEmpty++;
+                } else {
+                    mFailed++;
+                }
+            }
+        }
+    }
+
+    private int indexOf(Object item) {
+        for (int i = 0; i < mSize; i++) {
+            if (mItems[(mHead + i) % mItems.length] == item) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public synchronized int size() {
+        return mSize;
+    }
+
+    public synchronized boolean isInFlight() {
+        return mInFlight;
+    }
+
+    public synchronized boolean isHalted() {
+        return mHalted;
+    }
+
+    public synchronized long getEnqueuedCount() {
+        return mEnqueued;
+    }
+
+    public synchronized long getCoalescedCount() {
+        return mCoalesced;
+    }
+
+    public synchronized long getDroppedCount() {
+        return mDropped;
+    }
+
+    public synchronized long getSentCount() {
+        return mSent;
+    }
+
+    public synchronized long getFailedCount() {
+        return mFailed;
+    }
+
+    // 出队时没有内容可发的次数，不是错误
+    public synchronized long getEmptyCount() {
+        return mEmpty;
+    }
+
+    public synchronized long getStalledCount() {
+        return mStalled;
+    }
+
+    public synchronized long getIndicationCount() {
+        return mIndications;
+    }
+
+    public synchronized long getConfirmedCount() {
+        return mConfirmed;
+    }
+
+    public synchronized long getIndicationTimeoutCount() {
+        return mIndicationTimeouts;
+    }
+
+    public synchronized long getMaxLatencyNanos() {
+        return mMaxLatencyNanos;
+    }
+
+    public synchronized long getAverageLatencyNanos() {
+        return mSent == 0 ? 0 : mTotalLatencyNanos / mSent;
+    }
+
+    public synchronized long getAverageConfirmationNanos() {
+        return mConfirmed == 0 ? 0 : mTotalConfirmationNanos / mConfirmed;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "enqueued=" + mEnqueued + ", coalesced=" + mCoalesced + ", dropped=" + mDropped
+                + ", sent=" + mSent + ", failed=" + mFailed + ", empty=" + mEmpty
+                + ", stalled=" + mStalled
+                + ", avgLatencyUs=" + (mSent == 0 ? 0 : mTotalLatencyNanos / mSent / 1000)
+                + ", maxLatencyUs=" + mMaxLatencyNanos / 1000
+                + ", indications=" + mIndications + ", confirmed=" + mConfirmed
+                + ", indicationTimeouts=" + mIndicationTimeouts
+                + ", avgConfirmationUs=" + getAverageConfirmationNanos() / 1000
+                + ", maxConfirmationUs=" + mMaxConfirmationNanos / 1000;
+    }
+}
@@ -0,0 +1,254 @@
+package io.github.webbluetoothcg.bletestperipheral.gatt;
+
+import android.bluetooth.BluetoothGatt;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+
+import io.github.webbluetoothcg.bletestperipheral.scheduler.Clock;
+
+/**
+ * Prepared Write(长写入)的按设备重组缓冲。
+ *
+ * 每个设备的一次队列写最多涉及{@link #MAX_ATTRIBUTES_PER_DEVICE}个attribute，
+ * 每个attribute的分段写入同一个缓冲，Execute Write时按完整值提交，Cancel或超时时丢弃。
+ * 提交是原子的: 先检查所有attribute的完整值，全部通过后才逐个提交，任何一个不通过时都不提交。
+ * 缓冲从池中取用并归还，池满时返回{@link #ATT_PREPARE_QUEUE_FULL}，长写入不会无限占用内存。
+ *
+ * @param <D> 设备，通常是BluetoothDevice
+ * @param <A> attribute，通常是BluetoothGattCharacteristic
+ */
+public final class PreparedWriteQueue<D, A> {
+
+    /** ATT错误码Prepare Queue Full，BluetoothGatt中没有对应常量 */
+    public static final int ATT_PREPARE_QUEUE_FULL = 0x09;
+    /** ATT规定的attribute最大长度 */
+    public static final int MAX_ATTRIBUTE_LENGTH = 512;
+    public static final int MAX_ATTRIBUTES_PER_DEVICE = 4;
+
+    /** Execute Write时检查并提交各attribute的完整值 */
+    public interface Committer<D, A> {
+        /**
+         * 提交前检查，不能修改状态。commit可能失败的情况都应在这里检查出来。
+         *
+         * @return GATT状态码
+         */
+        int validate(D device, A attribute, byte[] value);
+
+        /**
+         * @param value 新分配的数组，可以直接保存引用
+         * @return GATT状态码
+         */
+        int commit(D device, A attribute, byte[] value);
+    }
+
+    private static final class Session<A> {
+        final Object[] attributes = new Object[MAX_ATTRIBUTES_PER_DEVICE];
+        final byte[][] buffers = new byte[MAX_ATTRIBUTES_PER_DEVICE][];
+        final int[] lengths = new int[MAX_ATTRIBUTES_PER_DEVICE];
+        int count;
+        long startNanos;
+    }
+
+    private final int mMaxBuffers;
+    private final long mTimeoutNanos;
+    private final Clock mClock;
+    private final HashMap<D, Session<A>> mSessions = new HashMap<>();
+    private final ArrayDeque<byte[]> mPool = new ArrayDeque<>();
+    private final ArrayDeque<Session<A>> mSessionPool = new ArrayDeque<>();
+    private int mBuffersInUse;
+
+    private long mExecutedCount;
+    private long mCancelledCount;
+    private long mExpiredCount;
+    private long mRejectedCount;
+    private long mValidationFailures;
+
+    /**
+     * @param maxBuffers 所有设备共用的缓冲个数上限
+     * @param timeoutMs  从第一段开始计算，超过后丢弃未执行的写入
+     */
+    public PreparedWriteQueue(int maxBuffers, long timeoutMs, Clock clock) {
+        mMaxBuffers = maxBuffers;
+        mTimeoutNanos = timeoutMs * 1000000L;
+        mClock = clock;
+    }
+
+    /**
+     * 保存一段prepared write。
+     *
+     * @param maxLength 该attribute允许的最大长度，不超过{@link #MAX_ATTRIBUTE_LENGTH}
+     * @return GATT状态码
+     */
+    public synchronized int prepare(D device, A attribute, int offset, byte[] value,
+                                    int maxLength) {
+        long now = mClock.nanoTime();
+        Session<A> session = mSessions.get(device);
+        if (session != null && now - session.startNanos > mTimeoutNanos) {
+            mExpiredCount++;
+            release(device, session);
+            session = null;
+        }
+        if (session == null) {
+            session = mSessionPool.isEmpty() ? new Session<A>() : mSessionPool.poll();
+            session.startNanos = now;
+            mSessions.put(device, session);
+        }
+        int index = indexOf(session, attribute);
+        if (index < 0) {
+            if (session.count == MAX_ATTRIBUTES_PER_DEVICE || mBuffersInUse == mMaxBuffers) {
+                mRejectedCount++;
+                return ATT_PREPARE_QUEUE_FULL;
+            }
+            index = session.count++;
+            session.attributes[index] = attribute;
+            session.buffers[index] = mPool.isEmpty() ? new byte[MAX_ATTRIBUTE_LENGTH] : mPool.poll();
+            session.lengths[index] = 0;
+            mBuffersInUse++;
+        }
+        // 分段必须连续，不允许留下空洞
+        if (offset < 0 || offset > session.lengths[index]) {
+            mRejectedCount++;
+            return BluetoothGatt.GATT_INVALID_OFFSET;
+        }
+        int end = offset + value.length;
+        if (end > Math.min(maxLength, MAX_ATTRIBUTE_LENGTH)) {
+            mRejectedCount++;
+            return BluetoothGatt.GATT_INVALID_ATTRIBUTE_LENGTH;
+        }
+        System.arraycopy(value, 0, session.buffers[index], offset, value.length);
+        session.lengths[index] = Math.max(session.lengths[index], end);
+        return BluetoothGatt.GATT_SUCCESS;
+    }
+
+    /**
+     * 处理Execute Write请求。
+     *
+     * @param execute false表示取消，丢弃所有分段
+     * @param committed 追加已提交的attribute，调用方在发出响应后据此执行写入后的处理，可为null
+     * @return 第一个失败的检查或提交的状态码，全部成功时为GATT_SUCCESS
+     */
+    public int execute(D device, boolean execute, Committer<D, A> committer,
+                       List<? super A> committed) {
+        Object[] attributes;
+        byte[][] values;
+        int count;
+        synchronized (this) {
+            Session<A> session = mSessions.get(device);
+            if (session == null) {
+                return BluetoothGatt.GATT_SUCCESS; // 空队列
+            }
+            if (!execute) {
+                mCancelledCount++;
+                release(device, session);
+                return BluetoothGatt.GATT_SUCCESS;
+            }
+            if (mClock.nanoTime() - session.startNanos > mTimeoutNanos) {
+                mExpiredCount++;
+                release(device, session);
+                return BluetoothGatt.GATT_FAILURE;
+            }
+            count = session.count;
+            attributes = new Object[count];
+            values = new byte[count][];
+            for (int i = 0; i < count; i++) {
+                attributes[i] = session.attributes[i];
+                values[i] = new byte[session.lengths[i]];
+                System.arraycopy(session.buffers[i], 0, values[i], 0, values[i].length);
+            }
+            mExecutedCount++;
+            release(device, session);
+        }
+        // 在锁外检查和提交，handler可能更新UI或发送通知
+        for (int i = 0; i < count; i++) {
+            @SuppressWarnings("unchecked")
+            A attribute = (A) attributes[i];
+            int status = committer.validate(device, attribute, values[i]);
+            if (status != BluetoothGatt.GATT_SUCCESS) {
+                synchronized (this) {
+                    mValidationFailures++;
+                }
+                return status;
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            @SuppressWarnings("unchecked")
+            A attribute = (A) attributes[i];
+            int status = committer.commit(device, attribute, values[i]);
+            if (status != BluetoothGatt.GATT_SUCCESS) {
+                return status; // validate漏检，之前的attribute已经提交
+            }
+            if (committed != null) {
+                committed.add(attribute);
+            }
+        }
+        return BluetoothGatt.GATT_SUCCESS;
+    }
+
+    /** 丢弃超时的写入，由定时器周期调用 */
+    public synchronized void expire() {
+        long now = mClock.nanoTime();
+        Iterator<Session<A>> it = mSessions.values().iterator();
+        while (it.hasNext()) {
+            Session<A> session = it.next();
+            if (now - session.startNanos > mTimeoutNanos) {
+                it.remove();
+                mExpiredCount++;
+                recycle(session);
+            }
+        }
+    }
+
+    /** 设备断开时调用 */
+    public synchronized void removeDevice(D device) {
+        Session<A> session = mSessions.get(device);
+        if (session != null) {
+            release(device, session);
+        }
+    }
+
+    public synchronized void clear() {
+        for (Session<A> session : mSessions.values()) {
+            recycle(session);
+        }
+        mSessions.clear();
+    }
+
+    private static int indexOf(Session<?> session, Object attribute) {
+        for (int i = 0; i < session.count; i++) {
+            if (session.attributes[i] == attribute) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void release(D device, Session<A> session) {
+        mSessions.remove(device);
+        recycle(session);
+    }
+
+    private void recycle(Session<A> session) {
+        for (int i = 0; i < session.count; i++) {
+            mPool.offer(session.buffers[i]);
+            session.buffers[i] = null;
+            session.attributes[i] = null;
+        }
+        mBuffersInUse -= session.count;
+        session.count = 0;
+        mSessionPool.offer(session);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PreparedWriteQueue{pending=" + mSessions.size()
+                + ", buffers=" + mBuffersInUse + "/" + mMaxBuffers
+                + ", executed=" + mExecutedCount
+                + ", cancelled=" + mCancelledCount
+                + ", expired=" + mExpiredCount
+                + ", rejected=" + mRejectedCount
+                + ", validationFailures=" + mValidationFailures + "}";
+    }
+}
@@ -0,0 +1,339 @@
+package io.github.webbluetoothcg.bletestperipheral.gatt;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import java.util.HashMap;
+
+import io.github.webbluetoothcg.bletestperipheral.codec.RecordAccessCodec;
+import io.github.webbluetoothcg.bletestperipheral.store.MeasurementLog;
+
+/**
+ * 存储记录的批量下载：Record Access Control Point加一个records characteristic。
+ *
+ * central写RACP请求全部记录或某个序号之后的记录，记录按{@link RecordAccessCodec}的格式打包，
+ * 每帧放满该设备的MTU，通过records characteristic连续notify；每帧在上一帧的onNotificationSent
+ * 之后取出，没有逐条请求的往返。全部发完后在RACP上indicate结果。
+ * 传输范围在请求时确定，之后新写入的记录不包括在内。
+ *
+ * 支持的请求: 报告全部记录/序号大于等于N的记录、报告记录个数、中止。每个设备同时只有一个请求。
+ */
+public final class RecordAccess {
+
+    /** 日志和发送由所在的fragment提供 */
+    public interface Host {
+        // 未打开日志时返回null
+        MeasurementLog getLog();
+
+        // 把characteristic排入该设备的发送队列，值由NotificationSource给出
+        void send(BluetoothDevice device, BluetoothGattCharacteristic characteristic);
+    }
+
+    private static final int MAX_FRAME_RECORDS = 0xFF;
+
+    // 每个设备的订阅和请求状态
+    private static final class Session {
+        boolean controlPointIndicate;
+        boolean recordsNotify;
+        boolean transferring;
+        long next; // 下一条要发送的记录
+        long end; // 传输范围的末尾(不含)
+        byte[] response; // 待indicate的RACP响应
+        boolean responseReady; // 写响应已发出，可以发送RACP响应或开始传输
+    }
+
+    private final BluetoothGattCharacteristic mControlPoint;
+    private final BluetoothGattCharacteristic mRecords;
+    private final Host mHost;
+    private final HashMap<BluetoothDevice, Session> mSessions = new HashMap<>();
+    private final RecordAccessCodec mCodec = new RecordAccessCodec();
+    private final int[] mSamples = new int[MAX_FRAME_RECORDS];
+    private final long[] mTimes = new long[MAX_FRAME_RECORDS];
+
+    // 统计
+    private long mRequests;
+    private long mTransfers;
+    private long mAborts;
+    private long mFrames;
+    private long mRecordsSent;
+
+    public RecordAccess(BluetoothGattCharacteristic controlPoint,
+                        BluetoothGattCharacteristic records, Host host) {
+        mControlPoint = controlPoint;
+        mRecords = records;
+        mHost = host;
+    }
+
+    public CharacteristicHandler getControlPointHandler() {
+        return mControlPointHandler;
+    }
+
+    public CharacteristicHandler getRecordsHandler() {
+        return mRecordsHandler;
+    }
+
+    private final CharacteristicHandler mControlPointHandler = new CharacteristicHandler() {
+        @Override
+        public int onWrite(BluetoothDevice device, BluetoothGattCharacteristic characteristic,
+                           int offset, byte[] value) {
+            if (offset != 0) {
+                return BluetoothGatt.GATT_INVALID_OFFSET;
+            }
+            if (value == null || value.length < 2) {
+                return BluetoothGatt.GATT_INVALID_ATTRIBUTE_LENGTH;
+            }
+            return onRequest(device, value);
+        }
+
+        // 写响应发出之后才开始传输或indicate结果，central先收到写响应
+        @Override
+        public void afterWrite(BluetoothDevice device, BluetoothGattCharacteristic characteristic,
+                               int status) {
+            if (status != BluetoothGatt.GATT_SUCCESS) {
+                return;
+            }
+            boolean transferring;
+            synchronized (RecordAccess.this) {
+                Session session = mSessions.get(device);
+                if (session == null) {
+                    return;
+                }
+                session.responseReady = true;
+                transferring = session.transferring;
+            }
+            mHost.send(device, transferring ? mRecords : mControlPoint);
+        }
+
+        @Override
+        public NotificationSource getNotificationSource() {
+            return mResponseSource;
+        }
+
+        @Override
+        public void onSubscriptionChanged(BluetoothDevice device,
+                                          BluetoothGattCharacteristic characteristic, int mode) {
+            synchronized (RecordAccess.this) {
+                getSession(device).controlPointIndicate = mode == Connection.MODE_INDICATE;
+            }
+        }
+
+        @Override
+        public void onDisconnected(BluetoothDevice device) {
+            synchronized (RecordAccess.this) {
+                mSessions.remove(device);
+            }
+        }
+    };
+
+    private final CharacteristicHandler mRecordsHandler = new CharacteristicHandler() {
+        @Override
+        public NotificationSource getNotificationSource() {
+            return mRecordSource;
+        }
+
+        @Override
+        public void onSubscriptionChanged(BluetoothDevice device,
+                                          BluetoothGattCharacteristic characteristic, int mode) {
+            boolean interrupted;
+            synchronized (RecordAccess.this) {
+                Session session = getSession(device);
+                session.recordsNotify = mode != Connection.MODE_NONE;
+                interrupted = !session.recordsNotify && session.transferring;
+                if (interrupted) {
+                    // 传输中取消订阅，结果为未完成
+                    session.transferring = false;
+                    session.response = RecordAccessCodec.encodeResponse(
+                            RecordAccessCodec.OP_REPORT_STORED_RECORDS,
+                            RecordAccessCodec.RESPONSE_PROCEDURE_NOT_COMPLETED);
+                }
+            }
+            if (interrupted) {
+                mHost.send(device, mControlPoint);
+            }
+        }
+    };
+
+    // RACP的indicate: 每个请求一个响应
+    private final CharacteristicHandler.NotificationSource mResponseSource =
+            new CharacteristicHandler.NotificationSource() {
+        @Override
+        public byte[] next(BluetoothDevice device, int maxLength) {
+            synchronized (RecordAccess.this) {
+                Session session = mSessions.get(device);
+                if (session == null || !session.responseReady || session.response == null) {
+                    return null;
+                }
+                byte[] response = session.response;
+                session.response = null;
+                return response;
+            }
+        }
+
+        @Override
+        public boolean hasNext(BluetoothDevice device) {
+            return false;
+        }
+    };
+
+    // records的notify: 每次取一帧，发完后排入RACP响应
+    private final CharacteristicHandler.NotificationSource mRecordSource =
+            new CharacteristicHandler.NotificationSource() {
+        @Override
+        public byte[] next(BluetoothDevice device, int maxLength) {
+            byte[] frame;
+            boolean finished;
+            synchronized (RecordAccess.this) {
+                Session session = mSessions.get(device);
+                if (session == null || !session.transferring) {
+                    return null;
+                }
+                MeasurementLog log = mHost.getLog();
+                // 传输期间最旧的段可能被删除，从仍保留的记录继续
+                long first = log != null ? log.getFirstSequence() : session.end;
+                if (session.next < first) {
+                    session.next = Math.min(first, session.end);
+                }
+                int capacity = (int) Math.min(Math.min(RecordAccessCodec.getCapacity(maxLength),
+                        MAX_FRAME_RECORDS), session.end - session.next);
+                int count = capacity > 0 && log != null
+                        ? log.read(session.next, mSamples, mTimes, 0, capacity) : 0;
+                frame = count > 0 ? mCodec.encodeRecords(session.next, mTimes, mSamples, 0, count)
+                        : null;
+                if (count > 0) {
+                    session.next += count;
+                    mFrames++;
+                    mRecordsSent += count;
+                }
+                finished = session.next >= session.end || count == 0;
+                if (finished) {
+                    session.transferring = false;
+                    session.response = RecordAccessCodec.encodeResponse(
+                            RecordAccessCodec.OP_REPORT_STORED_RECORDS,
+                            RecordAccessCodec.RESPONSE_SUCCESS);
+                    mTransfers++;
+                }
+            }
+            if (finished) {
+                // 排在最后一帧之后
+                mHost.send(device, mControlPoint);
+            }
+            return frame;
+        }
+
+        @Override
+        public boolean hasNext(BluetoothDevice device) {
+            synchronized (RecordAccess.this) {
+                Session session = mSessions.get(device);
+                return session != null && session.transferring;
+            }
+        }
+    };
+
+    private Session getSession(BluetoothDevice device) {
+        Session session = mSessions.get(device);
+        if (session == null) {
+            session = new Session();
+            mSessions.put(device, session);
+        }
+        return session;
+    }
+
+    private synchronized int onRequest(BluetoothDevice device, byte[] value) {
+        Session session = getSession(device);
+        if (!session.controlPointIndicate) {
+            return RecordAccessCodec.ATT_CCCD_IMPROPERLY_CONFIGURED;
+        }
+        int opCode = RecordAccessCodec.decodeOpCode(value);
+        int operator = RecordAccessCodec.decodeOperator(value);
+        boolean busy = session.transferring || session.response != null;
+        if (busy && opCode != RecordAccessCodec.OP_ABORT) {
+            return RecordAccessCodec.ATT_PROCEDURE_ALREADY_IN_PROGRESS;
+        }
+        mRequests++;
+        session.responseReady = false;
+        switch (opCode) {
+            case RecordAccessCodec.OP_REPORT_STORED_RECORDS:
+            case RecordAccessCodec.OP_REPORT_NUMBER_OF_RECORDS: {
+                boolean report = opCode == RecordAccessCodec.OP_REPORT_STORED_RECORDS;
+                if (report && !session.recordsNotify) {
+                    return RecordAccessCodec.ATT_CCCD_IMPROPERLY_CONFIGURED;
+                }
+                long[] range = new long[2];
+                int code = selectRange(operator, value, range);
+                if (code != RecordAccessCodec.RESPONSE_SUCCESS) {
+                    session.response = RecordAccessCodec.encodeResponse(opCode, code);
+                } else if (!report) {
+                    session.response = RecordAccessCodec.encodeNumberOfRecords(
+                            range[1] - range[0]);
+                } else if (range[0] >= range[1]) {
+                    session.response = RecordAccessCodec.encodeResponse(opCode,
+                            RecordAccessCodec.RESPONSE_NO_RECORDS_FOUND);
+                } else {
+                    session.next = range[0];
+                    session.end = range[1];
+                    session.transferring = true;
+                }
+                break;
+            }
+            case RecordAccessCodec.OP_ABORT:
+                if (operator != RecordAccessCodec.OPERATOR_NULL || value.length != 2) {
+                    session.response = RecordAccessCodec.encodeResponse(opCode,
+                            RecordAccessCodec.RESPONSE_INVALID_OPERATOR);
+                    break;
+                }
+                if (session.transferring) {
+                    session.transferring = false;
+                    mAborts++;
+                }
+                // 中止只回复中止本身，取代被中止的请求的响应
+                session.response = RecordAccessCodec.encodeResponse(opCode,
+                        RecordAccessCodec.RESPONSE_SUCCESS);
+                break;
+            default:
+                session.response = RecordAccessCodec.encodeResponse(opCode,
+                        RecordAccessCodec.RESPONSE_OP_CODE_NOT_SUPPORTED);
+                break;
+        }
+        return BluetoothGatt.GATT_SUCCESS;
+    }
+
+    // 按operator确定记录范围[range[0], range[1])，返回response code
+    private int selectRange(int operator, byte[] value, long[] range) {
+        MeasurementLog log = mHost.getLog();
+        long first = log != null ? log.getFirstSequence() : 0;
+        long next = log != null ? log.getNextSequence() : 0;
+        switch (operator) {
+            case RecordAccessCodec.OPERATOR_ALL:
+                if (value.length != 2) {
+                    return RecordAccessCodec.RESPONSE_INVALID_OPERAND;
+                }
+                range[0] = first;
+                range[1] = next;
+                return RecordAccessCodec.RESPONSE_SUCCESS;
+            case RecordAccessCodec.OPERATOR_GREATER_OR_EQUAL: {
+                long sequence = RecordAccessCodec.decodeSequenceOperand(value);
+                if (sequence < 0) {
+                    return RecordAccessCodec.RESPONSE_INVALID_OPERAND;
+                }
+                range[0] = Math.min(Math.max(sequence, first), next);
+                range[1] = next;
+                return RecordAccessCodec.RESPONSE_SUCCESS;
+            }
+            case RecordAccessCodec.OPERATOR_LESS_OR_EQUAL:
+            case RecordAccessCodec.OPERATOR_RANGE:
+            case RecordAccessCodec.OPERATOR_FIRST:
+            case RecordAccessCodec.OPERATOR_LAST:
+                return RecordAccessCodec.RESPONSE_OPERATOR_NOT_SUPPORTED;
+            default:
+                return RecordAccessCodec.RESPONSE_INVALID_OPERATOR;
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "requests=" + mRequests + ", transfers=" + mTransfers + ", aborts=" + mAborts
+                + ", frames=" + mFrames + ", records=" + mRecordsSent
+                + ", recordsPerFrame=" + (mFrames == 0 ? 0 : (float) mRecordsSent / mFrames);
+    }
+}
@@ -0,0 +1,162 @@
+package io.github.webbluetoothcg.bletestperipheral.gatt;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import io.github.webbluetoothcg.bletestperipheral.scheduler.Clock;
+
+/**
+ * 单个characteristic的按设备采样批量缓冲。
+ *
+ * 每个采样加入所有订阅设备的缓冲，缓冲中的采样在发送时按该设备的MTU打包成一个notify。
+ * 设备协商了更大的MTU时，采样先积攒到一帧放满或最早的采样超过maxLatency再发送；
+ * 默认MTU的设备每个采样都立即发送，与不批量时行为一致。
+ * 缓冲满时覆盖最旧的采样。
+ *
+ * @param <D> 设备，通常是BluetoothDevice
+ */
+public final class SampleBatcher<D> {
+
+    /** 把一批采样编码成一帧 */
+    public interface Encoder {
+        // maxLength字节内最多可容纳的采样个数
+        int capacity(int maxLength);
+
+        /**
+         * @param firstSequence 第一个采样的序号，每个设备从0开始连续编号
+         * @return 帧，长度即为帧长度，可在下一次encode时复用
+         */
+        byte[] encode(int[] samples, int offset, int count, int firstSequence, int maxLength);
+    }
+
+    private static final class Pending {
+        final int[] samples;
+        int head;
+        int size;
+        int sequence; // head处采样的序号
+        long firstNanos;
+
+        Pending(int capacity) {
+            samples = new int[capacity];
+        }
+    }
+
+    private final Encoder mEncoder;
+    private final int mCapacity;
+    private final long mMaxLatencyNanos;
+    private final Clock mClock;
+    private final HashMap<D, Pending> mPending = new HashMap<>();
+    private final int[] mScratch;
+
+    private long mFrames;
+    private long mSamples;
+    private long mOverwritten;
+
+    /**
+     * @param capacity 每个设备最多缓冲的采样数
+     */
+    public SampleBatcher(Encoder encoder, int capacity, long maxLatencyMs, Clock clock) {
+        mEncoder = encoder;
+        mCapacity = capacity;
+        mMaxLatencyNanos = maxLatencyMs * 1000000L;
+        mClock = clock;
+        mScratch = new int[capacity];
+    }
+
+    /**
+     * 为设备缓冲一个采样。
+     *
+     * @param maxLength 该设备一个notify的最大长度(MTU - 3)
+     * @param batching  false时每个采样都应立即发送
+     * @return true表示应该把characteristic加入该设备的发送队列
+     */
+    public synchronized boolean add(D device, int sample, int maxLength, boolean batching) {
+        Pending pending = mPending.get(device);
+        if (pending == null) {
+            pending = new Pending(mCapacity);
+            mPending.put(device, pending);
+        }
+        long now = mClock.nanoTime();
+        if (pending.size == 0) {
+            pending.firstNanos = now;
+        }
+        if (pending.size == mCapacity) {
+            pending.head = (pending.head + 1) % mCapacity;
+            pending.size--;
+            pending.sequence++;
+            mOverwritten++;
+        }
+        pending.samples[(pending.head + pending.size) % mCapacity] = sample;
+        pending.size++;
+        return !batching || isDue(pending, now, maxLength);
+    }
+
+    /**
+     * 取出最多一帧的采样并编码，发送线程在发送前调用。
+     *
+     * @return 帧，没有待发送的采样时返回null
+     */
+    public synchronized byte[] drain(D device, int maxLength) {
+        Pending pending = mPending.get(device);
+        if (pending == null || pending.size == 0) {
+            return null;
+        }
+        int count = Math.min(pending.size, Math.min(mEncoder.capacity(maxLength), mCapacity));
+        if (count <= 0) {
+            return null;
+        }
+        for (int i = 0; i < count; i++) {
+            mScratch[i] = pending.samples[(pending.head + i) % mCapacity];
+        }
+        int firstSequence = pending.sequence;
+        pending.head = (pending.head + count) % mCapacity;
+        pending.size -= count;
+        pending.sequence += count;
+        pending.firstNanos = mClock.nanoTime();
+        mFrames++;
+        mSamples += count;
+        return mEncoder.encode(mScratch, 0, count, firstSequence & 0xFFFF, maxLength);
+    }
+
+    // drain之后剩余的采样是否还需要立即再发一帧
+    public synchronized boolean hasFullFrame(D device, int maxLength) {
+        Pending pending = mPending.get(device);
+        return pending != null && pending.size >= mEncoder.capacity(maxLength);
+    }
+
+    /**
+     * 找出最早的采样已超过maxLatency的设备，由定时器周期调用。
+     *
+     * @param out 收集到期的设备
+     */
+    public synchronized void collectDue(Collection<D> out) {
+        long now = mClock.nanoTime();
+        for (Map.Entry<D, Pending> entry : mPending.entrySet()) {
+            Pending pending = entry.getValue();
+            if (pending.size > 0 && now - pending.firstNanos >= mMaxLatencyNanos) {
+                out.add(entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * @return 丢弃的未发送采样数
+     */
+    public synchronized int removeDevice(D device) {
+        Pending pending = mPending.remove(device);
+        return pending != null ? pending.size : 0;
+    }
+
+    private boolean isDue(Pending pending, long now, int maxLength) {
+        return pending.size >= mEncoder.capacity(maxLength)
+                || now - pending.firstNanos >= mMaxLatencyNanos;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "frames=" + mFrames + ", samples=" + mSamples
+                + ", samplesPerFrame=" + (mFrames == 0 ? 0 : (float) mSamples / mFrames)
+                + ", overwritten=" + mOverwritten;
+    }
+}
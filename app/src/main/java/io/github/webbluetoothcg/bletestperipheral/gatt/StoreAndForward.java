@@ -0,0 +1,164 @@
+package io.github.webbluetoothcg.bletestperipheral.gatt;
+
+import java.io.IOException;
+import java.util.HashMap;
+
+import io.github.webbluetoothcg.bletestperipheral.store.MeasurementLog;
+
+/**
+ * 单个characteristic的存储转发：每个采样先写入{@link MeasurementLog}，
+ * central重新连接并订阅后，先从日志中补发它错过的采样，追上后再恢复实时发送。
+ *
+ * 补发的帧使用与实时发送相同的批量编码，每帧放满该设备的MTU，由onNotificationSent驱动连续发送。
+ * 补发期间该设备不接收实时采样，新采样写入日志后由补发一并发出，追上日志末尾时切换为实时，
+ * 追加、按设备分发和切换在同一线程(事件线程)中依次进行，采样不重复也不丢失。
+ * 方法仍然加锁，统计和日志可以在其他线程读取。
+ *
+ * 游标按central的地址保存在日志中，断开或取消订阅时记录并写入文件，进程被杀后仍可补发；
+ * 从未记录过的central(或游标所在的段已被删除、游标已被丢弃)从订阅时开始实时发送。
+ *
+ * @param <D> 设备，通常是BluetoothDevice
+ */
+public final class StoreAndForward<D> {
+
+    private static final long LIVE = -1;
+
+    private final MeasurementLog mLog;
+    private final SampleBatcher.Encoder mEncoder;
+    // 已订阅的设备 -> 下一个补发的序号，LIVE表示实时发送
+    private final HashMap<D, long[]> mDevices = new HashMap<>();
+    // 每个设备上一帧补发的第一个序号，断开时作为游标，在途的帧会重发而不会丢失
+    private final HashMap<D, long[]> mLastFrames = new HashMap<>();
+    private final int[] mScratch;
+
+    // 统计
+    private long mAppended;
+    private long mAppendFailures;
+    private long mReplays;
+    private long mReplayedFrames;
+    private long mReplayedSamples;
+    private long mCursorSaveFailures;
+
+    /**
+     * @param maxFrameSamples 一帧最多补发的采样数
+     */
+    public StoreAndForward(MeasurementLog log, SampleBatcher.Encoder encoder, int maxFrameSamples) {
+        mLog = log;
+        mEncoder = encoder;
+        mScratch = new int[maxFrameSamples];
+    }
+
+    public MeasurementLog getLog() {
+        return mLog;
+    }
+
+    /**
+     * 写入一个采样，写入失败时只计数，不影响实时发送。
+     *
+     * 需要按设备分发实时采样时，在调用{@link #nextFrame}的同一线程中调用此方法和{@link #isReplaying}。
+     */
+    public synchronized void append(long timeMillis, int sample) {
+        try {
+            mLog.append(timeMillis, sample);
+            mAppended++;
+        } catch (IOException e) {
+            mAppendFailures++;
+        }
+    }
+
+    // 设备正在补发，实时采样不应再发给它
+    public synchronized boolean isReplaying(D device) {
+        long[] position = mDevices.get(device);
+        return position != null && position[0] != LIVE;
+    }
+
+    /**
+     * 设备订阅，有错过的采样时开始补发。已订阅的设备(如notify改为indicate)不变。
+     *
+     * @param central 设备的持久标识，通常是地址
+     * @return 是否开始补发
+     */
+    public synchronized boolean resume(D device, String central) {
+        if (mDevices.containsKey(device)) {
+            return false;
+        }
+        long cursor = mLog.getCursor(central);
+        long next = mLog.getNextSequence();
+        if (cursor < 0 || cursor >= next) {
+            mDevices.put(device, new long[]{LIVE});
+            return false;
+        }
+        // 最旧的段已被删除时从仍保留的最旧的采样开始
+        mDevices.put(device, new long[]{Math.max(cursor, mLog.getFirstSequence())});
+        mLastFrames.put(device, new long[]{cursor});
+        mReplays++;
+        return true;
+    }
+
+    /**
+     * 取出下一帧补发的采样并编码，发送线程在发送前调用。追上日志末尾时切换为实时发送。
+     *
+     * @param maxLength 该设备一个notify的最大长度(MTU - 3)
+     * @return 帧，不在补发中时返回null
+     */
+    public synchronized byte[] nextFrame(D device, int maxLength) {
+        long[] position = mDevices.get(device);
+        if (position == null || position[0] == LIVE) {
+            return null;
+        }
+        if (position[0] >= mLog.getNextSequence()) {
+            position[0] = LIVE;
+            mLastFrames.remove(device);
+            return null;
+        }
+        // 补发期间最旧的段可能已被删除，与RecordAccess一样从仍保留的最旧的采样继续
+        position[0] = Math.max(position[0], mLog.getFirstSequence());
+        int capacity = Math.min(mEncoder.capacity(maxLength), mScratch.length);
+        if (capacity <= 0) {
+            return null; // MTU放不下一个采样，保持补发状态
+        }
+        int count = mLog.read(position[0], mScratch, 0, capacity);
+        long first = position[0];
+        position[0] += count;
+        mLastFrames.get(device)[0] = first;
+        if (position[0] >= mLog.getNextSequence()) {
+            position[0] = LIVE; // 之后的采样实时发送
+        }
+        mReplayedFrames++;
+        mReplayedSamples += count;
+        return mEncoder.encode(mScratch, 0, count, (int) (first & 0xFFFF), maxLength);
+    }
+
+    /**
+     * 设备断开或取消订阅，记录游标。
+     *
+     * @param undelivered 实时发送中还在缓冲、未发出的采样数
+     */
+    public synchronized void suspend(D device, String central, int undelivered) {
+        long[] position = mDevices.remove(device);
+        long[] lastFrame = mLastFrames.remove(device);
+        if (position == null) {
+            return;
+        }
+        long cursor;
+        if (position[0] != LIVE) {
+            cursor = lastFrame[0];
+        } else {
+            cursor = mLog.getNextSequence() - undelivered;
+        }
+        mLog.setCursor(central, cursor);
+        try {
+            mLog.flushCursors();
+        } catch (IOException e) {
+            mCursorSaveFailures++; // 关闭日志时再次写入
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "appended=" + mAppended + ", appendFailures=" + mAppendFailures
+                + ", replays=" + mReplays + ", replayedFrames=" + mReplayedFrames
+                + ", replayedSamples=" + mReplayedSamples
+                + ", cursorSaveFailures=" + mCursorSaveFailures + ", " + mLog;
+    }
+}
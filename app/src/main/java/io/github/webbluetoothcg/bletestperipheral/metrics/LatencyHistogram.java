@@ -0,0 +1,95 @@
+package io.github.webbluetoothcg.bletestperipheral.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 固定桶的延迟直方图，可在任意线程记录，不加锁也不分配内存。
+ *
+ * 桶按微秒的2的幂划分: 桶0为小于1us，桶i(i >= 1)为[2^(i-1), 2^i) us，
+ * 最后一个桶包含所有更大的值(约4.2秒以上)。百分位按桶的上界估计，误差不超过一倍。
+ *
+ * 读取时各计数分别读出，与并发的记录之间不保证一致，只用于统计。
+ */
+public final class LatencyHistogram {
+
+    public static final int BUCKETS = 24;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mTotalNanos = new AtomicLong();
+    private final AtomicLong mMaxNanos = new AtomicLong();
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0; // 时钟不是单调的测试实现
+        }
+        mBuckets.incrementAndGet(getBucket(nanos));
+        mCount.incrementAndGet();
+        mTotalNanos.addAndGet(nanos);
+        long max;
+        do {
+            max = mMaxNanos.get();
+        } while (nanos > max && !mMaxNanos.compareAndSet(max, nanos));
+    }
+
+    static int getBucket(long nanos) {
+        long micros = nanos / 1000;
+        return Math.min(64 - Long.numberOfLeadingZeros(micros), BUCKETS - 1);
+    }
+
+    // 桶的上界(不含)，最后一个桶没有上界
+    public static long getBucketUpperMicros(int bucket) {
+        return bucket == BUCKETS - 1 ? Long.MAX_VALUE : 1L << bucket;
+    }
+
+    public long getBucketCount(int bucket) {
+        return mBuckets.get(bucket);
+    }
+
+    public long getCount() {
+        return mCount.get();
+    }
+
+    public long getMaxNanos() {
+        return mMaxNanos.get();
+    }
+
+    public long getAverageNanos() {
+        long count = mCount.get();
+        return count == 0 ? 0 : mTotalNanos.get() / count;
+    }
+
+    /**
+     * 百分位的估计值，取所在桶的上界，不超过最大值。
+     *
+     * @param percentile 0到100
+     * @return 微秒，没有记录时返回0
+     */
+    public long getPercentileMicros(double percentile) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += mBuckets.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * percentile / 100);
+        long maxMicros = mMaxNanos.get() / 1000;
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += mBuckets.get(i);
+            if (seen >= rank && seen > 0) {
+                return Math.min(getBucketUpperMicros(i), maxMicros);
+            }
+        }
+        return maxMicros;
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + getCount() + ", avgUs=" + getAverageNanos() / 1000
+                + ", p50Us=" + getPercentileMicros(50) + ", p90Us=" + getPercentileMicros(90)
+                + ", p99Us=" + getPercentileMicros(99) + ", maxUs=" + getMaxNanos() / 1000;
+    }
+}
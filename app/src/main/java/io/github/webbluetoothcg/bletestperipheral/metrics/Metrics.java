@@ -0,0 +1,191 @@
+package io.github.webbluetoothcg.bletestperipheral.metrics;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import io.github.webbluetoothcg.bletestperipheral.scheduler.Clock;
+
+/**
+ * GATT回调、广播和定时器的计数器与延迟直方图。
+ *
+ * 计数器和直方图按下标固定分配，记录时不加锁、不分配内存，可以直接在协议栈的回调线程中调用。
+ * 快照({@link #encodeSnapshot()})和导出({@link #dump})会分配内存，只在定时器线程或停止时调用。
+ *
+ * <pre>
+ * 快照，小端格式，通过diagnostics characteristic读取
+ * [0]     版本 1
+ * [1]     快照序号 uint8，每次快照加1，Read Blob分段读取时据此检查各段属于同一快照
+ * [2-5]   运行时间，毫秒 uint32
+ * [6]     计数器个数N
+ * [7]     直方图个数H
+ * [8..]   N个计数器，每个uint32，按下标顺序
+ * 之后    H个直方图，每个20字节: [个数][p50][p90][p99][最大值]，个数为uint32，其余为微秒 uint32
+ * </pre>
+ */
+public final class Metrics {
+
+    public static final int VERSION = 1;
+
+    // 计数器
+    public static final int READ_REQUESTS = 0;
+    public static final int WRITE_REQUESTS = 1;
+    public static final int NOTIFICATIONS_SENT = 2;
+    public static final int NOTIFICATION_FAILURES = 3;
+    public static final int ADVERTISING_UPDATES = 4;
+    public static final int ADVERTISING_FAILURES = 5;
+    public static final int CONNECTIONS = 6;
+    public static final int DISCONNECTIONS = 7;
+    public static final int CONNECTION_ERRORS = 8;
+    public static final int INDICATION_TIMEOUTS = 9;
+    public static final int COUNTERS = 10;
+    private static final String[] COUNTER_NAMES = {"readRequests", "writeRequests",
+            "notificationsSent", "notificationFailures", "advertisingUpdates",
+            "advertisingFailures", "connections", "disconnections", "connectionErrors",
+            "indicationTimeouts"};
+
+    // 直方图
+    public static final int READ_LATENCY = 0; // 读请求从回调到sendResponse
+    public static final int WRITE_LATENCY = 1; // 写请求从回调到sendResponse
+    public static final int NOTIFICATION_LATENCY = 2; // notify(不含indication)交给协议栈到onNotificationSent
+    public static final int TICK_JITTER = 3; // 定时任务实际执行时间相对截止时间的延迟
+    public static final int INDICATION_RTT = 4; // indication交给协议栈到收到确认
+    public static final int HISTOGRAMS = 5;
+    private static final String[] HISTOGRAM_NAMES = {"readLatency", "writeLatency",
+            "notificationLatency", "tickJitter", "indicationRtt"};
+
+    private static final int HEADER_LENGTH = 8;
+    private static final int HISTOGRAM_LENGTH = 20;
+
+    private final Clock mClock;
+    private final long mStartNanos;
+    private final AtomicLongArray mCounters = new AtomicLongArray(COUNTERS);
+    private final LatencyHistogram[] mHistograms = new LatencyHistogram[HISTOGRAMS];
+    private int mSnapshotSequence; // 仅在快照线程中访问
+
+    public Metrics(Clock clock) {
+        mClock = clock;
+        mStartNanos = clock.nanoTime();
+        for (int i = 0; i < HISTOGRAMS; i++) {
+            mHistograms[i] = new LatencyHistogram();
+        }
+    }
+
+    public Clock getClock() {
+        return mClock;
+    }
+
+    public void increment(int counter) {
+        mCounters.incrementAndGet(counter);
+    }
+
+    public long get(int counter) {
+        return mCounters.get(counter);
+    }
+
+    public LatencyHistogram getHistogram(int histogram) {
+        return mHistograms[histogram];
+    }
+
+    // 记录从startNanos(同一个Clock)到现在的耗时
+    public void recordSince(int histogram, long startNanos) {
+        mHistograms[histogram].record(mClock.nanoTime() - startNanos);
+    }
+
+    public long getUptimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(mClock.nanoTime() - mStartNanos);
+    }
+
+    /**
+     * 编码当前快照，格式见类注释。
+     *
+     * @return 新分配的数组
+     */
+    public byte[] encodeSnapshot() {
+        byte[] value = new byte[HEADER_LENGTH + COUNTERS * 4 + HISTOGRAMS * HISTOGRAM_LENGTH];
+        value[0] = (byte) VERSION;
+        value[1] = (byte) mSnapshotSequence++;
+        putUint32(value, 2, getUptimeMillis());
+        value[6] = (byte) COUNTERS;
+        value[7] = (byte) HISTOGRAMS;
+        int index = HEADER_LENGTH;
+        for (int i = 0; i < COUNTERS; i++) {
+            putUint32(value, index, mCounters.get(i));
+            index += 4;
+        }
+        for (LatencyHistogram histogram : mHistograms) {
+            putUint32(value, index, histogram.getCount());
+            putUint32(value, index + 4, histogram.getPercentileMicros(50));
+            putUint32(value, index + 8, histogram.getPercentileMicros(90));
+            putUint32(value, index + 12, histogram.getPercentileMicros(99));
+            putUint32(value, index + 16, histogram.getMaxNanos() / 1000);
+            index += HISTOGRAM_LENGTH;
+        }
+        return value;
+    }
+
+    // 超出uint32时饱和
+    private static void putUint32(byte[] value, int index, long number) {
+        long clamped = Math.min(Math.max(number, 0), 0xFFFFFFFFL);
+        for (int i = 0; i < 4; i++) {
+            value[index + i] = (byte) (clamped >> (8 * i));
+        }
+    }
+
+    // 文本格式，每行一项，直方图附带各桶的计数
+    public void dump(Writer writer) throws IOException {
+        long uptimeMillis = getUptimeMillis();
+        writer.write("uptimeMs=" + uptimeMillis + "\n");
+        for (int i = 0; i < COUNTERS; i++) {
+            writer.write(COUNTER_NAMES[i] + "=" + mCounters.get(i) + "\n");
+        }
+        long minutes = Math.max(1, TimeUnit.MILLISECONDS.toMinutes(uptimeMillis));
+        writer.write("advertisingUpdatesPerMinute=" + mCounters.get(ADVERTISING_UPDATES) / minutes
+                + "\n");
+        for (int i = 0; i < HISTOGRAMS; i++) {
+            LatencyHistogram histogram = mHistograms[i];
+            writer.write(HISTOGRAM_NAMES[i] + ": " + histogram + "\n");
+            StringBuilder buckets = new StringBuilder("  buckets(<us:count)");
+            for (int bucket = 0; bucket < LatencyHistogram.BUCKETS; bucket++) {
+                long count = histogram.getBucketCount(bucket);
+                if (count == 0) {
+                    continue;
+                }
+                buckets.append(' ');
+                if (bucket == LatencyHistogram.BUCKETS - 1) {
+                    buckets.append("inf");
+                } else {
+                    buckets.append(LatencyHistogram.getBucketUpperMicros(bucket));
+                }
+                buckets.append(':').append(count);
+            }
+            writer.write(buckets.append('\n').toString());
+        }
+    }
+
+    // 导出到文件，覆盖原有内容
+    public void dump(File file) throws IOException {
+        Writer writer = new FileWriter(file);
+        try {
+            dump(writer);
+        } finally {
+            writer.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("uptimeMs=").append(getUptimeMillis());
+        for (int i = 0; i < COUNTERS; i++) {
+            builder.append(", ").append(COUNTER_NAMES[i]).append('=').append(mCounters.get(i));
+        }
+        for (int i = 0; i < HISTOGRAMS; i++) {
+            builder.append(", ").append(HISTOGRAM_NAMES[i]).append("={")
+                    .append(mHistograms[i]).append('}');
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,16 @@
+package io.github.webbluetoothcg.bletestperipheral.scheduler;
+
+/**
+ * 单调时钟，测试时可替换为手动推进的实现。
+ */
+public interface Clock {
+
+    long nanoTime();
+
+    Clock SYSTEM = new Clock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+}
@@ -0,0 +1,450 @@
+package io.github.webbluetoothcg.bletestperipheral.scheduler;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+import io.github.webbluetoothcg.bletestperipheral.metrics.LatencyHistogram;
+
+/**
+ * 单线程事件循环: 协议栈回调、广播回调和界面命令都作为事件投递到同一个线程，按投递顺序处理；
+ * 同一线程在两批事件之间驱动{@link TickScheduler}，定时任务与事件也不会并发。
+ * 状态只由该线程访问，不需要加锁。
+ *
+ * 每次取出最多batchSize个事件(一次加锁)，处理完后执行到期的定时任务，事件很多时定时任务最多等待一批。
+ * 队列节点循环使用，投递不分配内存(事件本身的Runnable由调用方提供)。
+ *
+ * 每种事件类型分别记录排队延迟(投递到开始处理)和处理时间；定时任务的延迟由TickScheduler的
+ * jitter直方图记录，这里只记录处理时间。
+ *
+ * 可以调用{@link #start()}由内部线程驱动，也可以在测试中配合手动时钟直接调用{@link #runBatch()}。
+ *
+ * 没有使用HandlerThread + Handler: Handler每条Message只处理一个事件，无法按批取出后再插入定时任务；
+ * 无法按事件类型统计排队延迟和处理时间；时间来自SystemClock，测试中不能换成手动时钟；
+ * 定时任务也只能另用postDelayed，不能与{@link TickScheduler}的固定速率和跳过tick的语义共用。
+ * 这里的队列只做投递和批量取出，其余与HandlerThread相同: 一个线程，按投递顺序处理。
+ *
+ * 事件抛出的RuntimeException不会中止事件线程，计入错误数，每种事件类型第一次出错时记录日志和堆栈。
+ */
+public final class EventLoop {
+
+    private static final String TAG = EventLoop.class.getCanonicalName();
+
+    // 队列节点，在mLock内访问
+    private static final class Node {
+        int mType;
+        Runnable mAction;
+        long mEnqueueNanos;
+        Node mNext;
+    }
+
+    private final String[] mTypeNames;
+    private final TickScheduler mScheduler;
+    private final Clock mClock;
+    private final int mBatchSize;
+    private final LatencyHistogram[] mQueueDelay;
+    private final LatencyHistogram[] mServiceTime;
+    private final LatencyHistogram mTickServiceTime = new LatencyHistogram();
+    private final Node[] mBatch; // 仅在事件线程中访问
+    private long mNextTickNanos; // 距下一个截止时间，仅在事件线程中访问
+    private long mEventPostNanos; // 正在处理的事件的投递时间，仅在事件线程中访问
+    private final boolean[] mErrorLogged; // 每种事件类型是否已记录过错误，仅在事件线程中访问
+
+    private final Object mLock = new Object();
+    private Node mHead;
+    private Node mTail;
+    private Node mFree;
+    private int mSize;
+    private int mMaxSize;
+    private boolean mRunning;
+    private boolean mStopped;
+    private Thread mThread;
+    private int mWakeUps; // 定时任务变化计数，避免处理期间错过新任务
+    private volatile Thread mOwner; // 正在处理事件的线程
+    private long mBatches;
+    private long mRejected;
+    private volatile RuntimeException mLastError;
+    private volatile long mErrorCount;
+
+    /**
+     * @param typeNames 事件类型名，下标为类型，用于统计
+     * @param scheduler 在事件线程中驱动的定时器，没有时为null
+     * @param batchSize 每批最多处理的事件数
+     */
+    public EventLoop(String[] typeNames, TickScheduler scheduler, Clock clock, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be at least 1");
+        }
+        mTypeNames = typeNames.clone();
+        mScheduler = scheduler;
+        mClock = clock;
+        mBatchSize = batchSize;
+        mBatch = new Node[batchSize];
+        mQueueDelay = new LatencyHistogram[typeNames.length];
+        mServiceTime = new LatencyHistogram[typeNames.length];
+        mErrorLogged = new boolean[typeNames.length];
+        for (int i = 0; i < typeNames.length; i++) {
+            mQueueDelay[i] = new LatencyHistogram();
+            mServiceTime[i] = new LatencyHistogram();
+        }
+        if (scheduler != null) {
+            // 新任务可能比当前等待的截止时间更早
+            scheduler.setWakeUp(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (mLock) {
+                        mWakeUps++;
+                        mLock.notifyAll();
+                    }
+                }
+            });
+        }
+    }
+
+    public Clock getClock() {
+        return mClock;
+    }
+
+    /**
+     * 投递事件，任意线程调用。
+     *
+     * @return false表示已停止，事件被丢弃
+     */
+    public boolean post(int type, Runnable action) {
+        long now = mClock.nanoTime();
+        synchronized (mLock) {
+            if (mStopped) {
+                mRejected++;
+                return false;
+            }
+            enqueueLocked(type, action, now);
+        }
+        return true;
+    }
+
+    // 在mLock内调用
+    private void enqueueLocked(int type, Runnable action, long now) {
+        Node node = mFree;
+        if (node != null) {
+            mFree = node.mNext;
+            node.mNext = null;
+        } else {
+            node = new Node(); // 队列第一次达到这个深度
+        }
+        node.mType = type;
+        node.mAction = action;
+        node.mEnqueueNanos = now;
+        if (mTail == null) {
+            mHead = node;
+        } else {
+            mTail.mNext = node;
+        }
+        mTail = node;
+        mSize++;
+        if (mSize > mMaxSize) {
+            mMaxSize = mSize;
+        }
+        if (mSize == 1) {
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * 已经在事件线程中时直接执行(不排队，仍计入处理时间)，否则投递。
+     *
+     * @return false表示已停止，事件被丢弃
+     */
+    public boolean execute(int type, Runnable action) {
+        if (!isInLoop()) {
+            return post(type, action);
+        }
+        long start = mClock.nanoTime();
+        mQueueDelay[type].record(0);
+        mEventPostNanos = start;
+        runSafely(type, action);
+        mServiceTime[type].record(mClock.nanoTime() - start);
+        return true;
+    }
+
+    /**
+     * 正在处理的事件的投递时间(同一个Clock)，在事件中调用。
+     * 用于统计从协议栈回调到处理完成的总延迟，包含排队时间。
+     */
+    public long getEventPostNanos() {
+        return mEventPostNanos;
+    }
+
+    // 当前线程是否正在处理事件或定时任务
+    public boolean isInLoop() {
+        return mOwner == Thread.currentThread();
+    }
+
+    /**
+     * 处理一批事件，之后执行到期的定时任务。
+     *
+     * @return 处理的事件数
+     */
+    public int runBatch() {
+        Thread previous = mOwner;
+        mOwner = Thread.currentThread();
+        try {
+            int count = drain();
+            runTicks();
+            return count;
+        } finally {
+            mOwner = previous;
+        }
+    }
+
+    // 一次加锁取出最多一批
+    private int drain() {
+        int count = 0;
+        synchronized (mLock) {
+            while (count < mBatchSize && mHead != null) {
+                Node node = mHead;
+                mHead = node.mNext;
+                node.mNext = null;
+                mBatch[count++] = node;
+            }
+            if (mHead == null) {
+                mTail = null;
+            }
+            mSize -= count;
+            if (count > 0) {
+                mBatches++;
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            Node node = mBatch[i];
+            long start = mClock.nanoTime();
+            mQueueDelay[node.mType].record(start - node.mEnqueueNanos);
+            mEventPostNanos = node.mEnqueueNanos;
+            runSafely(node.mType, node.mAction);
+            mServiceTime[node.mType].record(mClock.nanoTime() - start);
+        }
+        if (count > 0) {
+            synchronized (mLock) {
+                for (int i = 0; i < count; i++) {
+                    Node node = mBatch[i];
+                    node.mAction = null;
+                    node.mNext = mFree;
+                    mFree = node;
+                    mBatch[i] = null;
+                }
+            }
+        }
+        return count;
+    }
+
+    private void runTicks() {
+        if (mScheduler == null) {
+            mNextTickNanos = Long.MAX_VALUE;
+            return;
+        }
+        long start = mClock.nanoTime();
+        mNextTickNanos = mScheduler.runDue();
+        long elapsed = mClock.nanoTime() - start;
+        if (mScheduler.getLastRunCount() > 0) {
+            mTickServiceTime.record(elapsed);
+        }
+    }
+
+    private void runSafely(int type, Runnable action) {
+        try {
+            action.run();
+        } catch (RuntimeException e) {
+            mErrorCount++;
+            mLastError = e;
+            if (!mErrorLogged[type]) {
+                mErrorLogged[type] = true; // 之后同类型的错误只计数，避免刷屏
+                Log.e(TAG, "Event " + mTypeNames[type] + " failed", e);
+            }
+        }
+    }
+
+    public RuntimeException getLastError() {
+        return mLastError;
+    }
+
+    public long getErrorCount() {
+        return mErrorCount;
+    }
+
+    public LatencyHistogram getQueueDelay(int type) {
+        return mQueueDelay[type];
+    }
+
+    public LatencyHistogram getServiceTime(int type) {
+        return mServiceTime[type];
+    }
+
+    public int size() {
+        synchronized (mLock) {
+            return mSize;
+        }
+    }
+
+    public void start() {
+        synchronized (mLock) {
+            if (mRunning) {
+                return;
+            }
+            mRunning = true;
+            mStopped = false;
+            mThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    loop();
+                }
+            }, "EventLoop");
+            mThread.start();
+        }
+    }
+
+    /**
+     * 停止并等待事件线程退出，之后投递的事件被丢弃，尚未处理的事件不再处理。
+     * 返回后调用线程可以直接访问原来由事件线程持有的状态。
+     */
+    public void stop() {
+        Thread thread;
+        synchronized (mLock) {
+            mRunning = false;
+            mStopped = true;
+            thread = mThread;
+            mThread = null;
+            mLock.notifyAll();
+        }
+        if (thread != null && thread != Thread.currentThread()) {
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (mLock) {
+            Node node = mHead;
+            while (node != null) {
+                mRejected++;
+                node.mAction = null;
+                node = node.mNext;
+            }
+            mHead = null;
+            mTail = null;
+            mSize = 0;
+        }
+    }
+
+    /**
+     * 处理完已投递的事件后，在事件线程中执行action作为最后一个事件，然后停止。
+     * 等待事件线程退出，不设超时；之后投递的事件被丢弃。
+     * 返回后调用线程可以直接访问原来由事件线程持有的状态。
+     * 没有运行内部线程(或在事件线程中调用)时，丢弃未处理的事件，在调用线程中执行action。
+     */
+    public void shutdown(int type, final Runnable action) {
+        Thread thread;
+        synchronized (mLock) {
+            thread = mThread;
+            if (thread != null && thread != Thread.currentThread() && !mStopped) {
+                // 与投递同一把锁，action之后不会再有事件
+                enqueueLocked(type, new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            action.run();
+                        } finally {
+                            synchronized (mLock) {
+                                mRunning = false;
+                            }
+                        }
+                    }
+                }, mClock.nanoTime());
+                mStopped = true;
+            } else {
+                thread = null;
+            }
+        }
+        if (thread == null) {
+            stop();
+            runSafely(type, action);
+            return;
+        }
+        boolean interrupted = false;
+        while (true) {
+            try {
+                thread.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        stop(); // 线程已退出，只清理状态
+    }
+
+    private void loop() {
+        mOwner = Thread.currentThread();
+        while (true) {
+            int wakeUps;
+            synchronized (mLock) {
+                wakeUps = mWakeUps;
+            }
+            drain();
+            synchronized (mLock) {
+                if (!mRunning) {
+                    mOwner = null;
+                    return; // 停止后不再执行定时任务
+                }
+            }
+            runTicks();
+            synchronized (mLock) {
+                if (!mRunning) {
+                    mOwner = null;
+                    return;
+                }
+                long waitNanos = mNextTickNanos;
+                if (mHead == null && waitNanos > 0 && wakeUps == mWakeUps) {
+                    try {
+                        if (waitNanos == Long.MAX_VALUE) {
+                            mLock.wait();
+                        } else {
+                            mLock.wait(waitNanos / 1000000, (int) (waitNanos % 1000000));
+                        }
+                    } catch (InterruptedException e) {
+                        mOwner = null;
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    // 文本格式，每种事件类型一行，没有发生过的类型不输出
+    public void dump(Writer writer) throws IOException {
+        synchronized (mLock) {
+            writer.write("eventLoop: batches=" + mBatches + ", maxQueued=" + mMaxSize
+                    + ", rejected=" + mRejected + ", errors=" + mErrorCount + "\n");
+        }
+        for (int i = 0; i < mTypeNames.length; i++) {
+            if (mServiceTime[i].getCount() == 0) {
+                continue;
+            }
+            writer.write("  " + mTypeNames[i] + ": queue{" + mQueueDelay[i] + "} service{"
+                    + mServiceTime[i] + "}\n");
+        }
+        if (mTickServiceTime.getCount() > 0) {
+            writer.write("  ticks: service{" + mTickServiceTime + "}\n");
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized (mLock) {
+            return "batches=" + mBatches + ", queued=" + mSize + ", maxQueued=" + mMaxSize
+                    + ", rejected=" + mRejected + ", errors=" + mErrorCount;
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package io.github.webbluetoothcg.bletestperipheral.scheduler;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import io.github.webbluetoothcg.bletestperipheral.metrics.LatencyHistogram;
+
+/**
+ * 单线程多速率定时器，替代多个java.util.Timer。
+ *
+ * 每个任务按固定速率运行，第n次的截止时间为 origin + n * period，不会因为任务执行时间而漂移。
+ * 落后超过一个周期时跳过错过的tick并计入missedTicks，不会集中补跑。
+ *
+ * 可以调用{@link #start()}由内部线程驱动，可以由{@link EventLoop}在事件线程中驱动，
+ * 也可以在测试中配合手动时钟直接调用{@link #runDue()}。
+ *
+ * 任务抛出的RuntimeException不会中止调度，计入该任务的错误数，每个任务第一次出错时记录日志和堆栈。
+ */
+public final class TickScheduler {
+
+    private static final String TAG = TickScheduler.class.getCanonicalName();
+
+    private static final Task[] NO_TASKS = new Task[0];
+
+    /**
+     * 已注册的周期任务，计数器可在任意线程读取。
+     */
+    public final class Task {
+        private final String mName;
+        private final long mPeriodNanos;
+        private final Runnable mAction;
+        private long mNextDeadline; // 仅在调度线程中访问
+        private volatile boolean mCancelled;
+        private volatile long mTickCount;
+        private volatile long mMissedTicks;
+        private volatile long mErrorCount;
+        private volatile long mMaxLatenessNanos;
+
+        private Task(String name, long periodNanos, long firstDeadline, Runnable action) {
+            mName = name;
+            mPeriodNanos = periodNanos;
+            mNextDeadline = firstDeadline;
+            mAction = action;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public long getPeriodNanos() {
+            return mPeriodNanos;
+        }
+
+        public long getTickCount() {
+            return mTickCount;
+        }
+
+        public long getMissedTicks() {
+            return mMissedTicks;
+        }
+
+        public long getErrorCount() {
+            return mErrorCount;
+        }
+
+        // 实际执行时间相对截止时间的最大延迟
+        public long getMaxLatenessNanos() {
+            return mMaxLatenessNanos;
+        }
+
+        public void cancel() {
+            mCancelled = true;
+            remove(this);
+        }
+
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+
+        // 执行到期的tick，返回下一次截止时间
+        private long runIfDue(long now) {
+            if (now - mNextDeadline < 0) {
+                return mNextDeadline;
+            }
+            long lateness = now - mNextDeadline;
+            if (lateness > mMaxLatenessNanos) {
+                mMaxLatenessNanos = lateness;
+            }
+            LatencyHistogram jitter = mJitter;
+            if (jitter != null) {
+                jitter.record(lateness);
+            }
+            try {
+                mAction.run();
+            } catch (RuntimeException e) {
+                if (mErrorCount++ == 0) {
+                    Log.e(TAG, "Task " + mName + " failed", e); // 之后只计数
+                }
+                mLastError = e;
+            }
+            mTickCount++;
+            mNextDeadline += mPeriodNanos;
+            long behind = now - mNextDeadline;
+            if (behind >= 0) {
+                long skipped = behind / mPeriodNanos + 1;
+                mMissedTicks += skipped;
+                mNextDeadline += skipped * mPeriodNanos;
+            }
+            return mNextDeadline;
+        }
+    }
+
+    private final Clock mClock;
+    private final Object mLock = new Object();
+    private final ArrayList<Task> mTasks = new ArrayList<>();
+    private volatile Task[] mSnapshot = NO_TASKS; // 写时复制，调度线程无锁遍历
+    private volatile RuntimeException mLastError;
+    private volatile LatencyHistogram mJitter;
+    private volatile Runnable mWakeUp;
+    private int mLastRunCount; // 仅在调度线程中访问
+    private Thread mThread;
+    private boolean mRunning;
+    private int mGeneration; // 任务变化计数，避免等待期间错过新任务
+
+    public TickScheduler(Clock clock) {
+        mClock = clock;
+    }
+
+    public Clock getClock() {
+        return mClock;
+    }
+
+    /**
+     * 注册固定速率任务。
+     *
+     * @param name 任务名，用于统计
+     * @param initialDelayMillis 首次执行延迟
+     * @param periodMillis 周期
+     * @param action 在调度线程执行，不应阻塞
+     */
+    public Task schedule(String name, long initialDelayMillis, long periodMillis, Runnable action) {
+        if (periodMillis <= 0) {
+            throw new IllegalArgumentException("period must be positive: " + periodMillis);
+        }
+        Task task = new Task(name, TimeUnit.MILLISECONDS.toNanos(periodMillis),
+                mClock.nanoTime() + TimeUnit.MILLISECONDS.toNanos(initialDelayMillis), action);
+        synchronized (mLock) {
+            mTasks.add(task);
+            mSnapshot = mTasks.toArray(new Task[mTasks.size()]);
+            mGeneration++;
+            mLock.notifyAll(); // 新任务可能比当前等待的截止时间更早
+        }
+        Runnable wakeUp = mWakeUp;
+        if (wakeUp != null) {
+            wakeUp.run();
+        }
+        return task;
+    }
+
+    private void remove(Task task) {
+        synchronized (mLock) {
+            if (mTasks.remove(task)) {
+                mSnapshot = mTasks.toArray(new Task[mTasks.size()]);
+            }
+        }
+    }
+
+    /**
+     * 执行所有已到期的任务。
+     *
+     * @return 距离下一个截止时间的纳秒数，没有任务时返回Long.MAX_VALUE
+     */
+    public long runDue() {
+        Task[] tasks = mSnapshot;
+        long now = mClock.nanoTime();
+        long next = Long.MAX_VALUE;
+        boolean hasNext = false;
+        int ran = 0;
+        for (Task task : tasks) {
+            if (task.mCancelled) {
+                continue;
+            }
+            if (now - task.mNextDeadline >= 0) {
+                ran++;
+            }
+            long deadline = task.runIfDue(now);
+            if (!hasNext || deadline - next < 0) {
+                next = deadline;
+                hasNext = true;
+            }
+        }
+        mLastRunCount = ran;
+        if (!hasNext) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0, next - mClock.nanoTime());
+    }
+
+    // 上一次runDue执行的任务数
+    public int getLastRunCount() {
+        return mLastRunCount;
+    }
+
+    /**
+     * 由外部线程(如{@link EventLoop})调用runDue而不是{@link #start()}时设置，
+     * 注册新任务后调用以唤醒该线程重新计算等待时间。
+     */
+    public void setWakeUp(Runnable wakeUp) {
+        mWakeUp = wakeUp;
+    }
+
+    // 记录所有任务每次执行相对截止时间的延迟，null时不记录
+    public void setJitterHistogram(LatencyHistogram jitter) {
+        mJitter = jitter;
+    }
+
+    public RuntimeException getLastError() {
+        return mLastError;
+    }
+
+    public void start() {
+        synchronized (mLock) {
+            if (mRunning) {
+                return;
+            }
+            mRunning = true;
+            mThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    loop();
+                }
+            }, "TickScheduler");
+            mThread.start();
+        }
+    }
+
+    public void stop() {
+        Thread thread;
+        synchronized (mLock) {
+            mRunning = false;
+            thread = mThread;
+            mThread = null;
+            mLock.notifyAll();
+        }
+        if (thread != null && thread != Thread.currentThread()) {
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void loop() {
+        while (true) {
+            int generation;
+            synchronized (mLock) {
+                generation = mGeneration;
+            }
+            long waitNanos = runDue();
+            synchronized (mLock) {
+                if (!mRunning) {
+                    return;
+                }
+                if (waitNanos > 0 && generation == mGeneration) {
+                    try {
+                        if (waitNanos == Long.MAX_VALUE) {
+                            mLock.wait();
+                        } else {
+                            mLock.wait(waitNanos / 1000000, (int) (waitNanos % 1000000));
+                        }
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+}
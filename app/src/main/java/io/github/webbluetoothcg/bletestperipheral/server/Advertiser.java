@@ -0,0 +1,36 @@
+package io.github.webbluetoothcg.bletestperipheral.server;
+
+import android.bluetooth.le.AdvertiseData;
+import android.bluetooth.le.AdvertisingSetParameters;
+
+/**
+ * 广播操作，对应BluetoothLeAdvertiser和AdvertisingSet中用到的部分。
+ *
+ * {@link AndroidAdvertiser}转发给系统，单元测试中的FakeAdvertiser在内存中模拟。
+ */
+public interface Advertiser {
+
+    /** 一个已启动的广播集，对应AdvertisingSet */
+    interface Handle {
+        // 结果通过Callback#onAdvertisingDataSet返回
+        void setAdvertisingData(AdvertiseData data);
+    }
+
+    /** 广播集事件，对应AdvertisingSetCallback，默认忽略 */
+    abstract class Callback {
+        // status为AdvertisingSetCallback中的状态码，失败时handle为null
+        public void onAdvertisingSetStarted(Handle handle, int txPower, int status) {
+        }
+
+        public void onAdvertisingSetStopped(Handle handle) {
+        }
+
+        public void onAdvertisingDataSet(Handle handle, int status) {
+        }
+    }
+
+    void startAdvertisingSet(AdvertisingSetParameters parameters, AdvertiseData advertiseData,
+                             AdvertiseData scanResponse, Callback callback);
+
+    void stopAdvertisingSet(Callback callback);
+}
@@ -0,0 +1,79 @@
+package io.github.webbluetoothcg.bletestperipheral.server;
+
+import android.bluetooth.le.AdvertiseData;
+import android.bluetooth.le.AdvertisingSet;
+import android.bluetooth.le.AdvertisingSetCallback;
+import android.bluetooth.le.AdvertisingSetParameters;
+import android.bluetooth.le.BluetoothLeAdvertiser;
+
+import java.util.IdentityHashMap;
+
+/**
+ * 转发给系统BluetoothLeAdvertiser的实现，每个Callback对应一个AdvertisingSetCallback。
+ */
+public final class AndroidAdvertiser implements Advertiser {
+
+    private final BluetoothLeAdvertiser mAdvertiser;
+    private final IdentityHashMap<Callback, AdvertisingSetCallback> mCallbacks =
+            new IdentityHashMap<>();
+
+    public AndroidAdvertiser(BluetoothLeAdvertiser advertiser) {
+        mAdvertiser = advertiser;
+    }
+
+    @Override
+    public void startAdvertisingSet(AdvertisingSetParameters parameters,
+                                    AdvertiseData advertiseData, AdvertiseData scanResponse,
+                                    final Callback callback) {
+        AdvertisingSetCallback setCallback = new AdvertisingSetCallback() {
+            private AndroidHandle mHandle;
+
+            @Override
+            public void onAdvertisingSetStarted(AdvertisingSet advertisingSet, int txPower,
+                                                int status) {
+                mHandle = advertisingSet != null ? new AndroidHandle(advertisingSet) : null;
+                callback.onAdvertisingSetStarted(mHandle, txPower, status);
+            }
+
+            @Override
+            public void onAdvertisingSetStopped(AdvertisingSet advertisingSet) {
+                callback.onAdvertisingSetStopped(mHandle);
+            }
+
+            @Override
+            public void onAdvertisingDataSet(AdvertisingSet advertisingSet, int status) {
+                callback.onAdvertisingDataSet(mHandle, status);
+            }
+        };
+        synchronized (mCallbacks) {
+            mCallbacks.put(callback, setCallback);
+        }
+        mAdvertiser.startAdvertisingSet(parameters, advertiseData, scanResponse,
+                /* periodicParameters */ null, /* periodicData */ null,
+                /* duration */ 0, /* maxExtendedAdvertisingEvents */ 0, setCallback);
+    }
+
+    @Override
+    public void stopAdvertisingSet(Callback callback) {
+        AdvertisingSetCallback setCallback;
+        synchronized (mCallbacks) {
+            setCallback = mCallbacks.remove(callback);
+        }
+        if (setCallback != null) {
+            mAdvertiser.stopAdvertisingSet(setCallback);
+        }
+    }
+
+    private static final class AndroidHandle implements Handle {
+        private final AdvertisingSet mAdvertisingSet;
+
+        AndroidHandle(AdvertisingSet advertisingSet) {
+            mAdvertisingSet = advertisingSet;
+        }
+
+        @Override
+        public void setAdvertisingData(AdvertiseData data) {
+            mAdvertisingSet.setAdvertisingData(data);
+        }
+    }
+}
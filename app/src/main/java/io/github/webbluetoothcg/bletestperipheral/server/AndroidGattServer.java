@@ -0,0 +1,69 @@
+package io.github.webbluetoothcg.bletestperipheral.server;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattServer;
+import android.bluetooth.BluetoothGattServerCallback;
+import android.bluetooth.BluetoothGattService;
+import android.bluetooth.BluetoothManager;
+import android.content.Context;
+
+import java.util.List;
+
+/**
+ * 转发给系统BluetoothGattServer的实现。
+ */
+public final class AndroidGattServer implements GattServer {
+
+    private final BluetoothManager mBluetoothManager;
+    private final BluetoothGattServer mGattServer;
+
+    /**
+     * 打开系统GATT server。
+     *
+     * @return 蓝牙已关闭等情况下打开失败时返回null
+     */
+    public static AndroidGattServer open(Context context, BluetoothManager bluetoothManager,
+                                         BluetoothGattServerCallback callback) {
+        BluetoothGattServer gattServer = bluetoothManager.openGattServer(context, callback);
+        return gattServer != null ? new AndroidGattServer(bluetoothManager, gattServer) : null;
+    }
+
+    private AndroidGattServer(BluetoothManager bluetoothManager, BluetoothGattServer gattServer) {
+        mBluetoothManager = bluetoothManager;
+        mGattServer = gattServer;
+    }
+
+    @Override
+    public boolean addService(BluetoothGattService service) {
+        return mGattServer.addService(service);
+    }
+
+    @Override
+    public boolean sendResponse(BluetoothDevice device, int requestId, int status, int offset,
+                                byte[] value) {
+        return mGattServer.sendResponse(device, requestId, status, offset, value);
+    }
+
+    @Override
+    public boolean notifyCharacteristicChanged(BluetoothDevice device,
+                                               BluetoothGattCharacteristic characteristic,
+                                               boolean confirm) {
+        return mGattServer.notifyCharacteristicChanged(device, characteristic, confirm);
+    }
+
+    @Override
+    public void cancelConnection(BluetoothDevice device) {
+        mGattServer.cancelConnection(device);
+    }
+
+    @Override
+    public List<BluetoothDevice> getConnectedDevices() {
+        return mBluetoothManager.getConnectedDevices(BluetoothGattServer.GATT);
+    }
+
+    @Override
+    public void close() {
+        mGattServer.close();
+    }
+}
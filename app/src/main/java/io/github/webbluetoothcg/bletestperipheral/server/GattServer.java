@@ -0,0 +1,32 @@
+package io.github.webbluetoothcg.bletestperipheral.server;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattService;
+
+import java.util.List;
+
+/**
+ * GATT server操作，方法与BluetoothGattServer一致。
+ *
+ * 事件仍通过打开时传入的BluetoothGattServerCallback回调。
+ * {@link AndroidGattServer}转发给系统，单元测试中的FakeGattServer在内存中模拟，不需要蓝牙硬件。
+ */
+public interface GattServer {
+
+    boolean addService(BluetoothGattService service);
+
+    boolean sendResponse(BluetoothDevice device, int requestId, int status, int offset,
+                         byte[] value);
+
+    // 发送characteristic的当前值，返回false表示协议栈拒绝(例如上一个还未完成)
+    boolean notifyCharacteristicChanged(BluetoothDevice device,
+                                        BluetoothGattCharacteristic characteristic,
+                                        boolean confirm);
+
+    void cancelConnection(BluetoothDevice device);
+
+    List<BluetoothDevice> getConnectedDevices();
+
+    void close();
+}
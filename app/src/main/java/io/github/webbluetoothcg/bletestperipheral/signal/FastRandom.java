@@ -0,0 +1,80 @@
+package io.github.webbluetoothcg.bletestperipheral.signal;
+
+/**
+ * 可设种子的xorshift64*随机数，不分配内存，非线程安全。
+ *
+ * 相同种子产生相同序列，用于可复现的模拟数据。
+ */
+public final class FastRandom {
+
+    private long mState;
+    private boolean mHasSpareGaussian;
+    private double mSpareGaussian;
+
+    public FastRandom(long seed) {
+        setSeed(seed);
+    }
+
+    public void setSeed(long seed) {
+        // splitmix64打散种子，避免0状态
+        long z = seed + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z = z ^ (z >>> 31);
+        mState = z == 0 ? 0x9E3779B97F4A7C15L : z;
+        mHasSpareGaussian = false;
+    }
+
+    public long nextLong() {
+        long x = mState;
+        x ^= x >>> 12;
+        x ^= x << 25;
+        x ^= x >>> 27;
+        mState = x;
+        return x * 0x2545F4914F6CDD1DL;
+    }
+
+    // [0, 1)
+    public double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    // [0, bound)，无偏
+    public int nextInt(int bound) {
+        if (bound <= 0) {
+            throw new IllegalArgumentException("bound must be positive");
+        }
+        long threshold = (0x100000000L % bound);
+        while (true) {
+            long r = nextLong() >>> 32;
+            if (r >= threshold) {
+                return (int) (r % bound);
+            }
+        }
+    }
+
+    // [min, max]
+    public int nextInt(int min, int max) {
+        return min + nextInt(max - min + 1);
+    }
+
+    // 标准正态分布，极坐标法，每两次计算一次
+    public double nextGaussian() {
+        if (mHasSpareGaussian) {
+            mHasSpareGaussian = false;
+            return mSpareGaussian;
+        }
+        double u;
+        double v;
+        double s;
+        do {
+            u = nextDouble() * 2 - 1;
+            v = nextDouble() * 2 - 1;
+            s = u * u + v * v;
+        } while (s >= 1 || s == 0);
+        double scale = Math.sqrt(-2 * Math.log(s) / s);
+        mSpareGaussian = v * scale;
+        mHasSpareGaussian = true;
+        return u * scale;
+    }
+}
@@ -0,0 +1,46 @@
+package io.github.webbluetoothcg.bletestperipheral.signal;
+
+/**
+ * 有界随机游走：每次在[-maxStep, maxStep]内均匀变化，碰到边界时反射回来。
+ */
+public final class RandomWalkGenerator extends SignalGenerator {
+
+    private final int mMin;
+    private final int mMax;
+    private final int mStart;
+    private final int mMaxStep;
+    private final long mSeed;
+    private final FastRandom mRandom;
+    private int mValue;
+
+    public RandomWalkGenerator(int min, int max, int start, int maxStep, long seed) {
+        if (min > max || start < min || start > max || maxStep < 0) {
+            throw new IllegalArgumentException("invalid random walk range");
+        }
+        mMin = min;
+        mMax = max;
+        mStart = start;
+        mMaxStep = maxStep;
+        mSeed = seed;
+        mRandom = new FastRandom(seed);
+        mValue = start;
+    }
+
+    @Override
+    public int next() {
+        int value = mValue + mRandom.nextInt(-mMaxStep, mMaxStep);
+        if (value > mMax) {
+            value = Math.max(mMin, 2 * mMax - value);
+        } else if (value < mMin) {
+            value = Math.min(mMax, 2 * mMin - value);
+        }
+        mValue = value;
+        return value;
+    }
+
+    @Override
+    public void reset() {
+        mRandom.setSeed(mSeed);
+        mValue = mStart;
+    }
+}
@@ -0,0 +1,41 @@
+package io.github.webbluetoothcg.bletestperipheral.signal;
+
+/**
+ * 循环输出固定序列。
+ */
+public final class SequenceGenerator extends SignalGenerator {
+
+    private final int[] mValues;
+    private int mIndex;
+
+    public SequenceGenerator(int[] values) {
+        if (values.length == 0) {
+            throw new IllegalArgumentException("values must not be empty");
+        }
+        mValues = values.clone();
+    }
+
+    @Override
+    public int next() {
+        int value = mValues[mIndex];
+        mIndex = mIndex + 1 == mValues.length ? 0 : mIndex + 1;
+        return value;
+    }
+
+    @Override
+    public int fill(int[] out, int offset, int count) {
+        int written = 0;
+        while (written < count) {
+            int chunk = Math.min(count - written, mValues.length - mIndex);
+            System.arraycopy(mValues, mIndex, out, offset + written, chunk);
+            written += chunk;
+            mIndex = (mIndex + chunk) % mValues.length;
+        }
+        return count;
+    }
+
+    @Override
+    public void reset() {
+        mIndex = 0;
+    }
+}
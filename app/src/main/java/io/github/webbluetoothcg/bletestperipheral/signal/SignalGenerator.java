@@ -0,0 +1,26 @@
+package io.github.webbluetoothcg.bletestperipheral.signal;
+
+/**
+ * 有状态的模拟信号源，每次调用产生一个整数采样(单位由使用方决定，例如bpm或0.01℃)。
+ *
+ * 实现不应在采样时分配内存，非线程安全，应只在一个线程(定时器线程)中使用。
+ */
+public abstract class SignalGenerator {
+
+    public abstract int next();
+
+    /**
+     * 批量产生采样，用于高采样率模式。
+     *
+     * @return 写入的个数
+     */
+    public int fill(int[] out, int offset, int count) {
+        for (int i = 0; i < count; i++) {
+            out[offset + i] = next();
+        }
+        return count;
+    }
+
+    // 回到初始状态，相同种子下重新产生相同的序列
+    public abstract void reset();
+}
@@ -0,0 +1,51 @@
+package io.github.webbluetoothcg.bletestperipheral.signal;
+
+/**
+ * 正弦波叠加高斯噪声：mean + amplitude * sin(2πn / period) + N(0, noise)。
+ *
+ * 一个周期的正弦值在构造时预先计算，采样时只查表。
+ */
+public final class SineNoiseGenerator extends SignalGenerator {
+
+    private final int mMean;
+    private final float[] mWave; // amplitude * sin，一个周期
+    private final double mNoiseStdDev;
+    private final long mSeed;
+    private final FastRandom mRandom;
+    private int mPhase;
+
+    /**
+     * @param periodSamples 一个周期的采样数
+     * @param noiseStdDev 噪声标准差，0表示无噪声
+     */
+    public SineNoiseGenerator(int mean, int amplitude, int periodSamples, double noiseStdDev,
+                              long seed) {
+        if (periodSamples < 1) {
+            throw new IllegalArgumentException("periodSamples must be positive");
+        }
+        mMean = mean;
+        mNoiseStdDev = noiseStdDev;
+        mSeed = seed;
+        mRandom = new FastRandom(seed);
+        mWave = new float[periodSamples];
+        for (int i = 0; i < periodSamples; i++) {
+            mWave[i] = (float) (amplitude * Math.sin(2 * Math.PI * i / periodSamples));
+        }
+    }
+
+    @Override
+    public int next() {
+        double value = mMean + mWave[mPhase];
+        if (mNoiseStdDev > 0) {
+            value += mRandom.nextGaussian() * mNoiseStdDev;
+        }
+        mPhase = mPhase + 1 == mWave.length ? 0 : mPhase + 1;
+        return (int) Math.round(value);
+    }
+
+    @Override
+    public void reset() {
+        mRandom.setSeed(mSeed);
+        mPhase = 0;
+    }
+}
@@ -0,0 +1,48 @@
+package io.github.webbluetoothcg.bletestperipheral.signal;
+
+/**
+ * 在基础信号上叠加随机的阶跃事件，例如运动时心率突然升高一段时间。
+ *
+ * 每个采样以probability的概率开始一次事件(事件期间不再触发)，
+ * 事件持续durationSamples个采样，期间输出加上offset。
+ */
+public final class StepEventGenerator extends SignalGenerator {
+
+    private final SignalGenerator mBase;
+    private final double mProbability;
+    private final int mOffset;
+    private final int mDurationSamples;
+    private final long mSeed;
+    private final FastRandom mRandom;
+    private int mRemaining;
+
+    public StepEventGenerator(SignalGenerator base, double probability, int offset,
+                              int durationSamples, long seed) {
+        mBase = base;
+        mProbability = probability;
+        mOffset = offset;
+        mDurationSamples = durationSamples;
+        mSeed = seed;
+        mRandom = new FastRandom(seed);
+    }
+
+    @Override
+    public int next() {
+        int value = mBase.next();
+        if (mRemaining == 0 && mRandom.nextDouble() < mProbability) {
+            mRemaining = mDurationSamples;
+        }
+        if (mRemaining > 0) {
+            mRemaining--;
+            value += mOffset;
+        }
+        return value;
+    }
+
+    @Override
+    public void reset() {
+        mBase.reset();
+        mRandom.setSeed(mSeed);
+        mRemaining = 0;
+    }
+}
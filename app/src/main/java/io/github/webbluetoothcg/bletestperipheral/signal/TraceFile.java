@@ -0,0 +1,85 @@
+package io.github.webbluetoothcg.bletestperipheral.signal;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 录制数据的二进制文件，按内存映射方式只读访问，不把数据加载到堆中。
+ *
+ * <pre>
+ * 小端格式
+ * [0-3]   magic "CTR1"
+ * [4-5]   version，当前为1
+ * [6-7]   保留
+ * [8-11]  采样间隔，微秒
+ * [12-19] 采样个数
+ * [20-23] 保留
+ * [24+]   采样 int16 * N
+ * </pre>
+ * 由{@link TraceImporter}从CSV生成。
+ */
+public final class TraceFile implements Closeable {
+
+    static final int MAGIC = 0x31525443; // "CTR1"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 24;
+    static final int SAMPLE_SIZE = 2;
+
+    private final RandomAccessFile mFile;
+    private final MappedByteBuffer mBuffer;
+    private final int mSampleIntervalMicros;
+    private final int mSampleCount;
+
+    public static TraceFile open(File file) throws IOException {
+        return new TraceFile(file);
+    }
+
+    private TraceFile(File file) throws IOException {
+        mFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = mFile.getChannel();
+            long size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                throw new IOException("Invalid trace size: " + size);
+            }
+            mBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            mBuffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (mBuffer.getInt(0) != MAGIC || mBuffer.getShort(4) != VERSION) {
+                throw new IOException("Not a trace file: " + file);
+            }
+            mSampleIntervalMicros = mBuffer.getInt(8);
+            long count = mBuffer.getLong(12);
+            if (count < 1 || mSampleIntervalMicros <= 0
+                    || HEADER_SIZE + count * SAMPLE_SIZE > size) {
+                throw new IOException("Truncated trace file: " + file);
+            }
+            mSampleCount = (int) count;
+        } catch (IOException e) {
+            mFile.close();
+            throw e;
+        }
+    }
+
+    public int getSampleCount() {
+        return mSampleCount;
+    }
+
+    public int getSampleIntervalMicros() {
+        return mSampleIntervalMicros;
+    }
+
+    // 绝对位置读取，不改变buffer状态，可在多个读取方之间共享
+    public int get(int index) {
+        return mBuffer.getShort(HEADER_SIZE + index * SAMPLE_SIZE);
+    }
+
+    @Override
+    public void close() throws IOException {
+        mFile.close();
+    }
+}
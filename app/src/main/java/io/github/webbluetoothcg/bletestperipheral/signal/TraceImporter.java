@@ -0,0 +1,113 @@
+package io.github.webbluetoothcg.bletestperipheral.signal;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+
+/**
+ * 把CSV录制数据一次性转换成{@link TraceFile}二进制格式。
+ *
+ * 每行一个采样，"value" 或 "timestampMillis,value"，空行、#开头的注释和无法解析的行(如表头)被跳过。
+ * 带时间戳时采样间隔取首尾时间戳的平均间隔，否则使用defaultIntervalMillis。
+ * value乘以scale后取整保存为int16，例如温度36.52 * 100 = 3652。
+ */
+public final class TraceImporter {
+
+    private TraceImporter() {
+    }
+
+    /**
+     * @return 导入的采样个数
+     */
+    public static long importCsv(BufferedReader in, File out, double scale,
+                                 int defaultIntervalMillis) throws IOException {
+        File tmp = new File(out.getPath() + ".tmp");
+        long count = 0;
+        long firstTimestamp = -1;
+        long lastTimestamp = -1;
+        OutputStream os = new BufferedOutputStream(new FileOutputStream(tmp), 64 * 1024);
+        try {
+            os.write(new byte[TraceFile.HEADER_SIZE]); // 最后回填
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.charAt(0) == '#') {
+                    continue;
+                }
+                int comma = line.indexOf(',');
+                double value;
+                long timestamp = -1;
+                try {
+                    if (comma < 0) {
+                        value = Double.parseDouble(line);
+                    } else {
+                        timestamp = Long.parseLong(line.substring(0, comma).trim());
+                        int end = line.indexOf(',', comma + 1);
+                        value = Double.parseDouble(
+                                line.substring(comma + 1, end < 0 ? line.length() : end).trim());
+                    }
+                } catch (NumberFormatException e) {
+                    continue; // 表头等
+                }
+                long scaled = Math.round(value * scale);
+                if (scaled < Short.MIN_VALUE || scaled > Short.MAX_VALUE) {
+                    throw new IOException("Value out of int16 range at sample " + count + ": "
+                            + value);
+                }
+                os.write((int) scaled);
+                os.write((int) (scaled >> 8));
+                if (timestamp >= 0) {
+                    if (firstTimestamp < 0) {
+                        firstTimestamp = timestamp;
+                    }
+                    lastTimestamp = timestamp;
+                }
+                count++;
+            }
+        } finally {
+            os.close();
+        }
+        if (count == 0) {
+            tmp.delete();
+            throw new IOException("No samples in CSV");
+        }
+        long intervalMicros = defaultIntervalMillis * 1000L;
+        if (count > 1 && lastTimestamp > firstTimestamp) {
+            intervalMicros = (lastTimestamp - firstTimestamp) * 1000L / (count - 1);
+        }
+        writeHeader(tmp, (int) Math.max(1, Math.min(intervalMicros, Integer.MAX_VALUE)), count);
+        if (!tmp.renameTo(out)) {
+            tmp.delete();
+            throw new IOException("Failed to rename " + tmp + " to " + out);
+        }
+        return count;
+    }
+
+    private static void writeHeader(File file, int intervalMicros, long count)
+            throws IOException {
+        byte[] header = new byte[TraceFile.HEADER_SIZE];
+        putInt(header, 0, TraceFile.MAGIC);
+        header[4] = (byte) TraceFile.VERSION;
+        header[5] = (byte) (TraceFile.VERSION >> 8);
+        putInt(header, 8, intervalMicros);
+        putInt(header, 12, (int) count);
+        putInt(header, 16, (int) (count >>> 32));
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.write(header);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void putInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) value;
+        buffer[offset + 1] = (byte) (value >> 8);
+        buffer[offset + 2] = (byte) (value >> 16);
+        buffer[offset + 3] = (byte) (value >> 24);
+    }
+}
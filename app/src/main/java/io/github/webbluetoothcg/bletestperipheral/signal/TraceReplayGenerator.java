@@ -0,0 +1,74 @@
+package io.github.webbluetoothcg.bletestperipheral.signal;
+
+/**
+ * 回放{@link TraceFile}中的录制数据。
+ *
+ * 每个tick前进 speed * tickPeriod / 采样间隔 个采样，支持循环、跳转和倍速。
+ * 不循环时到达末尾后一直输出最后一个采样。数据通过内存映射读取，内存占用与文件大小无关。
+ */
+public final class TraceReplayGenerator extends SignalGenerator {
+
+    private final TraceFile mTrace;
+    private final double mSamplesPerTick; // 1倍速时每个tick前进的采样数
+    private volatile double mSpeed = 1;
+    private volatile boolean mLooping = true;
+    private volatile long mSeekTo = -1; // 其他线程请求的跳转位置
+    private double mPosition;
+
+    public TraceReplayGenerator(TraceFile trace, long tickPeriodMillis) {
+        mTrace = trace;
+        mSamplesPerTick = tickPeriodMillis * 1000.0 / trace.getSampleIntervalMicros();
+    }
+
+    public TraceFile getTrace() {
+        return mTrace;
+    }
+
+    // 倍速，例如2表示两倍速
+    public void setSpeed(double speed) {
+        if (speed <= 0) {
+            throw new IllegalArgumentException("speed must be positive");
+        }
+        mSpeed = speed;
+    }
+
+    public void setLooping(boolean looping) {
+        mLooping = looping;
+    }
+
+    // 跳转到指定采样，可在任意线程调用，下一个tick生效
+    public void seek(long sampleIndex) {
+        mSeekTo = Math.max(0, Math.min(sampleIndex, mTrace.getSampleCount() - 1));
+    }
+
+    // 当前位置(采样下标)
+    public long getPosition() {
+        return (long) mPosition;
+    }
+
+    public boolean isFinished() {
+        return !mLooping && mPosition >= mTrace.getSampleCount() - 1;
+    }
+
+    @Override
+    public int next() {
+        long seekTo = mSeekTo;
+        if (seekTo >= 0) {
+            mSeekTo = -1;
+            mPosition = seekTo;
+        }
+        int count = mTrace.getSampleCount();
+        int value = mTrace.get((int) mPosition);
+        mPosition += mSamplesPerTick * mSpeed;
+        if (mPosition >= count) {
+            mPosition = mLooping ? mPosition % count : count - 1;
+        }
+        return value;
+    }
+
+    @Override
+    public void reset() {
+        mPosition = 0;
+        mSeekTo = -1;
+    }
+}
@@ -0,0 +1,473 @@
+package io.github.webbluetoothcg.bletestperipheral.store;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * 单个传感器的持久化采样日志，只追加，按段存储在内部存储中。
+ *
+ * 每段是一个预分配的定长文件，整段以读写方式内存映射，追加时直接写映射区，不经过堆和系统调用。
+ * 进程崩溃时已写入的页仍在页缓存中，打开时从最后一段开头逐条校验，遇到第一条无效记录即为末尾，
+ * 写了一半的记录被丢弃。超过maxSegments段时删除最旧的一段。
+ *
+ * <pre>
+ * 段文件名: 第一条记录的序号，16位十六进制 + ".log"
+ * 小端格式
+ * 段头
+ * [0-3]   magic "CML1"
+ * [4-5]   version，当前为1
+ * [6-7]   记录长度，16
+ * [8-15]  第一条记录的序号
+ * 记录
+ * [0-7]   时间，毫秒
+ * [8-11]  采样值 int32
+ * [12-13] 保留
+ * [14-15] 校验，全0的记录无效
+ * </pre>
+ *
+ * 另外为每个central保存一个游标(下一个未送达的序号)，{@link #flushCursors()}和关闭时写入cursors文件，
+ * 进程被杀时最多丢失上一次flush之后的游标变化。使用可解析私有地址的central每次重连地址都不同，
+ * 游标落到最旧的段之前时(段被删除)丢弃，总数超过{@link #MAX_CURSORS}时丢弃最旧的。
+ * 所有方法都是线程安全的。
+ */
+public final class MeasurementLog implements Closeable {
+
+    static final int MAGIC = 0x314C4D43; // "CML1"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int RECORD_SIZE = 16;
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String CURSORS_FILE = "cursors";
+    private static final int CHECK_SEED = 0x5A5A;
+    // 最多保存的游标数
+    public static final int MAX_CURSORS = 256;
+
+    private static final class Segment {
+        final File file;
+        final long base;
+        final RandomAccessFile raf;
+        final MappedByteBuffer buffer;
+
+        Segment(File file, long base, RandomAccessFile raf, MappedByteBuffer buffer) {
+            this.file = file;
+            this.base = base;
+            this.raf = raf;
+            this.buffer = buffer;
+        }
+    }
+
+    private final File mDir;
+    private final int mRecordsPerSegment;
+    private final int mMaxSegments;
+    private final ArrayList<Segment> mSegments = new ArrayList<>();
+    private final HashMap<String, Long> mCursors = new HashMap<>();
+    private int mTailCount; // 最后一段中的记录数
+    private long mRecovered; // 打开时丢弃的无效记录
+    private boolean mCursorsDirty; // 游标在上一次保存之后有变化
+    private boolean mClosed;
+
+    /**
+     * 打开或创建日志，恢复最后一段的末尾。
+     *
+     * @param recordsPerSegment 每段的记录数
+     * @param maxSegments       最多保留的段数，超过时删除最旧的段
+     */
+    public static MeasurementLog open(File dir, int recordsPerSegment, int maxSegments)
+            throws IOException {
+        if (recordsPerSegment < 1 || maxSegments < 1) {
+            throw new IllegalArgumentException("invalid log size");
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Failed to create " + dir);
+        }
+        MeasurementLog log = new MeasurementLog(dir, recordsPerSegment, maxSegments);
+        try {
+            log.recover();
+            log.loadCursors();
+            log.pruneCursors();
+        } catch (IOException e) {
+            log.mClosed = true; // 不保存游标，保留上一次的cursors文件
+            log.closeSegments();
+            throw e;
+        }
+        return log;
+    }
+
+    private MeasurementLog(File dir, int recordsPerSegment, int maxSegments) {
+        mDir = dir;
+        mRecordsPerSegment = recordsPerSegment;
+        mMaxSegments = maxSegments;
+    }
+
+    private void recover() throws IOException {
+        File[] files = mDir.listFiles();
+        long[] bases = new long[files != null ? files.length : 0];
+        int count = 0;
+        for (int i = 0; i < bases.length; i++) {
+            String name = files[i].getName();
+            if (name.endsWith(SEGMENT_SUFFIX)) {
+                try {
+                    bases[count] = Long.parseLong(
+                            name.substring(0, name.length() - SEGMENT_SUFFIX.length()), 16);
+                    count++;
+                } catch (NumberFormatException e) {
+                    // 不是段文件
+                }
+            }
+        }
+        Arrays.sort(bases, 0, count);
+        // 丢弃的段之后重新开始时序号不回退，游标仍然可以比较
+        long restart = 0;
+        for (int i = 0; i < count; i++) {
+            if (!mSegments.isEmpty()
+                    && bases[i] != mSegments.get(mSegments.size() - 1).base + mRecordsPerSegment) {
+                deleteSegments(mSegments.size()); // 中间缺段: 只保留缺口之后的段
+            }
+            File file = segmentFile(bases[i]);
+            Segment segment = mapSegment(file, bases[i], false);
+            if (segment == null) {
+                deleteSegments(mSegments.size()); // 段头损坏
+                deleteFile(file);
+                restart = bases[i] + mRecordsPerSegment;
+                continue;
+            }
+            mSegments.add(segment);
+        }
+        while (mSegments.size() > mMaxSegments) {
+            deleteSegments(1);
+        }
+        if (mSegments.isEmpty()) {
+            mSegments.add(mapSegment(segmentFile(restart), restart, true));
+            mTailCount = 0;
+            return;
+        }
+        // 只有最后一段可能未写满
+        MappedByteBuffer tail = mSegments.get(mSegments.size() - 1).buffer;
+        int index = 0;
+        while (index < mRecordsPerSegment && isValid(tail, index)) {
+            index++;
+        }
+        mTailCount = index;
+        for (int i = index; i < mRecordsPerSegment && !isEmpty(tail, i); i++) {
+            clearRecord(tail, i);
+            mRecovered++;
+        }
+    }
+
+    private File segmentFile(long base) {
+        return new File(mDir, String.format("%016x", base) + SEGMENT_SUFFIX);
+    }
+
+    // 映射段文件，create为false时段头无效返回null
+    private Segment mapSegment(File file, long base, boolean create) throws IOException {
+        long size = HEADER_SIZE + (long) mRecordsPerSegment * RECORD_SIZE;
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            if (create) {
+                raf.setLength(0);
+                raf.setLength(size); // 新扩展的部分为0
+            } else if (raf.length() != size) {
+                raf.close();
+                return null;
+            }
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (create) {
+                buffer.putInt(0, MAGIC);
+                buffer.putShort(4, (short) VERSION);
+                buffer.putShort(6, (short) RECORD_SIZE);
+                buffer.putLong(8, base);
+            } else if (buffer.getInt(0) != MAGIC || buffer.getShort(4) != VERSION
+                    || buffer.getShort(6) != RECORD_SIZE || buffer.getLong(8) != base) {
+                raf.close();
+                return null;
+            }
+            return new Segment(file, base, raf, buffer);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    // 删除最旧的count段
+    private void deleteSegments(int count) {
+        for (int i = 0; i < count; i++) {
+            Segment segment = mSegments.remove(0);
+            try {
+                segment.raf.close();
+            } catch (IOException e) {
+                // 仍然删除文件
+            }
+            deleteFile(segment.file);
+        }
+    }
+
+    private static void deleteFile(File file) {
+        if (!file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    /**
+     * 追加一条记录。
+     *
+     * @return 记录的序号
+     * @throws IOException 新建段失败时
+     */
+    public synchronized long append(long timeMillis, int value) throws IOException {
+        if (mClosed) {
+            throw new IOException("log closed");
+        }
+        if (mTailCount == mRecordsPerSegment) {
+            long base = getNextSequence();
+            mSegments.add(mapSegment(segmentFile(base), base, true));
+            mTailCount = 0;
+            if (mSegments.size() > mMaxSegments) {
+                deleteSegments(1);
+                pruneCursors();
+            }
+        }
+        Segment segment = mSegments.get(mSegments.size() - 1);
+        int position = HEADER_SIZE + mTailCount * RECORD_SIZE;
+        segment.buffer.putLong(position, timeMillis);
+        segment.buffer.putInt(position + 8, value);
+        segment.buffer.putShort(position + 12, (short) 0);
+        // 校验最后写入，写到一半的记录校验不通过
+        segment.buffer.putShort(position + 14, (short) check(timeMillis, value));
+        mTailCount++;
+        return segment.base + mTailCount - 1;
+    }
+
+    // 最旧的记录的序号
+    public synchronized long getFirstSequence() {
+        return mSegments.isEmpty() ? 0 : mSegments.get(0).base;
+    }
+
+    // 下一条记录的序号，即已写入的记录数(含已删除的)
+    public synchronized long getNextSequence() {
+        return mSegments.isEmpty() ? 0
+                : mSegments.get(mSegments.size() - 1).base + mTailCount;
+    }
+
+    /**
+     * 读取从sequence开始的最多max个采样值。
+     *
+     * @return 读取的个数，sequence已被删除或还未写入时返回0
+     */
+    public synchronized int read(long sequence, int[] values, int offset, int max) {
+        return read(sequence, values, null, offset, max);
+    }
+
+    /**
+     * 读取从sequence开始的最多max条记录的采样值和时间。
+     *
+     * @param times 为null时不读取时间
+     * @return 读取的个数，sequence已被删除或还未写入时返回0
+     */
+    public synchronized int read(long sequence, int[] values, long[] times, int offset, int max) {
+        long first = getFirstSequence();
+        long next = getNextSequence();
+        if (sequence < first || sequence >= next) {
+            return 0;
+        }
+        int count = (int) Math.min(max, next - sequence);
+        for (int i = 0; i < count; i++) {
+            long index = sequence + i - first;
+            Segment segment = mSegments.get((int) (index / mRecordsPerSegment));
+            int position = HEADER_SIZE + (int) (index % mRecordsPerSegment) * RECORD_SIZE;
+            values[offset + i] = segment.buffer.getInt(position + 8);
+            if (times != null) {
+                times[offset + i] = segment.buffer.getLong(position);
+            }
+        }
+        return count;
+    }
+
+    // 记录的时间，毫秒；sequence不存在时返回-1
+    public synchronized long getTime(long sequence) {
+        long first = getFirstSequence();
+        if (sequence < first || sequence >= getNextSequence()) {
+            return -1;
+        }
+        long index = sequence - first;
+        Segment segment = mSegments.get((int) (index / mRecordsPerSegment));
+        return segment.buffer.getLong(HEADER_SIZE + (int) (index % mRecordsPerSegment) * RECORD_SIZE);
+    }
+
+    /**
+     * central的游标: 下一个未送达的序号。
+     *
+     * @return 没有记录过该central时返回-1
+     */
+    public synchronized long getCursor(String central) {
+        Long cursor = mCursors.get(central);
+        return cursor != null ? cursor : -1;
+    }
+
+    public synchronized void setCursor(String central, long sequence) {
+        Long previous = mCursors.put(central, sequence);
+        if (previous == null || previous != sequence) {
+            mCursorsDirty = true;
+        }
+        if (mCursors.size() > MAX_CURSORS) {
+            pruneCursors();
+        }
+    }
+
+    // 丢弃已删除的采样之前的游标；仍超过MAX_CURSORS时丢弃序号最小(最久没有收到采样)的
+    private void pruneCursors() {
+        long first = getFirstSequence();
+        Iterator<Map.Entry<String, Long>> iterator = mCursors.entrySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().getValue() < first) {
+                iterator.remove();
+                mCursorsDirty = true;
+            }
+        }
+        while (mCursors.size() > MAX_CURSORS) {
+            Map.Entry<String, Long> oldest = null;
+            for (Map.Entry<String, Long> entry : mCursors.entrySet()) {
+                if (oldest == null || entry.getValue() < oldest.getValue()) {
+                    oldest = entry;
+                }
+            }
+            mCursors.remove(oldest.getKey());
+            mCursorsDirty = true;
+        }
+    }
+
+    /**
+     * 游标有变化时写入cursors文件，没有变化时不做I/O。
+     *
+     * @throws IOException 写入失败时，游标保持未保存，下次flush或关闭时重试
+     */
+    public synchronized void flushCursors() throws IOException {
+        if (mClosed || !mCursorsDirty) {
+            return;
+        }
+        saveCursors();
+        mCursorsDirty = false;
+    }
+
+    // 打开时丢弃的写了一半的记录数
+    public synchronized long getRecoveredCount() {
+        return mRecovered;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        IOException error = null;
+        try {
+            saveCursors();
+        } catch (IOException e) {
+            error = e;
+        }
+        IOException closeError = closeSegments();
+        if (error != null || closeError != null) {
+            throw error != null ? error : closeError;
+        }
+    }
+
+    private IOException closeSegments() {
+        IOException error = null;
+        for (Segment segment : mSegments) {
+            try {
+                segment.buffer.force();
+                segment.raf.close();
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+        return error;
+    }
+
+    private void loadCursors() throws IOException {
+        DataInputStream in;
+        try {
+            in = new DataInputStream(new FileInputStream(new File(mDir, CURSORS_FILE)));
+        } catch (FileNotFoundException e) {
+            return;
+        }
+        try {
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                mCursors.put(in.readUTF(), in.readLong());
+            }
+        } catch (EOFException e) {
+            // 写入时被中断，已读到的游标仍然有效
+        } finally {
+            in.close();
+        }
+    }
+
+    // 先写临时文件再改名，中断时保留上一次的游标
+    private void saveCursors() throws IOException {
+        File file = new File(mDir, CURSORS_FILE);
+        File tmp = new File(mDir, CURSORS_FILE + ".tmp");
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(tmp));
+        try {
+            out.writeInt(mCursors.size());
+            for (Map.Entry<String, Long> entry : mCursors.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue());
+            }
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Failed to rename " + tmp);
+        }
+    }
+
+    private static int check(long timeMillis, int value) {
+        long x = timeMillis ^ ((long) value << 17) ^ value;
+        int folded = (int) (x ^ (x >>> 32));
+        return (folded ^ (folded >>> 16) ^ CHECK_SEED) & 0xFFFF;
+    }
+
+    private static boolean isValid(MappedByteBuffer buffer, int index) {
+        int position = HEADER_SIZE + index * RECORD_SIZE;
+        long time = buffer.getLong(position);
+        int value = buffer.getInt(position + 8);
+        return buffer.getShort(position + 12) == 0
+                && (buffer.getShort(position + 14) & 0xFFFF) == check(time, value);
+    }
+
+    private static boolean isEmpty(MappedByteBuffer buffer, int index) {
+        int position = HEADER_SIZE + index * RECORD_SIZE;
+        return buffer.getLong(position) == 0 && buffer.getLong(position + 8) == 0;
+    }
+
+    private static void clearRecord(MappedByteBuffer buffer, int index) {
+        int position = HEADER_SIZE + index * RECORD_SIZE;
+        buffer.putLong(position, 0);
+        buffer.putLong(position + 8, 0);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "MeasurementLog{first=" + getFirstSequence() + ", next=" + getNextSequence()
+                + ", segments=" + mSegments.size() + ", recovered=" + mRecovered
+                + ", cursors=" + mCursors.size() + "}";
+    }
+}
@@ -0,0 +1,288 @@
+package io.github.webbluetoothcg.bletestperipheral.trace;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import io.github.webbluetoothcg.bletestperipheral.scheduler.Clock;
+
+/**
+ * GATT回调的二进制事件跟踪，替代每次回调的字符串日志。
+ *
+ * 事件写入预分配的环形缓冲区，每条记录固定3个long:
+ * <pre>
+ * [0] 标记: 序号 + 1，写入中为0
+ * [1] 时间，Clock纳秒
+ * [2] bit 56-63 事件类型，48-55 设备下标，40-47 UUID下标，24-39 状态(低16位)，0-23 参数(低24位)
+ * </pre>
+ * 设备和UUID第一次出现时分配下标(同时最多255个，之后记为{@link #NO_SLOT})，导出时换回地址和UUID。
+ * 设备断开后调用{@link #releaseDevice}回收下标，再分配给新设备；每个下标保留缓冲区内仍需要的分配历史，
+ * 导出时按记录的序号换回当时的设备。
+ *
+ * 记录不加锁、不分配内存(新设备/UUID分配下标时除外)，可以在任意线程调用。
+ * 每条记录先清除标记、写入内容、再写入标记，导出时标记前后不一致的记录(正在被覆盖)被跳过。
+ * 缓冲区写满后覆盖最旧的记录。
+ *
+ * @param <D> 设备，通常是BluetoothDevice，导出时使用toString
+ */
+public final class EventTrace<D> {
+
+    // 级别，与android.util.Log的数值一致
+    public static final int VERBOSE = 2;
+    public static final int DEBUG = 3;
+    public static final int INFO = 4;
+    public static final int WARN = 5;
+    public static final int ERROR = 6;
+    public static final int OFF = Integer.MAX_VALUE;
+
+    // 事件类型
+    public static final int CONNECTED = 0;
+    public static final int DISCONNECTED = 1;
+    public static final int CONNECTION_ERROR = 2;
+    public static final int MTU_CHANGED = 3; // 参数: MTU
+    public static final int READ = 4; // 参数: offset
+    public static final int WRITE = 5; // 参数: 值的长度
+    public static final int PREPARE_WRITE = 6; // 参数: offset
+    public static final int EXECUTE_WRITE = 7; // 参数: 1执行，0取消
+    public static final int DESCRIPTOR_READ = 8; // UUID为所属characteristic，参数: offset
+    public static final int DESCRIPTOR_WRITE = 9; // UUID为所属characteristic，参数: 值的长度
+    public static final int SUBSCRIPTION = 10; // 参数: Connection的mode
+    public static final int NOTIFY = 11; // 状态: 1交给协议栈，0被拒绝；参数: 值的长度
+    public static final int NOTIFICATION_SENT = 12;
+    public static final int ADVERTISING_DATA_SET = 13;
+    public static final int INDICATION_TIMEOUT = 14;
+    private static final int TYPES = 15;
+    private static final String[] TYPE_NAMES = {"CONNECTED", "DISCONNECTED", "CONNECTION_ERROR",
+            "MTU_CHANGED", "READ", "WRITE", "PREPARE_WRITE", "EXECUTE_WRITE", "DESCRIPTOR_READ",
+            "DESCRIPTOR_WRITE", "SUBSCRIPTION", "NOTIFY", "NOTIFICATION_SENT",
+            "ADVERTISING_DATA_SET", "INDICATION_TIMEOUT"};
+    private static final int[] TYPE_LEVELS = {INFO, INFO, ERROR, INFO, DEBUG, DEBUG, DEBUG, DEBUG,
+            DEBUG, DEBUG, INFO, VERBOSE, VERBOSE, VERBOSE, WARN};
+
+    public static final int NO_SLOT = 0xFF;
+    private static final int RECORD_LONGS = 3;
+
+    private final Clock mClock;
+    private final int mMask;
+    private final AtomicLongArray mRecords;
+    private final AtomicLong mNext = new AtomicLong();
+    private volatile int mLevel = VERBOSE;
+    private final SlotTable<D> mDevices = new SlotTable<>();
+    private final SlotTable<UUID> mUuids = new SlotTable<>();
+
+    /**
+     * @param capacity 记录条数，向上取2的幂
+     */
+    public EventTrace(int capacity, Clock clock) {
+        if (capacity < 1 || capacity > (1 << 24)) {
+            throw new IllegalArgumentException("capacity out of range: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        mMask = size - 1;
+        mClock = clock;
+        mRecords = new AtomicLongArray(size * RECORD_LONGS);
+    }
+
+    // 低于level的事件不记录，OFF关闭跟踪
+    public void setLevel(int level) {
+        mLevel = level;
+    }
+
+    public int getLevel() {
+        return mLevel;
+    }
+
+    public boolean isEnabled(int type) {
+        return TYPE_LEVELS[type] >= mLevel;
+    }
+
+    /**
+     * 记录一个事件。
+     *
+     * @param device 没有时为null
+     * @param uuid   没有时为null
+     */
+    public void record(int type, D device, UUID uuid, int status, int arg) {
+        if (TYPE_LEVELS[type] < mLevel) {
+            return;
+        }
+        long time = mClock.nanoTime();
+        long next = mNext.get();
+        long packed = (long) type << 56 | (long) mDevices.slotOf(device, next, mMask) << 48
+                | (long) mUuids.slotOf(uuid, next, mMask) << 40 | (status & 0xFFFFL) << 24
+                | (arg & 0xFFFFFFL);
+        long sequence = mNext.getAndIncrement();
+        int index = (int) (sequence & mMask) * RECORD_LONGS;
+        mRecords.set(index, 0);
+        mRecords.lazySet(index + 1, time);
+        mRecords.lazySet(index + 2, packed);
+        mRecords.set(index, sequence + 1);
+    }
+
+    /**
+     * 设备断开后回收它的下标，之后的记录为它重新分配。缓冲区中已有的记录导出时仍显示该设备。
+     */
+    public void releaseDevice(D device) {
+        mDevices.release(device);
+    }
+
+    // 记录过的事件总数，含已被覆盖的
+    public long getRecordedCount() {
+        return mNext.get();
+    }
+
+    /**
+     * 按时间顺序导出仍在缓冲区中的记录，每行一条，时间为相对第一条记录的毫秒数。
+     */
+    public void dump(Writer writer) throws IOException {
+        long next = mNext.get();
+        long first = Math.max(0, next - (mMask + 1));
+        long start = 0;
+        boolean started = false;
+        StringBuilder line = new StringBuilder(96);
+        for (long sequence = first; sequence < next; sequence++) {
+            int index = (int) (sequence & mMask) * RECORD_LONGS;
+            long marker = mRecords.get(index);
+            long time = mRecords.get(index + 1);
+            long packed = mRecords.get(index + 2);
+            if (marker != sequence + 1 || mRecords.get(index) != marker) {
+                continue; // 正在写入或已被覆盖
+            }
+            if (!started) {
+                start = time;
+                started = true;
+            }
+            line.setLength(0);
+            format(line, sequence, time - start, packed);
+            writer.write(line.append('\n').toString());
+        }
+    }
+
+    // 导出到文件，覆盖原有内容
+    public void dump(File file) throws IOException {
+        Writer writer = new FileWriter(file);
+        try {
+            dump(writer);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private void format(StringBuilder line, long sequence, long elapsedNanos, long packed) {
+        int type = (int) (packed >>> 56) & 0xFF;
+        int device = (int) (packed >>> 48) & 0xFF;
+        int uuid = (int) (packed >>> 40) & 0xFF;
+        int status = (int) (packed >>> 24) & 0xFFFF;
+        int arg = (int) packed & 0xFFFFFF;
+        line.append(sequence).append(' ');
+        line.append(elapsedNanos / 1000000).append('.');
+        long micros = elapsedNanos / 1000 % 1000;
+        if (micros < 100) {
+            line.append('0');
+        }
+        if (micros < 10) {
+            line.append('0');
+        }
+        line.append(micros).append("ms ");
+        line.append(type < TYPES ? TYPE_NAMES[type] : "TYPE_" + type);
+        line.append(" device=").append(mDevices.nameOf(device, sequence));
+        line.append(" uuid=").append(mUuids.nameOf(uuid, sequence));
+        line.append(" status=").append(status).append(" arg=").append(arg);
+    }
+
+    // 下标的一次分配: 从序号from开始的记录属于key
+    private static final class Assignment {
+        final long from;
+        final Object key;
+        volatile Assignment previous;
+
+        Assignment(long from, Object key, Assignment previous) {
+            this.from = from;
+            this.key = key;
+            this.previous = previous;
+        }
+    }
+
+    // 对象到下标的映射，已分配的对象查找时不分配内存
+    private static final class SlotTable<K> {
+        private final ConcurrentHashMap<K, Integer> mSlots = new ConcurrentHashMap<>();
+        // 每个下标最近的分配在前
+        private final AtomicReferenceArray<Assignment> mAssignments =
+                new AtomicReferenceArray<>(NO_SLOT);
+        // 已回收的下标，先回收的先复用，尽量推迟覆盖
+        private final ArrayDeque<Integer> mFree = new ArrayDeque<>();
+        private int mSize;
+
+        /**
+         * @param next 下一条记录的序号，新分配从这里开始
+         * @param mask 缓冲区大小 - 1，早于缓冲区的分配历史被丢弃
+         */
+        int slotOf(K key, long next, int mask) {
+            if (key == null) {
+                return NO_SLOT;
+            }
+            Integer slot = mSlots.get(key);
+            if (slot != null) {
+                return slot;
+            }
+            synchronized (this) {
+                slot = mSlots.get(key);
+                if (slot != null) {
+                    return slot;
+                }
+                if (!mFree.isEmpty()) {
+                    slot = mFree.poll();
+                } else if (mSize < NO_SLOT) {
+                    slot = mSize++;
+                } else {
+                    return NO_SLOT; // 已满，不再分配
+                }
+                Assignment previous = mAssignments.get(slot);
+                // 缓冲区中最旧的记录只需要不晚于它开始的最近一次分配
+                long oldest = next - mask - 1;
+                for (Assignment a = previous; a != null; a = a.previous) {
+                    if (a.from <= oldest) {
+                        a.previous = null;
+                        break;
+                    }
+                }
+                mAssignments.set(slot, new Assignment(next, key, previous));
+                mSlots.put(key, slot);
+                return slot;
+            }
+        }
+
+        synchronized void release(K key) {
+            if (key == null) {
+                return;
+            }
+            Integer slot = mSlots.remove(key);
+            if (slot != null) {
+                mFree.add(slot);
+            }
+        }
+
+        // sequence为记录的序号
+        String nameOf(int slot, long sequence) {
+            if (slot >= NO_SLOT) {
+                return "-";
+            }
+            for (Assignment a = mAssignments.get(slot); a != null; a = a.previous) {
+                if (a.from <= sequence) {
+                    return String.valueOf(a.key);
+                }
+            }
+            return "-";
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package io.github.webbluetoothcg.bletestperipheral.ui;
+
+import com.github.mikephil.charting.charts.LineChart;
+import com.github.mikephil.charting.data.LineData;
+import com.github.mikephil.charting.data.LineDataSet;
+
+/**
+ * 实时折线图：任意线程追加采样，由UI线程的帧回调批量重绘。
+ *
+ * LineDataSet/LineData只创建一次，数据源是{@link RingBufferEntryList}。
+ * 采样先写入待处理的float数组，帧回调中调用{@link #applyPending()}批量移入环形缓冲区后刷新图表。
+ */
+public final class LiveLineChart {
+
+    private final LineChart mChart;
+    private final RingBufferEntryList mEntries;
+    private final LineDataSet mDataSet;
+    private final LineData mLineData;
+
+    // 待处理的采样，容量与环形缓冲区相同，超出时丢弃最旧的
+    private final float[] mPendingY;
+    private int mPendingHead;
+    private int mPendingSize;
+    private float mNextX;
+
+    /**
+     * @param chart 目标图表
+     * @param entries 环形缓冲区
+     * @param dataSet 由调用方设置好样式的数据集，必须以entries为数据源创建
+     */
+    public LiveLineChart(LineChart chart, RingBufferEntryList entries, LineDataSet dataSet) {
+        mChart = chart;
+        mEntries = entries;
+        mDataSet = dataSet;
+        mLineData = new LineData(dataSet);
+        mPendingY = new float[entries.capacity()];
+        mChart.setData(mLineData);
+    }
+
+    public RingBufferEntryList getEntries() {
+        return mEntries;
+    }
+
+    // 任意线程调用
+    public void addSample(float y) {
+        synchronized (mPendingY) {
+            int index;
+            if (mPendingSize < mPendingY.length) {
+                index = (mPendingHead + mPendingSize) % mPendingY.length;
+                mPendingSize++;
+            } else {
+                index = mPendingHead;
+                mPendingHead = (mPendingHead + 1) % mPendingY.length;
+            }
+            mPendingY[index] = y;
+        }
+    }
+
+    // UI线程: 批量移入环形缓冲区，重绘一次，没有新采样时返回false
+    public boolean applyPending() {
+        synchronized (mPendingY) {
+            if (mPendingSize == 0) {
+                return false;
+            }
+            for (int i = 0; i < mPendingSize; i++) {
+                mEntries.append(mNextX++, mPendingY[(mPendingHead + i) % mPendingY.length]);
+            }
+            mPendingHead = 0;
+            mPendingSize = 0;
+        }
+        mDataSet.notifyDataSetChanged();
+        mLineData.notifyDataChanged();
+        mChart.notifyDataSetChanged();
+        mChart.invalidate();
+        return true;
+    }
+}
@@ -0,0 +1,85 @@
+package io.github.webbluetoothcg.bletestperipheral.ui;
+
+import com.github.mikephil.charting.data.Entry;
+
+import java.util.AbstractList;
+
+/**
+ * 固定容量的环形缓冲区，以List&lt;Entry&gt;的形式提供给MPAndroidChart的DataSet。
+ *
+ * 数据保存在float x/y数组中，每个槽位预先分配一个Entry，写入时只更新其x/y，
+ * 满了之后覆盖最旧的数据，没有ArrayList.remove(0)的数据移动，也不产生新对象。
+ * 非线程安全，只应在UI线程中访问。
+ */
+public final class RingBufferEntryList extends AbstractList<Entry> {
+
+    private final float[] mX;
+    private final float[] mY;
+    private final Entry[] mEntries;
+    private int mHead; // 最旧数据的位置
+    private int mSize;
+
+    public RingBufferEntryList(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1");
+        }
+        mX = new float[capacity];
+        mY = new float[capacity];
+        mEntries = new Entry[capacity];
+        for (int i = 0; i < capacity; i++) {
+            mEntries[i] = new Entry(0, 0);
+        }
+    }
+
+    public int capacity() {
+        return mX.length;
+    }
+
+    // 追加一个点，满了时覆盖最旧的点
+    public void append(float x, float y) {
+        int index;
+        if (mSize < mX.length) {
+            index = (mHead + mSize) % mX.length;
+            mSize++;
+        } else {
+            index = mHead;
+            mHead = (mHead + 1) % mX.length;
+        }
+        mX[index] = x;
+        mY[index] = y;
+        Entry entry = mEntries[index];
+        entry.setX(x);
+        entry.setY(y);
+    }
+
+    public float getX(int index) {
+        return mX[physical(index)];
+    }
+
+    public float getY(int index) {
+        return mY[physical(index)];
+    }
+
+    @Override
+    public Entry get(int index) {
+        return mEntries[physical(index)];
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    @Override
+    public void clear() {
+        mHead = 0;
+        mSize = 0;
+    }
+
+    private int physical(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + mSize);
+        }
+        return (mHead + index) % mX.length;
+    }
+}
@@ -0,0 +1,87 @@
+package io.github.webbluetoothcg.bletestperipheral.ui;
+
+import android.view.Choreographer;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 把后台线程的界面更新合并到每帧一次。
+ *
+ * 后台线程更新自己的volatile状态后调用{@link #publish(int)}标记变化的部分(无锁)，
+ * 有变化时才向Choreographer注册下一帧回调，帧回调中一次性把最新状态交给{@link Renderer}。
+ * 没有变化的帧不做任何事；{@link #setActive(boolean)}为false时(界面不可见)完全不注册回调，
+ * 变化标记保留到重新可见时再应用。
+ */
+public final class UiStatePublisher implements Choreographer.FrameCallback {
+
+    public interface Renderer {
+        // UI线程，dirty为自上次渲染以来publish过的标记
+        void render(int dirty);
+    }
+
+    private final Choreographer mChoreographer;
+    private final Renderer mRenderer;
+    private final AtomicInteger mDirty = new AtomicInteger();
+    private final AtomicBoolean mFramePosted = new AtomicBoolean();
+    private volatile boolean mActive;
+
+    // 统计
+    private final AtomicInteger mPublished = new AtomicInteger();
+    private volatile int mRendered;
+
+    // 必须在UI线程创建
+    public UiStatePublisher(Renderer renderer) {
+        mChoreographer = Choreographer.getInstance();
+        mRenderer = renderer;
+    }
+
+    // 任意线程调用
+    public void publish(int flags) {
+        int current;
+        do {
+            current = mDirty.get();
+        } while ((current & flags) != flags && !mDirty.compareAndSet(current, current | flags));
+        mPublished.incrementAndGet();
+        scheduleFrame();
+    }
+
+    // 界面可见时为true
+    public void setActive(boolean active) {
+        mActive = active;
+        if (active) {
+            scheduleFrame();
+        } else {
+            mChoreographer.removeFrameCallback(this);
+            mFramePosted.set(false);
+        }
+    }
+
+    private void scheduleFrame() {
+        if (mActive && mDirty.get() != 0 && mFramePosted.compareAndSet(false, true)) {
+            mChoreographer.postFrameCallback(this);
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        mFramePosted.set(false);
+        if (!mActive) {
+            return;
+        }
+        int dirty = mDirty.getAndSet(0);
+        if (dirty != 0) {
+            mRenderer.render(dirty);
+            mRendered++;
+        }
+    }
+
+    // publish调用次数，与getRenderedCount的差即为被合并的更新
+    public int getPublishedCount() {
+        return mPublished.get();
+    }
+
+    public int getRenderedCount() {
+        return mRendered;
+    }
+}
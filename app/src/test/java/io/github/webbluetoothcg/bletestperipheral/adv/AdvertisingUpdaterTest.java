@@ -0,0 +1,120 @@
+package io.github.webbluetoothcg.bletestperipheral.adv;
+
+import android.bluetooth.le.AdvertisingSetCallback;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import io.github.webbluetoothcg.bletestperipheral.scheduler.Clock;
+import io.github.webbluetoothcg.bletestperipheral.server.Advertiser;
+import io.github.webbluetoothcg.bletestperipheral.server.FakeAdvertiser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 26, manifest = Config.NONE)
+public class AdvertisingUpdaterTest {
+
+    private static final long MIN_INTERVAL_MS = 100;
+
+    private final byte[] mServiceData = new byte[4];
+    private final byte[] mManufacturerData = new byte[6];
+    private long mNow;
+    private AdvertisingUpdater mUpdater;
+    private FakeAdvertiser mAdvertiser;
+    private FakeAdvertiser.FakeHandle mHandle;
+
+    @Before
+    public void setUp() {
+        AdvertisingPayload payload = new AdvertisingPayload();
+        payload.addServiceData(UUID.fromString("0000180d-0000-1000-8000-00805f9b34fb"),
+                mServiceData);
+        payload.addManufacturerData(0x0059, mManufacturerData);
+        mUpdater = new AdvertisingUpdater(payload, MIN_INTERVAL_MS, new Clock() {
+            @Override
+            public long nanoTime() {
+                return mNow;
+            }
+        });
+        mAdvertiser = new FakeAdvertiser();
+        Advertiser.Callback callback = new Advertiser.Callback() {
+            @Override
+            public void onAdvertisingSetStarted(Advertiser.Handle handle, int txPower,
+                                                int status) {
+                mUpdater.setAdvertisingSet(handle);
+            }
+
+            @Override
+            public void onAdvertisingDataSet(Advertiser.Handle handle, int status) {
+                mUpdater.onAdvertisingDataSet(status);
+            }
+        };
+        mAdvertiser.startAdvertisingSet(null, mUpdater.buildAdvertiseData(), null, callback);
+        mHandle = mAdvertiser.getHandle(callback);
+        assertNotNull(mHandle);
+    }
+
+    private void advance(long millis) {
+        mNow += TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    @Test
+    public void pushesOnlyWhenChanged() {
+        assertTrue(mUpdater.update()); // 启动后第一次总是推送
+        assertEquals(1, mHandle.getDataSetCount());
+        advance(MIN_INTERVAL_MS);
+        assertFalse(mUpdater.update());
+        assertEquals(1, mUpdater.getUnchangedCount());
+        mManufacturerData[0] = 1;
+        assertTrue(mUpdater.update());
+        assertEquals(2, mHandle.getDataSetCount());
+    }
+
+    @Test
+    public void rateLimitsChanges() {
+        assertTrue(mUpdater.update());
+        mServiceData[0] = 1;
+        advance(MIN_INTERVAL_MS / 2);
+        assertFalse(mUpdater.update());
+        assertEquals(1, mUpdater.getRateLimitedCount());
+        advance(MIN_INTERVAL_MS / 2);
+        assertTrue(mUpdater.update());
+        assertEquals(2, mHandle.getDataSetCount());
+    }
+
+    // 失败回调在setAdvertisingData中同步到达，内容没变也要在下一次更新时重新推送
+    @Test
+    public void failedDataSetIsResent() {
+        mAdvertiser.setDataSetStatus(AdvertisingSetCallback.ADVERTISE_FAILED_INTERNAL_ERROR);
+        assertTrue(mUpdater.update());
+        assertEquals(AdvertisingSetCallback.ADVERTISE_FAILED_INTERNAL_ERROR,
+                mUpdater.getLastFailureStatus());
+        mAdvertiser.setDataSetStatus(AdvertisingSetCallback.ADVERTISE_SUCCESS);
+        advance(MIN_INTERVAL_MS);
+        assertTrue(mUpdater.update());
+        assertEquals(2, mHandle.getDataSetCount());
+        advance(MIN_INTERVAL_MS);
+        assertFalse(mUpdater.update());
+    }
+
+    @Test
+    public void stoppedSetIsNotUpdated() {
+        mAdvertiser.startAdvertisingSet(null, null, null, new Advertiser.Callback() {
+        });
+        assertEquals(2, mAdvertiser.getAdvertisingSetCount());
+        mUpdater.setAdvertisingSet(null);
+        mManufacturerData[0] = 1;
+        assertFalse(mUpdater.update());
+        assertEquals(0, mHandle.getDataSetCount());
+        assertEquals(AdvertisingSetCallback.ADVERTISE_SUCCESS, mUpdater.getLastFailureStatus());
+    }
+}
@@ -0,0 +1,93 @@
+package io.github.webbluetoothcg.bletestperipheral.adv;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ManufacturerFrameTest {
+
+    private static final byte[] UID = {0x18, 0x19, 0x01, 0x02, 0x03, 0x04};
+
+    @Test
+    public void legacyFrameRoundTrip() {
+        ManufacturerFrame frame = new ManufacturerFrame(UID, 0, 0);
+        assertFalse(frame.hasHistory());
+        assertEquals(ManufacturerFrame.HEADER_LENGTH, frame.getLength());
+        frame.setHeartRate(72);
+        frame.setTemperature(-150);
+        assertTrue(frame.encode());
+        ManufacturerFrameDecoder.Frame decoded =
+                ManufacturerFrameDecoder.decode(frame.getBuffer(), 0, 0);
+        assertEquals(ManufacturerFrame.VERSION, decoded.version);
+        assertFalse(decoded.hasHistory());
+        assertArrayEquals(UID, decoded.uid);
+        assertEquals(1, decoded.sequence);
+        assertEquals(72, decoded.heartRate);
+        assertEquals(-150, decoded.temperature);
+        assertArrayEquals(new int[]{72}, decoded.heartRateHistory);
+        assertEquals(-1, decoded.heartRateSequence);
+    }
+
+    // 内容不变时帧序号不变
+    @Test
+    public void sequenceAdvancesOnlyOnChange() {
+        ManufacturerFrame frame = new ManufacturerFrame(UID, 0, 0);
+        frame.setHeartRate(60);
+        assertTrue(frame.encode());
+        assertFalse(frame.encode());
+        frame.setHeartRate(60);
+        assertFalse(frame.encode());
+        frame.setHeartRate(61);
+        assertTrue(frame.encode());
+        assertEquals(2, ManufacturerFrameDecoder.decode(frame.getBuffer(), 0, 0).sequence);
+    }
+
+    @Test
+    public void historyRoundTripWithWrap() {
+        ManufacturerFrame frame = new ManufacturerFrame(UID, 3, 2);
+        assertTrue(frame.hasHistory());
+        int[] heartRates = {70, 72, 71, 75, 80};
+        for (int heartRate : heartRates) {
+            frame.setHeartRate(heartRate);
+        }
+        frame.setTemperature(3650);
+        frame.encode();
+        ManufacturerFrameDecoder.Frame decoded =
+                ManufacturerFrameDecoder.decode(frame.getBuffer(), 3, 2);
+        assertTrue(decoded.hasHistory());
+        // 只保留最近3个历史 + 当前值
+        assertArrayEquals(new int[]{72, 71, 75, 80}, decoded.heartRateHistory);
+        assertEquals(heartRates.length, decoded.heartRateSequence);
+        // 第一个采样之前没有历史
+        assertArrayEquals(new int[]{3650}, decoded.temperatureHistory);
+        assertEquals(1, decoded.temperatureSequence);
+    }
+
+    // 差值超出int8时截断，之后的差值按接收方还原的值计算，误差不会累积
+    @Test
+    public void int8DeltaSaturates() {
+        ManufacturerFrame frame = new ManufacturerFrame(UID, 1, 4);
+        frame.setTemperature(3650);
+        frame.setTemperature(3900);
+        frame.setTemperature(3905);
+        frame.encode();
+        assertArrayEquals(new int[]{3650 + 250 - Byte.MAX_VALUE, 3900, 3905},
+                ManufacturerFrameDecoder.decode(frame.getBuffer(), 1, 4).temperatureHistory);
+
+        frame.setTemperature(3700);
+        frame.encode();
+        // 3700 - 3905 = -205截断为-128，3905还原为3828；下一个差值补偿后3900仍准确
+        assertArrayEquals(new int[]{3773, 3900, 3700 - Byte.MIN_VALUE, 3700},
+                ManufacturerFrameDecoder.decode(frame.getBuffer(), 1, 4).temperatureHistory);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void truncatedHistoryFrameRejected() {
+        ManufacturerFrame frame = new ManufacturerFrame(UID, 2, 2);
+        frame.encode();
+        ManufacturerFrameDecoder.decode(frame.getBuffer(), 4, 4);
+    }
+}
@@ -0,0 +1,54 @@
+package io.github.webbluetoothcg.bletestperipheral.codec;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class CurrentTimeCodecTest {
+
+    // 示例: 2020/10/08 20:06:10 -> e4070a0814060a000000
+    @Test
+    public void encodeExample() {
+        CurrentTimeCodec.Value time = new CurrentTimeCodec.Value();
+        time.year = 2020;
+        time.month = 10;
+        time.day = 8;
+        time.hour = 20;
+        time.minute = 6;
+        time.second = 10;
+        byte[] buffer = new byte[CurrentTimeCodec.LENGTH];
+        CurrentTimeCodec.encode(time, buffer, 0);
+        assertArrayEquals(new byte[]{(byte) 0xE4, 0x07, 0x0A, 0x08, 0x14, 0x06, 0x0A, 0, 0, 0},
+                buffer);
+    }
+
+    @Test
+    public void roundTripAtOffset() {
+        CurrentTimeCodec.Value time = new CurrentTimeCodec.Value();
+        time.year = 1999;
+        time.month = 12;
+        time.day = 31;
+        time.hour = 23;
+        time.minute = 59;
+        time.second = 58;
+        time.dayOfWeek = 5;
+        time.fractions256 = 255;
+        time.adjustReason = 1;
+        byte[] buffer = new byte[CurrentTimeCodec.LENGTH + 3];
+        CurrentTimeCodec.encode(time, buffer, 3);
+        CurrentTimeCodec.Value decoded = CurrentTimeCodec.decode(buffer, 3,
+                new CurrentTimeCodec.Value());
+        assertEquals(1999, decoded.year);
+        assertEquals(12, decoded.month);
+        assertEquals(31, decoded.day);
+        assertEquals(23, decoded.hour);
+        assertEquals(59, decoded.minute);
+        assertEquals(58, decoded.second);
+        assertEquals(5, decoded.dayOfWeek);
+        assertEquals(255, decoded.fractions256);
+        assertEquals(1, decoded.adjustReason);
+        assertEquals("1999-12-31 23:59:58",
+                CurrentTimeCodec.format(decoded, new StringBuilder()).toString());
+    }
+}
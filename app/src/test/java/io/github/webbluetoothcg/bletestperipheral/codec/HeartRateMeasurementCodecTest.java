@@ -0,0 +1,115 @@
+package io.github.webbluetoothcg.bletestperipheral.codec;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class HeartRateMeasurementCodecTest {
+
+    // 原有的4字节格式: 08 XX 00 00
+    @Test
+    public void uint8WithEnergyExpended() {
+        HeartRateMeasurementCodec codec = new HeartRateMeasurementCodec();
+        byte[] frame = codec.encode(72, 0);
+        assertArrayEquals(new byte[]{0x08, 72, 0, 0}, frame);
+        assertEquals(72, HeartRateMeasurementCodec.decodeHeartRate(frame));
+        assertEquals(0, HeartRateMeasurementCodec.decodeEnergyExpended(frame));
+    }
+
+    @Test
+    public void uint8UpTo255() {
+        HeartRateMeasurementCodec codec = new HeartRateMeasurementCodec();
+        byte[] frame = codec.encode(255, -1);
+        assertEquals(2, frame.length);
+        assertEquals(0, frame[0] & HeartRateMeasurementCodec.FLAG_VALUE_UINT16);
+        assertEquals(255, HeartRateMeasurementCodec.decodeHeartRate(frame));
+        assertEquals(-1, HeartRateMeasurementCodec.decodeEnergyExpended(frame));
+    }
+
+    @Test
+    public void uint16Above255() {
+        HeartRateMeasurementCodec codec = new HeartRateMeasurementCodec();
+        byte[] frame = codec.encode(300, 1234);
+        assertArrayEquals(new byte[]{0x09, 0x2C, 0x01, (byte) 0xD2, 0x04}, frame);
+        assertEquals(300, HeartRateMeasurementCodec.decodeHeartRate(frame));
+        assertEquals(1234, HeartRateMeasurementCodec.decodeEnergyExpended(frame));
+    }
+
+    @Test
+    public void rrIntervalsTruncatedToMaxLength() {
+        HeartRateMeasurementCodec codec = new HeartRateMeasurementCodec();
+        int[] rr = new int[20];
+        for (int i = 0; i < rr.length; i++) {
+            rr[i] = 800 + i;
+        }
+        byte[] frame = codec.encode(75, 10, rr, 0, rr.length);
+        // 20字节: flags + 心率 + energy + 8个RR-interval
+        assertEquals(HeartRateMeasurementCodec.DEFAULT_MAX_LENGTH, frame.length);
+        assertEquals(8, codec.getMaxRrIntervals(75, true));
+        int[] decoded = new int[rr.length];
+        assertEquals(8, HeartRateMeasurementCodec.decodeRrIntervals(frame, frame.length, decoded));
+        for (int i = 0; i < 8; i++) {
+            assertEquals(rr[i], decoded[i]);
+        }
+    }
+
+    // 每个bpm换算成RR-interval后都能还原
+    @Test
+    public void batchRoundTripsEveryBpm() {
+        HeartRateMeasurementCodec codec = new HeartRateMeasurementCodec(512);
+        int[] rr = new int[2];
+        for (int bpm = 1; bpm <= 255; bpm++) {
+            byte[] frame = codec.encodeBatch(new int[]{bpm, bpm}, 0, 2, 0, 512);
+            assertEquals(bpm, HeartRateMeasurementCodec.decodeHeartRate(frame));
+            assertEquals(2, HeartRateMeasurementCodec.decodeRrIntervals(frame, frame.length, rr));
+            assertEquals("bpm " + bpm, bpm, HeartRateMeasurementCodec.rrIntervalToHeartRate(rr[0]));
+            assertEquals("bpm " + bpm, bpm, HeartRateMeasurementCodec.rrIntervalToHeartRate(rr[1]));
+        }
+    }
+
+    @Test
+    public void batchLimitedByMaxLength() {
+        HeartRateMeasurementCodec codec = new HeartRateMeasurementCodec(512);
+        int[] samples = new int[40];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = 60 + i;
+        }
+        byte[] frame = codec.encodeBatch(samples, 0, samples.length, 0,
+                HeartRateMeasurementCodec.DEFAULT_MAX_LENGTH);
+        assertEquals(HeartRateMeasurementCodec.DEFAULT_MAX_LENGTH, frame.length);
+        assertEquals(HeartRateMeasurementCodec.getBatchCapacity(
+                HeartRateMeasurementCodec.DEFAULT_MAX_LENGTH),
+                HeartRateMeasurementCodec.decodeRrIntervals(frame, frame.length, new int[40]));
+    }
+
+    // MTU 517: maxLength 514超过attribute最大长度512，按容量取出的采样都要放进帧里
+    @Test
+    public void batchCapacityClampedToAttributeLength() {
+        HeartRateMeasurementCodec codec = new HeartRateMeasurementCodec(512);
+        int capacity = codec.getBatchCapacityFor(514);
+        assertEquals(254, capacity);
+        int[] samples = new int[capacity];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = 60 + i % 100;
+        }
+        byte[] frame = codec.encodeBatch(samples, 0, capacity, 0, 514);
+        assertEquals(512, frame.length);
+        int[] rr = new int[capacity];
+        assertEquals(capacity,
+                HeartRateMeasurementCodec.decodeRrIntervals(frame, frame.length, rr));
+        for (int i = 0; i < capacity; i++) {
+            assertEquals(samples[i], HeartRateMeasurementCodec.rrIntervalToHeartRate(rr[i]));
+        }
+    }
+
+    @Test
+    public void framesOfSameLengthAreReused() {
+        HeartRateMeasurementCodec codec = new HeartRateMeasurementCodec();
+        byte[] first = codec.encode(60, 0);
+        byte[] second = codec.encode(61, 0);
+        assertSame(first, second);
+        assertEquals(61, HeartRateMeasurementCodec.decodeHeartRate(first));
+    }
+}
@@ -0,0 +1,88 @@
+package io.github.webbluetoothcg.bletestperipheral.codec;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class Ieee11073Test {
+
+    private static final double DELTA = 1e-6;
+
+    @Test
+    public void sfloatRoundTrip() {
+        byte[] buffer = new byte[Ieee11073.SFLOAT_SIZE];
+        int[][] cases = {{0, 0}, {1, 0}, {-1, 0}, {365, -1}, {-2045, 3}, {0x07FD, -8},
+                {-0x07FD, 7}, {72, 0}};
+        for (int[] c : cases) {
+            assertEquals(Ieee11073.SFLOAT_SIZE,
+                    Ieee11073.writeSfloat(buffer, 0, c[0], c[1]));
+            double expected = c[0] * Math.pow(10, c[1]);
+            assertEquals(expected, Ieee11073.readSfloat(buffer, 0), Math.abs(expected) * 1e-6);
+        }
+    }
+
+    @Test
+    public void floatRoundTrip() {
+        byte[] buffer = new byte[Ieee11073.FLOAT_SIZE];
+        int[][] cases = {{0, 0}, {3650, -2}, {-3650, -2}, {0x007FFFFD, 0}, {-0x007FFFFD, 0},
+                {1, 127}, {1, -128}, {98600, -3}};
+        for (int[] c : cases) {
+            assertEquals(Ieee11073.FLOAT_SIZE, Ieee11073.writeFloat(buffer, 0, c[0], c[1]));
+            double expected = c[0] * Math.pow(10, c[1]);
+            assertEquals(expected, Ieee11073.readFloat(buffer, 0),
+                    Math.max(Math.abs(expected) * 1e-12, Double.MIN_VALUE));
+        }
+    }
+
+    // 示例: 36.50℃ -> 42 0E 00 FE
+    @Test
+    public void floatLittleEndianLayout() {
+        byte[] buffer = new byte[Ieee11073.FLOAT_SIZE];
+        Ieee11073.writeFloat(buffer, 0, 3650, -2);
+        assertArrayEquals(new byte[]{0x42, 0x0E, 0x00, (byte) 0xFE}, buffer);
+    }
+
+    @Test
+    public void outOfRangeEncodesNres() {
+        assertEquals(Ieee11073.SFLOAT_NRES, Ieee11073.toSfloat(0x07FE, 0));
+        assertEquals(Ieee11073.SFLOAT_NRES, Ieee11073.toSfloat(-0x07FE, 0));
+        assertEquals(Ieee11073.SFLOAT_NRES, Ieee11073.toSfloat(1, 8));
+        assertEquals(Ieee11073.SFLOAT_NRES, Ieee11073.toSfloat(1, -9));
+        assertEquals(Ieee11073.FLOAT_NRES, Ieee11073.toFloat(0x007FFFFE, 0));
+        assertEquals(Ieee11073.FLOAT_NRES, Ieee11073.toFloat(1, 128));
+        assertEquals(Ieee11073.FLOAT_NRES, Ieee11073.toFloat(1, -129));
+    }
+
+    @Test
+    public void sfloatSpecialValues() {
+        assertTrue(Float.isNaN(readSfloat(Ieee11073.SFLOAT_NAN)));
+        assertTrue(Float.isNaN(readSfloat(Ieee11073.SFLOAT_NRES)));
+        assertTrue(Float.isNaN(readSfloat(0x0801))); // 保留
+        assertEquals(Float.POSITIVE_INFINITY, readSfloat(Ieee11073.SFLOAT_POSITIVE_INFINITY),
+                DELTA);
+        assertEquals(Float.NEGATIVE_INFINITY, readSfloat(Ieee11073.SFLOAT_NEGATIVE_INFINITY),
+                DELTA);
+    }
+
+    @Test
+    public void floatSpecialValues() {
+        assertTrue(Double.isNaN(readFloat(Ieee11073.FLOAT_NAN)));
+        assertTrue(Double.isNaN(readFloat(Ieee11073.FLOAT_NRES)));
+        assertTrue(Double.isNaN(readFloat(0x00800001))); // 保留
+        assertEquals(Double.POSITIVE_INFINITY, readFloat(Ieee11073.FLOAT_POSITIVE_INFINITY),
+                DELTA);
+        assertEquals(Double.NEGATIVE_INFINITY, readFloat(Ieee11073.FLOAT_NEGATIVE_INFINITY),
+                DELTA);
+    }
+
+    private static float readSfloat(int bits) {
+        return Ieee11073.readSfloat(new byte[]{(byte) bits, (byte) (bits >> 8)}, 0);
+    }
+
+    private static double readFloat(int bits) {
+        return Ieee11073.readFloat(new byte[]{(byte) bits, (byte) (bits >> 8),
+                (byte) (bits >> 16), (byte) (bits >> 24)}, 0);
+    }
+}
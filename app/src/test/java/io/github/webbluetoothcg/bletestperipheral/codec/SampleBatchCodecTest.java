@@ -0,0 +1,32 @@
+package io.github.webbluetoothcg.bletestperipheral.codec;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SampleBatchCodecTest {
+
+    @Test
+    public void roundTrip() {
+        SampleBatchCodec codec = new SampleBatchCodec();
+        int[] samples = {3650, 3655, -40};
+        byte[] frame = codec.encode(samples, 0, samples.length, 0x1234);
+        assertTrue(SampleBatchCodec.isBatchFrame(frame));
+        assertEquals(0x1234, SampleBatchCodec.decodeSequence(frame));
+        int[] decoded = new int[samples.length];
+        assertEquals(samples.length, SampleBatchCodec.decodeSamples(frame, decoded));
+        assertArrayEquals(samples, decoded);
+    }
+
+    // MTU 517时maxLength为514，帧不能超过attribute最大长度512
+    @Test
+    public void capacityClampedToAttributeLength() {
+        assertEquals(8, SampleBatchCodec.getCapacity(20));
+        int capacity = SampleBatchCodec.getCapacity(514);
+        assertEquals(254, capacity);
+        byte[] frame = new SampleBatchCodec().encode(new int[capacity], 0, capacity, 0);
+        assertEquals(512, frame.length);
+    }
+}
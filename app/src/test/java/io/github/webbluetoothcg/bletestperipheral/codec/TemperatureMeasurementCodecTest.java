@@ -0,0 +1,36 @@
+package io.github.webbluetoothcg.bletestperipheral.codec;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TemperatureMeasurementCodecTest {
+
+    // 示例: 00420E00FE -> 36.50℃
+    @Test
+    public void celsiusHundredths() {
+        TemperatureMeasurementCodec codec = new TemperatureMeasurementCodec();
+        byte[] frame = codec.encodeCelsiusHundredths(3650);
+        assertArrayEquals(new byte[]{0x00, 0x42, 0x0E, 0x00, (byte) 0xFE}, frame);
+        assertEquals(36.5, TemperatureMeasurementCodec.decodeTemperature(frame), 1e-9);
+        assertFalse(TemperatureMeasurementCodec.isFahrenheit(frame));
+    }
+
+    @Test
+    public void fahrenheitRoundTrip() {
+        TemperatureMeasurementCodec codec = new TemperatureMeasurementCodec();
+        byte[] frame = codec.encode(-400, -1, true);
+        assertTrue(TemperatureMeasurementCodec.isFahrenheit(frame));
+        assertEquals(-40.0, TemperatureMeasurementCodec.decodeTemperature(frame), 1e-9);
+    }
+
+    @Test
+    public void outOfRangeDecodesAsNan() {
+        TemperatureMeasurementCodec codec = new TemperatureMeasurementCodec();
+        byte[] frame = codec.encode(0x00800000, 0, false);
+        assertTrue(Double.isNaN(TemperatureMeasurementCodec.decodeTemperature(frame)));
+    }
+}
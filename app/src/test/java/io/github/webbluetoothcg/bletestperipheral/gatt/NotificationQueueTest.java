@@ -0,0 +1,72 @@
+package io.github.webbluetoothcg.bletestperipheral.gatt;
+
+import org.junit.Test;
+
+import io.github.webbluetoothcg.bletestperipheral.scheduler.Clock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class NotificationQueueTest {
+
+    private static final class ScriptedSender implements NotificationQueue.Sender<String> {
+        int result = NotificationQueue.SENT_NOTIFICATION;
+        int sends;
+
+        @Override
+        public int send(String item) {
+            sends++;
+            return result;
+        }
+
+        @Override
+        public void onIndicationTimeout(String item) {
+        }
+    }
+
+    private static NotificationQueue<String> newQueue(ScriptedSender sender) {
+        return new NotificationQueue<>(sender, 4, 1000, 30000, Clock.SYSTEM);
+    }
+
+    @Test
+    public void oneInFlightUntilSent() {
+        ScriptedSender sender = new ScriptedSender();
+        NotificationQueue<String> queue = newQueue(sender);
+        assertTrue(queue.offer("a"));
+        assertTrue(queue.offer("b"));
+        assertTrue(queue.offer("b")); // 合并
+        assertEquals(1, sender.sends);
+        assertTrue(queue.isInFlight());
+        assertEquals(1, queue.size());
+        assertEquals(1, queue.getCoalescedCount());
+        queue.onSent(true);
+        assertEquals(2, sender.sends);
+        queue.onSent(true);
+        assertFalse(queue.isInFlight());
+        assertEquals(2, queue.getSentCount());
+    }
+
+    @Test
+    public void emptySourceIsNotAFailure() {
+        ScriptedSender sender = new ScriptedSender();
+        sender.result = NotificationQueue.NOTHING_TO_SEND;
+        NotificationQueue<String> queue = newQueue(sender);
+        queue.offer("a");
+        queue.offer("b");
+        assertEquals(0, queue.getFailedCount());
+        assertEquals(2, queue.getEmptyCount());
+        assertFalse(queue.isInFlight());
+    }
+
+    @Test
+    public void stackRejectionIsAFailure() {
+        ScriptedSender sender = new ScriptedSender();
+        sender.result = NotificationQueue.NOT_SENT;
+        NotificationQueue<String> queue = newQueue(sender);
+        queue.offer("a");
+        assertEquals(1, queue.getFailedCount());
+        assertEquals(0, queue.getEmptyCount());
+        assertFalse(queue.isInFlight());
+    }
+}
@@ -0,0 +1,106 @@
+package io.github.webbluetoothcg.bletestperipheral.gatt;
+
+import android.bluetooth.BluetoothGatt;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.github.webbluetoothcg.bletestperipheral.scheduler.Clock;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PreparedWriteQueueTest {
+
+    private static final String DEVICE = "device";
+
+    // 以attribute名记录提交的值，名字以"bad"开头的检查不通过
+    private static final class RecordingCommitter
+            implements PreparedWriteQueue.Committer<String, String> {
+        final Map<String, byte[]> committed = new HashMap<>();
+
+        @Override
+        public int validate(String device, String attribute, byte[] value) {
+            return attribute.startsWith("bad") ? BluetoothGatt.GATT_INVALID_ATTRIBUTE_LENGTH
+                    : BluetoothGatt.GATT_SUCCESS;
+        }
+
+        @Override
+        public int commit(String device, String attribute, byte[] value) {
+            committed.put(attribute, value);
+            return BluetoothGatt.GATT_SUCCESS;
+        }
+    }
+
+    private static PreparedWriteQueue<String, String> newQueue() {
+        return new PreparedWriteQueue<>(8, 30000, Clock.SYSTEM);
+    }
+
+    @Test
+    public void reassemblesSegments() {
+        PreparedWriteQueue<String, String> queue = newQueue();
+        assertEquals(BluetoothGatt.GATT_SUCCESS,
+                queue.prepare(DEVICE, "a", 0, new byte[]{1, 2}, 512));
+        assertEquals(BluetoothGatt.GATT_SUCCESS,
+                queue.prepare(DEVICE, "a", 2, new byte[]{3}, 512));
+        RecordingCommitter committer = new RecordingCommitter();
+        List<String> committed = new ArrayList<>();
+        assertEquals(BluetoothGatt.GATT_SUCCESS,
+                queue.execute(DEVICE, true, committer, committed));
+        assertArrayEquals(new byte[]{1, 2, 3}, committer.committed.get("a"));
+        assertEquals(1, committed.size());
+        assertEquals("a", committed.get(0));
+    }
+
+    @Test
+    public void executeIsAllOrNothing() {
+        PreparedWriteQueue<String, String> queue = newQueue();
+        queue.prepare(DEVICE, "a", 0, new byte[]{1}, 512);
+        queue.prepare(DEVICE, "bad", 0, new byte[]{2}, 512);
+        queue.prepare(DEVICE, "c", 0, new byte[]{3}, 512);
+        RecordingCommitter committer = new RecordingCommitter();
+        List<String> committed = new ArrayList<>();
+        assertEquals(BluetoothGatt.GATT_INVALID_ATTRIBUTE_LENGTH,
+                queue.execute(DEVICE, true, committer, committed));
+        assertTrue(committer.committed.isEmpty());
+        assertTrue(committed.isEmpty());
+        // 队列已清空
+        assertEquals(BluetoothGatt.GATT_SUCCESS,
+                queue.execute(DEVICE, true, committer, committed));
+        assertTrue(committer.committed.isEmpty());
+    }
+
+    @Test
+    public void cancelDiscards() {
+        PreparedWriteQueue<String, String> queue = newQueue();
+        queue.prepare(DEVICE, "a", 0, new byte[]{1}, 512);
+        RecordingCommitter committer = new RecordingCommitter();
+        assertEquals(BluetoothGatt.GATT_SUCCESS, queue.execute(DEVICE, false, committer, null));
+        assertTrue(committer.committed.isEmpty());
+    }
+
+    @Test
+    public void rejectsGapsAndOverlongValues() {
+        PreparedWriteQueue<String, String> queue = newQueue();
+        assertEquals(BluetoothGatt.GATT_INVALID_OFFSET,
+                queue.prepare(DEVICE, "a", 1, new byte[]{1}, 512));
+        assertEquals(BluetoothGatt.GATT_INVALID_ATTRIBUTE_LENGTH,
+                queue.prepare(DEVICE, "a", 0, new byte[5], 4));
+    }
+
+    @Test
+    public void limitsAttributesPerDevice() {
+        PreparedWriteQueue<String, String> queue = newQueue();
+        for (int i = 0; i < PreparedWriteQueue.MAX_ATTRIBUTES_PER_DEVICE; i++) {
+            assertEquals(BluetoothGatt.GATT_SUCCESS,
+                    queue.prepare(DEVICE, "a" + i, 0, new byte[]{1}, 512));
+        }
+        assertEquals(PreparedWriteQueue.ATT_PREPARE_QUEUE_FULL,
+                queue.prepare(DEVICE, "extra", 0, new byte[]{1}, 512));
+    }
+}
@@ -0,0 +1,105 @@
+package io.github.webbluetoothcg.bletestperipheral.gatt;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import io.github.webbluetoothcg.bletestperipheral.store.MeasurementLog;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class StoreAndForwardTest {
+
+    private static final String CENTRAL = "00:11:22:33:44:55";
+    private static final Object DEVICE = new Object();
+    // 两个采样一帧
+    private static final int MAX_LENGTH = 4;
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mDir;
+    private MeasurementLog mLog;
+    private StoreAndForward<Object> mStore;
+
+    // 帧: 第一个序号的低字节 + 个数 + 每个采样一个字节
+    private static final SampleBatcher.Encoder ENCODER = new SampleBatcher.Encoder() {
+        @Override
+        public int capacity(int maxLength) {
+            return maxLength - 2;
+        }
+
+        @Override
+        public byte[] encode(int[] samples, int offset, int count, int firstSequence,
+                             int maxLength) {
+            byte[] frame = new byte[2 + count];
+            frame[0] = (byte) firstSequence;
+            frame[1] = (byte) count;
+            for (int i = 0; i < count; i++) {
+                frame[2 + i] = (byte) samples[offset + i];
+            }
+            return frame;
+        }
+    };
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = mFolder.newFolder("log");
+        mLog = MeasurementLog.open(mDir, 4, 2);
+        mStore = new StoreAndForward<>(mLog, ENCODER, 16);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mLog.close();
+    }
+
+    private void append(int from, int to) {
+        for (int i = from; i < to; i++) {
+            mStore.append(i, i);
+        }
+    }
+
+    // 补发期间最旧的段被删除，从仍保留的最旧的采样继续，而不是直接切换为实时
+    @Test
+    public void replayContinuesAfterSegmentDeleted() {
+        append(0, 4);
+        mLog.setCursor(CENTRAL, 1);
+        assertTrue(mStore.resume(DEVICE, CENTRAL));
+        assertArrayEquals(new byte[]{1, 2, 1, 2}, mStore.nextFrame(DEVICE, MAX_LENGTH));
+
+        append(4, 12); // 序号0-3所在的段被删除
+        assertEquals(4, mLog.getFirstSequence());
+        assertArrayEquals(new byte[]{4, 2, 4, 5}, mStore.nextFrame(DEVICE, MAX_LENGTH));
+        assertArrayEquals(new byte[]{6, 2, 6, 7}, mStore.nextFrame(DEVICE, MAX_LENGTH));
+        assertArrayEquals(new byte[]{8, 2, 8, 9}, mStore.nextFrame(DEVICE, MAX_LENGTH));
+        assertTrue(mStore.isReplaying(DEVICE));
+        assertArrayEquals(new byte[]{10, 2, 10, 11}, mStore.nextFrame(DEVICE, MAX_LENGTH));
+        assertFalse(mStore.isReplaying(DEVICE));
+        assertNull(mStore.nextFrame(DEVICE, MAX_LENGTH));
+    }
+
+    // 断开时游标立即写入文件，进程被杀(不调用close)后仍可补发
+    @Test
+    public void cursorPersistedOnSuspend() throws IOException {
+        append(0, 3);
+        assertFalse(mStore.resume(DEVICE, CENTRAL));
+        mStore.suspend(DEVICE, CENTRAL, 1);
+
+        MeasurementLog reopened = MeasurementLog.open(mDir, 4, 2);
+        try {
+            assertEquals(2, reopened.getCursor(CENTRAL));
+        } finally {
+            reopened.close();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package io.github.webbluetoothcg.bletestperipheral.scheduler;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+// 出错时用android.util.Log记录
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 26, manifest = Config.NONE)
+public class EventLoopTest {
+
+    private static final String[] TYPES = {"A", "B"};
+
+    private static Runnable add(final List<Integer> events, final int value) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                events.add(value);
+            }
+        };
+    }
+
+    // shutdown的action在已投递的事件之后执行，返回时已执行完，之后的投递被丢弃
+    @Test
+    public void shutdownRunsAfterPendingEvents() throws InterruptedException {
+        EventLoop loop = new EventLoop(TYPES, null, Clock.SYSTEM, 4);
+        final List<Integer> events = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch blocked = new CountDownLatch(1);
+        loop.start();
+        loop.post(0, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    blocked.await(); // 事件处理较慢时shutdown也要等它
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        for (int i = 0; i < 10; i++) {
+            loop.post(1, add(events, i));
+        }
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    // 仍然放行
+                }
+                blocked.countDown();
+            }
+        }).start();
+        loop.shutdown(0, add(events, -1));
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9, -1), events);
+        assertFalse(loop.post(1, add(events, 10)));
+        assertEquals(11, events.size());
+    }
+
+    @Test
+    public void shutdownWithoutThreadRunsInCaller() {
+        EventLoop loop = new EventLoop(TYPES, null, Clock.SYSTEM, 4);
+        List<Integer> events = new ArrayList<>();
+        loop.post(1, add(events, 0));
+        loop.shutdown(0, add(events, -1));
+        assertEquals(Collections.singletonList(-1), events);
+    }
+
+    // 出错的事件不影响之后的事件
+    @Test
+    public void errorsAreCountedAndLoopContinues() {
+        EventLoop loop = new EventLoop(TYPES, null, Clock.SYSTEM, 4);
+        List<Integer> events = new ArrayList<>();
+        Runnable failing = new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("test");
+            }
+        };
+        loop.post(0, failing);
+        loop.post(0, failing);
+        loop.post(1, add(events, 0));
+        assertEquals(3, loop.runBatch());
+        assertEquals(2, loop.getErrorCount());
+        assertTrue(loop.getLastError() instanceof IllegalStateException);
+        assertEquals(Collections.singletonList(0), events);
+    }
+}
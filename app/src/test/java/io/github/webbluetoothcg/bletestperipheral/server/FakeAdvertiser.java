@@ -0,0 +1,105 @@
+package io.github.webbluetoothcg.bletestperipheral.server;
+
+import android.bluetooth.le.AdvertiseData;
+import android.bluetooth.le.AdvertisingSetCallback;
+import android.bluetooth.le.AdvertisingSetParameters;
+
+import java.util.IdentityHashMap;
+
+/**
+ * 内存中的广播，回调在调用线程上同步执行。
+ *
+ * 记录每个广播集最近一次设置的数据和设置次数，可以指定setAdvertisingData返回的状态来模拟控制器失败。
+ */
+public final class FakeAdvertiser implements Advertiser {
+
+    /** 一个模拟的广播集 */
+    public static final class FakeHandle implements Handle {
+        private final Callback mCallback;
+        private final FakeAdvertiser mAdvertiser;
+        private volatile AdvertiseData mAdvertiseData;
+        private volatile long mDataSetCount;
+
+        FakeHandle(FakeAdvertiser advertiser, Callback callback, AdvertiseData advertiseData) {
+            mAdvertiser = advertiser;
+            mCallback = callback;
+            mAdvertiseData = advertiseData;
+        }
+
+        @Override
+        public void setAdvertisingData(AdvertiseData data) {
+            int status = mAdvertiser.mDataSetStatus;
+            if (status == AdvertisingSetCallback.ADVERTISE_SUCCESS) {
+                mAdvertiseData = data;
+            }
+            mDataSetCount++;
+            mCallback.onAdvertisingDataSet(this, status);
+        }
+
+        public AdvertiseData getAdvertiseData() {
+            return mAdvertiseData;
+        }
+
+        public long getDataSetCount() {
+            return mDataSetCount;
+        }
+    }
+
+    private final IdentityHashMap<Callback, FakeHandle> mHandles = new IdentityHashMap<>();
+    private volatile int mDataSetStatus = AdvertisingSetCallback.ADVERTISE_SUCCESS;
+    private volatile int mTxPower = 1;
+
+    // 之后的setAdvertisingData返回的状态
+    public void setDataSetStatus(int status) {
+        mDataSetStatus = status;
+    }
+
+    public void setTxPower(int txPower) {
+        mTxPower = txPower;
+    }
+
+    public FakeHandle getHandle(Callback callback) {
+        synchronized (mHandles) {
+            return mHandles.get(callback);
+        }
+    }
+
+    public int getAdvertisingSetCount() {
+        synchronized (mHandles) {
+            return mHandles.size();
+        }
+    }
+
+    @Override
+    public void startAdvertisingSet(AdvertisingSetParameters parameters,
+                                    AdvertiseData advertiseData, AdvertiseData scanResponse,
+                                    Callback callback) {
+        FakeHandle handle;
+        synchronized (mHandles) {
+            if (mHandles.containsKey(callback)) {
+                handle = null;
+            } else {
+                handle = new FakeHandle(this, callback, advertiseData);
+                mHandles.put(callback, handle);
+            }
+        }
+        if (handle == null) {
+            callback.onAdvertisingSetStarted(null, 0,
+                    AdvertisingSetCallback.ADVERTISE_FAILED_ALREADY_STARTED);
+        } else {
+            callback.onAdvertisingSetStarted(handle, mTxPower,
+                    AdvertisingSetCallback.ADVERTISE_SUCCESS);
+        }
+    }
+
+    @Override
+    public void stopAdvertisingSet(Callback callback) {
+        FakeHandle handle;
+        synchronized (mHandles) {
+            handle = mHandles.remove(callback);
+        }
+        if (handle != null) {
+            callback.onAdvertisingSetStopped(handle);
+        }
+    }
+}
@@ -0,0 +1,347 @@
+package io.github.webbluetoothcg.bletestperipheral.server;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattServerCallback;
+import android.bluetooth.BluetoothGattService;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 内存中的GATT server，模拟任意数量的central，用于在没有蓝牙硬件时测量整个回调路径。
+ *
+ * central一侧的操作(连接、MTU协商、读写、订阅)直接调用server的BluetoothGattServerCallback，
+ * 请求在调用线程上同步处理并返回server的响应。notify按central的MTU截断后交给监听者，
+ * 经过设定的延迟再回调onNotificationSent；每个central同一时间只有一个notify在途，
+ * 在途期间再次notify返回false，与协议栈的流控一致。
+ *
+ * executor为null时所有回调都在调用线程上同步执行。
+ */
+public final class FakeGattServer implements GattServer {
+
+    public static final int DEFAULT_MTU = 23;
+    public static final int MAX_MTU = 517;
+
+    private static final UUID CLIENT_CHARACTERISTIC_CONFIGURATION_UUID = UUID
+            .fromString("00002902-0000-1000-8000-00805f9b34fb");
+
+    /** central收到notify/indicate */
+    public interface NotificationListener {
+        // value已按MTU截断，是独立的副本
+        void onNotification(BluetoothDevice device, BluetoothGattCharacteristic characteristic,
+                            byte[] value, boolean confirm);
+    }
+
+    /** server对一个请求的响应 */
+    public static final class Response {
+        public final int status;
+        public final int offset;
+        public final byte[] value;
+
+        Response(int status, int offset, byte[] value) {
+            this.status = status;
+            this.offset = offset;
+            this.value = value;
+        }
+    }
+
+    /** 一个模拟的central及其统计 */
+    public static final class Central {
+        private final BluetoothDevice mDevice;
+        private volatile int mMtu = DEFAULT_MTU;
+        private boolean mBusy;
+        private long mNotifications;
+        private long mIndications;
+        private long mBytes;
+        private long mTruncated;
+        private long mRejected;
+
+        Central(BluetoothDevice device) {
+            mDevice = device;
+        }
+
+        public BluetoothDevice getDevice() {
+            return mDevice;
+        }
+
+        public int getMtu() {
+            return mMtu;
+        }
+
+        public synchronized long getNotificationCount() {
+            return mNotifications;
+        }
+
+        public synchronized long getIndicationCount() {
+            return mIndications;
+        }
+
+        public synchronized long getByteCount() {
+            return mBytes;
+        }
+
+        // 超过MTU - 3被截断的个数
+        public synchronized long getTruncatedCount() {
+            return mTruncated;
+        }
+
+        // 上一个notify在途时被拒绝的个数
+        public synchronized long getRejectedCount() {
+            return mRejected;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return "Central{mtu=" + mMtu + ", notifications=" + mNotifications
+                    + ", indications=" + mIndications + ", bytes=" + mBytes
+                    + ", truncated=" + mTruncated + ", rejected=" + mRejected + "}";
+        }
+    }
+
+    private final BluetoothGattServerCallback mCallback;
+    private final ScheduledExecutorService mExecutor;
+    private final ConcurrentHashMap<BluetoothDevice, Central> mCentrals = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, Response> mResponses = new ConcurrentHashMap<>();
+    private final CopyOnWriteArrayList<BluetoothGattService> mServices =
+            new CopyOnWriteArrayList<>();
+    private final AtomicInteger mNextRequestId = new AtomicInteger();
+    private volatile NotificationListener mListener;
+    private volatile long mNotificationDelayNanos;
+    private volatile boolean mClosed;
+
+    /**
+     * @param executor 延迟回调使用的线程，null时同步回调
+     */
+    public FakeGattServer(BluetoothGattServerCallback callback, ScheduledExecutorService executor) {
+        mCallback = callback;
+        mExecutor = executor;
+    }
+
+    public void setNotificationListener(NotificationListener listener) {
+        mListener = listener;
+    }
+
+    // notify到onNotificationSent之间的延迟，模拟连接间隔和空口时间
+    public void setNotificationDelay(long delay, TimeUnit unit) {
+        mNotificationDelayNanos = unit.toNanos(delay);
+    }
+
+    public List<BluetoothGattService> getServices() {
+        return mServices;
+    }
+
+    public Central getCentral(BluetoothDevice device) {
+        return mCentrals.get(device);
+    }
+
+    // ---- GattServer ----
+
+    @Override
+    public boolean addService(final BluetoothGattService service) {
+        if (mClosed) {
+            return false;
+        }
+        mServices.add(service);
+        post(new Runnable() {
+            @Override
+            public void run() {
+                mCallback.onServiceAdded(BluetoothGatt.GATT_SUCCESS, service);
+            }
+        }, 0);
+        return true;
+    }
+
+    @Override
+    public boolean sendResponse(BluetoothDevice device, int requestId, int status, int offset,
+                                byte[] value) {
+        if (mClosed || !mCentrals.containsKey(device)) {
+            return false;
+        }
+        mResponses.put(requestId, new Response(status, offset,
+                value != null ? value.clone() : null));
+        return true;
+    }
+
+    @Override
+    public boolean notifyCharacteristicChanged(final BluetoothDevice device,
+                                               BluetoothGattCharacteristic characteristic,
+                                               boolean confirm) {
+        Central central = mCentrals.get(device);
+        if (mClosed || central == null) {
+            return false;
+        }
+        byte[] value = characteristic.getValue();
+        int length = Math.min(value != null ? value.length : 0, central.mMtu - 3);
+        byte[] received = new byte[length];
+        if (length > 0) {
+            System.arraycopy(value, 0, received, 0, length);
+        }
+        synchronized (central) {
+            if (central.mBusy) {
+                central.mRejected++;
+                return false;
+            }
+            central.mBusy = true;
+            if (confirm) {
+                central.mIndications++;
+            } else {
+                central.mNotifications++;
+            }
+            central.mBytes += length;
+            if (value != null && value.length > length) {
+                central.mTruncated++;
+            }
+        }
+        NotificationListener listener = mListener;
+        if (listener != null) {
+            listener.onNotification(device, characteristic, received, confirm);
+        }
+        final Central sent = central;
+        post(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (sent) {
+                    sent.mBusy = false;
+                }
+                if (mCentrals.get(device) == sent) {
+                    mCallback.onNotificationSent(device, BluetoothGatt.GATT_SUCCESS);
+                }
+            }
+        }, mNotificationDelayNanos);
+        return true;
+    }
+
+    @Override
+    public void cancelConnection(final BluetoothDevice device) {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                disconnect(device);
+            }
+        }, 0);
+    }
+
+    @Override
+    public List<BluetoothDevice> getConnectedDevices() {
+        return new ArrayList<>(mCentrals.keySet());
+    }
+
+    @Override
+    public void close() {
+        mClosed = true;
+        mCentrals.clear();
+        mResponses.clear();
+        mServices.clear();
+    }
+
+    // ---- central一侧的操作 ----
+
+    public Central connect(BluetoothDevice device) {
+        Central central = new Central(device);
+        Central existing = mCentrals.putIfAbsent(device, central);
+        if (existing != null) {
+            return existing;
+        }
+        mCallback.onConnectionStateChange(device, BluetoothGatt.GATT_SUCCESS,
+                BluetoothGatt.STATE_CONNECTED);
+        return central;
+    }
+
+    public void disconnect(BluetoothDevice device) {
+        if (mCentrals.remove(device) != null) {
+            mCallback.onConnectionStateChange(device, BluetoothGatt.GATT_SUCCESS,
+                    BluetoothGatt.STATE_DISCONNECTED);
+        }
+    }
+
+    public void requestMtu(BluetoothDevice device, int mtu) {
+        Central central = mCentrals.get(device);
+        if (central != null) {
+            central.mMtu = Math.max(DEFAULT_MTU, Math.min(mtu, MAX_MTU));
+            mCallback.onMtuChanged(device, central.mMtu);
+        }
+    }
+
+    public Response readCharacteristic(BluetoothDevice device,
+                                       BluetoothGattCharacteristic characteristic, int offset) {
+        int requestId = mNextRequestId.incrementAndGet();
+        mCallback.onCharacteristicReadRequest(device, requestId, offset, characteristic);
+        return mResponses.remove(requestId);
+    }
+
+    // responseNeeded为false时(write without response)返回null
+    public Response writeCharacteristic(BluetoothDevice device,
+                                        BluetoothGattCharacteristic characteristic, byte[] value,
+                                        boolean responseNeeded) {
+        int requestId = mNextRequestId.incrementAndGet();
+        mCallback.onCharacteristicWriteRequest(device, requestId, characteristic,
+                /* preparedWrite */ false, responseNeeded, /* offset */ 0, value);
+        return mResponses.remove(requestId);
+    }
+
+    public Response prepareWrite(BluetoothDevice device,
+                                 BluetoothGattCharacteristic characteristic, int offset,
+                                 byte[] value) {
+        int requestId = mNextRequestId.incrementAndGet();
+        mCallback.onCharacteristicWriteRequest(device, requestId, characteristic,
+                /* preparedWrite */ true, /* responseNeeded */ true, offset, value);
+        return mResponses.remove(requestId);
+    }
+
+    public Response executeWrite(BluetoothDevice device, boolean execute) {
+        int requestId = mNextRequestId.incrementAndGet();
+        mCallback.onExecuteWrite(device, requestId, execute);
+        return mResponses.remove(requestId);
+    }
+
+    public Response readDescriptor(BluetoothDevice device, BluetoothGattDescriptor descriptor,
+                                   int offset) {
+        int requestId = mNextRequestId.incrementAndGet();
+        mCallback.onDescriptorReadRequest(device, requestId, offset, descriptor);
+        return mResponses.remove(requestId);
+    }
+
+    public Response writeDescriptor(BluetoothDevice device, BluetoothGattDescriptor descriptor,
+                                    byte[] value) {
+        int requestId = mNextRequestId.incrementAndGet();
+        mCallback.onDescriptorWriteRequest(device, requestId, descriptor,
+                /* preparedWrite */ false, /* responseNeeded */ true, /* offset */ 0, value);
+        return mResponses.remove(requestId);
+    }
+
+    /**
+     * 写CCCD订阅或取消订阅。
+     *
+     * @return characteristic没有CCCD时返回null
+     */
+    public Response setCharacteristicNotification(BluetoothDevice device,
+                                                  BluetoothGattCharacteristic characteristic,
+                                                  boolean enable, boolean indicate) {
+        BluetoothGattDescriptor cccd =
+                characteristic.getDescriptor(CLIENT_CHARACTERISTIC_CONFIGURATION_UUID);
+        if (cccd == null) {
+            return null;
+        }
+        byte[] value = !enable ? BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE
+                : indicate ? BluetoothGattDescriptor.ENABLE_INDICATION_VALUE
+                : BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE;
+        return writeDescriptor(device, cccd, value);
+    }
+
+    private void post(Runnable runnable, long delayNanos) {
+        if (mExecutor == null) {
+            runnable.run();
+        } else {
+            mExecutor.schedule(runnable, delayNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package io.github.webbluetoothcg.bletestperipheral.server;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattServerCallback;
+import android.bluetooth.BluetoothGattService;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import io.github.webbluetoothcg.bletestperipheral.gatt.Connection;
+import io.github.webbluetoothcg.bletestperipheral.gatt.ConnectionRegistry;
+import io.github.webbluetoothcg.bletestperipheral.gatt.NotificationQueue;
+import io.github.webbluetoothcg.bletestperipheral.scheduler.Clock;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 在JVM上用FakeGattServer模拟大量central，经过与PeripheralService相同的连接注册表和发送队列，
+ * 检查流控(每个central同一时间只有一个notify在途)和按MTU截断。
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 26, manifest = Config.NONE)
+public class FakeGattServerTest {
+
+    private static final UUID SERVICE_UUID =
+            UUID.fromString("0000180d-0000-1000-8000-00805f9b34fb");
+    private static final UUID CHARACTERISTIC_UUID =
+            UUID.fromString("00002a37-0000-1000-8000-00805f9b34fb");
+    private static final UUID CCCD_UUID =
+            UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
+    private static final int CENTRALS = 2000;
+    private static final int ROUNDS = 50;
+    private static final int VALUE_LENGTH = 100;
+    private static final int LARGE_MTU = 247;
+
+    private ScheduledExecutorService mExecutor;
+
+    @After
+    public void tearDown() {
+        if (mExecutor != null) {
+            mExecutor.shutdownNow();
+        }
+    }
+
+    // 最小的外设: 连接注册、CCCD订阅、按设备的发送队列，onNotificationSent驱动下一个
+    private static final class Peripheral extends BluetoothGattServerCallback {
+        final ConnectionRegistry<BluetoothDevice, BluetoothGattCharacteristic> mConnections =
+                new ConnectionRegistry<>(Clock.SYSTEM);
+        FakeGattServer mServer;
+
+        @Override
+        public void onConnectionStateChange(BluetoothDevice device, int status, int newState) {
+            if (newState == BluetoothGatt.STATE_CONNECTED) {
+                mConnections.add(device, createQueue(device), FakeGattServer.DEFAULT_MTU);
+            } else {
+                mConnections.remove(device);
+            }
+        }
+
+        @Override
+        public void onMtuChanged(BluetoothDevice device, int mtu) {
+            Connection<BluetoothDevice, BluetoothGattCharacteristic> connection =
+                    mConnections.get(device);
+            if (connection != null) {
+                connection.setMtu(mtu);
+            }
+        }
+
+        @Override
+        public void onNotificationSent(BluetoothDevice device, int status) {
+            Connection<BluetoothDevice, BluetoothGattCharacteristic> connection =
+                    mConnections.get(device);
+            if (connection != null) {
+                connection.getQueue().onSent(status == BluetoothGatt.GATT_SUCCESS);
+            }
+        }
+
+        @Override
+        public void onCharacteristicReadRequest(BluetoothDevice device, int requestId, int offset,
+                                                BluetoothGattCharacteristic characteristic) {
+            byte[] value = characteristic.getValue();
+            mServer.sendResponse(device, requestId, BluetoothGatt.GATT_SUCCESS, offset,
+                    Arrays.copyOfRange(value, Math.min(offset, value.length), value.length));
+        }
+
+        @Override
+        public void onDescriptorWriteRequest(BluetoothDevice device, int requestId,
+                                             BluetoothGattDescriptor descriptor,
+                                             boolean preparedWrite, boolean responseNeeded,
+                                             int offset, byte[] value) {
+            Connection<BluetoothDevice, BluetoothGattCharacteristic> connection =
+                    mConnections.get(device);
+            if (connection != null) {
+                int mode = value[0] == 1 ? Connection.MODE_NOTIFY
+                        : value[0] == 2 ? Connection.MODE_INDICATE : Connection.MODE_NONE;
+                connection.setMode(descriptor.getCharacteristic(), mode);
+            }
+            if (responseNeeded) {
+                mServer.sendResponse(device, requestId, BluetoothGatt.GATT_SUCCESS, 0, null);
+            }
+        }
+
+        void notifySubscribers(BluetoothGattCharacteristic characteristic) {
+            for (Connection<BluetoothDevice, BluetoothGattCharacteristic> connection
+                    : mConnections.getSnapshot()) {
+                if (connection.isSubscribed(characteristic)) {
+                    connection.getQueue().offer(characteristic);
+                }
+            }
+        }
+
+        private NotificationQueue<BluetoothGattCharacteristic> createQueue(
+                final BluetoothDevice device) {
+            return new NotificationQueue<>(
+                    new NotificationQueue.Sender<BluetoothGattCharacteristic>() {
+                        @Override
+                        public int send(BluetoothGattCharacteristic characteristic) {
+                            Connection<BluetoothDevice, BluetoothGattCharacteristic> connection =
+                                    mConnections.get(device);
+                            if (connection == null || !connection.isSubscribed(characteristic)) {
+                                return NotificationQueue.NOTHING_TO_SEND;
+                            }
+                            return mServer.notifyCharacteristicChanged(device, characteristic,
+                                    false) ? NotificationQueue.SENT_NOTIFICATION
+                                    : NotificationQueue.NOT_SENT;
+                        }
+
+                        @Override
+                        public void onIndicationTimeout(BluetoothGattCharacteristic item) {
+                        }
+                    }, 4, 5000, 30000, Clock.SYSTEM);
+        }
+    }
+
+    private static BluetoothGattCharacteristic createCharacteristic() {
+        BluetoothGattCharacteristic characteristic = new BluetoothGattCharacteristic(
+                CHARACTERISTIC_UUID, BluetoothGattCharacteristic.PROPERTY_NOTIFY
+                | BluetoothGattCharacteristic.PROPERTY_READ,
+                BluetoothGattCharacteristic.PERMISSION_READ);
+        characteristic.addDescriptor(new BluetoothGattDescriptor(CCCD_UUID,
+                BluetoothGattDescriptor.PERMISSION_READ
+                        | BluetoothGattDescriptor.PERMISSION_WRITE));
+        BluetoothGattService service = new BluetoothGattService(SERVICE_UUID,
+                BluetoothGattService.SERVICE_TYPE_PRIMARY);
+        service.addCharacteristic(characteristic);
+        return characteristic;
+    }
+
+    private static BluetoothDevice device(int index) {
+        return BluetoothAdapter.getDefaultAdapter().getRemoteDevice(String.format(Locale.US,
+                "02:00:00:00:%02X:%02X", (index >> 8) & 0xFF, index & 0xFF));
+    }
+
+    private static byte[] value(int length) {
+        byte[] value = new byte[length];
+        for (int i = 0; i < length; i++) {
+            value[i] = (byte) i;
+        }
+        return value;
+    }
+
+    @Test
+    public void manyCentralsAreFlowControlledAndTruncatedToMtu() throws InterruptedException {
+        mExecutor = new ScheduledThreadPoolExecutor(2);
+        Peripheral peripheral = new Peripheral();
+        FakeGattServer server = new FakeGattServer(peripheral, mExecutor);
+        server.setNotificationDelay(50, TimeUnit.MICROSECONDS);
+        peripheral.mServer = server;
+        BluetoothGattCharacteristic characteristic = createCharacteristic();
+        characteristic.setValue(value(VALUE_LENGTH));
+        server.addService(characteristic.getService());
+
+        List<FakeGattServer.Central> centrals = new ArrayList<>(CENTRALS);
+        for (int i = 0; i < CENTRALS; i++) {
+            BluetoothDevice device = device(i);
+            centrals.add(server.connect(device));
+            if (i % 2 == 1) {
+                server.requestMtu(device, LARGE_MTU);
+            }
+            FakeGattServer.Response response =
+                    server.setCharacteristicNotification(device, characteristic, true, false);
+            assertNotNull(response);
+            assertEquals(BluetoothGatt.GATT_SUCCESS, response.status);
+        }
+        assertEquals(CENTRALS, peripheral.mConnections.size());
+
+        long start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            peripheral.notifySubscribers(characteristic);
+        }
+        awaitIdle(peripheral, 30000);
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        long total = 0;
+        for (FakeGattServer.Central central : centrals) {
+            NotificationQueue<BluetoothGattCharacteristic> queue =
+                    peripheral.mConnections.get(central.getDevice()).getQueue();
+            // 流控: 上一个notify未完成时从不再次调用notifyCharacteristicChanged
+            assertEquals(0, central.getRejectedCount());
+            assertEquals(0, queue.getFailedCount());
+            assertEquals(0, queue.getDroppedCount());
+            assertEquals(ROUNDS, queue.getEnqueuedCount() + queue.getCoalescedCount());
+            assertEquals(queue.getEnqueuedCount(), queue.getSentCount());
+            long notifications = central.getNotificationCount();
+            assertEquals(queue.getSentCount(), notifications);
+            assertTrue(notifications > 0);
+            // 截断到MTU - 3
+            int expectedLength = Math.min(VALUE_LENGTH, central.getMtu() - 3);
+            assertEquals(notifications * expectedLength, central.getByteCount());
+            assertEquals(central.getMtu() - 3 < VALUE_LENGTH ? notifications : 0,
+                    central.getTruncatedCount());
+            total += notifications;
+        }
+        System.out.println(CENTRALS + " centrals, " + total + " notifications in " + elapsedMs
+                + "ms");
+    }
+
+    @Test
+    public void notificationIsTruncatedToNegotiatedMtu() {
+        Peripheral peripheral = new Peripheral();
+        FakeGattServer server = new FakeGattServer(peripheral, null);
+        peripheral.mServer = server;
+        final List<byte[]> received = new ArrayList<>();
+        server.setNotificationListener(new FakeGattServer.NotificationListener() {
+            @Override
+            public void onNotification(BluetoothDevice device,
+                                       BluetoothGattCharacteristic characteristic, byte[] value,
+                                       boolean confirm) {
+                received.add(value);
+            }
+        });
+        BluetoothGattCharacteristic characteristic = createCharacteristic();
+        byte[] value = value(30);
+        characteristic.setValue(value);
+        BluetoothDevice device = device(1);
+        FakeGattServer.Central central = server.connect(device);
+        server.setCharacteristicNotification(device, characteristic, true, false);
+
+        peripheral.notifySubscribers(characteristic);
+        assertArrayEquals(Arrays.copyOf(value, FakeGattServer.DEFAULT_MTU - 3), received.get(0));
+        assertEquals(1, central.getTruncatedCount());
+
+        server.requestMtu(device, 1000);
+        assertEquals(FakeGattServer.MAX_MTU, central.getMtu());
+        assertEquals(FakeGattServer.MAX_MTU, peripheral.mConnections.get(device).getMtu());
+        peripheral.notifySubscribers(characteristic);
+        assertArrayEquals(value, received.get(1));
+        assertEquals(1, central.getTruncatedCount());
+        assertEquals(0, central.getRejectedCount());
+    }
+
+    @Test
+    public void readAndDisconnect() {
+        Peripheral peripheral = new Peripheral();
+        FakeGattServer server = new FakeGattServer(peripheral, null);
+        peripheral.mServer = server;
+        BluetoothGattCharacteristic characteristic = createCharacteristic();
+        characteristic.setValue(value(30));
+        BluetoothDevice device = device(2);
+        server.connect(device);
+
+        FakeGattServer.Response response = server.readCharacteristic(device, characteristic, 22);
+        assertEquals(BluetoothGatt.GATT_SUCCESS, response.status);
+        assertArrayEquals(Arrays.copyOfRange(value(30), 22, 30), response.value);
+
+        server.disconnect(device);
+        assertEquals(0, peripheral.mConnections.size());
+        assertFalse(server.notifyCharacteristicChanged(device, characteristic, false));
+        assertNull(server.readCharacteristic(device, characteristic, 0));
+    }
+
+    private static void awaitIdle(Peripheral peripheral, long timeoutMs)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        while (System.nanoTime() < deadline) {
+            boolean idle = true;
+            for (Connection<BluetoothDevice, BluetoothGattCharacteristic> connection
+                    : peripheral.mConnections.getSnapshot()) {
+                NotificationQueue<?> queue = connection.getQueue();
+                if (queue.isInFlight() || queue.size() > 0) {
+                    idle = false;
+                    break;
+                }
+            }
+            if (idle) {
+                return;
+            }
+            Thread.sleep(1);
+        }
+        fail("notifications still in flight after " + timeoutMs + "ms");
+    }
+}
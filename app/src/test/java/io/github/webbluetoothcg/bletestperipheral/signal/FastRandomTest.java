@@ -0,0 +1,61 @@
+package io.github.webbluetoothcg.bletestperipheral.signal;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FastRandomTest {
+
+    // 固定种子的输出不能随实现变化，否则录制的模拟数据不能复现
+    @Test
+    public void seededSequenceIsStable() {
+        FastRandom random = new FastRandom(42);
+        assertEquals(3580622183945639842L, random.nextLong());
+        assertEquals(-8068018748417085693L, random.nextLong());
+        assertEquals(8967075514996744559L, random.nextLong());
+        assertEquals(5001014893397904463L, random.nextLong());
+    }
+
+    @Test
+    public void setSeedRestartsSequence() {
+        FastRandom random = new FastRandom(7);
+        long[] first = new long[16];
+        for (int i = 0; i < first.length; i++) {
+            first[i] = random.nextLong();
+        }
+        random.nextGaussian(); // 留下备用的高斯值
+        random.setSeed(7);
+        for (long expected : first) {
+            assertEquals(expected, random.nextLong());
+        }
+    }
+
+    @Test
+    public void differentSeedsDiffer() {
+        assertNotEquals(new FastRandom(1).nextLong(), new FastRandom(2).nextLong());
+    }
+
+    @Test
+    public void zeroSeedIsUsable() {
+        FastRandom random = new FastRandom(0);
+        assertNotEquals(0, random.nextLong() | random.nextLong());
+    }
+
+    @Test
+    public void nextIntStaysInRange() {
+        FastRandom random = new FastRandom(3);
+        for (int i = 0; i < 10000; i++) {
+            int value = random.nextInt(-3, 3);
+            assertTrue(value >= -3 && value <= 3);
+            double d = random.nextDouble();
+            assertTrue(d >= 0 && d < 1);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nextIntRejectsNonPositiveBound() {
+        new FastRandom(1).nextInt(0);
+    }
+}
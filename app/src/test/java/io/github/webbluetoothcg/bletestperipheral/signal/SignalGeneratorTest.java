@@ -0,0 +1,77 @@
+package io.github.webbluetoothcg.bletestperipheral.signal;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SignalGeneratorTest {
+
+    private static final int SAMPLES = 1000;
+
+    private static int[] take(SignalGenerator generator, int count) {
+        int[] out = new int[count];
+        for (int i = 0; i < count; i++) {
+            out[i] = generator.next();
+        }
+        return out;
+    }
+
+    // 相同种子的两个实例，以及reset之后，产生相同的序列
+    private static void assertReproducible(SignalGenerator first, SignalGenerator second) {
+        int[] expected = take(first, SAMPLES);
+        assertArrayEquals(expected, take(second, SAMPLES));
+        first.reset();
+        assertArrayEquals(expected, take(first, SAMPLES));
+        first.reset();
+        int[] filled = new int[SAMPLES + 2];
+        first.fill(filled, 2, SAMPLES);
+        for (int i = 0; i < SAMPLES; i++) {
+            assertEquals(expected[i], filled[i + 2]);
+        }
+    }
+
+    @Test
+    public void randomWalkIsReproducible() {
+        assertReproducible(new RandomWalkGenerator(40, 180, 75, 3, 7),
+                new RandomWalkGenerator(40, 180, 75, 3, 7));
+        assertArrayEquals(new int[]{72, 75, 78, 81, 83, 80, 79, 81},
+                take(new RandomWalkGenerator(40, 180, 75, 3, 7), 8));
+    }
+
+    @Test
+    public void randomWalkStaysInBounds() {
+        RandomWalkGenerator generator = new RandomWalkGenerator(60, 65, 60, 4, 11);
+        for (int i = 0; i < 100000; i++) {
+            int value = generator.next();
+            assertTrue(value >= 60 && value <= 65);
+        }
+    }
+
+    @Test
+    public void sineNoiseIsReproducible() {
+        assertReproducible(new SineNoiseGenerator(3650, 50, 60, 5.0, 9),
+                new SineNoiseGenerator(3650, 50, 60, 5.0, 9));
+    }
+
+    @Test
+    public void sineWithoutNoiseRepeatsEveryPeriod() {
+        SineNoiseGenerator generator = new SineNoiseGenerator(100, 20, 16, 0, 1);
+        assertArrayEquals(take(generator, 16), take(generator, 16));
+    }
+
+    @Test
+    public void stepEventsAreReproducible() {
+        assertReproducible(
+                new StepEventGenerator(new RandomWalkGenerator(40, 180, 75, 3, 7), 0.05, 30, 10, 5),
+                new StepEventGenerator(new RandomWalkGenerator(40, 180, 75, 3, 7), 0.05, 30, 10,
+                        5));
+    }
+
+    @Test
+    public void sequenceFillMatchesNext() {
+        int[] values = {1, 2, 3, 4, 5};
+        assertReproducible(new SequenceGenerator(values), new SequenceGenerator(values));
+    }
+}
@@ -0,0 +1,60 @@
+package io.github.webbluetoothcg.bletestperipheral.store;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+public class MeasurementLogTest {
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    // 段被删除后，落在它之前的游标被丢弃，不随地址轮换无限增长
+    @Test
+    public void cursorsBeforeFirstSequenceDropped() throws IOException {
+        File dir = mFolder.newFolder("log");
+        MeasurementLog log = MeasurementLog.open(dir, 4, 2);
+        for (int i = 0; i < 4; i++) {
+            log.append(i, i);
+        }
+        log.setCursor("old", 2);
+        log.setCursor("new", 4);
+        for (int i = 4; i < 12; i++) {
+            log.append(i, i); // 序号0-3所在的段被删除
+        }
+        assertEquals(-1, log.getCursor("old"));
+        assertEquals(4, log.getCursor("new"));
+        log.close();
+
+        MeasurementLog reopened = MeasurementLog.open(dir, 4, 2);
+        try {
+            assertEquals(-1, reopened.getCursor("old"));
+            assertEquals(4, reopened.getCursor("new"));
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void cursorCountCapped() throws IOException {
+        MeasurementLog log = MeasurementLog.open(mFolder.newFolder("log"), 1024, 2);
+        try {
+            for (int i = 0; i < MeasurementLog.MAX_CURSORS + 10; i++) {
+                log.append(i, i);
+                log.setCursor("central" + i, i);
+            }
+            // 最旧的10个被丢弃
+            assertEquals(-1, log.getCursor("central9"));
+            assertEquals(10, log.getCursor("central10"));
+            assertEquals(MeasurementLog.MAX_CURSORS + 9,
+                    log.getCursor("central" + (MeasurementLog.MAX_CURSORS + 9)));
+        } finally {
+            log.close();
+        }
+    }
+}
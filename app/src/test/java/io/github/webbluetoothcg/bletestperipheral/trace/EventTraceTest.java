@@ -0,0 +1,74 @@
+package io.github.webbluetoothcg.bletestperipheral.trace;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.UUID;
+
+import io.github.webbluetoothcg.bletestperipheral.scheduler.Clock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EventTraceTest {
+
+    private static final UUID UUID_HEART_RATE =
+            UUID.fromString("00002a37-0000-1000-8000-00805f9b34fb");
+
+    private static String[] dump(EventTrace<String> trace) throws IOException {
+        StringWriter writer = new StringWriter();
+        trace.dump(writer);
+        return writer.toString().split("\n");
+    }
+
+    // 断开的设备的下标被回收，超过255个设备后仍按设备记录
+    @Test
+    public void slotsReusedAfterDisconnect() throws IOException {
+        EventTrace<String> trace = new EventTrace<>(4096, Clock.SYSTEM);
+        int devices = 1000;
+        for (int i = 0; i < devices; i++) {
+            String device = "device" + i;
+            trace.record(EventTrace.CONNECTED, device, null, 0, 0);
+            trace.record(EventTrace.READ, device, UUID_HEART_RATE, 0, i);
+            trace.record(EventTrace.DISCONNECTED, device, null, 0, 0);
+            trace.releaseDevice(device);
+        }
+        String[] lines = dump(trace);
+        assertEquals(devices * 3, lines.length);
+        for (int i = 0; i < lines.length; i++) {
+            assertTrue(lines[i], lines[i].contains(" device=device" + i / 3 + " "));
+            assertTrue(lines[i], lines[i].contains(i % 3 == 1 ? " uuid=" + UUID_HEART_RATE
+                    : " uuid=- "));
+        }
+    }
+
+    // 缓冲区覆盖后，复用的下标仍换回当时的设备
+    @Test
+    public void reusedSlotNamedBySequence() throws IOException {
+        EventTrace<String> trace = new EventTrace<>(4, Clock.SYSTEM);
+        trace.record(EventTrace.CONNECTED, "a", null, 0, 0);
+        trace.record(EventTrace.DISCONNECTED, "a", null, 0, 0);
+        trace.releaseDevice("a");
+        trace.record(EventTrace.CONNECTED, "b", null, 0, 0);
+        trace.record(EventTrace.MTU_CHANGED, "b", null, 0, 247);
+        trace.record(EventTrace.CONNECTED, "c", null, 0, 0);
+        String[] lines = dump(trace);
+        assertEquals(4, lines.length);
+        assertTrue(lines[0], lines[0].contains("DISCONNECTED device=a "));
+        assertTrue(lines[1], lines[1].contains("CONNECTED device=b "));
+        assertTrue(lines[2], lines[2].contains("MTU_CHANGED device=b "));
+        assertTrue(lines[3], lines[3].contains("CONNECTED device=c "));
+    }
+
+    @Test
+    public void slotsExhaustedWithoutRelease() throws IOException {
+        EventTrace<String> trace = new EventTrace<>(512, Clock.SYSTEM);
+        for (int i = 0; i <= EventTrace.NO_SLOT; i++) {
+            trace.record(EventTrace.CONNECTED, "device" + i, null, 0, 0);
+        }
+        String[] lines = dump(trace);
+        assertTrue(lines[EventTrace.NO_SLOT - 1].contains(" device=device254 "));
+        assertTrue(lines[EventTrace.NO_SLOT].contains(" device=- "));
+    }
+}